@@ -0,0 +1,231 @@
+package org.handwerkszeug.dns;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+
+/**
+ * 4.1.4. Message compression without allocation. the suffixes are kept as
+ * pairs of their hash and their offset in an open addressing table, and a
+ * candidate is confirmed by comparing the name with the bytes already in the
+ * buffer. the comparison is case-insensitive, as the names are.
+ * <p>
+ * one instance is meant to be reused by a thread, {@link #reset} starts a new
+ * message and forgets the previous one without clearing the table.
+ * </p>
+ * <p>
+ * the suffixes are also journaled in the order they are put, so that the
+ * ones of a record which is taken out of the buffer again can be forgotten
+ * with {@link #rollback(int)}.
+ * </p>
+ *
+ * @author taichi
+ */
+public class BufferNameCompressor implements NameCompressor {
+
+	static final int INITIAL_CAPACITY = 64;
+
+	/**
+	 * a pointer has 14 bits for the offset.
+	 */
+	static final int MAX_OFFSET = 0x3FFF;
+
+	protected ChannelBuffer buffer;
+
+	/**
+	 * the index of the buffer at which the message starts.
+	 */
+	protected int origin;
+
+	protected int[] hashes = new int[INITIAL_CAPACITY];
+
+	protected int[] positions = new int[INITIAL_CAPACITY];
+
+	/**
+	 * a slot is used if its stamp is the current generation.
+	 */
+	protected int[] stamps = new int[INITIAL_CAPACITY];
+
+	protected int generation = 1;
+
+	protected int size;
+
+	/**
+	 * hashes of the suffixes of the last name.
+	 */
+	protected Name hashed;
+
+	protected int[] suffixHashes = new int[128];
+
+	/**
+	 * pairs of the hash and the offset of each suffix put, in order.
+	 */
+	protected int[] journal = new int[INITIAL_CAPACITY];
+
+	/**
+	 * @param origin
+	 *            the index of the buffer at which the message starts.
+	 */
+	public void reset(ChannelBuffer buffer, int origin) {
+		this.buffer = buffer;
+		this.origin = origin;
+		this.size = 0;
+		this.hashed = null;
+		nextGeneration();
+	}
+
+	protected void nextGeneration() {
+		if (++this.generation == 0) {
+			java.util.Arrays.fill(this.stamps, 0);
+			this.generation = 1;
+		}
+	}
+
+	/**
+	 * @return the number of suffixes put so far, to be passed to
+	 *         {@link #rollback(int)}.
+	 */
+	public int mark() {
+		return this.size;
+	}
+
+	/**
+	 * forgets the suffixes put after the mark. the table is rebuilt from the
+	 * journal, a message is rolled back once at most.
+	 */
+	public void rollback(int mark) {
+		if (this.size <= mark) {
+			return;
+		}
+		nextGeneration();
+		for (int i = 0; i < mark; i++) {
+			insert(this.journal[i * 2], this.journal[(i * 2) + 1]);
+		}
+		this.size = mark;
+	}
+
+	/**
+	 * drops the buffer, so that a thread doesn't keep it.
+	 */
+	public void clear() {
+		reset(null, 0);
+	}
+
+	@Override
+	public void put(Name name, int label, int index) {
+		int offset = index - this.origin;
+		if ((MAX_OFFSET < offset) || (name.isAbsolute() == false)) {
+			return;
+		}
+		if (this.hashes.length < (this.size + 1) * 2) {
+			grow();
+		}
+		int h = hash(name, label);
+		insert(h, offset);
+		if (this.journal.length < (this.size + 1) * 2) {
+			int[] newone = new int[this.journal.length << 1];
+			System.arraycopy(this.journal, 0, newone, 0, this.journal.length);
+			this.journal = newone;
+		}
+		this.journal[this.size * 2] = h;
+		this.journal[(this.size * 2) + 1] = offset;
+		this.size++;
+	}
+
+	@Override
+	public int get(Name name, int label) {
+		if ((this.size < 1) || (name.isAbsolute() == false)) {
+			return -1;
+		}
+		int h = hash(name, label);
+		int mask = this.hashes.length - 1;
+		for (int i = h & mask; this.stamps[i] == this.generation; i = (i + 1)
+				& mask) {
+			if ((this.hashes[i] == h) && matches(name, label, this.positions[i])) {
+				return this.positions[i];
+			}
+		}
+		return -1;
+	}
+
+	protected void insert(int hash, int offset) {
+		int mask = this.hashes.length - 1;
+		int i = hash & mask;
+		while (this.stamps[i] == this.generation) {
+			i = (i + 1) & mask;
+		}
+		this.stamps[i] = this.generation;
+		this.hashes[i] = hash;
+		this.positions[i] = offset;
+	}
+
+	protected void grow() {
+		int[] oldHashes = this.hashes;
+		int[] oldPositions = this.positions;
+		int[] oldStamps = this.stamps;
+		int g = this.generation;
+		int capacity = oldHashes.length << 1;
+		this.hashes = new int[capacity];
+		this.positions = new int[capacity];
+		this.stamps = new int[capacity];
+		for (int i = 0; i < oldHashes.length; i++) {
+			if (oldStamps[i] == g) {
+				insert(oldHashes[i], oldPositions[i]);
+			}
+		}
+	}
+
+	/**
+	 * the hashes of all suffixes are computed in one pass from the end of the
+	 * name, and kept while the name is written.
+	 */
+	protected int hash(Name name, int label) {
+		if (this.hashed != name) {
+			byte[] folded = name.folded;
+			int h = 0;
+			int end = folded.length;
+			for (int l = name.labels() - 1; -1 < l; l--) {
+				int o = name.offset(l);
+				for (int i = end - 1; o <= i; i--) {
+					h = (31 * h) + folded[i];
+				}
+				end = o;
+				this.suffixHashes[l] = h;
+			}
+			this.hashed = name;
+		}
+		return this.suffixHashes[label];
+	}
+
+	/**
+	 * compares the suffix with the name at the offset, following the pointers
+	 * in the buffer.
+	 */
+	protected boolean matches(Name name, int label, int offset) {
+		ChannelBuffer b = this.buffer;
+		byte[] folded = name.folded;
+		int i = this.origin + offset;
+		for (int l = label, size = name.labels(); l < size; l++) {
+			int length = b.getUnsignedByte(i);
+			while ((length & Name.MASK_POINTER) == Name.MASK_POINTER) {
+				i = this.origin
+						+ (((length ^ Name.MASK_POINTER) << 8) | b
+								.getUnsignedByte(i + 1));
+				length = b.getUnsignedByte(i);
+			}
+			int o = name.offset(l);
+			if (length != (folded[o] & 0xFF)) {
+				return false;
+			}
+			for (int j = 1; j <= length; j++) {
+				byte c = b.getByte(i + j);
+				if (('A' <= c) && (c <= 'Z')) {
+					c += 'a' - 'A';
+				}
+				if (c != folded[o + j]) {
+					return false;
+				}
+			}
+			i += length + 1;
+		}
+		return true;
+	}
+}
@@ -35,6 +35,8 @@ public enum DNSClass implements VariableEnum {
 	 */
 	ANY(255);
 
+	static final DNSClass[] TABLE = EnumUtil.toTable(values(), 256);
+
 	private int value;
 
 	@Override
@@ -47,7 +49,18 @@ public enum DNSClass implements VariableEnum {
 	}
 
 	public static DNSClass valueOf(int value) {
-		return EnumUtil.find(DNSClass.values(), value);
+		DNSClass result = find(value);
+		if (result == null) {
+			throw new IllegalArgumentException("value=" + value);
+		}
+		return result;
+	}
+
+	/**
+	 * @return null if the value is not modeled.
+	 */
+	public static DNSClass find(int value) {
+		return EnumUtil.lookup(TABLE, value, null);
 	}
 
 	public static DNSClass find(String value) {
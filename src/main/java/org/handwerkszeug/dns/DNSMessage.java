@@ -5,6 +5,8 @@ import java.util.Collections;
 import java.util.List;
 
 import org.handwerkszeug.dns.record.AbstractRecord;
+import org.handwerkszeug.dns.record.ImmutableRecord;
+import org.handwerkszeug.dns.record.OPTRecord;
 import org.jboss.netty.buffer.ChannelBuffer;
 
 /**
@@ -28,6 +30,9 @@ import org.jboss.netty.buffer.ChannelBuffer;
  */
 public class DNSMessage {
 
+	static final Section[] RECORDS = { Section.ANSWER, Section.AUTHORITY,
+			Section.ADDITIONAL };
+
 	protected Header header;
 	protected List<ResourceRecord> question;
 	protected List<ResourceRecord> answer;
@@ -36,6 +41,13 @@ public class DNSMessage {
 
 	protected int messageSize;
 
+	/**
+	 * the buffer the message is read from, until it is decoded.
+	 */
+	protected ChannelBuffer source;
+
+	protected int[] sections;
+
 	public DNSMessage(Header header) {
 		this.header(header);
 		this.question = new ArrayList<ResourceRecord>();
@@ -59,113 +71,272 @@ public class DNSMessage {
 		this.messageSize(from.messageSize());
 	}
 
+	/**
+	 * only the boundaries of the sections are read here. the header and the
+	 * sections are decoded when they are used first, so that a handler which
+	 * needs the header and the question doesn't decode the rest.
+	 */
 	public DNSMessage(ChannelBuffer buffer) {
-		this.header = new Header(buffer);
-		if (this.header.rcode().equals(RCode.FormErr)) {
+		int origin = buffer.readerIndex();
+		this.source = buffer.duplicate();
+		int rcode = buffer.getUnsignedShort(origin + 2) & 0xF;
+		if (RCode.FormErr.value() == rcode) {
+			this.header = new Header(buffer);
 			this.question = Collections.emptyList();
 			this.answer = Collections.emptyList();
 			this.authority = Collections.emptyList();
 			this.additional = Collections.emptyList();
+			this.source = null;
 		} else {
-			this.parse(buffer);
+			this.sections = walk(buffer, origin);
+			buffer.readerIndex(this.sections[4]);
+			this.messageSize(this.sections[4] - origin);
 		}
 	}
 
-	protected void parse(ChannelBuffer buffer) {
-		int q = this.header().qdcount();
-		if (q < 1) {
-			this.question = Collections.emptyList();
-		} else {
-			this.question(new ArrayList<ResourceRecord>(q));
-			for (int i = 0; i < q; i++) {
-				this.question().add(AbstractRecord.parseSection(buffer));
+	/**
+	 * @return the indexes at which the sections start, and the index at which
+	 *         the message ends.
+	 */
+	protected static int[] walk(ChannelBuffer buffer, int origin) {
+		int[] result = new int[5];
+		int i = origin + 12;
+		result[0] = i;
+		int count = buffer.getUnsignedShort(origin + 4);
+		for (int j = 0; j < count; j++) {
+			i = Name.skip(buffer, i) + 4;
+		}
+		for (Section s : RECORDS) {
+			result[s.ordinal()] = i;
+			count = buffer.getUnsignedShort(origin + s.countIndex());
+			for (int j = 0; j < count; j++) {
+				i = Name.skip(buffer, i) + 10;
+				if (buffer.writerIndex() < i) {
+					break;
+				}
+				i += buffer.getUnsignedShort(i - 2);
 			}
 		}
-		this.answer(parse(buffer, this.header().ancount()));
-		this.authority(parse(buffer, this.header().nscount()));
-		this.additional(parse(buffer, this.header().arcount()));
-
-		this.messageSize(buffer.readerIndex());
+		if (buffer.writerIndex() < i) {
+			throw new IndexOutOfBoundsException();
+		}
+		result[4] = i;
+		return result;
 	}
 
-	protected List<ResourceRecord> parse(ChannelBuffer buffer, int size) {
+	protected List<ResourceRecord> decode(Section section) {
+		int index = this.sections[section.ordinal()];
+		int size = this.source.getUnsignedShort(origin()
+				+ section.countIndex());
 		if (size < 1) {
 			return Collections.emptyList();
 		}
+		ChannelBuffer buffer = this.source.duplicate();
+		buffer.readerIndex(index);
 		List<ResourceRecord> result = new ArrayList<ResourceRecord>(size);
 		for (int i = 0; i < size; i++) {
 			ResourceRecord rr = AbstractRecord.parseSection(buffer);
-			rr.parse(buffer);
+			if (Section.QUESTION.equals(section) == false) {
+				rr.parse(buffer);
+			}
 			result.add(rr);
 		}
 		return result;
 	}
 
+	protected int origin() {
+		return this.sections[0] - 12;
+	}
+
+	/**
+	 * decodes the rest of the message, and releases the buffer. a message
+	 * shared by threads must be decoded first.
+	 */
+	public void decode() {
+		header();
+		question();
+		answer();
+		authority();
+		additional();
+	}
+
+	protected void release() {
+		if ((this.header != null) && (this.question != null)
+				&& (this.answer != null) && (this.authority != null)
+				&& (this.additional != null)) {
+			this.source = null;
+		}
+	}
+
+	/**
+	 * @return false if the section is not decoded yet.
+	 */
+	public boolean isDecoded(Section section) {
+		switch (section) {
+		case QUESTION:
+			return this.question != null;
+		case ANSWER:
+			return this.answer != null;
+		case AUTHORITY:
+			return this.authority != null;
+		default:
+			return this.additional != null;
+		}
+	}
+
+	/**
+	 * @return a cursor over the records of the section as they are on the
+	 *         wire.
+	 * @throws IllegalStateException
+	 *             if the message is not read from a buffer, or if it is
+	 *             already decoded.
+	 */
+	public RecordView records(Section section) {
+		if (this.source == null) {
+			throw new IllegalStateException("not encoded");
+		}
+		int count = this.source.getUnsignedShort(origin()
+				+ section.countIndex());
+		return new RecordView(this.source, section,
+				this.sections[section.ordinal()], count);
+	}
+
+	/**
+	 * @return a copy of the bytes this message is read from, or null if it
+	 *         is not read from a buffer, or if it is already decoded. changes
+	 *         made to the message are not in the bytes.
+	 */
+	public ChannelBuffer encoded() {
+		if (this.source == null) {
+			return null;
+		}
+		int origin = origin();
+		return this.source.copy(origin, this.sections[4] - origin);
+	}
+
+	/**
+	 * one encoder for each thread, it is begun for every message.
+	 */
+	static final ThreadLocal<MessageEncoder> ENCODERS = new ThreadLocal<MessageEncoder>() {
+		@Override
+		protected MessageEncoder initialValue() {
+			return new MessageEncoder();
+		}
+	};
+
 	public void write(ChannelBuffer buffer) {
+		write(buffer, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * encodes the sections straight into the buffer, and stops at the limit.
+	 * room is kept for the OPT pseudo-RR, if any.
+	 * 
+	 * @param limit
+	 *            the largest size of the message.
+	 * @return false if some records are left out.
+	 * @see MessageEncoder
+	 */
+	public boolean write(ChannelBuffer buffer, int limit) {
 		header().qdcount(this.question().size());
 		header().ancount(this.answer().size());
 		header().nscount(this.authority().size());
 		header().arcount(this.additional().size());
 
-		header().write(buffer);
-		NameCompressor nc = new SimpleNameCompressor();
-		for (ResourceRecord rr : this.question()) {
-			AbstractRecord.writeSection(buffer, nc, rr);
+		MessageEncoder encoder = ENCODERS.get();
+		encoder.begin(buffer, header(), limit);
+		try {
+			for (ResourceRecord rr : this.additional()) {
+				ResourceRecord body = ImmutableRecord.unwrap(rr);
+				if (body instanceof OPTRecord) {
+					encoder.reserve((OPTRecord) body);
+				}
+			}
+			write(encoder, Section.QUESTION, question());
+			write(encoder, Section.ANSWER, answer());
+			write(encoder, Section.AUTHORITY, authority());
+			write(encoder, Section.ADDITIONAL, additional());
+			return encoder.isStopped() == false;
+		} finally {
+			encoder.finish();
 		}
-		write(buffer, nc, answer());
-		write(buffer, nc, authority());
-		write(buffer, nc, additional());
 	}
 
-	protected void write(ChannelBuffer buffer, NameCompressor compressor,
+	protected void write(MessageEncoder encoder, Section section,
 			List<ResourceRecord> list) {
 		for (ResourceRecord rr : list) {
-			AbstractRecord.writeSection(buffer, compressor, rr);
-			rr.write(buffer, compressor);
+			encoder.add(section, rr);
 		}
 	}
 
 	public Header header() {
+		if (this.header == null) {
+			ChannelBuffer buffer = this.source.duplicate();
+			buffer.readerIndex(origin());
+			this.header = new Header(buffer);
+			release();
+		}
 		return this.header;
 	}
 
 	public void header(Header header) {
 		this.header = header;
+		release();
 	}
 
 	/**
 	 * 4.1.2. Question section format
 	 */
 	public List<ResourceRecord> question() {
+		if (this.question == null) {
+			this.question = decode(Section.QUESTION);
+			release();
+		}
 		return this.question;
 	}
 
 	public void question(List<ResourceRecord> list) {
 		this.question = list;
+		release();
 	}
 
 	public List<ResourceRecord> answer() {
+		if (this.answer == null) {
+			this.answer = decode(Section.ANSWER);
+			release();
+		}
 		return this.answer;
 	}
 
 	public void answer(List<ResourceRecord> list) {
 		this.answer = list;
+		release();
 	}
 
 	public List<ResourceRecord> authority() {
+		if (this.authority == null) {
+			this.authority = decode(Section.AUTHORITY);
+			release();
+		}
 		return this.authority;
 	}
 
 	public void authority(List<ResourceRecord> list) {
 		this.authority = list;
+		release();
 	}
 
 	public List<ResourceRecord> additional() {
+		if (this.additional == null) {
+			this.additional = decode(Section.ADDITIONAL);
+			release();
+		}
 		return this.additional;
 	}
 
 	public void additional(List<ResourceRecord> list) {
 		this.additional = list;
+		release();
 	}
 
 	public int messageSize() {
@@ -89,6 +89,30 @@ public class Header {
 		this.arcount(from.arcount());
 	}
 
+	/**
+	 * copies the flags and the counts, but not the ID, as the copy
+	 * constructor does.
+	 */
+	public void assign(Header from) {
+		this.flags = from.flags();
+		this.qdcount = from.qdcount();
+		this.ancount = from.ancount();
+		this.nscount = from.nscount();
+		this.arcount = from.arcount();
+	}
+
+	/**
+	 * clears the flags and the counts, so that the header is reused without
+	 * drawing a new ID.
+	 */
+	public void clear() {
+		this.flags = 0;
+		this.qdcount = 0;
+		this.ancount = 0;
+		this.nscount = 0;
+		this.arcount = 0;
+	}
+
 	public void write(ChannelBuffer out) {
 		out.writeShort(id());
 		out.writeShort(flags());
@@ -0,0 +1,244 @@
+package org.handwerkszeug.dns;
+
+import static org.handwerkszeug.util.Validation.notNull;
+
+import java.util.Arrays;
+
+import org.handwerkszeug.dns.record.AbstractRecord;
+import org.handwerkszeug.dns.record.ImmutableRecord;
+import org.handwerkszeug.dns.record.OPTRecord;
+import org.jboss.netty.buffer.ChannelBuffer;
+
+/**
+ * writes a message straight into a buffer, record by record and section by
+ * section, within a byte budget. the header is written first with zero
+ * counts, and the counts and the TC bit are patched by {@link #finish()}.
+ * <p>
+ * RFC2181 9. The TC (truncated) header bit. if a record of the question, the
+ * answer or the authority section doesn't fit, the answer and the authority
+ * sections are taken out and the TC bit is set. the additional section is
+ * filled as far as it fits, without the TC bit. once a record doesn't fit,
+ * no other is written but the OPT pseudo-RR, for which the bytes given to
+ * {@link #reserve(OPTRecord)} are kept.
+ * </p>
+ * <p>
+ * one instance is meant to be reused by a thread, like its
+ * {@link BufferNameCompressor}.
+ * </p>
+ * 
+ * @author taichi
+ */
+public class MessageEncoder {
+
+	static final int HEADER_LENGTH = 12;
+
+	static final int FLAG_TC = 0x0200;
+
+	/**
+	 * length of an OPT pseudo-RR without options.
+	 */
+	static final int OPT_LENGTH = 11;
+
+	protected final BufferNameCompressor compressor = new BufferNameCompressor();
+
+	protected final int[] counts = new int[Section.values().length];
+
+	protected ChannelBuffer buffer;
+
+	/**
+	 * the index of the buffer at which the message starts.
+	 */
+	protected int origin;
+
+	protected int limit;
+
+	protected int reserved;
+
+	protected Section section;
+
+	/**
+	 * the index and the compressor mark at the end of the question section.
+	 */
+	protected int questionEnd;
+
+	protected int questionMark;
+
+	protected boolean stopped;
+
+	protected boolean truncated;
+
+	/**
+	 * starts a message at the writer index of the buffer.
+	 * 
+	 * @param limit
+	 *            the largest size of the message.
+	 */
+	public void begin(ChannelBuffer buffer, Header header, int limit) {
+		notNull(buffer, "buffer");
+		notNull(header, "header");
+		this.buffer = buffer;
+		this.origin = buffer.writerIndex();
+		this.limit = limit;
+		this.reserved = 0;
+		this.section = Section.QUESTION;
+		this.stopped = false;
+		this.truncated = false;
+		Arrays.fill(this.counts, 0);
+		this.compressor.reset(buffer, this.origin);
+		buffer.writeShort(header.id());
+		buffer.writeShort(header.flags() & ~FLAG_TC);
+		buffer.writeZero(HEADER_LENGTH - 4);
+		this.questionEnd = buffer.writerIndex();
+		this.questionMark = this.compressor.mark();
+	}
+
+	/**
+	 * keeps room for the OPT pseudo-RR, which is written last.
+	 */
+	public void reserve(OPTRecord opt) {
+		int length = OPT_LENGTH;
+		for (OPTRecord.Option o : opt.options()) {
+			length += 4 + o.data().length;
+		}
+		this.reserved += length;
+	}
+
+	/**
+	 * @return false if the record is left out.
+	 * @throws IllegalStateException
+	 *             if no message is begun, or if the section comes before the
+	 *             one of the last record.
+	 */
+	public boolean add(Section section, ResourceRecord rr) {
+		notNull(rr, "rr");
+		boolean opt = ImmutableRecord.unwrap(rr) instanceof OPTRecord;
+		if (enter(section, opt) == false) {
+			return false;
+		}
+		ChannelBuffer b = this.buffer;
+		int start = b.writerIndex();
+		int mark = this.compressor.mark();
+		AbstractRecord.writeSection(b, this.compressor, rr);
+		if (Section.QUESTION.equals(section) == false) {
+			rr.write(b, this.compressor);
+		}
+		return commit(section, opt, start, mark, 1);
+	}
+
+	/**
+	 * appends the records of the template to its section. the names written
+	 * after are not compressed against them.
+	 * 
+	 * @param qname
+	 *            the name of the question, which is the only record so far.
+	 * @return false if the records are left out.
+	 * @throws IllegalArgumentException
+	 *             if the template doesn't apply to the name.
+	 * @throws IllegalStateException
+	 *             if the question is not right before.
+	 */
+	public boolean add(RecordTemplate template, Name qname) {
+		notNull(template, "template");
+		notNull(qname, "qname");
+		if (template.appliesTo(qname) == false) {
+			throw new IllegalArgumentException(template + " for " + qname);
+		}
+		if ((this.buffer == null)
+				|| (this.counts[Section.QUESTION.ordinal()] != 1)
+				|| (this.buffer.writerIndex() != this.questionEnd)
+				|| ((this.questionEnd - this.origin) != (HEADER_LENGTH
+						+ qname.length() + 4))) {
+			throw new IllegalStateException("the question for " + qname
+					+ " must be right before");
+		}
+		Section section = template.section();
+		if (enter(section, false) == false) {
+			return false;
+		}
+		int start = this.buffer.writerIndex();
+		int mark = this.compressor.mark();
+		template.write(this.buffer, qname);
+		return commit(section, false, start, mark, template.count());
+	}
+
+	protected boolean enter(Section section, boolean opt) {
+		notNull(section, "section");
+		if (this.buffer == null) {
+			throw new IllegalStateException("no message is begun");
+		}
+		if (section.ordinal() < this.section.ordinal()) {
+			throw new IllegalStateException(section + " after "
+					+ this.section);
+		}
+		this.section = section;
+		return (this.stopped == false) || opt;
+	}
+
+	/**
+	 * takes the records written from the start out again if they don't fit.
+	 */
+	protected boolean commit(Section section, boolean opt, int start,
+			int mark, int count) {
+		ChannelBuffer b = this.buffer;
+		int budget = opt ? this.limit : this.limit - this.reserved;
+		if (budget < (b.writerIndex() - this.origin)) {
+			this.stopped = true;
+			if (opt || Section.ADDITIONAL.equals(section)) {
+				rollback(start, mark);
+			} else {
+				rollback(this.questionEnd, this.questionMark);
+				this.counts[Section.ANSWER.ordinal()] = 0;
+				this.counts[Section.AUTHORITY.ordinal()] = 0;
+				this.truncated = true;
+			}
+			return false;
+		}
+		this.counts[section.ordinal()] += count;
+		if (Section.QUESTION.equals(section)) {
+			this.questionEnd = b.writerIndex();
+			this.questionMark = this.compressor.mark();
+		}
+		return true;
+	}
+
+	protected void rollback(int index, int mark) {
+		this.buffer.writerIndex(index);
+		this.compressor.rollback(mark);
+	}
+
+	/**
+	 * @return true if a record is left out.
+	 */
+	public boolean isStopped() {
+		return this.stopped;
+	}
+
+	/**
+	 * @return true if the TC bit is set.
+	 */
+	public boolean isTruncated() {
+		return this.truncated;
+	}
+
+	/**
+	 * patches the header, and drops the buffer.
+	 * 
+	 * @return the size of the message.
+	 */
+	public int finish() {
+		ChannelBuffer b = this.buffer;
+		if (b == null) {
+			throw new IllegalStateException("no message is begun");
+		}
+		for (Section s : Section.values()) {
+			b.setShort(this.origin + s.countIndex(), this.counts[s.ordinal()]);
+		}
+		if (this.truncated) {
+			int flags = this.origin + 2;
+			b.setShort(flags, b.getUnsignedShort(flags) | FLAG_TC);
+		}
+		this.buffer = null;
+		this.compressor.clear();
+		return b.writerIndex() - this.origin;
+	}
+}
@@ -3,33 +3,34 @@ package org.handwerkszeug.dns;
 import static org.handwerkszeug.util.Validation.notNull;
 
 import java.text.DecimalFormat;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.Iterator;
-import java.util.List;
 
 import org.handwerkszeug.dns.nls.Messages;
 import org.jboss.netty.buffer.ChannelBuffer;
-import org.jboss.netty.buffer.ChannelBuffers;
 
+/**
+ * a domain name kept in the wire format. the labels are stored in a single
+ * byte array with a table of the offsets of the labels, and the parents of a
+ * name share both of them with it.
+ * <p>
+ * an absolute name ends with the null label, a relative name doesn't.
+ * </p>
+ * <p>
+ * names are compared case-insensitively (RFC4343), and ordered in the
+ * canonical DNS name order (RFC4034 6.1), so that the names under a name
+ * follow it in a sorted map.
+ * </p>
+ *
+ * @author taichi
+ */
 public class Name implements Comparable<Name> {
 
 	public static final Name NULL_NAME;
 	public static final Name WILDCARD;
 
-	static final byte[] NULL_ARRAY = new byte[0];
-	static final byte[] WILDCARD_ARRAY = new byte[] { '*' };
-
 	static {
-		NULL_NAME = create(NULL_ARRAY);
-		WILDCARD = create(WILDCARD_ARRAY);
-	}
-
-	static Name create(byte[] array) {
-		List<byte[]> l = new ArrayList<byte[]>(1);
-		l.add(array);
-		return new Name(Collections.unmodifiableList(l));
+		NULL_NAME = new Name(new byte[] { 0 });
+		WILDCARD = new Name(new byte[] { 1, '*' });
 	}
 
 	/**
@@ -47,87 +48,202 @@ public class Name implements Comparable<Name> {
 	 */
 	public static final int MAX_NAME_SIZE = 255;
 
-	protected final List<byte[]> name;
+	/**
+	 * the labels of a name besides the root. a label takes 2 bytes at least,
+	 * so that no more fit in {@link #MAX_NAME_SIZE}.
+	 */
+	public static final int MAX_LABELS = 127;
+
+	/**
+	 * the wire format of the name and of the names it is a parent of.
+	 */
+	protected final byte[] bytes;
+
+	/**
+	 * offsets of the labels in the bytes. a name has 128 labels at most, so
+	 * that every offset fits in an unsigned byte.
+	 */
+	protected final byte[] offsets;
+
+	/**
+	 * the bytes with the ASCII upper case letters folded to lower case. this
+	 * is the bytes itself if there is none.
+	 */
+	protected final byte[] folded;
+
+	/**
+	 * index of the first label of this name in the offsets.
+	 */
+	protected final int first;
+
+	protected int hash;
 
 	public Name(ChannelBuffer buffer) {
-		this.name = this.parse(buffer);
+		this(parse(buffer));
 	}
 
 	public Name(String name) {
-		this.name = this.parse(name);
+		this(parse(name));
 	}
 
-	protected Name(List<byte[]> rawdata) {
-		this.name = rawdata;
+	protected Name(byte[] wire) {
+		this(wire, toOffsets(wire), fold(wire), 0);
 	}
 
-	protected List<byte[]> parse(ChannelBuffer buffer) {
-		List<byte[]> list = new ArrayList<byte[]>();
-		boolean jumped = false;
+	protected Name(byte[] bytes, byte[] offsets, byte[] folded, int first) {
+		this.bytes = bytes;
+		this.offsets = offsets;
+		this.folded = folded;
+		this.first = first;
+	}
+
+	/**
+	 * the length bytes are 63 at most, so that they are never folded.
+	 */
+	protected static byte[] fold(byte[] wire) {
+		byte[] result = wire;
+		for (int i = 0; i < wire.length; i++) {
+			byte b = wire[i];
+			if (('A' <= b) && (b <= 'Z')) {
+				if (result == wire) {
+					result = Arrays.copyOf(wire, wire.length);
+				}
+				result[i] = (byte) (b + ('a' - 'A'));
+			}
+		}
+		return result;
+	}
 
-		int namesize = 0;
-		for (int length = buffer.readUnsignedByte(); -1 < length; length = buffer
-				.readUnsignedByte()) {
+	protected static byte[] toOffsets(byte[] wire) {
+		if (MAX_NAME_SIZE < wire.length) {
+			throw new IllegalArgumentException(String.format(
+					Messages.NamesMustBe255orLess, wire.length));
+		}
+		int count = 0;
+		for (int i = 0; i < wire.length; i += (wire[i] & 0xFF) + 1) {
+			count++;
+		}
+		byte[] result = new byte[count];
+		for (int i = 0, j = 0; i < wire.length; i += (wire[i] & 0xFF) + 1) {
+			result[j++] = (byte) i;
+		}
+		return result;
+	}
+
+	/**
+	 * reads the name in two passes, the first one measures it, so that only
+	 * the resulting array is allocated. the size is of the name as on the
+	 * wire, with the length bytes and the root, as the offsets of the labels
+	 * must fit in a byte.
+	 */
+	protected static byte[] parse(ChannelBuffer buffer) {
+		int labels = 0;
+		int wiresize = 0;
+		int end = -1;
+		int i = buffer.readerIndex();
+		int run = i;
+		for (int length = buffer.getUnsignedByte(i);; length = buffer
+				.getUnsignedByte(i)) {
 			if (length == 0) {
-				list.add(NULL_ARRAY);
+				wiresize++;
+				if (end < 0) {
+					end = i + 1;
+				}
 				break;
-			} else if ((length & MASK_POINTER) != 0) {
+			} else if ((length & MASK_POINTER) == MASK_POINTER) {
 				int p = ((length ^ MASK_POINTER) << 8)
-						+ buffer.readUnsignedByte();
-				if (jumped == false) {
-					buffer.markReaderIndex();
-					jumped = true;
+						+ buffer.getUnsignedByte(i + 1);
+				if (end < 0) {
+					end = i + 2;
 				}
-				buffer.readerIndex(p);
+				if (run <= p) {
+					// every jump goes back further than the last one, so
+					// that pointers can't loop.
+					throw new IllegalStateException(String.format(
+							Messages.InvalidCompressionPointer, p));
+				}
+				run = p;
+				i = p;
 			} else if (length <= MAX_LABEL_SIZE) {
-				namesize += length;
-				if (MAX_NAME_SIZE < namesize) {
+				wiresize += length + 1;
+				// the root is 1 byte more.
+				if ((MAX_NAME_SIZE <= wiresize) || (MAX_LABELS < ++labels)) {
 					throw new IllegalArgumentException(String.format(
-							Messages.NamesMustBe255orLess, namesize));
+							Messages.NamesMustBe255orLess, wiresize + 1));
 				}
-				byte[] ary = new byte[length];
-				buffer.readBytes(ary);
-				list.add(ary);
+				i += length + 1;
 			} else {
 				throw new IllegalStateException(String.format(
 						Messages.InvalidCompressionMask, length));
 			}
 		}
 
-		if (jumped) {
-			buffer.resetReaderIndex();
+		byte[] result = new byte[wiresize];
+		i = buffer.readerIndex();
+		for (int w = 0; w < wiresize;) {
+			int length = buffer.getUnsignedByte(i);
+			if ((length & MASK_POINTER) == MASK_POINTER) {
+				i = ((length ^ MASK_POINTER) << 8)
+						+ buffer.getUnsignedByte(i + 1);
+			} else {
+				buffer.getBytes(i, result, w, length + 1);
+				w += length + 1;
+				i += length + 1;
+			}
 		}
+		buffer.readerIndex(end);
+		return result;
+	}
 
-		return Collections.unmodifiableList(list);
+	/**
+	 * steps over the name without reading its labels.
+	 * 
+	 * @return the index just after the name which starts at the index.
+	 */
+	public static int skip(ChannelBuffer buffer, int index) {
+		int i = index;
+		while (i < buffer.writerIndex()) {
+			int length = buffer.getUnsignedByte(i);
+			if (length == 0) {
+				return i + 1;
+			}
+			if ((length & MASK_POINTER) == MASK_POINTER) {
+				return i + 2;
+			}
+			i += length + 1;
+		}
+		throw new IndexOutOfBoundsException();
 	}
 
 	/**
 	 * 5.1. Format
-	 * 
+	 *
 	 * <pre>
 	 * \X              where X is any character other than a digit (0-9), is
 	 *                 used to quote that character so that its special meaning
 	 *                 does not apply.  For example, "\." can be used to place
 	 *                 a dot character in a label.
-	 * 
+	 *
 	 * \DDD            where each D is a digit is the octet corresponding to
 	 *                 the decimal number described by DDD.  The resulting
 	 *                 octet is assumed to be text and is not checked for
 	 *                 special meaning.
 	 * </pre>
-	 * 
+	 *
 	 * @param namedata
-	 * @return
+	 * @return the wire format of the name.
 	 */
-	protected List<byte[]> parse(String namedata) {
+	protected static byte[] parse(String namedata) {
 		if (".".equals(namedata)) {
-			return NULL_NAME.name;
+			return NULL_NAME.bytes;
 		}
 		// TODO IDN support from RFC3490 RFC3491 RFC3492 RFC3454
-		List<byte[]> result = new ArrayList<byte[]>();
 		byte[] bytes = namedata.getBytes();
-		int namesize = 0;
-		ChannelBuffer buffer = ChannelBuffers.buffer(MAX_LABEL_SIZE);
+		// every character becomes at most one byte, and every dot the length
+		// of the next label.
+		byte[] wire = new byte[bytes.length + 2];
+		int label = 0;
+		int w = 1;
 		int current = 0;
 		int length = bytes.length;
 
@@ -145,7 +261,7 @@ public class Name implements Comparable<Name> {
 								Messages.EscapedDecimalIsInvalid, value));
 					}
 					if (2 < digits) {
-						appendByte(namedata, buffer, (byte) value);
+						w = appendByte(namedata, wire, label, w, (byte) value);
 						escape = false;
 					}
 				} else if (0 < digits) {
@@ -154,7 +270,7 @@ public class Name implements Comparable<Name> {
 									Messages.MixtureOfEscapedDigitAndNonDigit,
 									namedata));
 				} else {
-					appendByte(namedata, buffer, b);
+					w = appendByte(namedata, wire, label, w, b);
 					escape = false;
 				}
 			} else if (b == '\\') {
@@ -162,9 +278,10 @@ public class Name implements Comparable<Name> {
 				digits = 0;
 				value = 0;
 			} else if (b == '.') {
-				namesize = namesize + addBytes(result, buffer) + 1;
+				closeLabel(wire, label, w);
+				label = w++;
 			} else {
-				appendByte(namedata, buffer, b);
+				w = appendByte(namedata, wire, label, w, b);
 			}
 		}
 
@@ -173,143 +290,182 @@ public class Name implements Comparable<Name> {
 					Messages.InvalidEscapeSequence, namedata));
 		}
 
-		if (buffer.readable()) {
+		if (label + 1 < w) {
 			// relative domain name
-			namesize = namesize + addBytes(result, buffer);
+			closeLabel(wire, label, w);
 		} else {
 			// absolute domain name
-			result.add(NULL_ARRAY);
+			wire[label] = 0;
 		}
-		namesize += 1;
-		if (MAX_NAME_SIZE < namesize) {
+		if (MAX_NAME_SIZE < w) {
 			throw new IllegalArgumentException(String.format(
-					Messages.NamesMustBe255orLess, namesize));
+					Messages.NamesMustBe255orLess, w));
 		}
-		return result;
+		return Arrays.copyOf(wire, w);
 	}
 
-	protected void appendByte(String namedata, ChannelBuffer buffer, byte b) {
-		if (buffer.writable()) {
-			buffer.writeByte(b);
-		} else {
+	protected static int appendByte(String namedata, byte[] wire, int label,
+			int w, byte b) {
+		if (MAX_LABEL_SIZE < w - label) {
 			throw new IllegalArgumentException(String.format(
 					Messages.LabelsMustBe63orLess, namedata));
 		}
+		wire[w] = b;
+		return w + 1;
 	}
 
-	protected int addBytes(List<byte[]> result, ChannelBuffer buffer) {
-		int size = buffer.readableBytes();
+	protected static void closeLabel(byte[] wire, int label, int w) {
+		int size = w - label - 1;
 		if (size < 1) {
 			throw new IllegalArgumentException(Messages.NullLabelIsNotValid);
 		}
-		byte[] newone = new byte[size];
-		buffer.readBytes(newone);
-		buffer.clear();
-		result.add(newone);
-		return size;
+		wire[label] = (byte) size;
+	}
+
+	/**
+	 * @return the number of labels, including the null label.
+	 */
+	public int labels() {
+		return this.offsets.length - this.first;
+	}
+
+	/**
+	 * @return a copy of the label at the index.
+	 */
+	public byte[] label(int index) {
+		int o = offset(index);
+		return Arrays.copyOfRange(this.bytes, o + 1, o + 1
+				+ (this.bytes[o] & 0xFF));
+	}
+
+	/**
+	 * @return the index of the length byte of the label in the bytes.
+	 */
+	protected int offset(int index) {
+		return this.offsets[this.first + index] & 0xFF;
+	}
+
+	/**
+	 * @return the number of bytes of the name in the wire format.
+	 */
+	public int length() {
+		return this.bytes.length - offset(0);
 	}
 
+	/**
+	 * 4.1.4. Message compression. the null label is never replaced with a
+	 * pointer, it is shorter.
+	 */
 	public void write(ChannelBuffer buffer, NameCompressor compressor) {
-		// TODO DNAME and other non compress RR
-		// TODO need writing cache?
-		if (writePointer(buffer, compressor, this) == false) {
-			compressor.put(this, buffer.writerIndex());
-			for (int i = 0, size = this.name.size(); i < size; i++) {
-				byte[] current = this.name.get(i);
-				int cl = current.length;
-				buffer.writeByte(cl);
-				if (0 < cl) {
-					buffer.writeBytes(current);
-					if (i + 1 < size) {
-						Name n = new Name(this.name.subList(i + 1, size));
-						if (writePointer(buffer, compressor, n)) {
-							break;
-						} else {
-							compressor.put(n, buffer.writerIndex());
-						}
-					}
+		if (compressor == NullNameCompressor.INSTANCE) {
+			buffer.writeBytes(this.bytes, offset(0), length());
+			return;
+		}
+		for (int i = 0, size = labels(); i < size; i++) {
+			int o = offset(i);
+			int cl = this.bytes[o] & 0xFF;
+			if (0 < cl) {
+				int position = compressor.get(this, i);
+				if (-1 < position) {
+					buffer.writeShort((MASK_POINTER << 8) | position);
+					return;
 				}
+				compressor.put(this, i, buffer.writerIndex());
 			}
+			buffer.writeBytes(this.bytes, o, cl + 1);
 		}
 	}
 
-	protected boolean writePointer(ChannelBuffer buffer,
-			NameCompressor compressor, Name n) {
-		int position = compressor.get(n);
-		if (-1 < position) {
-			int pointer = (MASK_POINTER << 8) | position;
-			buffer.writeShort(pointer);
-			return true;
+	/**
+	 * @return the name which consists of the labels from the index.
+	 */
+	public Name suffix(int label) {
+		if (label == 0) {
+			return this;
 		}
-		return false;
+		return new Name(this.bytes, this.offsets, this.folded, this.first
+				+ label);
+	}
+
+	/**
+	 * @return true if the name ends with the null label.
+	 */
+	public boolean isAbsolute() {
+		return this.bytes[this.offsets[this.offsets.length - 1] & 0xFF] == 0;
 	}
 
 	public Name toParent() {
-		int size = this.name.size();
-		if (1 < size) {
-			List<byte[]> newone = this.name.subList(1, size);
-			return new Name(newone);
+		if (1 < labels()) {
+			return suffix(1);
 		}
 		return NULL_NAME;
 	}
 
 	public Name toWildcard() {
-		int size = this.name.size();
-		if (1 < size) {
-			List<byte[]> newone = new ArrayList<byte[]>(size);
-			newone.add(WILDCARD_ARRAY);
-			newone.addAll(this.name.subList(1, size));
-			return new Name(Collections.unmodifiableList(newone));
+		if (1 < labels()) {
+			int from = offset(1);
+			int size = this.bytes.length - from;
+			byte[] newone = new byte[size + 2];
+			newone[0] = 1;
+			newone[1] = '*';
+			System.arraycopy(this.bytes, from, newone, 2, size);
+			return new Name(newone);
 		}
 		return WILDCARD;
 	}
 
 	public boolean contains(Name other) {
 		notNull(other, "other");
-		int mySize = this.name.size();
-		int otherSize = other.name.size();
-		if (mySize < otherSize) {
+		int diff = labels() - other.labels();
+		if (diff < 0) {
 			return false;
 		}
-		int diff = mySize - otherSize;
-		for (int i = 0; i < otherSize; i++) {
-			byte[] me = this.name.get(i + diff);
-			byte[] yu = other.name.get(i);
-			if (Arrays.equals(me, yu) == false) {
-				return false;
-			}
-		}
-		return true;
+		return regionEquals(this.folded, offset(diff), other.folded,
+				other.offset(0), other.length());
 	}
 
 	public Name replace(Name from, Name to) {
 		notNull(from, "from");
 		notNull(to, "to");
 		if (contains(from)) {
-			int diff = this.name.size() - from.name.size();
-			int newsize = diff + to.name.size();
-			List<byte[]> newone = new ArrayList<byte[]>(newsize);
-			newone.addAll(this.name.subList(0, diff));
-			newone.addAll(to.name);
-			int size = 0;
-			for (byte[] ary : newone) {
-				size += ary.length;
-			}
-			if (size < MAX_NAME_SIZE) {
-				return new Name(Collections.unmodifiableList(newone));
+			int start = offset(0);
+			int prefix = offset(labels() - from.labels()) - start;
+			int size = prefix + to.length();
+			if (size <= MAX_NAME_SIZE) {
+				byte[] newone = new byte[size];
+				System.arraycopy(this.bytes, start, newone, 0, prefix);
+				System.arraycopy(to.bytes, to.offset(0), newone, prefix,
+						to.length());
+				return new Name(newone);
 			}
 		}
 		return null;
 	}
 
+	static boolean regionEquals(byte[] left, int lo, byte[] right, int ro,
+			int length) {
+		if (left.length - lo != length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (left[lo + i] != right[ro + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	@Override
 	public int hashCode() {
-		final int prime = 31;
-		int result = 1;
-		for (byte[] b : this.name) {
-			result = prime * result + Arrays.hashCode(b);
+		int h = this.hash;
+		if (h == 0) {
+			h = 1;
+			for (int i = offset(0), length = this.bytes.length; i < length; i++) {
+				h = 31 * h + this.folded[i];
+			}
+			this.hash = h;
 		}
-		return result;
+		return h;
 	}
 
 	@Override
@@ -327,49 +483,42 @@ public class Name implements Comparable<Name> {
 		if (other == null) {
 			return false;
 		}
-		int mySize = this.name.size();
-		int yrSize = other.name.size();
-		if (mySize != yrSize) {
-			return false;
+		if (this == other) {
+			return true;
 		}
-		for (int i = 0; i < mySize; i++) {
-			byte[] me = this.name.get(i);
-			byte[] yu = other.name.get(i);
-			if (Arrays.equals(me, yu) == false) {
-				return false;
-			}
+		if ((this.hash != 0) && (other.hash != 0) && (this.hash != other.hash)) {
+			return false;
 		}
-		return true;
+		return regionEquals(this.folded, offset(0), other.folded,
+				other.offset(0), other.length());
 	}
 
+	/**
+	 * RFC4034 6.1. Canonical DNS Name Order. the labels are compared from the
+	 * rightmost one as case folded unsigned octets, and a name sorts before
+	 * the names under it.
+	 */
 	@Override
 	public int compareTo(Name o) {
-		// TODO use more effective algorithm for red black tree.
-		int mySize = this.name.size();
-		int yrSize = o.name.size();
-		if (mySize != yrSize) {
-			return mySize - yrSize;
-		}
-		int minSize = Math.min(mySize, yrSize);
-		for (int i = minSize - 1; (-1 < i); i--) {
-			byte[] mine = this.name.get(i);
-			byte[] other = o.name.get(i);
-			if (Arrays.equals(mine, other) == false) {
-				int size = Math.min(mine.length, other.length);
-				for (int ii = size - 1; -1 < ii; i--) {
-					byte mb = mine[ii];
-					byte yb = other[ii];
-					if (mb != yb) {
-						if (mb < yb) {
-							return -1;
-						} else {
-							return 1;
-						}
-					}
+		int mySize = labels();
+		int yrSize = o.labels();
+		for (int i = mySize - 1, j = yrSize - 1; (-1 < i) && (-1 < j); i--, j--) {
+			int mo = offset(i);
+			int oo = o.offset(j);
+			int ml = this.folded[mo] & 0xFF;
+			int ol = o.folded[oo] & 0xFF;
+			for (int ii = 1, size = Math.min(ml, ol); ii <= size; ii++) {
+				int mb = this.folded[mo + ii] & 0xFF;
+				int yb = o.folded[oo + ii] & 0xFF;
+				if (mb != yb) {
+					return mb - yb;
 				}
 			}
+			if (ml != ol) {
+				return ml - ol;
+			}
 		}
-		return 0;
+		return mySize - yrSize;
 	}
 
 	@Override
@@ -377,10 +526,10 @@ public class Name implements Comparable<Name> {
 		StringBuilder stb = new StringBuilder();
 		DecimalFormat fmt = new DecimalFormat();
 		fmt.setMinimumIntegerDigits(3);
-		for (Iterator<byte[]> cursor = this.name.iterator(); cursor.hasNext();) {
-			byte[] ary = cursor.next();
-			for (int i = 0, l = ary.length; i < l; i++) {
-				int b = ary[i] & 0xFF;
+		for (int l = 0, size = labels(); l < size; l++) {
+			int o = offset(l);
+			for (int i = o + 1, end = i + (this.bytes[o] & 0xFF); i < end; i++) {
+				int b = this.bytes[i] & 0xFF;
 				if ((b < 0x21) || (0x7F < b)) {
 					stb.append('\\');
 					stb.append(fmt.format(b));
@@ -401,7 +550,7 @@ public class Name implements Comparable<Name> {
 					}
 				}
 			}
-			if (cursor.hasNext()) {
+			if (l + 1 < size) {
 				stb.append('.');
 			}
 		}
@@ -18,8 +18,20 @@ package org.handwerkszeug.dns;
  */
 public interface NameCompressor {
 
-	void put(Name name, int offset);
+	/**
+	 * @param label
+	 *            index of the first label of the suffix of the name.
+	 * @param index
+	 *            the index of the buffer at which the suffix is written.
+	 */
+	void put(Name name, int label, int index);
 
-	int get(Name name);
+	/**
+	 * @param label
+	 *            index of the first label of the suffix of the name.
+	 * @return the offset of the suffix from the start of the message, or -1
+	 *         if it is not written yet.
+	 */
+	int get(Name name, int label);
 
 }
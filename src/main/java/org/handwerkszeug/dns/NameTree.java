@@ -0,0 +1,431 @@
+package org.handwerkszeug.dns;
+
+import static org.handwerkszeug.util.Validation.notNull;
+
+/**
+ * an immutable tree of the labels of names, from the root down, with a value
+ * at any node. the labels are matched case-insensitively, and a name is
+ * walked without allocation, so the deepest node on the way to a name is
+ * found in one pass.
+ * <p>
+ * a tree is changed through an {@link Editor}, which copies the nodes on the
+ * path it changes and shares the rest with the tree it started from. the
+ * nodes the editor made are changed in place until it builds the new tree,
+ * so a large batch doesn't copy them again and again. a tree is safe to read
+ * from any thread once it is published, through a volatile field for
+ * example.
+ * </p>
+ *
+ * @author taichi
+ */
+public class NameTree<V> {
+
+	static final byte[] ROOT_LABEL = { 0 };
+
+	/**
+	 * the label of a wildcard, RFC4592 2.1.1.
+	 */
+	public static final byte[] WILDCARD = { 1, '*' };
+
+	protected final Node<V> root;
+
+	protected final int size;
+
+	public NameTree() {
+		this(new Node<V>(ROOT_LABEL, hash(ROOT_LABEL, 0, 1), null), 0);
+	}
+
+	protected NameTree(Node<V> root, int size) {
+		this.root = root;
+		this.size = size;
+	}
+
+	/**
+	 * @return the node of the root name.
+	 */
+	public Node<V> root() {
+		return this.root;
+	}
+
+	/**
+	 * @return the number of the values.
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	public boolean isEmpty() {
+		return this.size < 1;
+	}
+
+	/**
+	 * @return the value of the name, or null.
+	 */
+	public V get(Name name) {
+		Node<V> n = node(this.root, name);
+		return n == null ? null : n.value;
+	}
+
+	/**
+	 * @return the value of the name, or of its closest ancestor which has
+	 *         one. null if none has.
+	 */
+	public V closest(Name name) {
+		notNull(name, "name");
+		Node<V> n = this.root;
+		V result = n.value;
+		for (int l = top(name); (-1 < l) && (n != null); l--) {
+			n = n.child(name, l);
+			if ((n != null) && (n.value != null)) {
+				result = n.value;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return the node of the name, or null.
+	 */
+	public Node<V> node(Name name) {
+		return node(this.root, name);
+	}
+
+	protected static <V> Node<V> node(Node<V> from, Name name) {
+		notNull(name, "name");
+		Node<V> n = from;
+		for (int l = top(name); (-1 < l) && (n != null); l--) {
+			n = n.child(name, l);
+		}
+		return n;
+	}
+
+	/**
+	 * @return the index of the label below the root, the null label of an
+	 *         absolute name is the root itself.
+	 */
+	public static int top(Name name) {
+		int last = name.labels() - 1;
+		if (name.folded[name.offset(last)] == 0) {
+			return last - 1;
+		}
+		return last;
+	}
+
+	public Editor<V> edit() {
+		return new Editor<V>(this);
+	}
+
+	@Override
+	public String toString() {
+		return "NameTree[size=" + this.size + "]";
+	}
+
+	static int hash(byte[] bytes, int offset, int length) {
+		int h = 0;
+		for (int i = offset, end = offset + length; i < end; i++) {
+			h = (31 * h) + bytes[i];
+		}
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * a node of the tree, for a label under its parent. the children are kept
+	 * in an open addressing table.
+	 */
+	public static final class Node<V> {
+
+		static final int INITIAL_CAPACITY = 4;
+
+		/**
+		 * the folded label, with its length.
+		 */
+		final byte[] label;
+
+		final int hash;
+
+		V value;
+
+		Node<V>[] children;
+
+		int size;
+
+		/**
+		 * the editor which may change the node, or null.
+		 */
+		Object owner;
+
+		Node(byte[] label, int hash, Object owner) {
+			this.label = label;
+			this.hash = hash;
+			this.owner = owner;
+		}
+
+		Node(Node<V> from, Object owner) {
+			this(from.label, from.hash, owner);
+			this.value = from.value;
+			this.size = from.size;
+			if (from.children != null) {
+				this.children = from.children.clone();
+			}
+		}
+
+		public V value() {
+			return this.value;
+		}
+
+		/**
+		 * @return the number of the children.
+		 */
+		public int size() {
+			return this.size;
+		}
+
+		/**
+		 * @return the child for the label of the name, or null.
+		 */
+		public Node<V> child(Name name, int label) {
+			int o = name.offset(label);
+			return child(name.folded, o, (name.folded[o] & 0xFF) + 1);
+		}
+
+		/**
+		 * @param label
+		 *            a folded label, with its length.
+		 */
+		public Node<V> child(byte[] label) {
+			return child(label, 0, label.length);
+		}
+
+		Node<V> child(byte[] bytes, int offset, int length) {
+			Node<V>[] table = this.children;
+			if (table == null) {
+				return null;
+			}
+			int h = hash(bytes, offset, length);
+			int mask = table.length - 1;
+			for (int i = h & mask;; i = (i + 1) & mask) {
+				Node<V> c = table[i];
+				if (c == null) {
+					return null;
+				}
+				if ((c.hash == h)
+						&& Name.regionEquals(c.label, 0, bytes, offset, length)) {
+					return c;
+				}
+			}
+		}
+
+		/**
+		 * @return the children, in no particular order.
+		 */
+		public Node<V>[] children() {
+			Node<V>[] result = newTable(this.size);
+			if (this.children != null) {
+				int j = 0;
+				for (Node<V> c : this.children) {
+					if (c != null) {
+						result[j++] = c;
+					}
+				}
+			}
+			return result;
+		}
+
+		/**
+		 * @return the label in lower case.
+		 */
+		public String label() {
+			return new String(this.label, 1, this.label.length - 1);
+		}
+
+		void put(Node<V> child) {
+			if (this.children == null) {
+				this.children = newTable(INITIAL_CAPACITY);
+			} else if (this.children.length <= ((this.size + 1) * 2)) {
+				Node<V>[] old = this.children;
+				this.children = newTable(old.length << 1);
+				for (Node<V> c : old) {
+					if (c != null) {
+						insert(c);
+					}
+				}
+			}
+			insert(child);
+			this.size++;
+		}
+
+		/**
+		 * replaces the child which has the same label.
+		 */
+		void replace(Node<V> child) {
+			Node<V>[] table = this.children;
+			int mask = table.length - 1;
+			for (int i = child.hash & mask;; i = (i + 1) & mask) {
+				if (table[i].hash == child.hash
+						&& Name.regionEquals(table[i].label, 0, child.label, 0,
+								child.label.length)) {
+					table[i] = child;
+					return;
+				}
+			}
+		}
+
+		void delete(Node<V> child) {
+			Node<V>[] table = this.children;
+			int mask = table.length - 1;
+			int i = child.hash & mask;
+			while (table[i] != child) {
+				i = (i + 1) & mask;
+			}
+			table[i] = null;
+			this.size--;
+			// the entries after it in the cluster are put again.
+			for (int j = (i + 1) & mask; table[j] != null; j = (j + 1) & mask) {
+				Node<V> c = table[j];
+				table[j] = null;
+				insert(c);
+			}
+		}
+
+		void insert(Node<V> child) {
+			Node<V>[] table = this.children;
+			int mask = table.length - 1;
+			int i = child.hash & mask;
+			while (table[i] != null) {
+				i = (i + 1) & mask;
+			}
+			table[i] = child;
+		}
+
+		static <V> Node<V>[] newTable(int capacity) {
+			@SuppressWarnings("unchecked")
+			Node<V>[] result = (Node<V>[]) new Node<?>[capacity];
+			return result;
+		}
+	}
+
+	/**
+	 * changes a tree into a new one, it is used by one thread.
+	 */
+	public static class Editor<V> {
+
+		protected Object owner = new Object();
+
+		protected Node<V> root;
+
+		protected int size;
+
+		protected Editor(NameTree<V> from) {
+			this.root = from.root;
+			this.size = from.size;
+		}
+
+		/**
+		 * @return the value of the name as edited so far, or null.
+		 */
+		public V get(Name name) {
+			check();
+			Node<V> n = node(this.root, name);
+			return n == null ? null : n.value;
+		}
+
+		/**
+		 * @return the previous value of the name, or null.
+		 */
+		public V put(Name name, V value) {
+			notNull(name, "name");
+			notNull(value, "value");
+			check();
+			Node<V> n = this.root = editable(this.root);
+			for (int l = top(name); -1 < l; l--) {
+				Node<V> c = n.child(name, l);
+				if (c == null) {
+					int o = name.offset(l);
+					int length = (name.folded[o] & 0xFF) + 1;
+					byte[] label = new byte[length];
+					System.arraycopy(name.folded, o, label, 0, length);
+					c = new Node<V>(label, hash(label, 0, length), this.owner);
+					n.put(c);
+				} else if (c.owner != this.owner) {
+					c = editable(c);
+					n.replace(c);
+				}
+				n = c;
+			}
+			V result = n.value;
+			n.value = value;
+			if (result == null) {
+				this.size++;
+			}
+			return result;
+		}
+
+		/**
+		 * removes the value of the name, and the nodes left without a value
+		 * and children.
+		 *
+		 * @return the removed value, or null.
+		 */
+		public V remove(Name name) {
+			notNull(name, "name");
+			check();
+			int top = top(name);
+			Node<V>[] path = Node.newTable(top + 2);
+			Node<V> n = this.root;
+			path[0] = n;
+			for (int l = top, i = 1; -1 < l; l--, i++) {
+				n = n.child(name, l);
+				if (n == null) {
+					return null;
+				}
+				path[i] = n;
+			}
+			if (n.value == null) {
+				return null;
+			}
+			for (int i = 0; i < path.length; i++) {
+				Node<V> e = editable(path[i]);
+				if (i == 0) {
+					this.root = e;
+				} else if (e != path[i]) {
+					path[i - 1].replace(e);
+				}
+				path[i] = e;
+			}
+			n = path[path.length - 1];
+			V result = n.value;
+			n.value = null;
+			this.size--;
+			for (int i = path.length - 1; 0 < i; i--) {
+				Node<V> e = path[i];
+				if ((e.value != null) || (0 < e.size)) {
+					break;
+				}
+				path[i - 1].delete(e);
+			}
+			return result;
+		}
+
+		protected Node<V> editable(Node<V> node) {
+			if (node.owner == this.owner) {
+				return node;
+			}
+			return new Node<V>(node, this.owner);
+		}
+
+		protected void check() {
+			if (this.owner == null) {
+				throw new IllegalStateException("the tree is already built");
+			}
+		}
+
+		/**
+		 * ends the edit. the nodes are not changed any more.
+		 */
+		public NameTree<V> build() {
+			check();
+			this.owner = null;
+			return new NameTree<V>(this.root, this.size);
+		}
+	}
+}
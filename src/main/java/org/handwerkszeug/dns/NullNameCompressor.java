@@ -9,11 +9,11 @@ public class NullNameCompressor implements NameCompressor {
 	}
 
 	@Override
-	public void put(Name name, int offset) {
+	public void put(Name name, int label, int index) {
 	}
 
 	@Override
-	public int get(Name name) {
+	public int get(Name name, int label) {
 		return -1;
 	}
 
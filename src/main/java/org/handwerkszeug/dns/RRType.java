@@ -7,9 +7,11 @@ import org.handwerkszeug.dns.record.HINFORecord;
 import org.handwerkszeug.dns.record.MINFORecord;
 import org.handwerkszeug.dns.record.MXRecord;
 import org.handwerkszeug.dns.record.NULLRecord;
+import org.handwerkszeug.dns.record.OPTRecord;
 import org.handwerkszeug.dns.record.SOARecord;
 import org.handwerkszeug.dns.record.SingleNameRecord;
 import org.handwerkszeug.dns.record.TXTRecord;
+import org.handwerkszeug.dns.record.UnknownRecord;
 import org.handwerkszeug.dns.record.WKSRecord;
 import org.handwerkszeug.util.EnumUtil;
 import org.handwerkszeug.util.VariableEnum;
@@ -184,8 +186,19 @@ public enum RRType implements VariableEnum {
 	NAPTR(35) {
 		@Override
 		public ResourceRecord newRecord() {
-			// TODO not implemented...
-			throw new UnsupportedOperationException();
+			return new UnknownRecord(value());
+		}
+	},
+
+	/**
+	 * Delegation Signer, held by the parent side of a zone cut.
+	 * 
+	 * @see http://tools.ietf.org/html/rfc4034#section-5
+	 */
+	DS(43) {
+		@Override
+		public ResourceRecord newRecord() {
+			return new UnknownRecord(value());
 		}
 	},
 
@@ -201,6 +214,18 @@ public enum RRType implements VariableEnum {
 		}
 	},
 
+	/**
+	 * EDNS(0) pseudo-RR
+	 * 
+	 * @see http://tools.ietf.org/html/rfc6891#section-6.1
+	 */
+	OPT(41) {
+		@Override
+		public ResourceRecord newRecord() {
+			return new OPTRecord();
+		}
+	},
+
 	// RFC1035 3.2.3. QTYPE values
 	/**
 	 * A request for a transfer of an entire zone
@@ -249,6 +274,12 @@ public enum RRType implements VariableEnum {
 		}
 	};
 
+	/**
+	 * the types indexed by their codes. all the modeled types are less than
+	 * 256.
+	 */
+	static final RRType[] TABLE = EnumUtil.toTable(values(), 256);
+
 	private int code;
 
 	private RRType(int i) {
@@ -257,13 +288,29 @@ public enum RRType implements VariableEnum {
 
 	public abstract ResourceRecord newRecord();
 
+	/**
+	 * RFC3597 and RFC6895 3.1. the types we don't model, and the QTYPEs and
+	 * meta-TYPEs from 128 to 255 which have no RDATA format of their own, get
+	 * an {@link UnknownRecord}, which keeps the code and the RDATA as they
+	 * are.
+	 * 
+	 * @return a new record for the TYPE on the wire.
+	 */
+	public static ResourceRecord newRecord(int code) {
+		RRType t = valueOf(code);
+		if (UNKNOWN.equals(t) || ((127 < code) && (code < 256))) {
+			return new UnknownRecord(code);
+		}
+		return t.newRecord();
+	}
+
 	@Override
 	public int value() {
 		return this.code;
 	}
 
 	public static RRType valueOf(int code) {
-		return EnumUtil.find(RRType.values(), code, UNKNOWN);
+		return EnumUtil.lookup(TABLE, code, UNKNOWN);
 	}
 
 	public static RRType find(String value) {
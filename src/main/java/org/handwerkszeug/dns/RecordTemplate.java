@@ -0,0 +1,172 @@
+package org.handwerkszeug.dns;
+
+import static org.handwerkszeug.util.Validation.notNull;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.handwerkszeug.dns.record.AbstractRecord;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+
+/**
+ * the records of a section encoded ahead, to be appended to responses as
+ * they are. the records are encoded after the header and a question for the
+ * canonical name, and the question of a response must end with the canonical
+ * name.
+ * <p>
+ * the name compression pointers are kept relative to the canonical question.
+ * a longer question moves the suffix they point into and the records after it
+ * by the same difference, so the pointers are patched by adding it.
+ * </p>
+ * 
+ * @author taichi
+ */
+public class RecordTemplate {
+
+	static final int QUESTION_OFFSET = 12;
+
+	protected final Name canonical;
+
+	protected final Section section;
+
+	protected final int count;
+
+	protected final byte[] data;
+
+	/**
+	 * the indexes of the pointers in the data.
+	 */
+	protected final int[] pointers;
+
+	/**
+	 * the largest offset pointed to.
+	 */
+	protected final int maxOffset;
+
+	protected RecordTemplate(Name canonical, Section section, int count,
+			byte[] data, int[] pointers, int maxOffset) {
+		this.canonical = canonical;
+		this.section = section;
+		this.count = count;
+		this.data = data;
+		this.pointers = pointers;
+		this.maxOffset = maxOffset;
+	}
+
+	/**
+	 * @param canonical
+	 *            the question name the records are encoded after.
+	 */
+	public static RecordTemplate encode(Name canonical, Section section,
+			Collection<? extends ResourceRecord> records) {
+		notNull(canonical, "canonical");
+		notNull(section, "section");
+		notNull(records, "records");
+		if (Section.QUESTION.equals(section)) {
+			throw new IllegalArgumentException("question can't be encoded");
+		}
+		ChannelBuffer buffer = ChannelBuffers.dynamicBuffer(512);
+		Recorder nc = new Recorder();
+		nc.reset(buffer, 0);
+		buffer.writeZero(QUESTION_OFFSET);
+		canonical.write(buffer, nc);
+		buffer.writeZero(4); // QTYPE and QCLASS
+		int start = buffer.writerIndex();
+		for (ResourceRecord rr : records) {
+			AbstractRecord.writeSection(buffer, nc, rr);
+			rr.write(buffer, nc);
+		}
+		byte[] data = new byte[buffer.writerIndex() - start];
+		buffer.getBytes(start, data);
+		int[] pointers = Arrays.copyOf(nc.recorded, nc.count);
+		int max = 0;
+		for (int i = 0; i < pointers.length; i++) {
+			int index = pointers[i];
+			max = Math.max(max,
+					buffer.getUnsignedShort(index) ^ (Name.MASK_POINTER << 8));
+			pointers[i] = index - start;
+		}
+		return new RecordTemplate(canonical, section, records.size(), data,
+				pointers, max);
+	}
+
+	public Name canonical() {
+		return this.canonical;
+	}
+
+	public Section section() {
+		return this.section;
+	}
+
+	/**
+	 * @return the number of records.
+	 */
+	public int count() {
+		return this.count;
+	}
+
+	/**
+	 * @return the number of bytes of the records.
+	 */
+	public int length() {
+		return this.data.length;
+	}
+
+	/**
+	 * @return true if the records may follow a question for the name.
+	 */
+	public boolean appliesTo(Name qname) {
+		return (qname.contains(this.canonical))
+				&& ((this.maxOffset + delta(qname)) <= BufferNameCompressor.MAX_OFFSET);
+	}
+
+	protected int delta(Name qname) {
+		return qname.length() - this.canonical.length();
+	}
+
+	/**
+	 * appends the records, which must follow the header and the question for
+	 * the name.
+	 */
+	public void write(ChannelBuffer buffer, Name qname) {
+		int start = buffer.writerIndex();
+		buffer.writeBytes(this.data);
+		int delta = delta(qname);
+		if (delta != 0) {
+			for (int p : this.pointers) {
+				int i = start + p;
+				buffer.setShort(i, buffer.getUnsignedShort(i) + delta);
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("RecordTemplate[%s %s count=%d length=%d]",
+				this.canonical, this.section, this.count, this.data.length);
+	}
+
+	/**
+	 * keeps the indexes at which the pointers are written.
+	 */
+	static class Recorder extends BufferNameCompressor {
+
+		int[] recorded = new int[16];
+
+		int count;
+
+		@Override
+		public int get(Name name, int label) {
+			int result = super.get(name, label);
+			if (-1 < result) {
+				if (this.recorded.length <= this.count) {
+					this.recorded = Arrays.copyOf(this.recorded,
+							this.count << 1);
+				}
+				this.recorded[this.count++] = this.buffer.writerIndex();
+			}
+			return result;
+		}
+	}
+}
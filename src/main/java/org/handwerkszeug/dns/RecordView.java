@@ -0,0 +1,135 @@
+package org.handwerkszeug.dns;
+
+import org.handwerkszeug.dns.record.AbstractRecord;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+
+/**
+ * a cursor over the encoded records of a section. the fields are read from
+ * the buffer of the message, and a {@link ResourceRecord} is made only by
+ * {@link #toRecord()}.
+ * 
+ * <pre>
+ * RecordView v = message.records(Section.ADDITIONAL);
+ * while (v.next()) {
+ * 	if (RRType.OPT.equals(v.type())) {
+ * 		...
+ * 	}
+ * }
+ * </pre>
+ * 
+ * @author taichi
+ */
+public class RecordView {
+
+	protected final ChannelBuffer buffer;
+
+	protected final boolean question;
+
+	protected int remaining;
+
+	/**
+	 * index of the owner name of the current record.
+	 */
+	protected int start = -1;
+
+	/**
+	 * index of the TYPE of the current record.
+	 */
+	protected int fixed;
+
+	protected int next;
+
+	protected RecordView(ChannelBuffer buffer, Section section, int index,
+			int count) {
+		this.buffer = buffer;
+		this.question = Section.QUESTION.equals(section);
+		this.next = index;
+		this.remaining = count;
+	}
+
+	/**
+	 * moves to the next record.
+	 * 
+	 * @return false if there are no more records.
+	 */
+	public boolean next() {
+		if (this.remaining < 1) {
+			return false;
+		}
+		this.remaining--;
+		this.start = this.next;
+		this.fixed = Name.skip(this.buffer, this.start);
+		if (this.question) {
+			this.next = this.fixed + 4;
+		} else {
+			this.next = this.fixed + 10
+					+ this.buffer.getUnsignedShort(this.fixed + 8);
+		}
+		return true;
+	}
+
+	/**
+	 * @return the index of the owner name in the buffer.
+	 */
+	public int nameIndex() {
+		return this.start;
+	}
+
+	public Name name() {
+		ChannelBuffer b = this.buffer.duplicate();
+		b.readerIndex(this.start);
+		return new Name(b);
+	}
+
+	public RRType type() {
+		return RRType.valueOf(typeCode());
+	}
+
+	/**
+	 * @return the TYPE as it is on the wire.
+	 */
+	public int typeCode() {
+		return this.buffer.getUnsignedShort(this.fixed);
+	}
+
+	/**
+	 * @return the CLASS as it is on the wire, the OPT pseudo-RR carries the
+	 *         UDP payload size in it.
+	 */
+	public int dnsClass() {
+		return this.buffer.getUnsignedShort(this.fixed + 2);
+	}
+
+	public long ttl() {
+		if (this.question) {
+			return 0;
+		}
+		return this.buffer.getUnsignedInt(this.fixed + 4);
+	}
+
+	/**
+	 * @return the RDATA, which shares the bytes of the message. the names in
+	 *         it may be pointers into the message.
+	 */
+	public ChannelBuffer rdata() {
+		if (this.question) {
+			return ChannelBuffers.EMPTY_BUFFER;
+		}
+		return this.buffer.slice(this.fixed + 10,
+				this.buffer.getUnsignedShort(this.fixed + 8));
+	}
+
+	/**
+	 * decodes the current record.
+	 */
+	public ResourceRecord toRecord() {
+		ChannelBuffer b = this.buffer.duplicate();
+		b.readerIndex(this.start);
+		ResourceRecord result = AbstractRecord.parseSection(b);
+		if (this.question == false) {
+			result.parse(b);
+		}
+		return result;
+	}
+}
@@ -6,5 +6,9 @@ public interface ResolveContext {
 
 	DNSMessage response();
 
-	Response resolve(Name qname, RRType qtype);
+	/**
+	 * @param qtype
+	 *            the TYPE of the question as it is on the wire.
+	 */
+	Response resolve(Name qname, int qtype);
 }
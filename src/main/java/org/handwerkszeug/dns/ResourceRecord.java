@@ -46,6 +46,12 @@ public interface ResourceRecord {
 	 */
 	RRType type();
 
+	/**
+	 * the TYPE as it is on the wire. the types we don't model are all
+	 * {@link RRType#UNKNOWN}, and are told apart by it.
+	 */
+	int typeCode();
+
 	/**
 	 * a domain name to which this resource record pertains.
 	 */
@@ -0,0 +1,18 @@
+package org.handwerkszeug.dns;
+
+/**
+ * 4.1. the sections of a message, in the order of the wire.
+ * 
+ * @author taichi
+ */
+public enum Section {
+
+	QUESTION, ANSWER, AUTHORITY, ADDITIONAL;
+
+	/**
+	 * @return the index of the count of the section in the header.
+	 */
+	int countIndex() {
+		return 4 + (ordinal() * 2);
+	}
+}
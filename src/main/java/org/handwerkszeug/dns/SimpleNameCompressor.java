@@ -3,16 +3,22 @@ package org.handwerkszeug.dns;
 import java.util.HashMap;
 import java.util.Map;
 
+/**
+ * keeps the suffixes in a map. the message starts at the index 0 of the
+ * buffer.
+ * 
+ * @see BufferNameCompressor
+ */
 public class SimpleNameCompressor implements NameCompressor {
 
 	protected Map<Name, Integer> map = new HashMap<Name, Integer>();
 
-	public void put(Name name, int offset) {
-		this.map.put(name, offset);
+	public void put(Name name, int label, int index) {
+		this.map.put(name.suffix(label), index);
 	}
 
-	public int get(Name name) {
-		Integer i = this.map.get(name);
+	public int get(Name name, int label) {
+		Integer i = this.map.get(name.suffix(label));
 		if (i == null) {
 			return -1;
 		}
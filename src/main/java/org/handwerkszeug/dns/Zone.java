@@ -8,4 +8,11 @@ public interface Zone {
 	ZoneType type();
 
 	Response find(Name qname, RRType qtype);
+
+	/**
+	 * @param qtype
+	 *            the TYPE as it is on the wire, so that the types we don't
+	 *            model are told apart.
+	 */
+	Response find(Name qname, int qtype);
 }
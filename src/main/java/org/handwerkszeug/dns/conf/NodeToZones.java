@@ -0,0 +1,75 @@
+package org.handwerkszeug.dns.conf;
+
+import java.io.File;
+
+import org.handwerkszeug.dns.Markers;
+import org.handwerkszeug.dns.Name;
+import org.handwerkszeug.dns.nls.Messages;
+import org.handwerkszeug.dns.zone.MasterZoneLoader;
+import org.handwerkszeug.yaml.DefaultHandler;
+import org.handwerkszeug.yaml.YamlUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.yaml.snakeyaml.nodes.MappingNode;
+import org.yaml.snakeyaml.nodes.Node;
+import org.yaml.snakeyaml.nodes.NodeTuple;
+import org.yaml.snakeyaml.nodes.SequenceNode;
+
+/**
+ * reads the master zones, and loads them from their master files.
+ * 
+ * <pre>
+ * zones :
+ *   - name : example.co.jp.
+ *     file : example.co.jp.zone
+ * </pre>
+ * 
+ * @author taichi
+ */
+public class NodeToZones extends DefaultHandler<ServerConfiguration> {
+
+	static final Logger LOG = LoggerFactory.getLogger(NodeToZones.class);
+
+	public NodeToZones() {
+		super("zones");
+	}
+
+	@Override
+	public void handle(Node node, ServerConfiguration context) {
+		if (node instanceof SequenceNode) {
+			for (Node n : ((SequenceNode) node).getValue()) {
+				handleZone(n, context);
+			}
+		} else {
+			handleZone(node, context);
+		}
+	}
+
+	protected void handleZone(Node node, ServerConfiguration context) {
+		if ((node instanceof MappingNode) == false) {
+			LOG.debug(Markers.DETAIL, Messages.InvalidParameter, new Object[] {
+					"NodeToZones#handleZone", MappingNode.class, node });
+			return;
+		}
+		String name = null;
+		String file = null;
+		for (NodeTuple nt : ((MappingNode) node).getValue()) {
+			String key = YamlUtil.getStringValue(nt.getKeyNode());
+			String value = YamlUtil.getStringValue(nt.getValueNode());
+			if ("name".equalsIgnoreCase(key)) {
+				name = value;
+			} else if ("file".equalsIgnoreCase(key)) {
+				file = value;
+			} else {
+				LOG.debug(Markers.DETAIL, Messages.UnsupportedAttribute, key);
+			}
+		}
+		if ((name == null) || (file == null)) {
+			throw new IllegalArgumentException(String.format(
+					Messages.InvalidZoneDefinition, node));
+		}
+		LOG.info(Markers.BOUNDARY, "load zone {} from {}", name, file);
+		context.getZones().add(
+				MasterZoneLoader.load(new Name(name), new File(file), context));
+	}
+}
@@ -1,8 +1,11 @@
 package org.handwerkszeug.dns.conf;
 
 import java.net.SocketAddress;
+import java.util.List;
 import java.util.Set;
 
+import org.handwerkszeug.dns.Zone;
+
 public interface ServerConfiguration {
 
     Set<SocketAddress> getBindingHosts();
@@ -11,5 +14,127 @@ public interface ServerConfiguration {
 
     Set<SocketAddress> getForwarders();
 
+    /**
+     * zones the server answers authoritatively. questions for other names
+     * are forwarded.
+     */
+    List<Zone> getZones();
+
     void setThreadPoolSize(int threadPoolSize);
+
+    /**
+     * seconds a TCP connection may stay idle before the server closes it.
+     * also advertised to the clients by the edns-tcp-keepalive option.
+     */
+    int getTcpIdleTimeout();
+
+    void setTcpIdleTimeout(int tcpIdleTimeout);
+
+    /**
+     * maximum number of concurrent TCP connections.
+     */
+    int getMaxConnections();
+
+    void setMaxConnections(int maxConnections);
+
+    /**
+     * maximum number of concurrent TCP connections from a single address.
+     */
+    int getMaxConnectionsPerAddress();
+
+    void setMaxConnectionsPerAddress(int maxConnectionsPerAddress);
+
+    /**
+     * maximum number of unanswered queries on a TCP connection. the server
+     * stops reading from the connection until some of them are answered.
+     */
+    int getMaxQueriesPerConnection();
+
+    void setMaxQueriesPerConnection(int maxQueriesPerConnection);
+
+    /**
+     * maximum number of cached responses. zero or less disables the cache.
+     */
+    int getCacheSize();
+
+    void setCacheSize(int cacheSize);
+
+    /**
+     * the largest EDNS(0) UDP payload size the server sends and advertises to
+     * the forwarders. the default of 1232 avoids IP fragmentation on common
+     * paths.
+     */
+    int getUdpPayloadSize();
+
+    void setUdpPayloadSize(int udpPayloadSize);
+
+    /**
+     * number of UDP channels kept open for each forwarder.
+     */
+    int getUpstreamChannels();
+
+    void setUpstreamChannels(int upstreamChannels);
+
+    /**
+     * number of queries sent through an upstream channel before it is replaced
+     * by one bound to a fresh random port. less than 1 keeps the channels for
+     * the life of the server.
+     */
+    int getUpstreamChannelQueries();
+
+    void setUpstreamChannelQueries(int upstreamChannelQueries);
+
+    /**
+     * upper bound of the timeout of a forwarded query in milliseconds. the
+     * actual timeout adapts to the round trip time of each forwarder.
+     */
+    int getUpstreamTimeout();
+
+    void setUpstreamTimeout(int upstreamTimeout);
+
+    /**
+     * number of times a forwarded query is resent after a timeout. retries go
+     * to the next forwarder in order of health and round trip time.
+     */
+    int getUpstreamRetries();
+
+    void setUpstreamRetries(int upstreamRetries);
+
+    /**
+     * percentile of the latency of a forwarder after which the same question
+     * is also sent to another forwarder. zero disables hedging.
+     */
+    int getHedgePercentile();
+
+    void setHedgePercentile(int hedgePercentile);
+
+    /**
+     * maximum number of hedged queries per second.
+     */
+    int getHedgeRate();
+
+    void setHedgeRate(int hedgeRate);
+
+    /**
+     * relays requests and replies without decoding them. only the header and
+     * the question are read, and the ID is rewritten in place.
+     */
+    boolean isPassThrough();
+
+    void setPassThrough(boolean passThrough);
+
+    /**
+     * reuses the response messages on each worker thread by a
+     * {@link org.handwerkszeug.dns.server.MessagePool}.
+     */
+    boolean isRecycleMessages();
+
+    void setRecycleMessages(boolean recycleMessages);
+
+    /**
+     * never reuses a released message, and fails on any use of it.
+     */
+    boolean isCheckRecycledMessages();
+
+    void setCheckRecycledMessages(boolean checkRecycledMessages);
 }
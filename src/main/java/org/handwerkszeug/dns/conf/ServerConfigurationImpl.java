@@ -35,6 +35,36 @@ public class ServerConfigurationImpl implements ServerConfiguration {
 
 	protected int threadPoolSize = 10;
 
+	protected int tcpIdleTimeout = 30;
+
+	protected int maxConnections = 1024;
+
+	protected int maxConnectionsPerAddress = 64;
+
+	protected int maxQueriesPerConnection = 32;
+
+	protected int cacheSize = 10000;
+
+	protected int udpPayloadSize = 1232;
+
+	protected int upstreamChannels = 4;
+
+	protected int upstreamChannelQueries = 4096;
+
+	protected int upstreamTimeout = 2000;
+
+	protected int upstreamRetries = 2;
+
+	protected int hedgePercentile = 0;
+
+	protected int hedgeRate = 10;
+
+	protected boolean passThrough = false;
+
+	protected boolean recycleMessages = false;
+
+	protected boolean checkRecycledMessages = false;
+
 	public ServerConfigurationImpl() {
 	}
 
@@ -74,6 +104,7 @@ public class ServerConfigurationImpl implements ServerConfiguration {
 			}
 		});
 		root.add(new NodeToForwarders(node2addr));
+		root.add(new NodeToZones());
 		// TODO logging
 		root.add(new DefaultHandler<ServerConfiguration>("threadPoolSize") {
 			@Override
@@ -82,6 +113,113 @@ public class ServerConfigurationImpl implements ServerConfiguration {
 				conf.setThreadPoolSize(AddressUtil.toInt(value, 10));
 			}
 		});
+		root.add(new DefaultHandler<ServerConfiguration>("tcpIdleTimeout") {
+			@Override
+			public void handle(Node node, ServerConfiguration conf) {
+				String value = YamlUtil.getStringValue(node);
+				conf.setTcpIdleTimeout(AddressUtil.toInt(value, 30));
+			}
+		});
+		root.add(new DefaultHandler<ServerConfiguration>("maxConnections") {
+			@Override
+			public void handle(Node node, ServerConfiguration conf) {
+				String value = YamlUtil.getStringValue(node);
+				conf.setMaxConnections(AddressUtil.toInt(value, 1024));
+			}
+		});
+		root.add(new DefaultHandler<ServerConfiguration>("maxConnectionsPerAddress") {
+			@Override
+			public void handle(Node node, ServerConfiguration conf) {
+				String value = YamlUtil.getStringValue(node);
+				conf.setMaxConnectionsPerAddress(AddressUtil.toInt(value, 64));
+			}
+		});
+		root.add(new DefaultHandler<ServerConfiguration>("maxQueriesPerConnection") {
+			@Override
+			public void handle(Node node, ServerConfiguration conf) {
+				String value = YamlUtil.getStringValue(node);
+				conf.setMaxQueriesPerConnection(AddressUtil.toInt(value, 32));
+			}
+		});
+		root.add(new DefaultHandler<ServerConfiguration>("cacheSize") {
+			@Override
+			public void handle(Node node, ServerConfiguration conf) {
+				String value = YamlUtil.getStringValue(node);
+				conf.setCacheSize(AddressUtil.toInt(value, 10000));
+			}
+		});
+		root.add(new DefaultHandler<ServerConfiguration>("udpPayloadSize") {
+			@Override
+			public void handle(Node node, ServerConfiguration conf) {
+				String value = YamlUtil.getStringValue(node);
+				conf.setUdpPayloadSize(AddressUtil.toInt(value, 1232));
+			}
+		});
+		root.add(new DefaultHandler<ServerConfiguration>("upstreamChannels") {
+			@Override
+			public void handle(Node node, ServerConfiguration conf) {
+				String value = YamlUtil.getStringValue(node);
+				conf.setUpstreamChannels(AddressUtil.toInt(value, 4));
+			}
+		});
+		root.add(new DefaultHandler<ServerConfiguration>(
+				"upstreamChannelQueries") {
+			@Override
+			public void handle(Node node, ServerConfiguration conf) {
+				String value = YamlUtil.getStringValue(node);
+				conf.setUpstreamChannelQueries(AddressUtil.toInt(value, 4096));
+			}
+		});
+		root.add(new DefaultHandler<ServerConfiguration>("upstreamTimeout") {
+			@Override
+			public void handle(Node node, ServerConfiguration conf) {
+				String value = YamlUtil.getStringValue(node);
+				conf.setUpstreamTimeout(AddressUtil.toInt(value, 2000));
+			}
+		});
+		root.add(new DefaultHandler<ServerConfiguration>("upstreamRetries") {
+			@Override
+			public void handle(Node node, ServerConfiguration conf) {
+				String value = YamlUtil.getStringValue(node);
+				conf.setUpstreamRetries(AddressUtil.toInt(value, 2));
+			}
+		});
+		root.add(new DefaultHandler<ServerConfiguration>("hedgePercentile") {
+			@Override
+			public void handle(Node node, ServerConfiguration conf) {
+				String value = YamlUtil.getStringValue(node);
+				conf.setHedgePercentile(AddressUtil.toInt(value, 0));
+			}
+		});
+		root.add(new DefaultHandler<ServerConfiguration>("hedgeRate") {
+			@Override
+			public void handle(Node node, ServerConfiguration conf) {
+				String value = YamlUtil.getStringValue(node);
+				conf.setHedgeRate(AddressUtil.toInt(value, 10));
+			}
+		});
+		root.add(new DefaultHandler<ServerConfiguration>("passThrough") {
+			@Override
+			public void handle(Node node, ServerConfiguration conf) {
+				String value = YamlUtil.getStringValue(node);
+				conf.setPassThrough(Boolean.parseBoolean(value));
+			}
+		});
+		root.add(new DefaultHandler<ServerConfiguration>("recycleMessages") {
+			@Override
+			public void handle(Node node, ServerConfiguration conf) {
+				String value = YamlUtil.getStringValue(node);
+				conf.setRecycleMessages(Boolean.parseBoolean(value));
+			}
+		});
+		root.add(new DefaultHandler<ServerConfiguration>(
+				"checkRecycledMessages") {
+			@Override
+			public void handle(Node node, ServerConfiguration conf) {
+				String value = YamlUtil.getStringValue(node);
+				conf.setCheckRecycledMessages(Boolean.parseBoolean(value));
+			}
+		});
 		return root;
 	}
 
@@ -100,8 +238,163 @@ public class ServerConfigurationImpl implements ServerConfiguration {
 		return this.forwarders;
 	}
 
+	@Override
+	public List<Zone> getZones() {
+		return this.zones;
+	}
+
     @Override
     public void setThreadPoolSize(int threadPoolSize) {
         this.threadPoolSize = threadPoolSize;
     }
+
+	@Override
+	public int getTcpIdleTimeout() {
+		return this.tcpIdleTimeout;
+	}
+
+	@Override
+	public void setTcpIdleTimeout(int tcpIdleTimeout) {
+		this.tcpIdleTimeout = tcpIdleTimeout;
+	}
+
+	@Override
+	public int getMaxConnections() {
+		return this.maxConnections;
+	}
+
+	@Override
+	public void setMaxConnections(int maxConnections) {
+		this.maxConnections = maxConnections;
+	}
+
+	@Override
+	public int getMaxConnectionsPerAddress() {
+		return this.maxConnectionsPerAddress;
+	}
+
+	@Override
+	public void setMaxConnectionsPerAddress(int maxConnectionsPerAddress) {
+		this.maxConnectionsPerAddress = maxConnectionsPerAddress;
+	}
+
+	@Override
+	public int getMaxQueriesPerConnection() {
+		return this.maxQueriesPerConnection;
+	}
+
+	@Override
+	public void setMaxQueriesPerConnection(int maxQueriesPerConnection) {
+		this.maxQueriesPerConnection = maxQueriesPerConnection;
+	}
+
+	@Override
+	public int getCacheSize() {
+		return this.cacheSize;
+	}
+
+	@Override
+	public void setCacheSize(int cacheSize) {
+		this.cacheSize = cacheSize;
+	}
+
+	@Override
+	public int getUdpPayloadSize() {
+		return this.udpPayloadSize;
+	}
+
+	@Override
+	public void setUdpPayloadSize(int udpPayloadSize) {
+		this.udpPayloadSize = udpPayloadSize;
+	}
+
+	@Override
+	public int getUpstreamChannels() {
+		return this.upstreamChannels;
+	}
+
+	@Override
+	public void setUpstreamChannels(int upstreamChannels) {
+		this.upstreamChannels = upstreamChannels;
+	}
+
+	@Override
+	public int getUpstreamChannelQueries() {
+		return this.upstreamChannelQueries;
+	}
+
+	@Override
+	public void setUpstreamChannelQueries(int upstreamChannelQueries) {
+		this.upstreamChannelQueries = upstreamChannelQueries;
+	}
+
+	@Override
+	public int getUpstreamTimeout() {
+		return this.upstreamTimeout;
+	}
+
+	@Override
+	public void setUpstreamTimeout(int upstreamTimeout) {
+		this.upstreamTimeout = upstreamTimeout;
+	}
+
+	@Override
+	public int getUpstreamRetries() {
+		return this.upstreamRetries;
+	}
+
+	@Override
+	public void setUpstreamRetries(int upstreamRetries) {
+		this.upstreamRetries = upstreamRetries;
+	}
+
+	@Override
+	public int getHedgePercentile() {
+		return this.hedgePercentile;
+	}
+
+	@Override
+	public void setHedgePercentile(int hedgePercentile) {
+		this.hedgePercentile = hedgePercentile;
+	}
+
+	@Override
+	public int getHedgeRate() {
+		return this.hedgeRate;
+	}
+
+	@Override
+	public void setHedgeRate(int hedgeRate) {
+		this.hedgeRate = hedgeRate;
+	}
+
+	@Override
+	public boolean isPassThrough() {
+		return this.passThrough;
+	}
+
+	@Override
+	public void setPassThrough(boolean passThrough) {
+		this.passThrough = passThrough;
+	}
+
+	@Override
+	public boolean isRecycleMessages() {
+		return this.recycleMessages;
+	}
+
+	@Override
+	public void setRecycleMessages(boolean recycleMessages) {
+		this.recycleMessages = recycleMessages;
+	}
+
+	@Override
+	public boolean isCheckRecycledMessages() {
+		return this.checkRecycledMessages;
+	}
+
+	@Override
+	public void setCheckRecycledMessages(boolean checkRecycledMessages) {
+		this.checkRecycledMessages = checkRecycledMessages;
+	}
 }
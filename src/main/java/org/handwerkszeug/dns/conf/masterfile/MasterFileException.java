@@ -0,0 +1,43 @@
+package org.handwerkszeug.dns.conf.masterfile;
+
+import org.handwerkszeug.dns.nls.Messages;
+
+/**
+ * an error in a master file, with the line it is at.
+ *
+ * @author taichi
+ */
+public class MasterFileException extends RuntimeException {
+
+	private static final long serialVersionUID = 4208843137155562862L;
+
+	final String source;
+
+	final int line;
+
+	public MasterFileException(String source, int line, String message) {
+		this(source, line, message, null);
+	}
+
+	public MasterFileException(String source, int line, String message,
+			Throwable cause) {
+		super(String.format(Messages.InvalidMasterFile, source, line, message),
+				cause);
+		this.source = source;
+		this.line = line;
+	}
+
+	/**
+	 * @return the path of the file, or a name for a stream.
+	 */
+	public String source() {
+		return this.source;
+	}
+
+	/**
+	 * @return the number of the line, from 1.
+	 */
+	public int line() {
+		return this.line;
+	}
+}
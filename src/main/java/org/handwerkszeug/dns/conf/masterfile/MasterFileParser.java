@@ -4,17 +4,22 @@ import static org.handwerkszeug.util.Validation.notNull;
 
 import java.io.File;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 
 import org.handwerkszeug.dns.DNSClass;
 import org.handwerkszeug.dns.Name;
 import org.handwerkszeug.dns.RRType;
+import org.handwerkszeug.dns.ResourceRecord;
 import org.handwerkszeug.dns.conf.MasterDataHandler;
 import org.handwerkszeug.dns.conf.MasterDataResource;
 import org.handwerkszeug.dns.conf.ServerConfiguration;
 import org.handwerkszeug.dns.conf.masterfile.Partition.PartitionType;
+import org.handwerkszeug.dns.nls.Messages;
+import org.handwerkszeug.dns.record.SOARecord;
+import org.handwerkszeug.dns.record.UnknownRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -22,7 +27,12 @@ import werkzeugkasten.common.util.FileUtil;
 
 /**
  * RFC1035 5. MASTER FILES
- * 
+ * <p>
+ * the records are passed to the {@link MasterDataHandler} one by one as they
+ * are read, the parser keeps only the current line. $TTL is read as RFC2308
+ * 4, and the types we don't know by name are read as RFC3597 5.
+ * </p>
+ *
  * @author taichi
  */
 public class MasterFileParser implements MasterDataResource {
@@ -31,16 +41,62 @@ public class MasterFileParser implements MasterDataResource {
 
 	static final int MAX_INCLUDE_DEPTH = 10; // TODO from configuration ?
 
+	/**
+	 * RFC2181 8. Time to Live (TTL)
+	 */
+	static final long MAX_TTL = 0x7FFFFFFFL;
+
+	static final String STREAM = "(stream)";
+
 	final Partitioner partitioner;
 
 	ServerConfiguration conf;
 
+	/**
+	 * the path of the file, or {@link #STREAM}.
+	 */
+	final String source;
+
+	/**
+	 * the directory the included files are relative to, or null.
+	 */
+	final File base;
+
 	Name origin;
-	long ttl;
+
+	String originText;
+
+	/**
+	 * the value of $TTL, or -1.
+	 */
+	long ttl = -1;
+
+	/**
+	 * the last TTL stated in a record, or -1.
+	 */
+	long lastTTL = -1;
+
+	DNSClass dnsClass = DNSClass.IN;
+
+	/**
+	 * the owner of the previous record, and the text it is read from.
+	 */
+	Name owner;
+
+	String ownerText;
 
 	IncludeContext includeContext;
 
-	int currentLine = 1; // TODO for error messages.
+	/**
+	 * the line the current entry starts at.
+	 */
+	int currentLine = 1;
+
+	long records;
+
+	final List<Partition> line = new ArrayList<Partition>();
+
+	final List<String> rdata = new ArrayList<String>();
 
 	class IncludeContext {
 		int includeDepth = 0;
@@ -48,20 +104,28 @@ public class MasterFileParser implements MasterDataResource {
 	}
 
 	public MasterFileParser(String origin, File master) {
-		this(origin, FileUtil.open(master));
-		this.includeContext.includedPath.add(master.getAbsolutePath());
+		this(new Name(origin), master, null);
 	}
 
 	public MasterFileParser(String origin, InputStream in) {
 		this.includeContext = new IncludeContext();
 		this.partitioner = new Partitioner(in);
-		this.origin = new Name(origin);
+		this.source = STREAM;
+		this.base = null;
+		origin(new Name(origin));
 	}
 
 	protected MasterFileParser(Name origin, File file, IncludeContext context) {
+		File master = file.getAbsoluteFile();
 		this.includeContext = context;
-		this.partitioner = new Partitioner(FileUtil.open(file));
-		this.origin = origin;
+		if (context == null) {
+			this.includeContext = new IncludeContext();
+			this.includeContext.includedPath.add(master.getPath());
+		}
+		this.partitioner = new Partitioner(FileUtil.open(master));
+		this.source = master.getPath();
+		this.base = master.getParentFile();
+		origin(origin);
 	}
 
 	@Override
@@ -81,11 +145,20 @@ public class MasterFileParser implements MasterDataResource {
 		this.partitioner.close();
 	}
 
+	/**
+	 * the handler is committed if the whole file is read, and is rolled back
+	 * on an error.
+	 *
+	 * @throws MasterFileException
+	 *             if the file is invalid.
+	 */
 	@Override
 	public void process(MasterDataHandler handler) {
 		notNull(handler, "processor");
 		try {
 			handler.initialize(this.conf);
+			internalProcess(handler);
+			handler.commit();
 		} catch (RuntimeException e) {
 			handler.rollback();
 			throw e;
@@ -95,113 +168,398 @@ public class MasterFileParser implements MasterDataResource {
 	}
 
 	protected void internalProcess(MasterDataHandler handler) {
-		Name currentName = null;
-		long currentTTL = 0L;
-		DNSClass currentClass = DNSClass.IN;
-
-		while (true) {
-			Iterator<Partition> line = readLine();
-			if (line.hasNext()) {
-				break;
-			}
-			Partition first = line.next();
-
-			if (isDirective(first)) {
-				String directive = first.getString().toUpperCase();
-				if ("$INCLUDE".equals(directive)) {
-					String path = null;
-					Name newOrigin = this.origin;
-					if (line.hasNext()) {
-						path = line.next().getString();
-					} else {
-						// TODO parser error
-						throw new IllegalStateException();
-					}
-					if (line.hasNext()) {
-						String s = line.next().getString();
-						newOrigin = new Name(s);
-					}
-					processInclude(path, newOrigin, handler);
-				} else if ("$ORIGIN".equals(directive)) {
-					if (line.hasNext()) {
-						String origin = line.next().getString();
-						this.origin = new Name(origin);
-					}
-				} else if ("$TTL".equals(directive)) {
-					if (line.hasNext()) {
-						String num = line.next().getString();
-						if (isTTL(num)) {
-							this.ttl = Long.parseLong(num);
-						}
-					}
+		List<Partition> line;
+		while ((line = readLine()) != null) {
+			try {
+				if (isDirective(line.get(0))) {
+					directive(line, handler);
 				} else {
-					LOG.warn("unknown directive {}", directive);
+					handler.add(record(line));
+					this.records++;
 				}
-				continue;
+			} catch (MasterFileException e) {
+				throw e;
+			} catch (RuntimeException e) {
+				throw error(e.getMessage(), e);
 			}
-			if (first.type().equals(PartitionType.Default)) {
-				currentName = new Name(first.getString());
-			}
-			if (line.hasNext()) {
-				String second = line.next().getString();
-				// ttl class type
-				// ttl type
-				// class ttl type
-				// class type
-				// type
-				if (isTTL(second)) {
-					currentTTL = Long.parseLong(second);
-					if (line.hasNext()) {
-						String third = line.next().getString();
-						if (isDNSClass(third)) {
-
-						} else if (isRRType(third)) {
-
-						} else {
-							// TODO parser error
-						}
-					} else {
-						// TODO parser error
-					}
-				} else if (isDNSClass(second)) {
-					currentClass = DNSClass.valueOf(second.toUpperCase());
-				} else if (isRRType(second)) {
-					RRType type = RRType.valueOf(second.toUpperCase());
-				} else {
-					// TODO parser error.
-				}
+		}
+		if (LOG.isInfoEnabled()) {
+			LOG.info("{} records from {}", this.records, this.source);
+		}
+	}
+
+	protected void directive(List<Partition> line, MasterDataHandler handler) {
+		String directive = line.get(0).getString().toUpperCase();
+		if ("$INCLUDE".equals(directive)) {
+			String path = argument(line, 1, directive);
+			Name newOrigin = this.origin;
+			if (2 < line.size()) {
+				newOrigin = toName(line.get(2).getString());
+			}
+			processInclude(path, newOrigin, handler);
+		} else if ("$ORIGIN".equals(directive)) {
+			origin(toName(argument(line, 1, directive)));
+		} else if ("$TTL".equals(directive)) {
+			this.ttl = toTTL(argument(line, 1, directive));
+		} else {
+			LOG.warn("unknown directive {}", directive);
+		}
+	}
+
+	protected String argument(List<Partition> line, int index,
+			String directive) {
+		if (line.size() <= index) {
+			throw error(String.format(Messages.DirectiveNeedsArgument,
+					directive));
+		}
+		return toString(line.get(index));
+	}
+
+	/**
+	 * <pre>
+	 * &lt;domain-name&gt;&lt;rr&gt; [&lt;comment&gt;]
+	 * &lt;blank&gt;&lt;rr&gt; [&lt;comment&gt;]
+	 *
+	 * &lt;rr&gt; contents take one of the following forms:
+	 * [&lt;TTL&gt;] [&lt;class&gt;] &lt;type&gt; &lt;RDATA&gt;
+	 * [&lt;class&gt;] [&lt;TTL&gt;] &lt;type&gt; &lt;RDATA&gt;
+	 * </pre>
+	 */
+	protected ResourceRecord record(List<Partition> line) {
+		Partition first = line.get(0);
+		if (isWhitespace(first)) {
+			if (this.owner == null) {
+				throw error(Messages.NoOwnerName);
+			}
+		} else {
+			owner(first.getString());
+		}
+		long ttl = -1;
+		DNSClass dc = null;
+		String type = null;
+		int i = 1;
+		for (int size = line.size(); (i < size) && (type == null); i++) {
+			String s = line.get(i).getString();
+			if ((ttl < 0) && isTTL(s)) {
+				ttl = toTTL(s);
+			} else if ((dc == null) && isDNSClass(s)) {
+				dc = DNSClass.find(s);
 			} else {
-				// TODO parser error
+				type = s;
+			}
+		}
+		if (type == null) {
+			throw error(Messages.NoRRType);
+		}
+		ResourceRecord rr = newRecord(type);
+		boolean generic = rr instanceof UnknownRecord;
+		List<String> list = this.rdata;
+		list.clear();
+		for (int size = line.size(), index = 0; i < size; i++, index++) {
+			String s = toString(line.get(i));
+			if ((generic == false) && isName(rr.type(), index)) {
+				s = qualify(s);
+			}
+			list.add(s);
+		}
+		try {
+			rr.setRDATA(list);
+		} catch (RuntimeException e) {
+			throw error(String.format(Messages.InvalidRDATA, type, list), e);
+		}
+		rr.name(this.owner);
+		if (dc != null) {
+			this.dnsClass = dc;
+		}
+		rr.dnsClass(this.dnsClass);
+		if (-1 < ttl) {
+			this.lastTTL = ttl;
+		} else if (-1 < this.ttl) {
+			ttl = this.ttl;
+		} else if (-1 < this.lastTTL) {
+			ttl = this.lastTTL;
+		} else if (rr instanceof SOARecord) {
+			ttl = ((SOARecord) rr).minimum();
+		} else {
+			throw error(Messages.NoTTL);
+		}
+		rr.ttl(ttl);
+		return rr;
+	}
+
+	protected ResourceRecord newRecord(String type) {
+		RRType t = RRType.find(type);
+		if (t != null) {
+			switch (t) {
+			case OPT:
+			case AXFR:
+			case MAILB:
+			case MAILA:
+			case ANY:
+				// pseudo-RRs and query types have no presentation format.
+				throw error(String.format(Messages.NotInMasterFile, t.name()));
+			case UNKNOWN:
+				break;
+			default:
+				return t.newRecord();
 			}
+		} else if ((4 < type.length())
+				&& type.regionMatches(true, 0, "TYPE", 0, 4)) {
+			// RFC3597 5. TYPEnnn
+			try {
+				int code = Integer.parseInt(type.substring(4));
+				if ((-1 < code) && (code < 65536)) {
+					return new UnknownRecord(code);
+				}
+			} catch (NumberFormatException e) {
+				// fall through.
+			}
+		}
+		throw error(String.format(Messages.UnknownRRType, type));
+	}
+
+	/**
+	 * @return true if the RDATA at the index is a domain name, which is
+	 *         relative to the origin unless it ends with a dot.
+	 */
+	protected boolean isName(RRType type, int index) {
+		switch (type) {
+		case NS:
+		case MD:
+		case MF:
+		case CNAME:
+		case MB:
+		case MG:
+		case MR:
+		case PTR:
+		case DNAME:
+			return index == 0;
+		case MX:
+			return index == 1;
+		case SOA:
+		case MINFO:
+			return index < 2;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * the names of the consecutive records of an owner are shared.
+	 */
+	protected void owner(String text) {
+		if (text.equals(this.ownerText) == false) {
+			this.owner = toName(text);
+			this.ownerText = text;
+		}
+	}
+
+	protected void origin(Name origin) {
+		Name o = origin;
+		if (o.isAbsolute() == false) {
+			o = new Name(o.toString() + ".");
+		}
+		this.origin = o;
+		this.originText = o.toString();
+		// the owners read so far are relative to the previous origin.
+		this.ownerText = null;
+	}
+
+	protected Name toName(String text) {
+		if ("@".equals(text)) {
+			return this.origin;
 		}
+		return new Name(qualify(text));
+	}
+
+	/**
+	 * @return the name with the origin appended, if it is relative.
+	 */
+	protected String qualify(String name) {
+		if ("@".equals(name)) {
+			return this.originText.isEmpty() ? "." : this.originText;
+		}
+		if (isAbsolute(name)) {
+			return name;
+		}
+		if (this.originText.isEmpty()) {
+			return name + ".";
+		}
+		return name + "." + this.originText;
+	}
+
+	/**
+	 * @return true if the name ends with a dot which is not escaped.
+	 */
+	protected static boolean isAbsolute(String name) {
+		int last = name.length() - 1;
+		if ((last < 0) || (name.charAt(last) != '.')) {
+			return false;
+		}
+		int escapes = 0;
+		for (int i = last - 1; (-1 < i) && (name.charAt(i) == '\\'); i--) {
+			escapes++;
+		}
+		return (escapes % 2) == 0;
 	}
 
 	protected void processInclude(String path, Name origin,
 			MasterDataHandler handler) {
-		if (MAX_INCLUDE_DEPTH < ++this.includeContext.includeDepth) {
-			// TODO error message.
-			throw new IllegalStateException();
+		IncludeContext context = this.includeContext;
+		if (MAX_INCLUDE_DEPTH <= context.includeDepth) {
+			throw error(String.format(Messages.IncludeTooDeep,
+					MAX_INCLUDE_DEPTH));
 		}
 		File file = new File(path);
-		if (this.includeContext.includedPath.add(file.getAbsolutePath()) == false) {
-			// TODO error message. cyclic include.
-			throw new IllegalStateException();
+		if ((file.isAbsolute() == false) && (this.base != null)) {
+			file = new File(this.base, path);
 		}
-
-		MasterFileParser newone = new MasterFileParser(origin, file,
-				this.includeContext);
+		String key = file.getAbsolutePath();
+		if (context.includedPath.add(key) == false) {
+			throw error(String.format(Messages.CyclicInclude, key));
+		}
+		context.includeDepth++;
 		try {
-			newone.initialize(this.conf);
-			newone.process(handler);
+			MasterFileParser newone = new MasterFileParser(origin, file,
+					context);
+			try {
+				newone.conf = this.conf;
+				newone.ttl = this.ttl;
+				newone.lastTTL = this.lastTTL;
+				newone.dnsClass = this.dnsClass;
+				newone.internalProcess(handler);
+				this.records += newone.records;
+			} finally {
+				newone.dispose();
+			}
 		} finally {
-			newone.dispose();
+			context.includeDepth--;
+			context.includedPath.remove(key);
 		}
 	}
 
-	protected Iterator<Partition> readLine() {
-		// 改行のみ 空白のみ コメントのみ は読み飛ばす。
-		// 先頭のWhitespaceは読み飛ばさないが、他のWhitespaceは読み飛ばす。
-		return null;
+	/**
+	 * reads the partitions of the next entry, which may span lines in
+	 * parentheses. the whitespaces are left out, but the one at the beginning
+	 * of the entry, which stands for the owner of the previous record. the
+	 * lines which have only whitespaces or a comment are skipped.
+	 *
+	 * @return the partitions, which are reused for the next entry. null at
+	 *         the end of the file.
+	 */
+	protected List<Partition> readLine() {
+		List<Partition> result = this.line;
+		result.clear();
+		this.currentLine = this.partitioner.line();
+		boolean beginning = true;
+		int depth = 0;
+		while (true) {
+			Partition p = this.partitioner.partition();
+			switch (p.type()) {
+			case EOF: {
+				if (0 < depth) {
+					throw error(Messages.UnbalancedParentheses);
+				}
+				return hasContents(result) ? result : null;
+			}
+			case Comment:
+			case EOL: {
+				// a comment ends the line, but the last one, EOF follows.
+				if (PartitionType.Comment.equals(p.type())) {
+					byte[] b = p.division();
+					if (b[b.length - 1] != '\n') {
+						continue;
+					}
+				}
+				if (0 < depth) {
+					continue;
+				}
+				if (hasContents(result)) {
+					return result;
+				}
+				result.clear();
+				this.currentLine = this.partitioner.line();
+				beginning = true;
+				continue;
+			}
+			case LP: {
+				depth++;
+				break;
+			}
+			case RP: {
+				if (--depth < 0) {
+					throw error(Messages.UnbalancedParentheses);
+				}
+				break;
+			}
+			case Whitespace: {
+				if (beginning) {
+					result.add(p);
+				}
+				break;
+			}
+			case Quoted: {
+				byte[] b = p.division();
+				if ((b.length < 2) || (b[b.length - 1] != '"')) {
+					throw error(Messages.UnterminatedString);
+				}
+				result.add(p);
+				break;
+			}
+			default: {
+				result.add(p);
+			}
+			}
+			beginning = false;
+		}
+	}
+
+	protected boolean hasContents(List<Partition> line) {
+		int size = line.size();
+		return (1 < size)
+				|| ((size == 1) && (isWhitespace(line.get(0)) == false));
+	}
+
+	/**
+	 * @return the text of the partition, a quoted string is unquoted and
+	 *         unescaped.
+	 */
+	protected String toString(Partition p) {
+		if (PartitionType.Quoted.equals(p.type()) == false) {
+			return p.getString();
+		}
+		byte[] b = p.division();
+		byte[] newone = new byte[b.length];
+		int length = 0;
+		for (int i = 1, end = b.length - 1; i < end; i++) {
+			byte c = b[i];
+			if ((c == '\\') && (i + 1 < end)) {
+				c = b[++i];
+				if (isDigit(c) && (i + 2 < end) && isDigit(b[i + 1])
+						&& isDigit(b[i + 2])) {
+					// \DDD
+					int v = ((c - '0') * 100) + ((b[i + 1] - '0') * 10)
+							+ (b[i + 2] - '0');
+					c = (byte) v;
+					i += 2;
+				}
+			}
+			newone[length++] = c;
+		}
+		return new String(newone, 0, length);
+	}
+
+	static boolean isDigit(int c) {
+		return ('0' <= c) && (c <= '9');
+	}
+
+	protected MasterFileException error(String message) {
+		return error(message, null);
+	}
+
+	protected MasterFileException error(String message, Throwable cause) {
+		return new MasterFileException(this.source, this.currentLine, message,
+				cause);
 	}
 
 	protected boolean isDirective(Partition p) {
@@ -213,8 +571,65 @@ public class MasterFileParser implements MasterDataResource {
 		return PartitionType.Whitespace.equals(p.type());
 	}
 
+	/**
+	 * a TTL starts with a digit, a class or a type never does.
+	 */
 	protected boolean isTTL(String p) {
-		return false;
+		return (0 < p.length()) && isDigit(p.charAt(0));
+	}
+
+	/**
+	 * reads the seconds, or the units of BIND such as <code>1h30m</code>.
+	 */
+	protected long toTTL(String p) {
+		long result = 0;
+		long value = -1;
+		for (int i = 0, length = p.length(); i < length; i++) {
+			char c = p.charAt(i);
+			if (isDigit(c)) {
+				value = (value < 0 ? 0 : value * 10) + (c - '0');
+				if (MAX_TTL < value) {
+					break;
+				}
+				continue;
+			}
+			long unit = unit(c);
+			if ((value < 0) || (unit < 0)) {
+				value = -1;
+				break;
+			}
+			result += value * unit;
+			value = -1;
+			if (i + 1 == length) {
+				value = 0;
+			}
+		}
+		if ((value < 0) || (MAX_TTL < (result += value))) {
+			throw error(String.format(Messages.InvalidTTL, p));
+		}
+		return result;
+	}
+
+	static long unit(char c) {
+		switch (c) {
+		case 's':
+		case 'S':
+			return 1;
+		case 'm':
+		case 'M':
+			return 60;
+		case 'h':
+		case 'H':
+			return 60 * 60;
+		case 'd':
+		case 'D':
+			return 24 * 60 * 60;
+		case 'w':
+		case 'W':
+			return 7 * 24 * 60 * 60;
+		default:
+			return -1;
+		}
 	}
 
 	protected boolean isDNSClass(String p) {
@@ -223,7 +638,7 @@ public class MasterFileParser implements MasterDataResource {
 	}
 
 	protected boolean isRRType(String p) {
-		return false;
+		return RRType.find(p) != null;
 	}
 
 }
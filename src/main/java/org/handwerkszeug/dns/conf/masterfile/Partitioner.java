@@ -2,30 +2,62 @@ package org.handwerkszeug.dns.conf.masterfile;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
 
 import org.handwerkszeug.dns.conf.masterfile.Partition.PartitionType;
-import org.jboss.netty.buffer.ChannelBuffer;
-import org.jboss.netty.buffer.DynamicChannelBuffer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import werkzeugkasten.common.exception.IORuntimeException;
+
+/**
+ * splits a master file into {@link Partition}s. the source is read in blocks
+ * into a fixed buffer, and the bytes of a partition are gathered into a
+ * growing one, so that a file of any size is read in constant memory.
+ *
+ * @author taichi
+ */
 public class Partitioner {
 
 	static final Logger LOG = LoggerFactory.getLogger(Partitioner.class);
 
+	static final int EOF = -1;
+
 	final InputStream source;
 
-	static final int DEFAULT_BUFFER_SIZE = 2000;
-	protected ChannelBuffer working;
+	static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	protected final byte[] buffer;
+
+	protected int position;
+
+	protected int limit;
+
+	protected byte[] token = new byte[256];
+
+	protected int tokenLength;
+
 	protected Partition next;
 
+	/**
+	 * the number of the line of the last byte read, from 1.
+	 */
+	protected int line = 1;
+
 	public Partitioner(InputStream in) {
 		this(in, DEFAULT_BUFFER_SIZE);
 	}
 
 	public Partitioner(InputStream in, int size) {
 		this.source = in;
-		this.working = new DynamicChannelBuffer(size);
+		this.buffer = new byte[size];
+	}
+
+	/**
+	 * @return the number of the line the partitioner is at, from 1.
+	 */
+	public int line() {
+		return this.line;
 	}
 
 	public Partition partition() {
@@ -35,146 +67,154 @@ public class Partitioner {
 			return result;
 		}
 		while (true) {
-			byte ch = readByte();
-			if (ch == -1) {
-				if (0 < this.working.readerIndex()) {
-					result = makePartition(PartitionType.Default, 0);
-					discardBefore(0);
-				} else {
-					break;
+			int ch = readByte();
+			switch (ch) {
+			case EOF: {
+				if (0 < this.tokenLength) {
+					return makePartition(PartitionType.Default);
 				}
+				return Partition.EOF;
 			}
-			if (ch == '\r') {
-				byte n = readByte();
-				if (n == '\n') {
-					if (this.working.readerIndex() < 3) {
-						this.working.discardReadBytes();
-						return Partition.EOL;
-					}
-					this.next = Partition.EOL;
-					result = makePartition(PartitionType.Default, 2);
-					discardBefore(0);
-				} else {
-					this.working.readerIndex(this.working.readerIndex() - 1);
+			case '\r': {
+				if (readByte() == '\n') {
+					this.line++;
+					return currentOrNext(Partition.EOL);
 				}
+				unread();
+				append(ch);
+				break;
 			}
-			if (ch == '\n') {
-				if (this.working.readerIndex() < 2) {
-					this.working.discardReadBytes();
-					return Partition.EOL;
-				}
-				this.next = Partition.EOL;
-				result = makePartition(PartitionType.Default, 1);
-				discardBefore(0);
+			case '\n': {
+				this.line++;
+				return currentOrNext(Partition.EOL);
 			}
-
-			if (ch == ';') {
-				result = readTo(partitionBefore(), PartitionType.Comment, '\n');
+			case ';': {
+				return readTo(PartitionType.Comment, ch, '\n');
 			}
-
-			if (ch == '(') {
-				result = currentOrNext(partitionBefore(), Partition.LP);
+			case '(': {
+				return currentOrNext(Partition.LP);
 			}
-			if (ch == ')') {
-				result = currentOrNext(partitionBefore(), Partition.RP);
+			case ')': {
+				return currentOrNext(Partition.RP);
 			}
-
-			if ((ch == '"')) {
-				result = readTo(partitionBefore(), PartitionType.Quoted, '"');
+			case '"': {
+				return readTo(PartitionType.Quoted, ch, '"');
 			}
-
-			if (((ch == ' ') || (ch == '\t'))) {
-				result = partitionBefore();
-				int begin = this.working.readerIndex() - 1;
-				while (true) {
-					byte c = readByte();
-					if ((c != ' ') && (c != '\t')) {
-						int end = this.working.readerIndex() - 1;
-						Partition ws = makePartition(PartitionType.Whitespace,
-								begin, end);
-						result = currentOrNext(result, ws, 1);
-						break;
-					}
+			case ' ':
+			case '\t': {
+				Partition before = partitionBefore();
+				append(ch);
+				int c = readByte();
+				while ((c == ' ') || (c == '\t')) {
+					append(c);
+					c = readByte();
 				}
+				unread();
+				return currentOrNext(before,
+						makePartition(PartitionType.Whitespace));
+			}
+			default: {
+				append(ch);
 			}
-			if (result != null) {
-				return result;
 			}
 		}
-		return Partition.EOF;
 	}
 
-	protected Partition currentOrNext(Partition before, Partition p) {
-		return currentOrNext(before, p, 0);
+	protected Partition currentOrNext(Partition p) {
+		return currentOrNext(partitionBefore(), p);
 	}
 
-	protected Partition currentOrNext(Partition before, Partition p, int discard) {
-		Partition result = before;
+	protected Partition currentOrNext(Partition before, Partition p) {
 		if (before == null) {
-			result = p;
-		} else {
-			this.next = p;
+			return p;
 		}
-		discardBefore(discard);
-		return result;
+		this.next = p;
+		return before;
 	}
 
-	protected Partition readTo(Partition back, PartitionType type, char stop) {
-		Partition result = back;
-		int begin = this.working.readerIndex() - 1;
-		while (true) {
-			byte c = readByte();
-			if ((c == stop) || (c == -1)) {
-				int end = this.working.readerIndex();
-				Partition p = makePartition(type, begin, end);
-				result = currentOrNext(back, p);
+	/**
+	 * reads to the stop, which is included. a backslash escapes the next
+	 * byte in a quoted string.
+	 */
+	protected Partition readTo(PartitionType type, int start, int stop) {
+		Partition before = partitionBefore();
+		append(start);
+		boolean escape = false;
+		for (int c = readByte(); c != EOF; c = readByte()) {
+			append(c);
+			if (c == '\n') {
+				this.line++;
+			}
+			if (escape) {
+				escape = false;
+			} else if ((c == '\\') && (type == PartitionType.Quoted)) {
+				escape = true;
+			} else if (c == stop) {
 				break;
 			}
 		}
-		return result;
+		return currentOrNext(before, makePartition(type));
+	}
+
+	/**
+	 * @return the next byte, or {@link #EOF}.
+	 */
+	protected int readByte() {
+		if (this.limit <= this.position) {
+			if (fill() == false) {
+				// an unread at the end must not give the last byte again.
+				this.position = this.limit + 1;
+				return EOF;
+			}
+		}
+		return this.buffer[this.position++] & 0xFF;
+	}
+
+	/**
+	 * steps back the byte just read.
+	 */
+	protected void unread() {
+		this.position--;
 	}
 
-	protected byte readByte() {
+	protected boolean fill() {
 		try {
-			if (this.working.readable() == false) {
-				if (0 < this.source.available()) {
-					this.working.writeBytes(this.source, DEFAULT_BUFFER_SIZE);
-				}
+			int read = 0;
+			while (read == 0) {
+				read = this.source.read(this.buffer, 0, this.buffer.length);
 			}
-			if (this.working.readable()) {
-				return this.working.readByte();
+			if (read < 0) {
+				this.position = this.limit = 0;
+				return false;
 			}
-			return -1;
+			this.position = 0;
+			this.limit = read;
+			return true;
 		} catch (IOException e) {
-			throw new RuntimeException(e);
+			throw new IORuntimeException(e);
 		}
 	}
 
-	protected Partition makePartition(PartitionType type, int begin, int end) {
-		byte[] newone = new byte[end - begin];
-		this.working.getBytes(begin, newone);
-		return new Partition(type, newone);
+	protected void append(int b) {
+		if (this.token.length <= this.tokenLength) {
+			this.token = Arrays.copyOf(this.token, this.token.length << 1);
+		}
+		this.token[this.tokenLength++] = (byte) b;
 	}
 
-	protected Partition makePartition(PartitionType type, int stripSize) {
-		int newsize = this.working.readerIndex() - stripSize;
-		byte[] newone = new byte[newsize];
-		this.working.getBytes(0, newone);
+	protected Partition makePartition(PartitionType type) {
+		byte[] newone = Arrays.copyOf(this.token, this.tokenLength);
+		this.tokenLength = 0;
 		return new Partition(type, newone);
 	}
 
 	protected Partition partitionBefore() {
-		if (1 < this.working.readerIndex()) {
-			return makePartition(PartitionType.Default, 1);
+		if (0 < this.tokenLength) {
+			return makePartition(PartitionType.Default);
 		}
 		return null;
 	}
 
-	protected void discardBefore(int backSize) {
-		this.working.readerIndex(this.working.readerIndex() - backSize);
-		this.working.discardReadBytes();
-	}
-
 	public void close() {
 		try {
 			this.source.close();
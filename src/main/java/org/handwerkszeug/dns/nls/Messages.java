@@ -18,6 +18,8 @@ public class Messages {
 
 	public static String InvalidCompressionMask = "Invalid compression mask %s";
 
+	public static String InvalidCompressionPointer = "Invalid compression pointer %s";
+
 	public static String LabelsMustBe63orLess = "Labels must be 63 characters or less. current input=%s";
 
 	public static String NamesMustBe255orLess = "Labels must be 255 characters or less. current size=%s";
@@ -37,4 +39,38 @@ public class Messages {
 	public static String NoResourceRecord = "%s has no resource record.";
 
 	public static String Not16bitValue = "%s is not 16bit value. current value=%s";
+
+	public static String InvalidMasterFile = "%s line %d: %s";
+
+	public static String UnknownDirective = "unknown directive %s";
+
+	public static String DirectiveNeedsArgument = "%s needs an argument";
+
+	public static String IncludeTooDeep = "$INCLUDE is nested more than %d times";
+
+	public static String CyclicInclude = "%s includes itself";
+
+	public static String UnbalancedParentheses = "unbalanced parentheses";
+
+	public static String NoOwnerName = "no owner name";
+
+	public static String NoTTL = "no TTL, and no $TTL";
+
+	public static String InvalidTTL = "invalid TTL %s";
+
+	public static String NoRRType = "no type";
+
+	public static String UnknownRRType = "unknown type %s";
+
+	public static String NotInMasterFile = "%s can't be in a master file";
+
+	public static String UnterminatedString = "unterminated string";
+
+	public static String InvalidRDATA = "invalid RDATA of %s %s";
+
+	public static String NoSOAFirst = "the first record of %s is not its SOA record";
+
+	public static String OutOfZone = "%s is out of the zone %s";
+
+	public static String InvalidZoneDefinition = "a zone needs a name and a file. %s";
 }
@@ -60,10 +60,13 @@ public class AAAARecord extends AbstractRecord<AAAARecord> {
 	public void setRDATA(List<String> list) {
 		if (0 < list.size()) {
 			String s = list.get(0);
-			if (AddressUtil.v6Address.matcher(s).matches()) {
-				InetAddress addr = AddressUtil.getByName(s);
-				this.address = addr.getAddress();
+			// the hex digits are case-insensitive, RFC4291 2.2.
+			String lower = s.toLowerCase();
+			if (AddressUtil.v6Address.matcher(lower).matches() == false) {
+				throw new IllegalArgumentException(s);
 			}
+			InetAddress addr = AddressUtil.getByName(s);
+			this.address = addr.getAddress();
 		} else {
 			// TODO error message.
 			throw new IllegalArgumentException();
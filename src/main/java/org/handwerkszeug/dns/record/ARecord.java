@@ -3,6 +3,7 @@ package org.handwerkszeug.dns.record;
 import java.net.InetAddress;
 import java.util.List;
 
+import org.handwerkszeug.dns.Name;
 import org.handwerkszeug.dns.NameCompressor;
 import org.handwerkszeug.dns.RRType;
 import org.handwerkszeug.dns.ResourceRecord;
@@ -45,10 +46,11 @@ public class ARecord extends AbstractRecord<ARecord> {
 	public void setRDATA(List<String> list) {
 		if (0 < list.size()) {
 			String s = list.get(0);
-			if (AddressUtil.v4Address.matcher(s).matches()) {
-				InetAddress addr = AddressUtil.getByName(s);
-				this.address = AddressUtil.toLong(addr);
+			if (AddressUtil.v4Address.matcher(s).matches() == false) {
+				throw new IllegalArgumentException(s);
 			}
+			InetAddress addr = AddressUtil.getByName(s);
+			this.address = AddressUtil.toLong(addr);
 		} else {
 			// TODO error message.
 			throw new IllegalArgumentException();
@@ -77,19 +79,16 @@ public class ARecord extends AbstractRecord<ARecord> {
 	}
 
 	@Override
-	public int hashCode() {
+	protected int hashCode(Name name, long ttl) {
 		final int prime = 31;
-		int result = super.hashCode();
+		int result = super.hashCode(name, ttl);
 		result = prime * result + (int) (this.address ^ (this.address >>> 32));
 		return result;
 	}
 
 	@Override
-	public boolean equals(Object obj) {
-		if (this == obj) {
-			return true;
-		}
-		if (!super.equals(obj)) {
+	protected boolean equalsRDATA(AbstractRecord<?> obj) {
+		if (!super.equalsRDATA(obj)) {
 			return false;
 		}
 		if (getClass() != obj.getClass()) {
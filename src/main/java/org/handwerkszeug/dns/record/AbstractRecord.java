@@ -9,6 +9,7 @@ import org.handwerkszeug.dns.NameCompressor;
 import org.handwerkszeug.dns.RRType;
 import org.handwerkszeug.dns.ResourceRecord;
 import org.handwerkszeug.dns.nls.Messages;
+import org.handwerkszeug.util.CompareUtil;
 import org.jboss.netty.buffer.ChannelBuffer;
 
 import werkzeugkasten.common.util.StringUtil;
@@ -47,6 +48,11 @@ public abstract class AbstractRecord<T extends ResourceRecord> implements
 		return this.type;
 	}
 
+	@Override
+	public int typeCode() {
+		return this.type.value();
+	}
+
 	@Override
 	public Name name() {
 		return this.name;
@@ -89,11 +95,15 @@ public abstract class AbstractRecord<T extends ResourceRecord> implements
 
 	public static ResourceRecord parseSection(ChannelBuffer buffer) {
 		Name n = new Name(buffer);
-		RRType t = RRType.valueOf(buffer.readUnsignedShort());
-		DNSClass dc = DNSClass.valueOf(buffer.readUnsignedShort());
-		ResourceRecord result = t.newRecord();
+		ResourceRecord result = RRType.newRecord(buffer.readUnsignedShort());
 		result.name(n);
-		result.dnsClass(dc);
+		if (RRType.OPT.equals(result.type())) {
+			// RFC6891 6.1.2 CLASS is the requestor's UDP payload size
+			OPTRecord opt = (OPTRecord) result;
+			opt.udpPayloadSize(buffer.readUnsignedShort());
+		} else {
+			result.dnsClass(DNSClass.valueOf(buffer.readUnsignedShort()));
+		}
 		return result;
 	}
 
@@ -108,8 +118,13 @@ public abstract class AbstractRecord<T extends ResourceRecord> implements
 	public static void writeSection(ChannelBuffer buffer,
 			NameCompressor compressor, ResourceRecord rr) {
 		rr.name().write(buffer, compressor);
-		buffer.writeShort(rr.type().value());
-		buffer.writeShort(rr.dnsClass().value());
+		buffer.writeShort(rr.typeCode());
+		ResourceRecord body = ImmutableRecord.unwrap(rr);
+		if (body instanceof OPTRecord) {
+			buffer.writeShort(((OPTRecord) body).udpPayloadSize());
+		} else {
+			buffer.writeShort(rr.dnsClass().value());
+		}
 	}
 
 	/**
@@ -246,7 +261,7 @@ public abstract class AbstractRecord<T extends ResourceRecord> implements
 		if (o == null) {
 			return 1;
 		}
-		int result = this.type().compareTo(o.type());
+		int result = CompareUtil.compare(this.typeCode(), o.typeCode());
 		if (result != 0) {
 			return result;
 		}
@@ -259,14 +274,21 @@ public abstract class AbstractRecord<T extends ResourceRecord> implements
 
 	@Override
 	public int hashCode() {
+		return hashCode(this.name, this.ttl);
+	}
+
+	/**
+	 * @return the hash of this record with the name and the TTL of an
+	 *         {@link ImmutableRecord} made from it.
+	 */
+	protected int hashCode(Name name, long ttl) {
 		final int prime = 31;
 		int result = 1;
 		result = prime * result
 				+ ((this.dnsClass == null) ? 0 : this.dnsClass.hashCode());
-		result = prime * result
-				+ ((this.name == null) ? 0 : this.name.hashCode());
+		result = prime * result + ((name == null) ? 0 : name.hashCode());
 		result = prime * result + this.rdlength;
-		result = prime * result + (int) (this.ttl ^ (this.ttl >>> 32));
+		result = prime * result + (int) (ttl ^ (ttl >>> 32));
 		result = prime * result
 				+ ((this.type == null) ? 0 : this.type.hashCode());
 		return result;
@@ -277,6 +299,9 @@ public abstract class AbstractRecord<T extends ResourceRecord> implements
 		if (this == obj) {
 			return true;
 		}
+		if (obj instanceof ImmutableRecord) {
+			return obj.equals(this);
+		}
 		if (obj instanceof AbstractRecord) {
 			@SuppressWarnings("unchecked")
 			AbstractRecord<T> other = (AbstractRecord<T>) obj;
@@ -286,9 +311,6 @@ public abstract class AbstractRecord<T extends ResourceRecord> implements
 	}
 
 	public boolean equals(AbstractRecord<T> other) {
-		if (this.dnsClass != other.dnsClass) {
-			return false;
-		}
 		if (this.name == null) {
 			if (other.name != null) {
 				return false;
@@ -296,10 +318,21 @@ public abstract class AbstractRecord<T extends ResourceRecord> implements
 		} else if (!this.name.equals(other.name)) {
 			return false;
 		}
-		if (this.rdlength != other.rdlength) {
+		if (this.ttl != other.ttl) {
 			return false;
 		}
-		if (this.ttl != other.ttl) {
+		return equalsRDATA(other);
+	}
+
+	/**
+	 * @return true if the other record has the same class, type and RDATA,
+	 *         whatever its name and TTL.
+	 */
+	protected boolean equalsRDATA(AbstractRecord<?> other) {
+		if (this.dnsClass != other.dnsClass) {
+			return false;
+		}
+		if (this.rdlength != other.rdlength) {
 			return false;
 		}
 		if (this.type != other.type) {
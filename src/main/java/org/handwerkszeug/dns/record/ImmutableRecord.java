@@ -0,0 +1,208 @@
+package org.handwerkszeug.dns.record;
+
+import static org.handwerkszeug.util.Validation.notNull;
+
+import java.util.List;
+
+import org.handwerkszeug.dns.DNSClass;
+import org.handwerkszeug.dns.Name;
+import org.handwerkszeug.dns.NameCompressor;
+import org.handwerkszeug.dns.RRType;
+import org.handwerkszeug.dns.ResourceRecord;
+import org.jboss.netty.buffer.ChannelBuffer;
+
+/**
+ * a read only record, which the zones and the cache hand out without copying.
+ * the owner name and the TTL belong to the view, the RDATA is shared with the
+ * record it is made from, so that a TTL adjusted by the cache or a name
+ * synthesized from a wildcard costs one small object.
+ * <p>
+ * the record given to {@link #of(ResourceRecord)} must not be changed after.
+ * </p>
+ * 
+ * @author taichi
+ */
+public class ImmutableRecord implements ResourceRecord,
+		Comparable<ResourceRecord> {
+
+	protected final AbstractRecord<?> delegate;
+
+	protected final Name name;
+
+	protected final long ttl;
+
+	protected ImmutableRecord(AbstractRecord<?> delegate, Name name, long ttl) {
+		this.delegate = delegate;
+		this.name = name;
+		this.ttl = ttl;
+	}
+
+	public static ImmutableRecord of(ResourceRecord rr) {
+		notNull(rr, "rr");
+		if (rr instanceof ImmutableRecord) {
+			return (ImmutableRecord) rr;
+		}
+		return new ImmutableRecord(AbstractRecord.class.cast(rr), rr.name(),
+				rr.ttl());
+	}
+
+	/**
+	 * @return the record which holds the RDATA, to read the fields of its
+	 *         type.
+	 */
+	public static ResourceRecord unwrap(ResourceRecord rr) {
+		if (rr instanceof ImmutableRecord) {
+			return ((ImmutableRecord) rr).delegate;
+		}
+		return rr;
+	}
+
+	public ImmutableRecord withName(Name name) {
+		notNull(name, "name");
+		if (this.name == name) {
+			return this;
+		}
+		return new ImmutableRecord(this.delegate, name, this.ttl);
+	}
+
+	public ImmutableRecord withTTL(long ttl) {
+		if (this.ttl == ttl) {
+			return this;
+		}
+		return new ImmutableRecord(this.delegate, this.name, ttl);
+	}
+
+	@Override
+	public RRType type() {
+		return this.delegate.type();
+	}
+
+	@Override
+	public int typeCode() {
+		return this.delegate.typeCode();
+	}
+
+	@Override
+	public Name name() {
+		return this.name;
+	}
+
+	@Override
+	public void name(Name name) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public DNSClass dnsClass() {
+		return this.delegate.dnsClass();
+	}
+
+	@Override
+	public void dnsClass(DNSClass dnsClass) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public long ttl() {
+		return this.ttl;
+	}
+
+	@Override
+	public void ttl(long ttl) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public int rdlength() {
+		return this.delegate.rdlength();
+	}
+
+	@Override
+	public void rdlength(int rdlength) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void setRDATA(List<String> list) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void parse(ChannelBuffer buffer) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void write(ChannelBuffer buffer, NameCompressor compressor) {
+		buffer.writeInt((int) this.ttl);
+		int rdlengthIndex = buffer.writerIndex();
+		buffer.writeShort(0);
+
+		this.delegate.writeRDATA(buffer, compressor);
+
+		int rdlength = (buffer.writerIndex() - rdlengthIndex - 2) & 0xFFFF;
+		buffer.setShort(rdlengthIndex, rdlength);
+	}
+
+	@Override
+	public ResourceRecord toQnameRecord(Name qname) {
+		return withName(qname);
+	}
+
+	@Override
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public int compareTo(ResourceRecord o) {
+		if (this == o) {
+			return 0;
+		}
+		int result = ((Comparable) this.delegate).compareTo(unwrap(o));
+		if (result == 0) {
+			result = this.name.compareTo(o.name());
+		}
+		return result;
+	}
+
+	/**
+	 * @return a mutable copy of the record this view stands for.
+	 */
+	public ResourceRecord toRecord() {
+		ResourceRecord rr = this.delegate.toQnameRecord(this.name);
+		rr.ttl(this.ttl);
+		return rr;
+	}
+
+	@Override
+	public int hashCode() {
+		return this.delegate.hashCode(this.name, this.ttl);
+	}
+
+	/**
+	 * a view is equal to the records it stands for, mutable or not. the RDATA
+	 * of the delegates is compared in place.
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if ((obj instanceof ResourceRecord) == false) {
+			return false;
+		}
+		ResourceRecord other = (ResourceRecord) obj;
+		if ((this.ttl != other.ttl())
+				|| (this.name.equals(other.name()) == false)) {
+			return false;
+		}
+		ResourceRecord od = unwrap(other);
+		if (this.delegate == od) {
+			return true;
+		}
+		return (od instanceof AbstractRecord)
+				&& this.delegate.equalsRDATA((AbstractRecord<?>) od);
+	}
+
+	@Override
+	public String toString() {
+		return toRecord().toString();
+	}
+}
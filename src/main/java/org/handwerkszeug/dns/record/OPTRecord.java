@@ -0,0 +1,186 @@
+package org.handwerkszeug.dns.record;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.handwerkszeug.dns.Name;
+import org.handwerkszeug.dns.NameCompressor;
+import org.handwerkszeug.dns.RRType;
+import org.handwerkszeug.dns.ResourceRecord;
+import org.handwerkszeug.dns.nls.Messages;
+import org.handwerkszeug.util.CompareUtil;
+import org.jboss.netty.buffer.ChannelBuffer;
+
+/**
+ * RFC6891 6.1.2. Wire Format
+ * 
+ * <pre>
+ * +------------+--------------+------------------------------+
+ * | Field Name | Field Type   | Description                  |
+ * +------------+--------------+------------------------------+
+ * | NAME       | domain name  | MUST be 0 (root domain)      |
+ * | TYPE       | u_int16_t    | OPT (41)                     |
+ * | CLASS      | u_int16_t    | requestor's UDP payload size |
+ * | TTL        | u_int32_t    | extended RCODE and flags     |
+ * | RDLEN      | u_int16_t    | length of all RDATA          |
+ * | RDATA      | octet stream | {attribute,value} pairs      |
+ * +------------+--------------+------------------------------+
+ * </pre>
+ * 
+ * the extended RCODE and flags are kept in the TTL field as they are on the
+ * wire.
+ * 
+ * @author taichi
+ */
+public class OPTRecord extends AbstractRecord<OPTRecord> {
+
+	/**
+	 * RFC6891 6.2.5 values lower than 512 MUST be treated as equal to 512.
+	 */
+	public static final int MIN_PAYLOAD_SIZE = 512;
+
+	static final long FLAGS_DO = 0x8000L;
+
+	protected int udpPayloadSize = MIN_PAYLOAD_SIZE;
+
+	protected List<Option> options = new ArrayList<Option>();
+
+	public OPTRecord() {
+		super(RRType.OPT);
+		this.name(Name.NULL_NAME);
+	}
+
+	public OPTRecord(int udpPayloadSize) {
+		this();
+		this.udpPayloadSize(udpPayloadSize);
+	}
+
+	public OPTRecord(OPTRecord from) {
+		super(from);
+		this.udpPayloadSize = from.udpPayloadSize();
+		for (Option o : from.options()) {
+			this.options.add(new Option(o.code(), o.data()));
+		}
+	}
+
+	@Override
+	protected void parseRDATA(ChannelBuffer buffer) {
+		int end = buffer.readerIndex() + rdlength();
+		while (buffer.readerIndex() < end) {
+			int code = buffer.readUnsignedShort();
+			byte[] data = new byte[buffer.readUnsignedShort()];
+			buffer.readBytes(data);
+			this.options.add(new Option(code, data));
+		}
+	}
+
+	@Override
+	protected void writeRDATA(ChannelBuffer buffer, NameCompressor compressor) {
+		for (Option o : this.options) {
+			buffer.writeShort(o.code());
+			buffer.writeShort(o.data().length);
+			buffer.writeBytes(o.data());
+		}
+	}
+
+	@Override
+	public void setRDATA(List<String> list) {
+		throw new UnsupportedOperationException(String.format(
+				Messages.NotInMasterFile, RRType.OPT.name()));
+	}
+
+	@Override
+	protected ResourceRecord newInstance() {
+		return new OPTRecord(this);
+	}
+
+	public int udpPayloadSize() {
+		return this.udpPayloadSize;
+	}
+
+	public void udpPayloadSize(int size) {
+		this.udpPayloadSize = Math.max(MIN_PAYLOAD_SIZE, Math.min(size, 0xFFFF));
+	}
+
+	/**
+	 * upper 8 bits of the extended 12-bit RCODE.
+	 */
+	public int extendedRCode() {
+		return (int) ((ttl() >>> 24) & 0xFF);
+	}
+
+	public void extendedRCode(int rcode) {
+		ttl((ttl() & 0x00FFFFFFL) | ((rcode & 0xFFL) << 24));
+	}
+
+	public int version() {
+		return (int) ((ttl() >>> 16) & 0xFF);
+	}
+
+	public void version(int version) {
+		ttl((ttl() & 0xFF00FFFFL) | ((version & 0xFFL) << 16));
+	}
+
+	/**
+	 * DNSSEC OK bit. RFC3225
+	 */
+	public boolean dnssecOK() {
+		return (ttl() & FLAGS_DO) != 0;
+	}
+
+	public void dnssecOK(boolean is) {
+		if (is) {
+			ttl(ttl() | FLAGS_DO);
+		} else {
+			ttl(ttl() & ~FLAGS_DO);
+		}
+	}
+
+	public List<Option> options() {
+		return this.options;
+	}
+
+	@Override
+	public int compareTo(OPTRecord o) {
+		if ((this != o) && (super.compareTo(o) == 0)) {
+			return CompareUtil.compare(this.udpPayloadSize, o.udpPayloadSize);
+		}
+		return 0;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder stb = new StringBuilder();
+		stb.append("; EDNS: version: ");
+		stb.append(version());
+		stb.append(", flags:");
+		if (dnssecOK()) {
+			stb.append(" do");
+		}
+		stb.append("; udp: ");
+		stb.append(udpPayloadSize());
+		return stb.toString();
+	}
+
+	/**
+	 * RFC6891 6.1.2 {attribute,value} pair of RDATA.
+	 */
+	public static class Option {
+		final int code;
+		final byte[] data;
+
+		public Option(int code, byte[] data) {
+			this.code = code;
+			this.data = Arrays.copyOf(data, data.length);
+		}
+
+		public int code() {
+			return this.code;
+		}
+
+		public byte[] data() {
+			return this.data;
+		}
+	}
+}
@@ -119,14 +119,28 @@ public class SOARecord extends AbstractRecord<SOARecord> {
 
 	@Override
 	public void setRDATA(List<String> list) {
-		if (6 < list.size()) {
-			// XXX
+		if (list.size() == 7) {
+			this.mname(new Name(list.get(0)));
+			this.rname(new Name(list.get(1)));
+			this.serial(toUInt(list.get(2)));
+			this.refresh(toUInt(list.get(3)));
+			this.retry(toUInt(list.get(4)));
+			this.expire(toUInt(list.get(5)));
+			this.minimum(toUInt(list.get(6)));
 		} else {
 			// TODO error message.
 			throw new IllegalArgumentException();
 		}
 	}
 
+	protected static long toUInt(String s) {
+		long l = Long.parseLong(s);
+		if ((l < 0) || (0xFFFFFFFFL < l)) {
+			throw new IllegalArgumentException(s);
+		}
+		return l;
+	}
+
 	@Override
 	protected ResourceRecord newInstance() {
 		return new SOARecord(this);
@@ -32,6 +32,7 @@ public class TXTRecord extends AbstractRecord<TXTRecord> {
 			for (byte[] b : from.strings) {
 				newone.add(Arrays.copyOf(b, b.length));
 			}
+			this.strings = newone;
 		}
 	}
 
@@ -53,6 +54,7 @@ public class TXTRecord extends AbstractRecord<TXTRecord> {
 
 	@Override
 	public void setRDATA(List<String> list) {
+		this.strings = new ArrayList<byte[]>(list.size());
 		for (String s : list) {
 			this.strings.add(s.getBytes());
 		}
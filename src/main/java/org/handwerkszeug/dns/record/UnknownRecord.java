@@ -0,0 +1,161 @@
+package org.handwerkszeug.dns.record;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.handwerkszeug.dns.Name;
+import org.handwerkszeug.dns.NameCompressor;
+import org.handwerkszeug.dns.RRType;
+import org.handwerkszeug.dns.ResourceRecord;
+import org.handwerkszeug.dns.nls.Messages;
+import org.handwerkszeug.util.CompareUtil;
+import org.jboss.netty.buffer.ChannelBuffer;
+
+import werkzeugkasten.common.util.StringUtil;
+
+/**
+ * RFC3597 Handling of Unknown DNS Resource Record (RR) Types. the RDATA of a
+ * type we don't model is kept as it is, so that the record is relayed byte
+ * for byte. such RDATA must not contain compressed names.
+ * 
+ * @author taichi
+ */
+public class UnknownRecord extends AbstractRecord<UnknownRecord> {
+
+	static final String GENERIC = "\\#";
+
+	/**
+	 * the TYPE as it is on the wire.
+	 */
+	protected int code;
+
+	protected byte[] data = EMPTY_BYTE_ARRAY;
+
+	public UnknownRecord(int code) {
+		super(RRType.valueOf(code));
+		this.code = code;
+	}
+
+	public UnknownRecord(UnknownRecord from) {
+		super(from);
+		this.code = from.code();
+		byte[] ary = from.data();
+		this.data = Arrays.copyOf(ary, ary.length);
+	}
+
+	public int code() {
+		return this.code;
+	}
+
+	@Override
+	public int typeCode() {
+		return this.code;
+	}
+
+	public byte[] data() {
+		return this.data;
+	}
+
+	public void data(byte[] data) {
+		if (65535 < data.length) {
+			throw new IllegalArgumentException(String.format(
+					Messages.DataMustBe65535orLess, data.length));
+		}
+		this.data = data;
+	}
+
+	@Override
+	protected void parseRDATA(ChannelBuffer buffer) {
+		this.data = new byte[rdlength()];
+		buffer.readBytes(this.data);
+	}
+
+	@Override
+	protected void writeRDATA(ChannelBuffer buffer, NameCompressor compressor) {
+		buffer.writeBytes(this.data);
+	}
+
+	/**
+	 * 5. Text Representation. <code>\# length hex...</code>
+	 */
+	@Override
+	public void setRDATA(List<String> list) {
+		if ((list.size() < 2) || (GENERIC.equals(list.get(0)) == false)) {
+			throw new IllegalArgumentException();
+		}
+		int length = Integer.parseInt(list.get(1));
+		StringBuilder hex = new StringBuilder();
+		for (String s : list.subList(2, list.size())) {
+			hex.append(s);
+		}
+		if (hex.length() != (length * 2)) {
+			throw new IllegalArgumentException();
+		}
+		byte[] newone = new byte[length];
+		for (int i = 0; i < length; i++) {
+			newone[i] = (byte) Integer.parseInt(
+					hex.substring(i * 2, (i * 2) + 2), 16);
+		}
+		data(newone);
+	}
+
+	@Override
+	protected ResourceRecord newInstance() {
+		return new UnknownRecord(this);
+	}
+
+	@Override
+	public int compareTo(UnknownRecord o) {
+		if (this == o) {
+			return 0;
+		}
+		int result = CompareUtil.compare(this.code(), o.code());
+		if (result == 0) {
+			result = super.compareTo(o);
+			if (result == 0) {
+				result = CompareUtil.compare(this.data(), o.data());
+			}
+		}
+		return result;
+	}
+
+	@Override
+	protected int hashCode(Name name, long ttl) {
+		return (31 * super.hashCode(name, ttl)) + this.code;
+	}
+
+	@Override
+	protected boolean equalsRDATA(AbstractRecord<?> other) {
+		return super.equalsRDATA(other) && (other instanceof UnknownRecord)
+				&& (this.code == ((UnknownRecord) other).code())
+				&& Arrays.equals(this.data, ((UnknownRecord) other).data());
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder stb = new StringBuilder();
+		stb.append(this.name().toString());
+		StringUtil.padRight(stb, ' ', 23);
+		stb.append(' ');
+		stb.append(this.ttl());
+		StringUtil.padRight(stb, ' ', 31);
+		stb.append(' ');
+		stb.append(this.dnsClass().name());
+		stb.append(' ');
+		stb.append("TYPE");
+		stb.append(this.code());
+		StringUtil.padRight(stb, ' ', 39);
+		stb.append(' ');
+		stb.append(GENERIC);
+		stb.append(' ');
+		stb.append(this.data.length);
+		if (0 < this.data.length) {
+			stb.append(' ');
+			for (byte b : this.data) {
+				stb.append(Character.forDigit((b >> 4) & 0xF, 16));
+				stb.append(Character.forDigit(b & 0xF, 16));
+			}
+		}
+		return stb.toString();
+	}
+}
@@ -0,0 +1,285 @@
+package org.handwerkszeug.dns.server;
+
+import org.handwerkszeug.dns.DNSClass;
+import org.handwerkszeug.dns.DNSMessage;
+import org.handwerkszeug.dns.Header;
+import org.handwerkszeug.dns.Markers;
+import org.handwerkszeug.dns.MessageEncoder;
+import org.handwerkszeug.dns.Name;
+import org.handwerkszeug.dns.OpCode;
+import org.handwerkszeug.dns.RCode;
+import org.handwerkszeug.dns.RecordTemplate;
+import org.handwerkszeug.dns.ResourceRecord;
+import org.handwerkszeug.dns.Response;
+import org.handwerkszeug.dns.Section;
+import org.handwerkszeug.dns.Zone;
+import org.handwerkszeug.dns.ZoneType;
+import org.handwerkszeug.dns.conf.ServerConfiguration;
+import org.handwerkszeug.dns.record.OPTRecord;
+import org.handwerkszeug.dns.zone.ZoneDatabase;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.ChannelHandler.Sharable;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * answers the questions for the names in the master zones of the
+ * {@link ZoneDatabase}. CNAME and DNAME chains are followed through the
+ * {@link DefaultResolveContext} as long as they stay in the zones. other
+ * requests are passed to the next handler, and are forwarded.
+ * <p>
+ * in pass-through mode only the question is read, and the request is decoded
+ * only if the name is in the zones.
+ * </p>
+ * <p>
+ * a response which has its records encoded ahead is written as the header,
+ * the question and the encoded records, without a response message.
+ * </p>
+ *
+ * @author taichi
+ */
+@Sharable
+public class AuthoritativeHandler extends SimpleChannelUpstreamHandler {
+
+	static final Logger LOG = LoggerFactory
+			.getLogger(AuthoritativeHandler.class);
+
+	static final ThreadLocal<MessageEncoder> ENCODERS = new ThreadLocal<MessageEncoder>() {
+		@Override
+		protected MessageEncoder initialValue() {
+			return new MessageEncoder();
+		}
+	};
+
+	protected ServerConfiguration config;
+
+	protected ZoneDatabase database;
+
+	/**
+	 * recycles the responses, or null.
+	 */
+	protected MessagePool messagePool;
+
+	public AuthoritativeHandler(ServerConfiguration config,
+			ZoneDatabase database) {
+		this(config, database, null);
+	}
+
+	public AuthoritativeHandler(ServerConfiguration config,
+			ZoneDatabase database, MessagePool messagePool) {
+		this.config = config;
+		this.database = database;
+		this.messagePool = messagePool;
+	}
+
+	@Override
+	public void messageReceived(ChannelHandlerContext ctx, MessageEvent e)
+			throws Exception {
+		Object msg = e.getMessage();
+		DNSMessage request = null;
+		RawMessage raw = null;
+		if ((msg instanceof ChannelBuffer) || (msg instanceof RawMessage)) {
+			raw = RawMessage.of(msg);
+			// the zone is found by the name and the class, the type of the
+			// question may be one we don't model.
+			if ((raw != null) && (raw.question() != null)
+					&& isQuery(raw.header())
+					&& (findZone(raw.question().name(), raw.question()
+							.dnsClass()) != null)) {
+				try {
+					request = new DNSMessage(raw.buffer().duplicate());
+				} catch (RuntimeException ex) {
+					LOG.debug(Markers.DETAIL, ex.getMessage(), ex);
+					ChannelBuffer error = raw.error(RCode.FormErr);
+					e.getChannel().write(error, e.getRemoteAddress());
+					return;
+				}
+			}
+		} else {
+			request = DNSMessage.class.cast(msg);
+		}
+		Response found = null;
+		if (request != null) {
+			if (readable(request) == false) {
+				writeFormErr(e, request);
+				return;
+			}
+			found = find(request);
+		}
+		if (found == null) {
+			RawMessage.forward(ctx, e, raw);
+			return;
+		}
+		int advertised = udpPayloadSize(request);
+		int limit = UDPPayload.limit(e.getChannel(), advertised,
+				this.config.getUdpPayloadSize());
+		ChannelBuffer buffer = ChannelBuffers.dynamicBuffer(Math.min(limit,
+				UDPPayload.DEFAULT_SIZE));
+		if (writeTemplate(request, found, advertised, buffer, limit) == false) {
+			DNSMessage response = answer(request, found);
+			if (-1 < advertised) {
+				response.additional().add(
+						new OPTRecord(this.config.getUdpPayloadSize()));
+			}
+			response.write(buffer, limit);
+			if (this.messagePool != null) {
+				this.messagePool.release(response);
+			}
+		}
+		e.getChannel().write(buffer, e.getRemoteAddress());
+	}
+
+	/**
+	 * decodes the parts of the request this handler reads. the sections of a
+	 * message are decoded lazily, so a malformed one is found here and not
+	 * while it is answered.
+	 * 
+	 * @return false if the request is malformed.
+	 */
+	protected boolean readable(DNSMessage request) {
+		try {
+			request.header();
+			request.question();
+			request.additional();
+			return true;
+		} catch (RuntimeException ex) {
+			LOG.debug(Markers.DETAIL, ex.getMessage(), ex);
+			return false;
+		}
+	}
+
+	/**
+	 * answers FORMERR to a malformed request, or drops it if not even its
+	 * header is readable.
+	 */
+	protected void writeFormErr(MessageEvent e, DNSMessage request) {
+		ChannelBuffer encoded = request.encoded();
+		RawMessage raw = encoded == null ? null : RawMessage.peek(encoded);
+		if (raw == null) {
+			LOG.debug("drop malformed message from {}", e.getRemoteAddress());
+			return;
+		}
+		e.getChannel().write(raw.error(RCode.FormErr), e.getRemoteAddress());
+	}
+
+	/**
+	 * @return the response, or null if the question is not for the master
+	 *         zones.
+	 */
+	protected DNSMessage answer(DNSMessage request) {
+		Response found = find(request);
+		if (found == null) {
+			return null;
+		}
+		return answer(request, found);
+	}
+
+	/**
+	 * @return the response of the master zone to the question, or null if the
+	 *         question is not for the master zones.
+	 */
+	protected Response find(DNSMessage request) {
+		if ((request.question().size() != 1)
+				|| (isQuery(request.header()) == false)) {
+			return null;
+		}
+		ResourceRecord q = request.question().get(0);
+		Zone zone = findZone(q.name(), q.dnsClass());
+		if (zone == null) {
+			return null;
+		}
+		return zone.find(q.name(), q.typeCode());
+	}
+
+	protected DNSMessage answer(DNSMessage request, Response found) {
+		DNSMessage response = newMessage();
+		header(request.header(), response.header());
+		response.question().add(request.question().get(0));
+		DefaultResolveContext context = new DefaultResolveContext(request,
+				response, this.database);
+		context.postProcess(found);
+		return response;
+	}
+
+	protected void header(Header request, Header response) {
+		response.id(request.id());
+		response.qr(true);
+		response.opcode(OpCode.QUERY);
+		response.rd(request.rd());
+		response.ra(this.config.getForwarders().isEmpty() == false);
+	}
+
+	/**
+	 * writes the response from its encoded records, if it has them and they
+	 * apply to the question.
+	 * 
+	 * @return false if the response has to be built.
+	 */
+	protected boolean writeTemplate(DNSMessage request, Response found,
+			int advertised, ChannelBuffer buffer, int limit) {
+		if ((found instanceof DefaultResponse) == false) {
+			return false;
+		}
+		RecordTemplate template = ((DefaultResponse) found).template();
+		ResourceRecord q = request.question().get(0);
+		if ((template == null) || (template.appliesTo(q.name()) == false)) {
+			return false;
+		}
+		Header header = new Header();
+		header(request.header(), header);
+		header.aa(true);
+		header.rcode(found.rcode());
+		OPTRecord opt = null;
+		if (-1 < advertised) {
+			opt = new OPTRecord(this.config.getUdpPayloadSize());
+		}
+		MessageEncoder encoder = ENCODERS.get();
+		encoder.begin(buffer, header, limit);
+		try {
+			if (opt != null) {
+				encoder.reserve(opt);
+			}
+			encoder.add(Section.QUESTION, q);
+			encoder.add(template, q.name());
+			if (opt != null) {
+				encoder.add(Section.ADDITIONAL, opt);
+			}
+		} finally {
+			encoder.finish();
+		}
+		return true;
+	}
+
+	protected DNSMessage newMessage() {
+		if (this.messagePool != null) {
+			return this.messagePool.acquire();
+		}
+		return new DNSMessage();
+	}
+
+	protected Zone findZone(Name name, DNSClass dnsClass) {
+		Zone zone = this.database.find(name, dnsClass);
+		if ((zone != null) && ZoneType.master.equals(zone.type())) {
+			return zone;
+		}
+		return null;
+	}
+
+	protected boolean isQuery(Header header) {
+		// compare the raw opcode, an unknown one must not be an error here.
+		int opcode = (header.flags() >> 11) & 0xF;
+		return (header.qr() == false) && (OpCode.QUERY.value() == opcode);
+	}
+
+	/**
+	 * @return the UDP payload size of the OPT pseudo-RR, or -1 if the request
+	 *         has none.
+	 */
+	protected int udpPayloadSize(DNSMessage request) {
+		return UDPPayload.advertised(request);
+	}
+}
@@ -1,25 +1,28 @@
 package org.handwerkszeug.dns.server;
 
 import org.handwerkszeug.dns.RCode;
-import org.handwerkszeug.dns.RRType;
 import org.handwerkszeug.dns.ResolveContext;
 import org.handwerkszeug.dns.ResourceRecord;
 import org.handwerkszeug.dns.Response;
+import org.handwerkszeug.dns.record.ImmutableRecord;
 import org.handwerkszeug.dns.record.SingleNameRecord;
 
 public class CNAMEResponse extends DefaultResponse {
+	final ResourceRecord record;
 	final SingleNameRecord cname;
-	final RRType qtype;
+	final int qtype;
 
-	public CNAMEResponse(ResourceRecord cname, RRType qtype) {
+	public CNAMEResponse(ResourceRecord cname, int qtype) {
 		super(RCode.NoError);
-		this.cname = SingleNameRecord.class.cast(cname);
+		this.record = cname;
+		this.cname = SingleNameRecord.class.cast(ImmutableRecord
+				.unwrap(cname));
 		this.qtype = qtype;
 	}
 
 	@Override
 	public void postProcess(ResolveContext context) {
-		context.response().answer().add(this.cname);
+		context.response().answer().add(this.record);
 		Response r = context.resolve(this.cname.oneName(), this.qtype);
 		r.postProcess(context);
 	}
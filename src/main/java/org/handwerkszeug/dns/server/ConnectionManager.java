@@ -0,0 +1,141 @@
+package org.handwerkszeug.dns.server;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.handwerkszeug.dns.conf.ServerConfiguration;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandler.Sharable;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.group.ChannelGroup;
+import org.jboss.netty.handler.timeout.IdleStateAwareChannelUpstreamHandler;
+import org.jboss.netty.handler.timeout.IdleStateEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * keeps track of the TCP connections. connections beyond the global limit or
+ * the limit per source address are closed as soon as they are accepted, and
+ * idle connections are closed.
+ * 
+ * @author taichi
+ */
+@Sharable
+public class ConnectionManager extends IdleStateAwareChannelUpstreamHandler {
+
+	static final Logger LOG = LoggerFactory.getLogger(ConnectionManager.class);
+
+	protected ServerConfiguration config;
+
+	protected ChannelGroup group;
+
+	protected final AtomicInteger total = new AtomicInteger();
+
+	protected final AtomicLong rejected = new AtomicLong();
+
+	/**
+	 * guarded by itself. connections are accepted far less often than
+	 * queries arrive.
+	 */
+	protected Map<InetAddress, Integer> perAddress = new HashMap<InetAddress, Integer>();
+
+	/**
+	 * connections counted in {@link #total} and {@link #perAddress}.
+	 */
+	protected ConcurrentMap<Channel, InetAddress> accepted = new ConcurrentHashMap<Channel, InetAddress>();
+
+	public ConnectionManager(ServerConfiguration config, ChannelGroup group) {
+		this.config = config;
+		this.group = group;
+	}
+
+	@Override
+	public void channelConnected(ChannelHandlerContext ctx, ChannelStateEvent e)
+			throws Exception {
+		Channel channel = e.getChannel();
+		this.group.add(channel);
+		InetAddress address = address(channel.getRemoteAddress());
+		this.accepted.put(channel, address);
+		int count = this.total.incrementAndGet();
+		int fromAddress = add(address, 1);
+		if ((this.config.getMaxConnections() < count)
+				|| (this.config.getMaxConnectionsPerAddress() < fromAddress)) {
+			LOG.debug("reject connection from {} total={} address={}",
+					new Object[] { address, count, fromAddress });
+			this.rejected.incrementAndGet();
+			channel.close();
+			return;
+		}
+		super.channelConnected(ctx, e);
+	}
+
+	@Override
+	public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e)
+			throws Exception {
+		InetAddress address = this.accepted.remove(e.getChannel());
+		if (address != null) {
+			this.total.decrementAndGet();
+			add(address, -1);
+		}
+		super.channelClosed(ctx, e);
+	}
+
+	@Override
+	public void channelIdle(ChannelHandlerContext ctx, IdleStateEvent e)
+			throws Exception {
+		LOG.debug("close idle connection {}", e.getChannel().getRemoteAddress());
+		e.getChannel().close();
+	}
+
+	protected InetAddress address(SocketAddress sa) {
+		if (sa instanceof InetSocketAddress) {
+			return ((InetSocketAddress) sa).getAddress();
+		}
+		return null;
+	}
+
+	protected int add(InetAddress address, int delta) {
+		synchronized (this.perAddress) {
+			Integer current = this.perAddress.get(address);
+			int result = (current != null ? current.intValue() : 0) + delta;
+			if (0 < result) {
+				this.perAddress.put(address, Integer.valueOf(result));
+			} else {
+				this.perAddress.remove(address);
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * @return number of open connections.
+	 */
+	public int connectionCount() {
+		return this.total.get();
+	}
+
+	/**
+	 * @return number of open connections from the address.
+	 */
+	public int connectionCount(InetAddress address) {
+		synchronized (this.perAddress) {
+			Integer count = this.perAddress.get(address);
+			return count != null ? count.intValue() : 0;
+		}
+	}
+
+	/**
+	 * @return number of connections closed by the limits.
+	 */
+	public long rejectedCount() {
+		return this.rejected.get();
+	}
+}
@@ -9,20 +9,23 @@ import org.handwerkszeug.dns.RRType;
 import org.handwerkszeug.dns.ResolveContext;
 import org.handwerkszeug.dns.ResourceRecord;
 import org.handwerkszeug.dns.Response;
+import org.handwerkszeug.dns.record.ImmutableRecord;
 import org.handwerkszeug.dns.record.SingleNameRecord;
 
 public class DNAMEResponse extends DefaultResponse {
 
+	final ResourceRecord record;
 	final SingleNameRecord dname;
 	final Name qname;
-	final RRType qtype;
+	final int qtype;
 
-	public DNAMEResponse(ResourceRecord dname, Name qname, RRType qtype) {
+	public DNAMEResponse(ResourceRecord dname, Name qname, int qtype) {
 		super(RCode.NoError);
 		notNull(dname, "dname");
 		notNull(qname, "qname");
-		notNull(qtype, "qtype");
-		this.dname = SingleNameRecord.class.cast(dname);
+		this.record = dname;
+		this.dname = SingleNameRecord.class.cast(ImmutableRecord
+				.unwrap(dname));
 		this.qname = qname;
 		this.qtype = qtype;
 	}
@@ -30,8 +33,9 @@ public class DNAMEResponse extends DefaultResponse {
 	@Override
 	public void postProcess(ResolveContext context) {
 		DNSMessage res = context.response();
-		res.answer().add(this.dname);
-		Name name = this.qname.replace(this.dname.name(), this.dname.oneName());
+		res.answer().add(this.record);
+		Name name = this.qname.replace(this.record.name(),
+				this.dname.oneName());
 		if (name == null) {
 			context.response().header().rcode(RCode.YXDomain);
 		} else {
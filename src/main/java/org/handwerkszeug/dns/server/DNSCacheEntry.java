@@ -1,8 +1,33 @@
 package org.handwerkszeug.dns.server;
 
+import org.handwerkszeug.dns.DNSMessage;
 
 public class DNSCacheEntry {
 
-	protected long expiration;
+	protected final DNSMessage message;
 
+	protected final long created;
+
+	protected final long expiration;
+
+	public DNSCacheEntry(DNSMessage message, long created, long ttl) {
+		this.message = message;
+		this.created = created;
+		this.expiration = created + (ttl * 1000L);
+	}
+
+	public DNSMessage message() {
+		return this.message;
+	}
+
+	public boolean isExpired(long now) {
+		return this.expiration <= now;
+	}
+
+	/**
+	 * @return elapsed seconds since this entry was stored.
+	 */
+	public long elapsed(long now) {
+		return (now - this.created) / 1000L;
+	}
 }
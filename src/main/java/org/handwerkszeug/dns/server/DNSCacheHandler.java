@@ -0,0 +1,143 @@
+package org.handwerkszeug.dns.server;
+
+import org.handwerkszeug.dns.DNSClass;
+import org.handwerkszeug.dns.DNSMessage;
+import org.handwerkszeug.dns.Header;
+import org.handwerkszeug.dns.Name;
+import org.handwerkszeug.dns.OpCode;
+import org.handwerkszeug.dns.ResourceRecord;
+import org.handwerkszeug.dns.record.OPTRecord;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.ChannelHandler.Sharable;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * answers from {@link DNSMessageCache} if possible, otherwise passes the
+ * request to the next handler. the request is either a decoded
+ * {@link DNSMessage} or, in pass-through mode, a {@link ChannelBuffer} or the
+ * {@link RawMessage} peeked from it.
+ * 
+ * @author taichi
+ */
+@Sharable
+public class DNSCacheHandler extends SimpleChannelUpstreamHandler {
+
+	static final Logger LOG = LoggerFactory.getLogger(DNSCacheHandler.class);
+
+	protected DNSMessageCache cache;
+
+	/**
+	 * the largest UDP payload size the server advertises.
+	 */
+	protected int udpPayloadSize;
+
+	/**
+	 * recycles the responses, or null.
+	 */
+	protected MessagePool messagePool;
+
+	public DNSCacheHandler(DNSMessageCache cache) {
+		this(cache, UDPPayload.DEFAULT_SIZE);
+	}
+
+	public DNSCacheHandler(DNSMessageCache cache, int udpPayloadSize) {
+		this(cache, udpPayloadSize, null);
+	}
+
+	public DNSCacheHandler(DNSMessageCache cache, int udpPayloadSize,
+			MessagePool messagePool) {
+		this.cache = cache;
+		this.udpPayloadSize = udpPayloadSize;
+		this.messagePool = messagePool;
+	}
+
+	@Override
+	public void messageReceived(ChannelHandlerContext ctx, MessageEvent e)
+			throws Exception {
+		Object msg = e.getMessage();
+		DNSMessage cached = null;
+		Header header = null;
+		int advertised = -1;
+		RawMessage raw = null;
+		if ((msg instanceof ChannelBuffer) || (msg instanceof RawMessage)) {
+			raw = RawMessage.of(msg);
+			if ((raw != null) && (raw.question() != null)) {
+				header = raw.header();
+				DNSCacheKey q = raw.question();
+				cached = lookup(header, q.name(), q.typeCode(), q.dnsClass());
+				if (cached != null) {
+					advertised = raw.udpPayloadSize();
+					ResourceRecord cq = cached.question().get(0);
+					cached.question().set(0, cq.toQnameRecord(q.name()));
+				}
+			}
+		} else {
+			DNSMessage request = DNSMessage.class.cast(msg);
+			if (request.question().size() == 1) {
+				header = request.header();
+				ResourceRecord q = request.question().get(0);
+				cached = lookup(header, q.name(), q.typeCode(), q.dnsClass());
+				if (cached != null) {
+					advertised = udpPayloadSize(request);
+					// echo the name in the case the requestor used.
+					cached.question().set(0, q);
+				}
+			}
+		}
+		if (cached != null) {
+			cached.header().id(header.id());
+			cached.header().rd(header.rd());
+			if (-1 < advertised) {
+				cached.additional().add(new OPTRecord(this.udpPayloadSize));
+			}
+			int limit = UDPPayload.limit(e.getChannel(), advertised,
+					this.udpPayloadSize);
+			ChannelBuffer buffer = ChannelBuffers.dynamicBuffer(Math.min(
+					limit, UDPPayload.DEFAULT_SIZE));
+			cached.write(buffer, limit);
+			release(cached);
+			e.getChannel().write(buffer, e.getRemoteAddress());
+			return;
+		}
+		RawMessage.forward(ctx, e, raw);
+	}
+
+	/**
+	 * @return the UDP payload size of the OPT pseudo-RR, or -1 if the request
+	 *         has none.
+	 */
+	protected int udpPayloadSize(DNSMessage request) {
+		return UDPPayload.advertised(request);
+	}
+
+	protected DNSMessage lookup(Header header, Name name, int type,
+			DNSClass dnsClass) {
+		// compare the raw opcode, an unknown one must not be an error here.
+		int opcode = (header.flags() >> 11) & 0xF;
+		if ((header.qdcount() != 1) || (OpCode.QUERY.value() != opcode)) {
+			return null;
+		}
+		DNSMessage to = null;
+		if (this.messagePool != null) {
+			to = this.messagePool.acquire();
+		}
+		DNSMessage result = this.cache.lookup(name, type, dnsClass, to);
+		if (result == null) {
+			release(to);
+		} else {
+			LOG.debug("cache hit {}", name);
+		}
+		return result;
+	}
+
+	protected void release(DNSMessage message) {
+		if ((this.messagePool != null) && (message != null)) {
+			this.messagePool.release(message);
+		}
+	}
+}
@@ -8,13 +8,26 @@ import org.handwerkszeug.util.Validation;
 
 public class DNSCacheKey {
 	Name name;
-	RRType t;
+	int t;
 	DNSClass c;
 
 	public DNSCacheKey(Name name, RRType t, DNSClass c) {
+		this(name, code(t), c);
+	}
+
+	static int code(RRType t) {
+		Validation.notNull(t, "t");
+		return t.value();
+	}
+
+	/**
+	 * @param t
+	 *            the TYPE as it is on the wire, so that the types we don't
+	 *            model are told apart.
+	 */
+	public DNSCacheKey(Name name, int t, DNSClass c) {
 		super();
 		Validation.notNull(name, "name");
-		Validation.notNull(t, "t");
 		Validation.notNull(c, "c");
 		this.name = name;
 		this.t = t;
@@ -28,7 +41,7 @@ public class DNSCacheKey {
 		result = prime * result + ((this.c == null) ? 0 : this.c.hashCode());
 		result = prime * result
 				+ ((this.name == null) ? 0 : this.name.hashCode());
-		result = prime * result + ((this.t == null) ? 0 : this.t.hashCode());
+		result = prime * result + this.t;
 		return result;
 	}
 
@@ -44,14 +57,35 @@ public class DNSCacheKey {
 	}
 
 	public boolean equals(DNSCacheKey other) {
-		boolean ne = this.name.equals(other.name);
+		// ANY is not a wildcard here. hashCode must agree with equals, or the
+		// key is useless in a hash based cache.
+		return this.name.equals(other.name) && (this.t == other.t)
+				&& (this.c == other.c);
+	}
 
-		boolean t = (this.t.equals(RRType.ANY) || other.t.equals(RRType.ANY) || this.t
-				.equals(other.t));
+	public Name name() {
+		return this.name;
+	}
+
+	public RRType type() {
+		return RRType.valueOf(this.t);
+	}
 
-		boolean c = (this.c.equals(DNSClass.ANY)
-				|| other.c.equals(DNSClass.ANY) || this.c.equals(other.c));
+	/**
+	 * @return the TYPE as it is on the wire.
+	 */
+	public int typeCode() {
+		return this.t;
+	}
 
-		return ne && t && c;
+	public DNSClass dnsClass() {
+		return this.c;
+	}
+
+	@Override
+	public String toString() {
+		RRType type = type();
+		return this.name + " " + this.c.name() + " "
+				+ (RRType.UNKNOWN.equals(type) ? "TYPE" + this.t : type.name());
 	}
-}
\ No newline at end of file
+}
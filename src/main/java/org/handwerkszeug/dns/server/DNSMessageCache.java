@@ -1,19 +1,252 @@
 package org.handwerkszeug.dns.server;
 
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+
 import org.handwerkszeug.dns.DNSClass;
 import org.handwerkszeug.dns.DNSMessage;
+import org.handwerkszeug.dns.Header;
 import org.handwerkszeug.dns.Name;
+import org.handwerkszeug.dns.OpCode;
+import org.handwerkszeug.dns.RCode;
 import org.handwerkszeug.dns.RRType;
+import org.handwerkszeug.dns.ResourceRecord;
+import org.handwerkszeug.dns.record.ImmutableRecord;
+import org.handwerkszeug.dns.record.SOARecord;
 
 /**
+ * TTL aware response cache. entries are striped across shards by the hash of
+ * {@link DNSCacheKey}, each shard is a bounded LRU map guarded by its own
+ * lock.
+ *
  * @author taichi
  */
 public class DNSMessageCache {
 
+	public static final int DEFAULT_SHARDS = 16;
+
+	/**
+	 * RFC2181 8. Time to Live (TTL)
+	 */
+	public static final long MAX_TTL = 86400L;
+
+	/**
+	 * RFC2308 5 - Caching Negative Answers
+	 */
+	public static final long MAX_NEGATIVE_TTL = 10800L;
+
+	protected final Shard[] shards;
+
+	protected final int mask;
+
+	public DNSMessageCache(int maxEntries) {
+		this(maxEntries, DEFAULT_SHARDS);
+	}
+
+	public DNSMessageCache(int maxEntries, int shardCount) {
+		if (maxEntries < 1) {
+			throw new IllegalArgumentException("maxEntries");
+		}
+		int size = 1;
+		while (size < shardCount) {
+			size <<= 1;
+		}
+		this.shards = new Shard[size];
+		this.mask = size - 1;
+		int perShard = Math.max(1, (maxEntries + size - 1) / size);
+		for (int i = 0; i < size; i++) {
+			this.shards[i] = new Shard(perShard);
+		}
+	}
+
 	public DNSMessage lookup(Name name, RRType t, DNSClass c) {
-		return null;
+		return lookup(name, t.value(), c, null);
+	}
+
+	public DNSMessage lookup(Name name, RRType t, DNSClass c, DNSMessage to) {
+		return lookup(name, t.value(), c, to);
+	}
+
+	/**
+	 * @param t
+	 *            the TYPE as it is on the wire.
+	 * @param to
+	 *            the empty message the hit is copied into, or null to make a
+	 *            new one. it is left untouched on a miss.
+	 */
+	public DNSMessage lookup(Name name, int t, DNSClass c, DNSMessage to) {
+		DNSCacheKey key = new DNSCacheKey(name, t, c);
+		Shard shard = shard(key);
+		long now = now();
+		DNSCacheEntry entry;
+		synchronized (shard) {
+			entry = shard.get(key);
+			if (entry == null) {
+				return null;
+			}
+			if (entry.isExpired(now)) {
+				shard.remove(key);
+				return null;
+			}
+		}
+		return copy(entry, now, to);
 	}
 
 	public void store(DNSMessage message) {
+		if (isCacheable(message) == false) {
+			return;
+		}
+		long ttl = ttl(message);
+		if (ttl < 1) {
+			return;
+		}
+		// the entry is read by other threads.
+		message.decode();
+		freeze(message.question());
+		freeze(message.answer());
+		freeze(message.authority());
+		freeze(message.additional());
+		ResourceRecord q = message.question().get(0);
+		DNSCacheKey key = new DNSCacheKey(q.name(), q.typeCode(),
+				q.dnsClass());
+		DNSCacheEntry entry = new DNSCacheEntry(message, now(), ttl);
+		Shard shard = shard(key);
+		synchronized (shard) {
+			shard.put(key, entry);
+		}
+	}
+
+	/**
+	 * replaces the records with {@link ImmutableRecord}s, so that a hit can
+	 * share them.
+	 */
+	protected void freeze(List<ResourceRecord> list) {
+		for (ListIterator<ResourceRecord> i = list.listIterator(); i
+				.hasNext();) {
+			i.set(ImmutableRecord.of(i.next()));
+		}
+	}
+
+	public int size() {
+		int result = 0;
+		for (Shard s : this.shards) {
+			synchronized (s) {
+				result += s.size();
+			}
+		}
+		return result;
+	}
+
+	public void clear() {
+		for (Shard s : this.shards) {
+			synchronized (s) {
+				s.clear();
+			}
+		}
+	}
+
+	protected Shard shard(DNSCacheKey key) {
+		int h = key.hashCode();
+		h ^= (h >>> 16);
+		return this.shards[h & this.mask];
+	}
+
+	protected long now() {
+		return System.currentTimeMillis();
+	}
+
+	protected boolean isCacheable(DNSMessage message) {
+		Header h = message.header();
+		if ((h.qr() == false) || h.tc()
+				|| (OpCode.QUERY.equals(h.opcode()) == false)) {
+			return false;
+		}
+		RCode rc = h.rcode();
+		if ((RCode.NoError.equals(rc) || RCode.NXDomain.equals(rc)) == false) {
+			return false;
+		}
+		return message.question().size() == 1;
+	}
+
+	/**
+	 * the minimum TTL of all records in the message. negative answers use the
+	 * SOA record in the authority section.
+	 */
+	protected long ttl(DNSMessage message) {
+		if (message.answer().isEmpty()) {
+			for (ResourceRecord rr : message.authority()) {
+				ResourceRecord body = ImmutableRecord.unwrap(rr);
+				if (body instanceof SOARecord) {
+					SOARecord soa = (SOARecord) body;
+					long ttl = Math.min(soa.ttl(), soa.minimum());
+					return Math.min(ttl, MAX_NEGATIVE_TTL);
+				}
+			}
+			return 0;
+		}
+		long result = MAX_TTL;
+		result = minTTL(message.answer(), result);
+		result = minTTL(message.authority(), result);
+		result = minTTL(message.additional(), result);
+		return result;
+	}
+
+	protected long minTTL(List<ResourceRecord> list, long current) {
+		long result = current;
+		for (ResourceRecord rr : list) {
+			if (RRType.OPT.equals(rr.type()) == false) {
+				result = Math.min(result, rr.ttl());
+			}
+		}
+		return result;
+	}
+
+	protected DNSMessage copy(DNSCacheEntry entry, long now, DNSMessage to) {
+		DNSMessage from = entry.message();
+		long elapsed = entry.elapsed(now);
+		DNSMessage result = to;
+		if (result == null) {
+			result = new DNSMessage(new Header(from.header()));
+		} else {
+			result.header().assign(from.header());
+		}
+		result.question().addAll(from.question());
+		copy(from.answer(), result.answer(), elapsed);
+		copy(from.authority(), result.authority(), elapsed);
+		copy(from.additional(), result.additional(), elapsed);
+		return result;
+	}
+
+	protected void copy(List<ResourceRecord> from, List<ResourceRecord> to,
+			long elapsed) {
+		for (ResourceRecord rr : from) {
+			if (RRType.OPT.equals(rr.type())) {
+				// hop by hop. the handler adds its own.
+				continue;
+			}
+			// a view which shares the RDATA.
+			to.add(ImmutableRecord.of(rr).withTTL(
+					Math.max(0, rr.ttl() - elapsed)));
+		}
+	}
+
+	@SuppressWarnings("serial")
+	protected static class Shard extends
+			LinkedHashMap<DNSCacheKey, DNSCacheEntry> {
+
+		final int capacity;
+
+		Shard(int capacity) {
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(
+				Map.Entry<DNSCacheKey, DNSCacheEntry> eldest) {
+			return this.capacity < size();
+		}
 	}
 }
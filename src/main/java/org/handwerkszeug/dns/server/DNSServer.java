@@ -11,12 +11,17 @@ import org.handwerkszeug.dns.Markers;
 import org.handwerkszeug.dns.conf.ServerConfiguration;
 import org.handwerkszeug.dns.conf.ServerConfigurationImpl;
 import org.jboss.netty.bootstrap.ConnectionlessBootstrap;
+import org.jboss.netty.bootstrap.ServerBootstrap;
 import org.jboss.netty.channel.ChannelFactory;
 import org.jboss.netty.channel.ChannelPipelineFactory;
 import org.jboss.netty.channel.group.ChannelGroup;
 import org.jboss.netty.channel.group.DefaultChannelGroup;
+import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
 import org.jboss.netty.channel.socket.nio.NioDatagramChannelFactory;
+import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
 import org.jboss.netty.util.ExternalResourceReleasable;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -30,8 +35,14 @@ public class DNSServer implements Initializable, Disposable {
 	protected ServerConfiguration config;
 	protected ChannelFactory serverChannelFactory;
 	protected ChannelFactory clientChannelFactory;
+	protected ChannelFactory clientStreamChannelFactory;
+	protected ChannelFactory streamChannelFactory;
 	protected ConnectionlessBootstrap bootstrap;
+	protected ServerBootstrap streamBootstrap;
+	protected DNSStreamPipelineFactory streamPipelineFactory;
+	protected Timer timer;
 	protected ChannelGroup group;
+	protected UpstreamPool upstreamPool;
 
 	public static void main(String[] args) throws Exception {
 		ServerConfiguration conf = parseArgs(args);
@@ -92,23 +103,39 @@ public class DNSServer implements Initializable, Disposable {
 		LOG.debug(Markers.LIFECYCLE, "initialize server");
 		ExecutorService executor = Executors.newFixedThreadPool(this.config
 				.getThreadPoolSize());
-		// TODO need TCP?
 		this.clientChannelFactory = new NioDatagramChannelFactory(executor);
-		// TODO TCP and/or UDP
+		this.clientStreamChannelFactory = new NioClientSocketChannelFactory(
+				Executors.newCachedThreadPool(),
+				Executors.newCachedThreadPool());
 		this.serverChannelFactory = new NioDatagramChannelFactory(executor);
+		this.streamChannelFactory = new NioServerSocketChannelFactory(
+				Executors.newCachedThreadPool(),
+				Executors.newCachedThreadPool());
+		this.upstreamPool = new UpstreamPool(this.config,
+				this.clientChannelFactory, this.clientStreamChannelFactory);
+		this.upstreamPool.initialize();
 		ChannelPipelineFactory pipelineFactory = new DNSServerPipelineFactory(
-				this.config, this.clientChannelFactory);
+				this.config, this.upstreamPool);
 
 		this.bootstrap = new ConnectionlessBootstrap(this.serverChannelFactory);
 		this.bootstrap.setPipelineFactory(pipelineFactory);
 
 		this.group = new DefaultChannelGroup();
+
+		this.timer = new HashedWheelTimer();
+		this.streamPipelineFactory = new DNSStreamPipelineFactory(this.config,
+				pipelineFactory, this.group, this.timer);
+		this.streamBootstrap = new ServerBootstrap(this.streamChannelFactory);
+		this.streamBootstrap.setPipelineFactory(this.streamPipelineFactory);
+		this.streamBootstrap.setOption("reuseAddress", true);
+		this.streamBootstrap.setOption("child.tcpNoDelay", true);
 	}
 
 	public void process() {
 		for (SocketAddress sa : this.config.getBindingHosts()) {
 			LOG.info(Markers.BOUNDARY, "binding {}", sa);
 			this.group.add(this.bootstrap.bind(sa));
+			this.group.add(this.streamBootstrap.bind(sa));
 		}
 	}
 
@@ -116,12 +143,28 @@ public class DNSServer implements Initializable, Disposable {
 	public void dispose() {
 		try {
 			this.group.close().awaitUninterruptibly();
+			this.timer.stop();
+			this.upstreamPool.dispose();
 		} finally {
 			dispose(this.clientChannelFactory);
+			dispose(this.clientStreamChannelFactory);
 			dispose(this.serverChannelFactory);
+			dispose(this.streamChannelFactory);
 		}
 	}
 
+	/**
+	 * @return number of open TCP connections.
+	 */
+	public int connectionCount() {
+		return this.streamPipelineFactory.getConnectionManager()
+				.connectionCount();
+	}
+
+	public ConnectionManager getConnectionManager() {
+		return this.streamPipelineFactory.getConnectionManager();
+	}
+
 	protected void dispose(ExternalResourceReleasable releasable) {
 		try {
 			releasable.releaseExternalResources();
@@ -1,7 +1,8 @@
 package org.handwerkszeug.dns.server;
 
+import org.handwerkszeug.dns.Zone;
 import org.handwerkszeug.dns.conf.ServerConfiguration;
-import org.jboss.netty.channel.ChannelFactory;
+import org.handwerkszeug.dns.zone.ZoneDatabase;
 import org.jboss.netty.channel.ChannelPipeline;
 import org.jboss.netty.channel.ChannelPipelineFactory;
 import org.jboss.netty.channel.Channels;
@@ -9,23 +10,72 @@ import org.jboss.netty.channel.Channels;
 public class DNSServerPipelineFactory implements ChannelPipelineFactory {
 
 	protected ServerConfiguration config;
-	protected ChannelFactory clientChannelFactory;
+	protected UpstreamPool upstreamPool;
 
 	protected DNSMessageDecoder decoder = new DNSMessageDecoder();
 
+	protected ZoneDatabase database = new ZoneDatabase();
+	protected AuthoritativeHandler authority;
+
+	protected MessagePool messagePool;
+
+	protected DNSMessageCache cache;
+	protected DNSCacheHandler cacheHandler;
+
+	protected ForwardingHandler forwarder;
+
 	public DNSServerPipelineFactory(ServerConfiguration config,
-			ChannelFactory clientChannelFactory) {
+			UpstreamPool upstreamPool) {
 		this.config = config;
-		this.clientChannelFactory = clientChannelFactory;
+		this.upstreamPool = upstreamPool;
+		for (Zone z : config.getZones()) {
+			this.database.add(z);
+		}
+		if (config.isRecycleMessages()) {
+			this.messagePool = new MessagePool(MessagePool.DEFAULT_CAPACITY,
+					config.isCheckRecycledMessages());
+		}
+		if (this.database.isEmpty() == false) {
+			this.authority = new AuthoritativeHandler(config, this.database,
+					this.messagePool);
+		}
+		if (0 < config.getCacheSize()) {
+			this.cache = new DNSMessageCache(config.getCacheSize());
+			this.cacheHandler = new DNSCacheHandler(this.cache,
+					config.getUdpPayloadSize(), this.messagePool);
+		}
+		this.forwarder = new ForwardingHandler(config, upstreamPool,
+				this.cache);
 	}
 
 	@Override
 	public ChannelPipeline getPipeline() throws Exception {
 		ChannelPipeline result = Channels.pipeline();
-		result.addLast("decoder", this.decoder);
-		result.addLast("fowarder", new ForwardingHandler(this.config,
-				this.clientChannelFactory));
+		if (this.config.isPassThrough() == false) {
+			result.addLast("decoder", this.decoder);
+		}
+		if (this.authority != null) {
+			result.addLast("authority", this.authority);
+		}
+		if (this.cacheHandler != null) {
+			result.addLast("cache", this.cacheHandler);
+		}
+		result.addLast("fowarder", this.forwarder);
 		return result;
 	}
 
+	public ZoneDatabase getZoneDatabase() {
+		return this.database;
+	}
+
+	/**
+	 * @return the pool of the responses, or null if they are not recycled.
+	 */
+	public MessagePool getMessagePool() {
+		return this.messagePool;
+	}
+
+	public DNSMessageCache getCache() {
+		return this.cache;
+	}
 }
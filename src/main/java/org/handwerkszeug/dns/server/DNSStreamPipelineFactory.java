@@ -0,0 +1,69 @@
+package org.handwerkszeug.dns.server;
+
+import org.handwerkszeug.dns.conf.ServerConfiguration;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.group.ChannelGroup;
+import org.jboss.netty.handler.codec.frame.LengthFieldBasedFrameDecoder;
+import org.jboss.netty.handler.codec.frame.LengthFieldPrepender;
+import org.jboss.netty.handler.timeout.IdleStateHandler;
+import org.jboss.netty.util.Timer;
+
+/**
+ * RFC1035 4.2.2 TCP usage. every message is prefixed with a two byte length
+ * field. the handlers behind the framing are the same as for UDP, so that
+ * queries pipelined on a connection are answered as soon as each of them is
+ * ready, in any order. (RFC7766 6.2.1.1)
+ * <p>
+ * connections are limited by {@link ConnectionManager} and closed when idle,
+ * and the unanswered queries of each connection by {@link QueryThrottle}.
+ * </p>
+ *
+ * @author taichi
+ */
+public class DNSStreamPipelineFactory implements ChannelPipelineFactory {
+
+	public static final int MAX_MESSAGE_SIZE = 65535;
+
+	protected ServerConfiguration config;
+
+	protected ChannelPipelineFactory delegate;
+
+	protected Timer timer;
+
+	protected ConnectionManager connectionManager;
+
+	public DNSStreamPipelineFactory(ServerConfiguration config,
+			ChannelPipelineFactory delegate, ChannelGroup group, Timer timer) {
+		this.config = config;
+		this.delegate = delegate;
+		this.timer = timer;
+		this.connectionManager = new ConnectionManager(config, group);
+	}
+
+	@Override
+	public ChannelPipeline getPipeline() throws Exception {
+		ChannelPipeline result = this.delegate.getPipeline();
+		int idle = this.config.getTcpIdleTimeout();
+		result.addFirst("keepalive", new TcpKeepaliveHandler(idle));
+		// the forwarders give up on a query after every attempt has timed
+		// out. a query unanswered for one more timeout is taken as dropped.
+		long expiry = (long) this.config.getUpstreamTimeout()
+				* (Math.max(0, this.config.getUpstreamRetries()) + 2);
+		result.addFirst("throttle", new QueryThrottle(
+				this.config.getMaxQueriesPerConnection(), this.timer, expiry));
+		result.addFirst("prepender", new LengthFieldPrepender(2));
+		result.addFirst("framer", new LengthFieldBasedFrameDecoder(
+				MAX_MESSAGE_SIZE, 0, 2, 0, 2));
+		result.addFirst("connections", this.connectionManager);
+		if (0 < idle) {
+			result.addFirst("idle", new IdleStateHandler(this.timer, 0, 0,
+					idle));
+		}
+		return result;
+	}
+
+	public ConnectionManager getConnectionManager() {
+		return this.connectionManager;
+	}
+}
@@ -2,26 +2,67 @@ package org.handwerkszeug.dns.server;
 
 import static org.handwerkszeug.util.Validation.notNull;
 
+import java.util.Collections;
+
+import org.handwerkszeug.dns.DNSClass;
 import org.handwerkszeug.dns.DNSMessage;
 import org.handwerkszeug.dns.Name;
-import org.handwerkszeug.dns.RRType;
+import org.handwerkszeug.dns.RCode;
 import org.handwerkszeug.dns.ResolveContext;
+import org.handwerkszeug.dns.ResourceRecord;
 import org.handwerkszeug.dns.Response;
+import org.handwerkszeug.dns.Zone;
+import org.handwerkszeug.dns.ZoneType;
+import org.handwerkszeug.dns.zone.ZoneDatabase;
 
 public class DefaultResolveContext implements ResolveContext {
 
+	/**
+	 * maximum number of CNAME and DNAME records followed for a query.
+	 */
+	public static final int MAX_CHAIN = 16;
+
+	/**
+	 * the chain leaves the zones of the server. the requestor follows the
+	 * rest of it.
+	 */
+	static final Response OUT_OF_ZONE = new NoErrorResponse(
+			Collections.<ResourceRecord> emptySet());
+
+	static final Response LOOP = new DefaultResponse(RCode.ServFail) {
+		@Override
+		public void postProcess(ResolveContext context) {
+			context.response().header().rcode(this.rcode());
+		}
+	};
+
 	final DNSMessage request;
 	final DNSMessage response;
+	final ZoneDatabase database;
+	final DNSClass dnsClass;
+
+	int resolved;
 
 	public DefaultResolveContext(DNSMessage request) {
 		this(request, new DNSMessage());
 	}
 
 	public DefaultResolveContext(DNSMessage request, DNSMessage response) {
+		this(request, response, null);
+	}
+
+	public DefaultResolveContext(DNSMessage request, DNSMessage response,
+			ZoneDatabase database) {
 		notNull(request, "request");
 		notNull(response, "response");
 		this.request = request;
 		this.response = response;
+		this.database = database;
+		if (request.question().isEmpty()) {
+			this.dnsClass = DNSClass.IN;
+		} else {
+			this.dnsClass = request.question().get(0).dnsClass();
+		}
 	}
 
 	@Override
@@ -35,9 +76,27 @@ public class DefaultResolveContext implements ResolveContext {
 	}
 
 	@Override
-	public Response resolve(Name qname, RRType qtype) {
-		// TODO Auto-generated method stub
-		return null;
+	public Response resolve(Name qname, int qtype) {
+		if (MAX_CHAIN < ++this.resolved) {
+			return LOOP;
+		}
+		if (this.database == null) {
+			return OUT_OF_ZONE;
+		}
+		Zone zone = this.database.find(qname, this.dnsClass);
+		if ((zone == null) || (ZoneType.master.equals(zone.type()) == false)) {
+			return OUT_OF_ZONE;
+		}
+		return zone.find(qname, qtype);
 	}
 
+	/**
+	 * follows the response to the question, which was resolved before the
+	 * context, as the first link of the chain.
+	 */
+	public void postProcess(Response first) {
+		notNull(first, "first");
+		this.resolved++;
+		first.postProcess(this);
+	}
 }
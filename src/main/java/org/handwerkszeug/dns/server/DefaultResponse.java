@@ -1,6 +1,7 @@
 package org.handwerkszeug.dns.server;
 
 import org.handwerkszeug.dns.RCode;
+import org.handwerkszeug.dns.RecordTemplate;
 import org.handwerkszeug.dns.Response;
 
 public abstract class DefaultResponse implements Response {
@@ -14,4 +15,12 @@ public abstract class DefaultResponse implements Response {
 	public RCode rcode() {
 		return this.rcode;
 	}
+
+	/**
+	 * @return the records of an authoritative response encoded ahead, or null
+	 *         if the response is built by {@link #postProcess}.
+	 */
+	public RecordTemplate template() {
+		return null;
+	}
 }
\ No newline at end of file
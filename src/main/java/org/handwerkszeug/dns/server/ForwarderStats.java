@@ -0,0 +1,167 @@
+package org.handwerkszeug.dns.server;
+
+import java.net.SocketAddress;
+import java.util.Comparator;
+
+/**
+ * round trip time estimator of a forwarder. the smoothed RTT and the RTT
+ * variance are maintained as described in RFC6298, a forwarder which
+ * repeatedly fails to answer is held down for an exponentially growing
+ * period.
+ *
+ * @author taichi
+ */
+public class ForwarderStats {
+
+	public static final long MIN_RTO = 50L;
+
+	/**
+	 * RFC6298 2.1 initial RTO
+	 */
+	public static final long INITIAL_RTO = 1000L;
+
+	/**
+	 * number of consecutive timeouts before the forwarder is held down.
+	 */
+	public static final int MAX_FAILURES = 3;
+
+	public static final long MAX_HOLD_DOWN = 60 * 1000L;
+
+	public static final long BASE_HOLD_DOWN = 1000L;
+
+	/**
+	 * number of samples required before the latency percentiles are trusted.
+	 */
+	public static final int MIN_HEDGE_SAMPLES = 20;
+
+	/**
+	 * orders healthy forwarders first, then by smoothed RTT. forwarders
+	 * without any sample come before measured ones, so that they are probed
+	 * at least once.
+	 */
+	public static final Comparator<ForwarderStats> FASTEST_FIRST = new Comparator<ForwarderStats>() {
+		@Override
+		public int compare(ForwarderStats l, ForwarderStats r) {
+			long now = System.currentTimeMillis();
+			boolean lh = l.isHealthy(now);
+			boolean rh = r.isHealthy(now);
+			if (lh != rh) {
+				return lh ? -1 : 1;
+			}
+			return Double.compare(l.srtt(), r.srtt());
+		}
+	};
+
+	protected final SocketAddress forwarder;
+
+	protected final long maxRto;
+
+	protected boolean measured = false;
+
+	protected double srtt;
+
+	protected double rttvar;
+
+	protected int failures;
+
+	protected long downUntil;
+
+	protected final LatencyHistogram histogram = new LatencyHistogram();
+
+	public ForwarderStats(SocketAddress forwarder, long maxRto) {
+		this.forwarder = forwarder;
+		this.maxRto = Math.max(MIN_RTO, maxRto);
+	}
+
+	public SocketAddress forwarder() {
+		return this.forwarder;
+	}
+
+	/**
+	 * RFC6298 2.2, 2.3
+	 *
+	 * @param rtt
+	 *            measured round trip time in milliseconds.
+	 */
+	public synchronized void sample(long rtt) {
+		if (this.measured) {
+			this.rttvar = (0.75 * this.rttvar) + (0.25 * Math.abs(this.srtt - rtt));
+			this.srtt = (0.875 * this.srtt) + (0.125 * rtt);
+		} else {
+			this.srtt = rtt;
+			this.rttvar = rtt / 2.0;
+			this.measured = true;
+		}
+		this.histogram.record(rtt);
+		this.failures = 0;
+		this.downUntil = 0;
+	}
+
+	public synchronized void timeout(long now) {
+		this.failures++;
+		if (MAX_FAILURES <= this.failures) {
+			int shift = Math.min(this.failures - MAX_FAILURES, 16);
+			long hold = Math.min(BASE_HOLD_DOWN << shift, MAX_HOLD_DOWN);
+			this.downUntil = now + hold;
+		}
+	}
+
+	/**
+	 * RFC6298 2.4, 5.5 the timeout of the next query, backed off for each
+	 * consecutive failure.
+	 *
+	 * @return milliseconds
+	 */
+	public synchronized long rto() {
+		long base = INITIAL_RTO;
+		if (this.measured) {
+			base = (long) Math.ceil(this.srtt + Math.max(MIN_RTO, 4 * this.rttvar));
+		}
+		long result = base << Math.min(this.failures, 6);
+		return Math.max(MIN_RTO, Math.min(result, this.maxRto));
+	}
+
+	/**
+	 * @param percentile
+	 *            1 to 100
+	 * @return the delay before a hedged query is sent in milliseconds, or -1
+	 *         if too few samples are recorded or the delay is not shorter than
+	 *         the timeout.
+	 */
+	public synchronized long hedgeDelay(int percentile) {
+		if (this.histogram.size() < MIN_HEDGE_SAMPLES) {
+			return -1;
+		}
+		long delay = Math.max(MIN_RTO, this.histogram.percentile(percentile));
+		return delay < rto() ? delay : -1;
+	}
+
+	public synchronized double srtt() {
+		return this.measured ? this.srtt : 0;
+	}
+
+	public synchronized double rttvar() {
+		return this.rttvar;
+	}
+
+	public synchronized int failures() {
+		return this.failures;
+	}
+
+	public synchronized boolean isHealthy(long now) {
+		return this.downUntil <= now;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder stb = new StringBuilder();
+		stb.append(this.forwarder);
+		stb.append(" srtt=");
+		stb.append(srtt());
+		stb.append(" rttvar=");
+		stb.append(rttvar());
+		stb.append(" failures=");
+		stb.append(failures());
+		return stb.toString();
+	}
+}
@@ -2,109 +2,244 @@ package org.handwerkszeug.dns.server;
 
 import java.net.SocketAddress;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.handwerkszeug.dns.DNSMessage;
+import org.handwerkszeug.dns.Markers;
 import org.handwerkszeug.dns.RCode;
 import org.handwerkszeug.dns.conf.ServerConfiguration;
-import org.jboss.netty.bootstrap.ClientBootstrap;
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.Channel;
-import org.jboss.netty.channel.ChannelFactory;
-import org.jboss.netty.channel.ChannelFuture;
-import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.ChannelHandler.Sharable;
 import org.jboss.netty.channel.ChannelHandlerContext;
-import org.jboss.netty.channel.ChannelPipeline;
-import org.jboss.netty.channel.ChannelPipelineFactory;
-import org.jboss.netty.channel.Channels;
 import org.jboss.netty.channel.ExceptionEvent;
 import org.jboss.netty.channel.MessageEvent;
 import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.channel.socket.DatagramChannel;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.TimerTask;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * forwards requests to the upstream servers. the request is either a decoded
+ * {@link DNSMessage} or, in pass-through mode, the received
+ * {@link ChannelBuffer} or the {@link RawMessage} peeked from it, which is
+ * relayed with only its ID rewritten.
+ * 
+ * @author taichi
+ */
+@Sharable
 public class ForwardingHandler extends SimpleChannelUpstreamHandler {
 
 	static final Logger LOG = LoggerFactory.getLogger(ForwardingHandler.class);
 
+	static final int MAX_WAITERS = 256;
+
 	protected ServerConfiguration config;
-	protected ChannelFactory clientChannelFactory;
 
-	public ForwardingHandler(ServerConfiguration config,
-			ChannelFactory clientChannelFactory) {
+	protected UpstreamPool pool;
+
+	protected DNSMessageCache cache;
+
+	protected ConcurrentMap<DNSCacheKey, ForwardingRequest> inflight = new ConcurrentHashMap<DNSCacheKey, ForwardingRequest>();
+
+	protected final AtomicLong coalesced = new AtomicLong();
+
+	protected final TokenBucket hedgeBudget;
+
+	protected final AtomicLong hedged = new AtomicLong();
+
+	protected final AtomicLong hedgeRejected = new AtomicLong();
+
+	public ForwardingHandler(ServerConfiguration config, UpstreamPool pool) {
+		this(config, pool, null);
+	}
+
+	public ForwardingHandler(ServerConfiguration config, UpstreamPool pool,
+			DNSMessageCache cache) {
 		this.config = config;
-		this.clientChannelFactory = clientChannelFactory;
+		this.pool = pool;
+		this.cache = cache;
+		this.hedgeBudget = new TokenBucket(config.getHedgeRate());
 	}
 
 	@Override
 	public void messageReceived(ChannelHandlerContext ctx, final MessageEvent e)
 			throws Exception {
-		final DNSMessage original = DNSMessage.class.cast(e.getMessage());
+		Object msg = e.getMessage();
+		boolean passThrough = (msg instanceof ChannelBuffer)
+				|| (msg instanceof RawMessage);
+		RawMessage request;
+		int id;
+		if (passThrough) {
+			request = RawMessage.of(msg);
+			if (request == null) {
+				LOG.debug("drop short message from {}", e.getRemoteAddress());
+				return;
+			}
+			id = request.id();
+		} else {
+			DNSMessage original = DNSMessage.class.cast(msg);
+			// the handlers before only read the request, so the received
+			// bytes are relayed as they are.
+			ChannelBuffer buffer = original.encoded();
+			try {
+				if (buffer == null) {
+					buffer = ChannelBuffers.dynamicBuffer(512);
+					new DNSMessage(original).write(buffer);
+				}
+				id = original.header().id();
+			} catch (RuntimeException ex) {
+				// the sections are decoded lazily, a malformed one is found
+				// only here.
+				LOG.debug(Markers.DETAIL, ex.getMessage(), ex);
+				ChannelBuffer encoded = original.encoded();
+				RawMessage raw = encoded == null ? null : RawMessage
+						.peek(encoded);
+				if (raw == null) {
+					LOG.debug("drop malformed message from {}",
+							e.getRemoteAddress());
+				} else {
+					e.getChannel().write(raw.error(RCode.FormErr),
+							e.getRemoteAddress());
+				}
+				return;
+			}
+			request = RawMessage.peek(buffer);
+		}
+		int advertised = request.udpPayloadSize();
+		Waiter waiter = new Waiter(id, e.getChannel(), e.getRemoteAddress(),
+				UDPPayload.limit(e.getChannel(), advertised,
+						this.config.getUdpPayloadSize()), -1 < advertised);
+		if ((request.header().qdcount() != 1)
+				|| (request.hasQuestion() == false)) {
+			writeError(waiter, request, RCode.FormErr);
+			return;
+		}
+		DNSCacheKey question = request.question();
+		if (question == null) {
+			// a class we don't model. forward without sharing.
+			newRequest(request, waiter, passThrough).send();
+			return;
+		}
 
-		ClientBootstrap cb = new ClientBootstrap(this.clientChannelFactory);
-		cb.setOption("broadcast", "false");
-		cb.setPipelineFactory(new ChannelPipelineFactory() {
-			@Override
-			public ChannelPipeline getPipeline() throws Exception {
-				return Channels.pipeline(new ClientHanler(original, e
-						.getChannel(), e.getRemoteAddress()));
+		while (true) {
+			ForwardingRequest current = this.inflight.get(question);
+			if (current == null) {
+				ForwardingRequest newone = newRequest(request, waiter,
+						passThrough);
+				if (this.inflight.putIfAbsent(question, newone) == null) {
+					newone.send();
+					return;
+				}
+			} else if (joinable(current, request, waiter)) {
+				this.coalesced.incrementAndGet();
+				return;
+			} else if (current.isCompleted()) {
+				this.inflight.remove(question, current);
+			} else {
+				// too many waiters. forward without sharing.
+				newRequest(request, waiter, passThrough).send();
+				return;
 			}
-		});
+		}
+	}
 
-		List<SocketAddress> newlist = new ArrayList<SocketAddress>(
-				this.config.getForwarders());
-		sendRequest(e, original, cb, newlist);
+	protected ForwardingRequest newRequest(RawMessage request, Waiter waiter,
+			boolean passThrough) {
+		List<SocketAddress> newlist = this.pool.order(this.config
+				.getForwarders());
+		int attempts = Math.max(0, this.config.getUpstreamRetries()) + 1;
+		ChannelBuffer query = UDPPayload.advertise(request.buffer(),
+				this.config.getUdpPayloadSize());
+		return new ForwardingRequest(request, query, waiter, newlist,
+				attempts, passThrough);
 	}
 
-	protected void sendRequest(final MessageEvent e, final DNSMessage original,
-			final ClientBootstrap bootstrap,
-			final List<SocketAddress> forwarders) {
-		if (0 < forwarders.size()) {
-			SocketAddress sa = forwarders.remove(0);
-			LOG.debug("send to {}", sa);
+	/**
+	 * the names of the questions shared by a request may differ in case, and
+	 * every requestor gets the name as it asked. (RFC4343 4.1)
+	 */
+	protected boolean joinable(ForwardingRequest current, RawMessage request,
+			Waiter waiter) {
+		waiter.qname = request.questionName();
+		return current.join(waiter);
+	}
 
-			ChannelFuture f = bootstrap.connect(sa);
-			ChannelBuffer newone = ChannelBuffers.buffer(512);
-			DNSMessage msg = new DNSMessage(original);
-			msg.write(newone);
-			newone.resetReaderIndex();
-			final Channel c = f.getChannel();
-
-			if (LOG.isDebugEnabled()) {
-				LOG.debug(
-						"STATUS : [isOpen/isConnected/isWritable {}] {} {}",
-						new Object[] {
-								new boolean[] { c.isOpen(), c.isConnected(),
-										c.isWritable() }, c.getRemoteAddress(),
-								c.getClass() });
-			}
-
-			c.write(newone, sa).addListener(new ChannelFutureListener() {
-				@Override
-				public void operationComplete(ChannelFuture future)
-						throws Exception {
-					LOG.debug("request complete isSuccess : {}",
-							future.isSuccess());
-					if (future.isSuccess() == false) {
-						if (0 < forwarders.size()) {
-							sendRequest(e, original, bootstrap, forwarders);
-						} else {
-							original.header().rcode(RCode.ServFail);
-							ChannelBuffer buffer = ChannelBuffers.buffer(512);
-							original.write(buffer);
-							// close inbound channel
-							e.getChannel().write(buffer)
-									.addListener(ChannelFutureListener.CLOSE);
-						}
-					}
-				}
-			});
+	protected void writeError(Waiter waiter, RawMessage request, RCode rcode) {
+		ChannelBuffer buffer = request.error(rcode);
+		buffer.setShort(buffer.readerIndex(), waiter.id);
+		restoreName(waiter, buffer);
+		waiter.channel.write(buffer, waiter.address);
+	}
+
+	/**
+	 * a truncated reply is never relayed over TCP, because the requestor
+	 * would not retry it. it gets SERVFAIL instead.
+	 * 
+	 * @param response
+	 *            the ID of it is already the one of the waiter.
+	 */
+	protected void write(Waiter waiter, ChannelBuffer response) {
+		ChannelBuffer b = response;
+		if (waiter.stream && RawMessage.truncated(b)) {
+			RawMessage raw = RawMessage.peek(b);
+			if (raw != null) {
+				b = raw.error(RCode.ServFail);
+			}
+		}
+		restoreName(waiter, b);
+		waiter.channel.write(UDPPayload.truncate(b, waiter.limit),
+				waiter.address);
+	}
 
-			// f.awaitUninterruptibly(30, TimeUnit.SECONDS);
+	protected void restoreName(Waiter waiter, ChannelBuffer response) {
+		byte[] qname = waiter.qname;
+		if (qname == null) {
+			return;
+		}
+		int index = response.readerIndex() + RawMessage.HEADER_LENGTH;
+		if ((0 < response.getUnsignedShort(response.readerIndex() + 4))
+				&& ((index + qname.length) <= response.writerIndex())
+				&& (RawMessage.skipName(response, index) == index
+						+ qname.length)) {
+			response.setBytes(index, qname);
 		}
 	}
 
+	/**
+	 * @return number of requests answered by a shared upstream exchange,
+	 *         including absorbed retransmissions.
+	 */
+	public long coalescedCount() {
+		return this.coalesced.get();
+	}
+
+	/**
+	 * @return number of hedged queries sent to a second forwarder.
+	 */
+	public long hedgedCount() {
+		return this.hedged.get();
+	}
+
+	/**
+	 * @return number of hedged queries suppressed by the rate limit.
+	 */
+	public long hedgeRejectedCount() {
+		return this.hedgeRejected.get();
+	}
+
+	public int inflightCount() {
+		return this.inflight.size();
+	}
+
 	@Override
 	public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e)
 			throws Exception {
@@ -113,49 +248,376 @@ public class ForwardingHandler extends SimpleChannelUpstreamHandler {
 		LOG.error(t.getMessage(), t);
 	}
 
-	protected class ClientHanler extends SimpleChannelUpstreamHandler {
+	protected static class Waiter {
+		final int id;
+		final Channel channel;
+		final SocketAddress address;
+		/**
+		 * the largest response the requestor accepts.
+		 */
+		final int limit;
+		/**
+		 * the request has an OPT pseudo-RR.
+		 */
+		final boolean edns;
+		/**
+		 * the request came over TCP.
+		 */
+		final boolean stream;
+		/**
+		 * the question name of a request which joined another one.
+		 */
+		byte[] qname;
+
+		Waiter(int id, Channel channel, SocketAddress address) {
+			this(id, channel, address, UDPPayload.DEFAULT_SIZE, false);
+		}
+
+		Waiter(int id, Channel channel, SocketAddress address, int limit,
+				boolean edns) {
+			this.id = id;
+			this.channel = channel;
+			this.address = address;
+			this.limit = limit;
+			this.edns = edns;
+			this.stream = (channel instanceof DatagramChannel) == false;
+		}
+
+		boolean isRetransmissionOf(Waiter other) {
+			return (this.id == other.id) && this.address.equals(other.address);
+		}
+	}
+
+	/**
+	 * one upstream exchange shared by every client asking the same question
+	 * while it is in flight.
+	 */
+	protected class ForwardingRequest implements UpstreamCallback {
+
+		protected RawMessage request;
+
+		protected DNSCacheKey question;
 
-		protected DNSMessage original;
+		protected ChannelBuffer query;
 
-		protected Channel originalChannel;
+		/**
+		 * relays the reply without decoding and encoding.
+		 */
+		protected boolean passThrough;
 
-		protected SocketAddress originalAddress;
+		/**
+		 * the first exchange rewrites the ID of the query in place, later ones
+		 * send a copy.
+		 */
+		protected boolean shared = false;
 
-		public ClientHanler(DNSMessage msg, Channel c, SocketAddress sa) {
-			this.original = msg;
-			this.originalChannel = c;
-			this.originalAddress = sa;
+		protected List<SocketAddress> forwarders;
+
+		/**
+		 * remaining number of upstream exchanges.
+		 */
+		protected int attempts;
+
+		protected int cursor = 0;
+
+		/**
+		 * the forwarder the query is sent to last.
+		 */
+		protected SocketAddress last;
+
+		/**
+		 * number of upstream exchanges waiting for a reply.
+		 */
+		protected int outstanding = 0;
+
+		protected Timeout hedge;
+
+		protected List<Waiter> waiters = new ArrayList<Waiter>(2);
+
+		protected boolean completed = false;
+
+		public ForwardingRequest(RawMessage request, ChannelBuffer query,
+				Waiter first, List<SocketAddress> forwarders, int attempts,
+				boolean passThrough) {
+			this.request = request;
+			this.question = request.question();
+			this.query = query;
+			this.forwarders = forwarders;
+			this.attempts = attempts;
+			this.passThrough = passThrough;
+			this.waiters.add(first);
 		}
 
-		@Override
-		public void messageReceived(ChannelHandlerContext ctx,
-				final MessageEvent e) throws Exception {
-			LOG.debug("ClientHanler#messageReceived");
-			ChannelBuffer buffer = (ChannelBuffer) e.getMessage();
-			DNSMessage msg = new DNSMessage(buffer);
-			msg.header().id(this.original.header().id());
-			ChannelBuffer newone = ChannelBuffers.buffer(buffer.capacity());
-			msg.write(newone);
-			newone.resetReaderIndex();
-			this.originalChannel.write(newone, this.originalAddress)
-					.addListener(new ChannelFutureListener() {
+		/**
+		 * @return false if this request is already completed or has too many
+		 *         waiters.
+		 */
+		public synchronized boolean join(Waiter waiter) {
+			if (this.completed) {
+				return false;
+			}
+			for (Waiter w : this.waiters) {
+				if (waiter.isRetransmissionOf(w)) {
+					LOG.debug("absorb retransmission {} {}", w.address,
+							this.question);
+					return true;
+				}
+			}
+			if (MAX_WAITERS <= this.waiters.size()) {
+				return false;
+			}
+			this.waiters.add(waiter);
+			return true;
+		}
+
+		public synchronized boolean isCompleted() {
+			return this.completed;
+		}
+
+		/**
+		 * @return the waiters, or an empty list if this request is already
+		 *         completed.
+		 */
+		protected List<Waiter> complete() {
+			if (this.question != null) {
+				ForwardingHandler.this.inflight.remove(this.question, this);
+			}
+			synchronized (this) {
+				if (this.completed) {
+					return Collections.emptyList();
+				}
+				this.completed = true;
+				if (this.hedge != null) {
+					this.hedge.cancel();
+				}
+				return this.waiters;
+			}
+		}
+
+		protected synchronized ChannelBuffer payload() {
+			if (this.shared) {
+				return this.query.copy();
+			}
+			this.shared = true;
+			return this.query.duplicate();
+		}
+
+		protected synchronized SocketAddress next() {
+			if (this.completed || this.forwarders.isEmpty()
+					|| (this.attempts < 1)) {
+				return null;
+			}
+			this.attempts--;
+			this.outstanding++;
+			this.last = this.forwarders.get(this.cursor++
+					% this.forwarders.size());
+			return this.last;
+		}
+
+		protected synchronized boolean hasStreamWaiter() {
+			for (Waiter w : this.waiters) {
+				if (w.stream) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * asks the forwarder which sent a truncated reply again over TCP.
+		 * the UDP exchange turns into the TCP one.
+		 */
+		protected void sendStream() {
+			SocketAddress sa;
+			synchronized (this) {
+				if (this.completed) {
+					return;
+				}
+				sa = this.last;
+			}
+			LOG.debug("retry over TCP to {}", sa);
+			ForwardingHandler.this.pool.sendStream(sa, this.question,
+					payload(), new UpstreamCallback() {
+						@Override
+						public void responseReceived(ChannelBuffer response) {
+							received(response);
+						}
+
 						@Override
-						public void operationComplete(ChannelFuture future)
-								throws Exception {
-							e.getChannel().close();
+						public void exceptionCaught(Throwable cause) {
+							ForwardingRequest.this.exceptionCaught(cause);
 						}
 					});
 		}
 
+		/**
+		 * sends the query to the next forwarder. retries rotate through the
+		 * forwarders, starting from the fastest one.
+		 */
+		public void send() {
+			SocketAddress sa = next();
+			if (sa == null) {
+				for (Waiter w : complete()) {
+					writeError(w, this.request, RCode.ServFail);
+				}
+				return;
+			}
+			LOG.debug("send to {}", sa);
+			ForwardingHandler.this.pool.send(sa, this.question, payload(),
+					this);
+			scheduleHedge(sa);
+		}
+
+		protected void scheduleHedge(SocketAddress first) {
+			int percentile = ForwardingHandler.this.config.getHedgePercentile();
+			if ((percentile < 1) || (this.forwarders.size() < 2)) {
+				return;
+			}
+			long delay = ForwardingHandler.this.pool.stats(first).hedgeDelay(
+					Math.min(percentile, 100));
+			if (delay < 0) {
+				return;
+			}
+			synchronized (this) {
+				if (this.completed || (this.hedge != null)) {
+					return;
+				}
+				this.hedge = ForwardingHandler.this.pool.timer().newTimeout(
+						new TimerTask() {
+							@Override
+							public void run(Timeout timeout) throws Exception {
+								hedge();
+							}
+						}, delay, TimeUnit.MILLISECONDS);
+			}
+		}
+
+		/**
+		 * sends the same question to another forwarder while the first
+		 * exchange is still waiting. the first reply wins.
+		 */
+		protected void hedge() {
+			synchronized (this) {
+				if (this.completed || (this.outstanding != 1)) {
+					return;
+				}
+			}
+			if (ForwardingHandler.this.hedgeBudget.tryAcquire() == false) {
+				ForwardingHandler.this.hedgeRejected.incrementAndGet();
+				return;
+			}
+			SocketAddress sa = next();
+			if (sa == null) {
+				return;
+			}
+			LOG.debug("hedge to {}", sa);
+			ForwardingHandler.this.hedged.incrementAndGet();
+			ForwardingHandler.this.pool.send(sa, this.question, payload(),
+					this);
+		}
+
 		@Override
-		public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e)
-				throws Exception {
-			LOG.error("ClientHanler#exceptionCaught");
-			Throwable t = e.getCause();
-			LOG.error(t.getMessage(), t);
-			e.getFuture().setFailure(t);
-			e.getChannel().close();
+		public void responseReceived(ChannelBuffer buffer) {
+			LOG.debug("ForwardingRequest#responseReceived");
+			if (RawMessage.truncated(buffer) && hasStreamWaiter()
+					&& ForwardingHandler.this.pool.supportsStream()) {
+				sendStream();
+				return;
+			}
+			received(buffer);
+		}
+
+		protected void received(ChannelBuffer buffer) {
+			if (isCompleted()) {
+				// the other exchange of a hedged request has already won.
+				return;
+			}
+			ChannelBuffer reply = buffer;
+			DNSMessage msg = null;
+			boolean truncated = RawMessage.truncated(buffer);
+			if (this.passThrough == false) {
+				// decoded while this request is still shared, so that every
+				// waiter is answered even if the reply is broken.
+				try {
+					msg = new DNSMessage(buffer);
+					msg.decode();
+					reply = ChannelBuffers.dynamicBuffer(buffer.readableBytes());
+					msg.write(reply);
+					if (truncated) {
+						// the encoder sets the TC bit only for its own cuts.
+						reply.setByte(reply.readerIndex() + 2,
+								reply.getByte(reply.readerIndex() + 2) | 0x02);
+					}
+				} catch (RuntimeException e) {
+					LOG.debug(Markers.DETAIL, e.getMessage(), e);
+					for (Waiter w : complete()) {
+						writeError(w, this.request, RCode.ServFail);
+					}
+					return;
+				}
+			}
+			List<Waiter> list = complete();
+			if (list.isEmpty()) {
+				return;
+			}
+			if (this.passThrough) {
+				store(buffer);
+			} else if (ForwardingHandler.this.cache != null) {
+				ForwardingHandler.this.cache.store(msg);
+			}
+			ChannelBuffer withOPT = null;
+			ChannelBuffer withoutOPT = null;
+			int last = list.size() - 1;
+			for (int i = 0; i <= last; i++) {
+				Waiter w = list.get(i);
+				ChannelBuffer b;
+				if (w.edns) {
+					if (withOPT == null) {
+						withOPT = UDPPayload.advertise(reply,
+								ForwardingHandler.this.config
+										.getUdpPayloadSize());
+					}
+					b = withOPT;
+				} else {
+					if (withoutOPT == null) {
+						withoutOPT = UDPPayload.removeOPT(reply);
+					}
+					b = withoutOPT;
+				}
+				if (i < last) {
+					b = b.copy();
+				}
+				b.setShort(b.readerIndex(), w.id);
+				write(w, b);
+			}
+		}
+
+		/**
+		 * the reply is decoded only to be cached. a reply which contains
+		 * anything we can't decode is relayed but not cached.
+		 */
+		protected void store(ChannelBuffer buffer) {
+			if ((ForwardingHandler.this.cache == null) || (this.question == null)) {
+				return;
+			}
+			try {
+				ForwardingHandler.this.cache.store(new DNSMessage(buffer
+						.duplicate()));
+			} catch (RuntimeException e) {
+				LOG.debug(Markers.DETAIL, e.getMessage(), e);
+			}
 		}
-	}
 
+		@Override
+		public void exceptionCaught(Throwable cause) {
+			LOG.debug("request failed {} {}", this.question, cause);
+			synchronized (this) {
+				this.outstanding--;
+				if (this.completed || (0 < this.outstanding)) {
+					return;
+				}
+			}
+			send();
+		}
+	}
 }
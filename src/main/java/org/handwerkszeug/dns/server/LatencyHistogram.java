@@ -0,0 +1,84 @@
+package org.handwerkszeug.dns.server;
+
+import java.util.Arrays;
+
+/**
+ * log-linear histogram of round trip times in milliseconds. the counts are
+ * halved whenever the total reaches a threshold, so that percentiles follow
+ * the recent behavior of the forwarder. this class is not thread safe.
+ *
+ * @author taichi
+ */
+public class LatencyHistogram {
+
+	static final long[] BOUNDS;
+
+	static {
+		long[] bounds = new long[128];
+		int size = 0;
+		long b = 1;
+		while (b < 60 * 1000L) {
+			bounds[size++] = b;
+			b = Math.max(b + 1, (b * 5) / 4);
+		}
+		bounds[size++] = Long.MAX_VALUE;
+		BOUNDS = Arrays.copyOf(bounds, size);
+	}
+
+	public static final int DEFAULT_DECAY_THRESHOLD = 1024;
+
+	protected final int[] counts = new int[BOUNDS.length];
+
+	protected final int decayThreshold;
+
+	protected int total;
+
+	public LatencyHistogram() {
+		this(DEFAULT_DECAY_THRESHOLD);
+	}
+
+	public LatencyHistogram(int decayThreshold) {
+		this.decayThreshold = Math.max(2, decayThreshold);
+	}
+
+	public void record(long millis) {
+		int i = Arrays.binarySearch(BOUNDS, Math.max(0, millis));
+		if (i < 0) {
+			i = -i - 1;
+		}
+		this.counts[i]++;
+		this.total++;
+		if (this.decayThreshold <= this.total) {
+			this.total = 0;
+			for (int j = 0; j < this.counts.length; j++) {
+				this.counts[j] >>>= 1;
+				this.total += this.counts[j];
+			}
+		}
+	}
+
+	public int size() {
+		return this.total;
+	}
+
+	/**
+	 * @param percentile
+	 *            1 to 100
+	 * @return the upper bound of the bucket which contains the percentile, or
+	 *         -1 if no sample is recorded.
+	 */
+	public long percentile(int percentile) {
+		if (this.total < 1) {
+			return -1;
+		}
+		long rank = ((long) this.total * percentile + 99) / 100;
+		long seen = 0;
+		for (int i = 0; i < this.counts.length; i++) {
+			seen += this.counts[i];
+			if (rank <= seen) {
+				return BOUNDS[i];
+			}
+		}
+		return BOUNDS[BOUNDS.length - 1];
+	}
+}
@@ -0,0 +1,205 @@
+package org.handwerkszeug.dns.server;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.handwerkszeug.dns.DNSMessage;
+import org.handwerkszeug.dns.Header;
+import org.handwerkszeug.dns.ResourceRecord;
+
+/**
+ * recycles the {@link DNSMessage}s the server builds for its responses. each
+ * worker thread keeps its own free list, so that acquiring and releasing
+ * take no lock. a message is released once it is written to the buffer, it
+ * must not be used after.
+ * <p>
+ * in debug mode the released messages are never reused, and any use of them
+ * throws {@link IllegalStateException}.
+ * </p>
+ *
+ * @author taichi
+ */
+public class MessagePool {
+
+	public static final int DEFAULT_CAPACITY = 16;
+
+	/**
+	 * a section which grew larger than this is dropped on release.
+	 */
+	static final int MAX_SECTION = 64;
+
+	protected final int capacity;
+
+	protected final boolean debug;
+
+	protected final ThreadLocal<ArrayDeque<PooledMessage>> free = new ThreadLocal<ArrayDeque<PooledMessage>>() {
+		@Override
+		protected ArrayDeque<PooledMessage> initialValue() {
+			return new ArrayDeque<PooledMessage>();
+		}
+	};
+
+	protected final AtomicLong created = new AtomicLong();
+
+	public MessagePool() {
+		this(DEFAULT_CAPACITY, false);
+	}
+
+	public MessagePool(int capacity, boolean debug) {
+		this.capacity = capacity;
+		this.debug = debug;
+	}
+
+	/**
+	 * @return an empty message. the ID of its header is left as it was.
+	 */
+	public DNSMessage acquire() {
+		PooledMessage result = this.free.get().pollLast();
+		if (result == null) {
+			this.created.incrementAndGet();
+			return new PooledMessage(this);
+		}
+		result.released = false;
+		return result;
+	}
+
+	/**
+	 * returns the message to the free list of the current thread. messages
+	 * which don't come from this pool are left to the garbage collector.
+	 */
+	public void release(DNSMessage message) {
+		if ((message instanceof PooledMessage) == false) {
+			return;
+		}
+		PooledMessage pm = (PooledMessage) message;
+		if (pm.pool != this) {
+			return;
+		}
+		pm.check();
+		pm.released = true;
+		if (this.debug) {
+			return;
+		}
+		ArrayDeque<PooledMessage> list = this.free.get();
+		if (list.size() < this.capacity) {
+			pm.recycle();
+			list.addLast(pm);
+		}
+	}
+
+	/**
+	 * @return number of messages made by this pool.
+	 */
+	public long created() {
+		return this.created.get();
+	}
+
+	public boolean isDebug() {
+		return this.debug;
+	}
+
+	static class PooledMessage extends DNSMessage {
+
+		final MessagePool pool;
+
+		/**
+		 * the header is replaced with this one on release, the one given to
+		 * {@link #header(Header)} may be shared.
+		 */
+		final Header own;
+
+		boolean released;
+
+		PooledMessage(MessagePool pool) {
+			super(new Header());
+			this.pool = pool;
+			this.own = this.header;
+		}
+
+		void check() {
+			if (this.released) {
+				throw new IllegalStateException("released message");
+			}
+		}
+
+		void recycle() {
+			this.own.clear();
+			this.header = this.own;
+			this.question = reuse(this.question);
+			this.answer = reuse(this.answer);
+			this.authority = reuse(this.authority);
+			this.additional = reuse(this.additional);
+			this.messageSize = 0;
+		}
+
+		List<ResourceRecord> reuse(List<ResourceRecord> list) {
+			if ((list instanceof ArrayList) && (list.size() <= MAX_SECTION)) {
+				list.clear();
+				return list;
+			}
+			return new ArrayList<ResourceRecord>();
+		}
+
+		@Override
+		public Header header() {
+			check();
+			return super.header();
+		}
+
+		@Override
+		public void header(Header header) {
+			check();
+			super.header(header);
+		}
+
+		@Override
+		public List<ResourceRecord> question() {
+			check();
+			return super.question();
+		}
+
+		@Override
+		public void question(List<ResourceRecord> list) {
+			check();
+			super.question(list);
+		}
+
+		@Override
+		public List<ResourceRecord> answer() {
+			check();
+			return super.answer();
+		}
+
+		@Override
+		public void answer(List<ResourceRecord> list) {
+			check();
+			super.answer(list);
+		}
+
+		@Override
+		public List<ResourceRecord> authority() {
+			check();
+			return super.authority();
+		}
+
+		@Override
+		public void authority(List<ResourceRecord> list) {
+			check();
+			super.authority(list);
+		}
+
+		@Override
+		public List<ResourceRecord> additional() {
+			check();
+			return super.additional();
+		}
+
+		@Override
+		public void additional(List<ResourceRecord> list) {
+			check();
+			super.additional(list);
+		}
+	}
+}
@@ -4,21 +4,38 @@ import java.util.Set;
 
 import org.handwerkszeug.dns.DNSMessage;
 import org.handwerkszeug.dns.RCode;
+import org.handwerkszeug.dns.RecordTemplate;
 import org.handwerkszeug.dns.ResolveContext;
 import org.handwerkszeug.dns.ResourceRecord;
 
 public class NoErrorResponse extends DefaultResponse {
 	final Set<ResourceRecord> records;
 	final boolean aa;
+	final RecordTemplate template;
 
 	public NoErrorResponse(Set<ResourceRecord> records) {
 		this(records, true);
 	}
 
 	public NoErrorResponse(Set<ResourceRecord> records, boolean aa) {
+		this(records, aa, null);
+	}
+
+	/**
+	 * @param template
+	 *            the records encoded in the answer section, or null.
+	 */
+	public NoErrorResponse(Set<ResourceRecord> records,
+			RecordTemplate template) {
+		this(records, true, template);
+	}
+
+	protected NoErrorResponse(Set<ResourceRecord> records, boolean aa,
+			RecordTemplate template) {
 		super(RCode.NoError);
 		this.records = records;
 		this.aa = aa;
+		this.template = template;
 	}
 
 	@Override
@@ -29,4 +46,9 @@ public class NoErrorResponse extends DefaultResponse {
 		res.answer().addAll(this.records);
 		// TODO additional section ?
 	}
+
+	@Override
+	public RecordTemplate template() {
+		return this.template;
+	}
 }
\ No newline at end of file
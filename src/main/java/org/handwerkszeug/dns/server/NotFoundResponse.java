@@ -1,13 +1,25 @@
 package org.handwerkszeug.dns.server;
 
+import java.util.Collections;
+
 import org.handwerkszeug.dns.DNSMessage;
 import org.handwerkszeug.dns.RCode;
+import org.handwerkszeug.dns.RecordTemplate;
 import org.handwerkszeug.dns.ResolveContext;
+import org.handwerkszeug.dns.Section;
 import org.handwerkszeug.dns.record.SOARecord;
 
+/**
+ * the SOA record is encoded once, for all the names under its owner.
+ */
 public class NotFoundResponse extends DefaultResponse {
 	final SOARecord soaRecord;
 
+	/**
+	 * encoded when it is first asked for. a race encodes it twice at worst.
+	 */
+	volatile RecordTemplate template;
+
 	public NotFoundResponse(RCode rcode, SOARecord soaRecord) {
 		super(rcode);
 		this.soaRecord = soaRecord;
@@ -17,6 +29,18 @@ public class NotFoundResponse extends DefaultResponse {
 	public void postProcess(ResolveContext context) {
 		DNSMessage res = context.response();
 		res.header().rcode(this.rcode());
+		res.header().aa(true);
 		res.authority().add(this.soaRecord);
 	}
+
+	@Override
+	public RecordTemplate template() {
+		RecordTemplate result = this.template;
+		if ((result == null) && (this.soaRecord != null)) {
+			result = RecordTemplate.encode(this.soaRecord.name(),
+					Section.AUTHORITY, Collections.singleton(this.soaRecord));
+			this.template = result;
+		}
+		return result;
+	}
 }
\ No newline at end of file
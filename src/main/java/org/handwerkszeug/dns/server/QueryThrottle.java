@@ -0,0 +1,119 @@
+package org.handwerkszeug.dns.server;
+
+import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelHandler;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
+import org.jboss.netty.util.TimerTask;
+
+/**
+ * bounds the number of unanswered queries on a connection. while the bound
+ * is reached the server stops reading from the connection, so that a single
+ * chatty client can't occupy the forwarders on behalf of the others. one
+ * instance per connection.
+ * <p>
+ * a query which gets no reply at all, because it is dropped or absorbed by
+ * another one, gives back its slot when the timeout passes.
+ * </p>
+ * 
+ * @author taichi
+ */
+public class QueryThrottle extends SimpleChannelHandler {
+
+	protected final int limit;
+
+	protected final Timer timer;
+
+	protected final long timeoutMillis;
+
+	/**
+	 * the slots of the unanswered queries, the oldest first. a slot is null
+	 * without the timer. guarded by this.
+	 */
+	protected final LinkedList<Timeout> slots = new LinkedList<Timeout>();
+
+	/**
+	 * guarded by this. {@link Channel#isReadable()} lags behind the requests
+	 * made from other threads.
+	 */
+	protected boolean paused = false;
+
+	public QueryThrottle(int limit) {
+		this(limit, null, 0);
+	}
+
+	/**
+	 * @param timer
+	 *            expires the slots of the queries, or null if they never
+	 *            expire.
+	 * @param timeoutMillis
+	 *            the time after which an unanswered query is taken as
+	 *            dropped.
+	 */
+	public QueryThrottle(int limit, Timer timer, long timeoutMillis) {
+		this.limit = Math.max(1, limit);
+		this.timer = timer;
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	@Override
+	public void messageReceived(ChannelHandlerContext ctx, MessageEvent e)
+			throws Exception {
+		final Channel channel = e.getChannel();
+		synchronized (this) {
+			Timeout slot = null;
+			if ((this.timer != null) && (0 < this.timeoutMillis)) {
+				slot = this.timer.newTimeout(new TimerTask() {
+					@Override
+					public void run(Timeout timeout) throws Exception {
+						expire(channel, timeout);
+					}
+				}, this.timeoutMillis, TimeUnit.MILLISECONDS);
+			}
+			this.slots.add(slot);
+			if ((this.paused == false) && (this.limit <= this.slots.size())) {
+				this.paused = true;
+				channel.setReadable(false);
+			}
+		}
+		super.messageReceived(ctx, e);
+	}
+
+	@Override
+	public void writeRequested(ChannelHandlerContext ctx, MessageEvent e)
+			throws Exception {
+		synchronized (this) {
+			Timeout slot = this.slots.poll();
+			if (slot != null) {
+				slot.cancel();
+			}
+			resume(e.getChannel());
+		}
+		super.writeRequested(ctx, e);
+	}
+
+	protected synchronized void expire(Channel channel, Timeout slot) {
+		if (this.slots.remove(slot)) {
+			resume(channel);
+		}
+	}
+
+	/**
+	 * guarded by this.
+	 */
+	protected void resume(Channel channel) {
+		if (this.paused && (this.slots.size() < this.limit)) {
+			this.paused = false;
+			channel.setReadable(true);
+		}
+	}
+
+	public synchronized int inflightCount() {
+		return this.slots.size();
+	}
+}
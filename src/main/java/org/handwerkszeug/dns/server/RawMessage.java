@@ -0,0 +1,257 @@
+package org.handwerkszeug.dns.server;
+
+import org.handwerkszeug.dns.DNSClass;
+import org.handwerkszeug.dns.Header;
+import org.handwerkszeug.dns.Markers;
+import org.handwerkszeug.dns.Name;
+import org.handwerkszeug.dns.RCode;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * an encoded message of which only the header and the first question are
+ * read. the other sections are left as they are, so that the message can be
+ * relayed without decoding and encoding.
+ * <p>
+ * in pass-through mode the first handler which peeks a request passes the
+ * peeked message on with {@link #forward(ChannelHandlerContext, MessageEvent, RawMessage)},
+ * so that the request is read only once.
+ * </p>
+ *
+ * @author taichi
+ */
+public class RawMessage {
+
+	static final Logger LOG = LoggerFactory.getLogger(RawMessage.class);
+
+	static final int HEADER_LENGTH = 12;
+
+	/**
+	 * RFC6891 6.1.1 the type of the OPT pseudo-RR.
+	 */
+	static final int TYPE_OPT = 41;
+
+	protected final ChannelBuffer buffer;
+
+	protected final Header header;
+
+	protected final DNSCacheKey question;
+
+	protected final int questionEnd;
+
+	protected RawMessage(ChannelBuffer buffer, Header header,
+			DNSCacheKey question, int questionEnd) {
+		this.buffer = buffer;
+		this.header = header;
+		this.question = question;
+		this.questionEnd = questionEnd;
+	}
+
+	/**
+	 * @return null if the buffer is shorter than a header.
+	 */
+	public static RawMessage peek(ChannelBuffer buffer) {
+		if (buffer.readableBytes() < HEADER_LENGTH) {
+			return null;
+		}
+		ChannelBuffer b = buffer.duplicate();
+		Header h = new Header(b);
+		if (h.qdcount() < 1) {
+			return new RawMessage(buffer, h, null, HEADER_LENGTH);
+		}
+		try {
+			Name n = new Name(b);
+			int t = b.readUnsignedShort();
+			DNSClass c = DNSClass.find(b.readUnsignedShort());
+			DNSCacheKey q = null;
+			if (c != null) {
+				// the types we don't model are kept by their code.
+				q = new DNSCacheKey(n, t, c);
+			}
+			return new RawMessage(buffer, h, q, b.readerIndex()
+					- buffer.readerIndex());
+		} catch (RuntimeException e) {
+			LOG.debug(Markers.DETAIL, e.getMessage(), e);
+			return new RawMessage(buffer, h, null, HEADER_LENGTH);
+		}
+	}
+
+	/**
+	 * @return the message if it is already peeked, the peeked buffer, or null
+	 *         if the message is neither or shorter than a header.
+	 */
+	public static RawMessage of(Object msg) {
+		if (msg instanceof RawMessage) {
+			return (RawMessage) msg;
+		}
+		if (msg instanceof ChannelBuffer) {
+			return peek((ChannelBuffer) msg);
+		}
+		return null;
+	}
+
+	/**
+	 * passes the request to the next handler, as the peeked message if there
+	 * is one.
+	 */
+	public static void forward(ChannelHandlerContext ctx, MessageEvent e,
+			RawMessage raw) {
+		if ((raw == null) || (raw == e.getMessage())) {
+			ctx.sendUpstream(e);
+		} else {
+			Channels.fireMessageReceived(ctx, raw, e.getRemoteAddress());
+		}
+	}
+
+	public ChannelBuffer buffer() {
+		return this.buffer;
+	}
+
+	public Header header() {
+		return this.header;
+	}
+
+	/**
+	 * @return true if the first question is readable, even if its type or
+	 *         class is not modeled.
+	 */
+	public boolean hasQuestion() {
+		return HEADER_LENGTH < this.questionEnd;
+	}
+
+	/**
+	 * @return the first question, or null if the message has no readable
+	 *         question or the class of it is not modeled. the type is kept by
+	 *         its code, modeled or not.
+	 */
+	public DNSCacheKey question() {
+		return this.question;
+	}
+
+	/**
+	 * @return the UDP payload size advertised by the OPT pseudo-RR, or -1 if
+	 *         the message has none.
+	 */
+	public int udpPayloadSize() {
+		int opt = findOPT(this.buffer);
+		if (opt < 0) {
+			return -1;
+		}
+		return this.buffer.getUnsignedShort(skipName(this.buffer, opt) + 2);
+	}
+
+	/**
+	 * @return a copy of the name of the first question as it is on the wire,
+	 *         or null if the message has no readable question.
+	 */
+	public byte[] questionName() {
+		if (hasQuestion() == false) {
+			return null;
+		}
+		byte[] result = new byte[this.questionEnd - HEADER_LENGTH - 4];
+		this.buffer.getBytes(this.buffer.readerIndex() + HEADER_LENGTH, result);
+		return result;
+	}
+
+	public int id() {
+		return this.header.id();
+	}
+
+	/**
+	 * overwrites the ID of the message in place.
+	 */
+	public void id(int id) {
+		this.buffer.setShort(this.buffer.readerIndex(), id);
+		this.header.id(id);
+	}
+
+	/**
+	 * @return true if the TC bit of the message is set.
+	 */
+	public static boolean truncated(ChannelBuffer buffer) {
+		return (2 < buffer.readableBytes())
+				&& ((buffer.getUnsignedByte(buffer.readerIndex() + 2) & 0x02) != 0);
+	}
+
+	/**
+	 * @return an error reply which carries the header and the question of
+	 *         this message.
+	 */
+	public ChannelBuffer error(RCode rcode) {
+		Header h = new Header(this.header);
+		h.id(this.header.id());
+		h.qr(true);
+		h.aa(false);
+		h.tc(false);
+		h.rcode(rcode);
+		h.qdcount(hasQuestion() ? 1 : 0);
+		h.ancount(0);
+		h.nscount(0);
+		h.arcount(0);
+		ChannelBuffer result = ChannelBuffers.buffer(this.questionEnd);
+		h.write(result);
+		if (hasQuestion()) {
+			result.writeBytes(this.buffer, this.buffer.readerIndex()
+					+ HEADER_LENGTH, this.questionEnd - HEADER_LENGTH);
+		}
+		return result;
+	}
+
+	/**
+	 * @return the index just after the name which starts at the index.
+	 */
+	static int skipName(ChannelBuffer buffer, int index) {
+		return Name.skip(buffer, index);
+	}
+
+	/**
+	 * walks the sections without decoding the records.
+	 * 
+	 * @return the index of the OPT pseudo-RR in the additional section, or -1
+	 *         if there is none.
+	 */
+	public static int findOPT(ChannelBuffer buffer) {
+		if (buffer.readableBytes() < HEADER_LENGTH) {
+			return -1;
+		}
+		try {
+			int ri = buffer.readerIndex();
+			int qd = buffer.getUnsignedShort(ri + 4);
+			int records = buffer.getUnsignedShort(ri + 6)
+					+ buffer.getUnsignedShort(ri + 8);
+			int ar = buffer.getUnsignedShort(ri + 10);
+			int i = ri + HEADER_LENGTH;
+			for (int j = 0; j < qd; j++) {
+				i = skipName(buffer, i) + 4;
+			}
+			for (int j = 0; j < records; j++) {
+				i = skipName(buffer, i) + 8;
+				i += 2 + buffer.getUnsignedShort(i);
+			}
+			for (int j = 0; j < ar; j++) {
+				int start = i;
+				i = skipName(buffer, i);
+				if (buffer.getUnsignedShort(i) == TYPE_OPT) {
+					return start;
+				}
+				i += 8;
+				i += 2 + buffer.getUnsignedShort(i);
+			}
+		} catch (IndexOutOfBoundsException e) {
+			LOG.debug(Markers.DETAIL, "malformed message", e);
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the index of the RDLENGTH field of the record at the index.
+	 */
+	public static int rdlengthIndex(ChannelBuffer buffer, int record) {
+		return skipName(buffer, record) + 8;
+	}
+}
@@ -0,0 +1,193 @@
+package org.handwerkszeug.dns.server;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelHandler;
+
+/**
+ * RFC7828 The edns-tcp-keepalive EDNS0 Option. the option is removed from
+ * the queries, because it is meaningless to the forwarders, and the idle
+ * timeout of the server is added to the replies of the queries which carried
+ * it. one instance per connection.
+ *
+ * @author taichi
+ */
+public class TcpKeepaliveHandler extends SimpleChannelHandler {
+
+	public static final int OPTION_CODE = 11;
+
+	/**
+	 * the timeout in units of 100 milliseconds.
+	 */
+	protected final int timeout;
+
+	/**
+	 * the queries which carried the option. guarded by itself.
+	 */
+	protected final Set<QueryKey> requested = new HashSet<QueryKey>();
+
+	/**
+	 * @param idleTimeout
+	 *            seconds
+	 */
+	public TcpKeepaliveHandler(int idleTimeout) {
+		this.timeout = Math.max(0, Math.min(idleTimeout * 10, 0xFFFF));
+	}
+
+	@Override
+	public void messageReceived(ChannelHandlerContext ctx, MessageEvent e)
+			throws Exception {
+		if (e.getMessage() instanceof ChannelBuffer) {
+			ChannelBuffer query = (ChannelBuffer) e.getMessage();
+			ChannelBuffer stripped = strip(query);
+			if (stripped != null) {
+				QueryKey key = QueryKey.of(query);
+				if (key != null) {
+					synchronized (this.requested) {
+						this.requested.add(key);
+					}
+				}
+				Channels.fireMessageReceived(ctx, stripped, e.getRemoteAddress());
+				return;
+			}
+		}
+		super.messageReceived(ctx, e);
+	}
+
+	@Override
+	public void writeRequested(ChannelHandlerContext ctx, MessageEvent e)
+			throws Exception {
+		if (e.getMessage() instanceof ChannelBuffer) {
+			ChannelBuffer reply = (ChannelBuffer) e.getMessage();
+			QueryKey key = QueryKey.of(reply);
+			boolean contains = false;
+			if (key != null) {
+				synchronized (this.requested) {
+					contains = this.requested.remove(key);
+				}
+			}
+			if (contains) {
+				ChannelBuffer newone = append(reply);
+				if (newone != null) {
+					Channels.write(ctx, e.getFuture(), newone,
+							e.getRemoteAddress());
+					return;
+				}
+			}
+		}
+		super.writeRequested(ctx, e);
+	}
+
+	/**
+	 * @return the query without the option, or null if the query doesn't
+	 *         carry the option.
+	 */
+	protected ChannelBuffer strip(ChannelBuffer query) {
+		int opt = RawMessage.findOPT(query);
+		if (opt < 0) {
+			return null;
+		}
+		int rdlength = RawMessage.rdlengthIndex(query, opt);
+		int end = rdlength + 2 + query.getUnsignedShort(rdlength);
+		for (int i = rdlength + 2; (i + 4) <= end;) {
+			int code = query.getUnsignedShort(i);
+			int len = 4 + query.getUnsignedShort(i + 2);
+			if (code == OPTION_CODE) {
+				ChannelBuffer result = ChannelBuffers.buffer(query
+						.readableBytes() - len);
+				result.writeBytes(query, query.readerIndex(),
+						i - query.readerIndex());
+				result.writeBytes(query, i + len, query.writerIndex()
+						- (i + len));
+				int index = rdlength - query.readerIndex();
+				result.setShort(index, result.getUnsignedShort(index) - len);
+				return result;
+			}
+			i += len;
+		}
+		return null;
+	}
+
+	/**
+	 * @return the reply with the option, or null if the reply has no OPT
+	 *         pseudo-RR.
+	 */
+	protected ChannelBuffer append(ChannelBuffer reply) {
+		int opt = RawMessage.findOPT(reply);
+		if (opt < 0) {
+			return null;
+		}
+		int rdlength = RawMessage.rdlengthIndex(reply, opt);
+		int end = rdlength + 2 + reply.getUnsignedShort(rdlength);
+		ChannelBuffer result = ChannelBuffers.buffer(reply.readableBytes() + 6);
+		result.writeBytes(reply, reply.readerIndex(), end - reply.readerIndex());
+		result.writeShort(OPTION_CODE);
+		result.writeShort(2);
+		result.writeShort(this.timeout);
+		result.writeBytes(reply, end, reply.writerIndex() - end);
+		int index = rdlength - reply.readerIndex();
+		result.setShort(index, result.getUnsignedShort(index) + 6);
+		return result;
+	}
+
+	/**
+	 * tells the queries apart by the ID and the question, since the IDs of
+	 * the queries on a connection are not unique. the question is compared
+	 * as on the wire, with the case of the name folded.
+	 */
+	static class QueryKey {
+		final int id;
+		final byte[] question;
+
+		QueryKey(int id, byte[] question) {
+			this.id = id;
+			this.question = question;
+		}
+
+		/**
+		 * @return null if the message has no readable question.
+		 */
+		static QueryKey of(ChannelBuffer message) {
+			RawMessage raw = RawMessage.peek(message);
+			if ((raw == null) || (raw.hasQuestion() == false)) {
+				return null;
+			}
+			int start = message.readerIndex() + RawMessage.HEADER_LENGTH;
+			byte[] question = new byte[raw.questionEnd
+					- RawMessage.HEADER_LENGTH];
+			message.getBytes(start, question);
+			for (int i = 0; i < question.length - 4; i++) {
+				byte b = question[i];
+				if (('A' <= b) && (b <= 'Z')) {
+					question[i] = (byte) (b + ('a' - 'A'));
+				}
+			}
+			return new QueryKey(raw.id(), question);
+		}
+
+		@Override
+		public int hashCode() {
+			return (31 * this.id) + Arrays.hashCode(this.question);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if ((obj instanceof QueryKey) == false) {
+				return false;
+			}
+			QueryKey other = (QueryKey) obj;
+			return (this.id == other.id)
+					&& Arrays.equals(this.question, other.question);
+		}
+	}
+}
@@ -0,0 +1,41 @@
+package org.handwerkszeug.dns.server;
+
+/**
+ * permits at most {@code rate} operations per second, with bursts of up to
+ * {@code rate} operations.
+ *
+ * @author taichi
+ */
+public class TokenBucket {
+
+	protected final double rate;
+
+	protected double tokens;
+
+	protected long last;
+
+	public TokenBucket(int rate) {
+		this.rate = Math.max(0, rate);
+		this.tokens = this.rate;
+		this.last = now();
+	}
+
+	public synchronized boolean tryAcquire() {
+		long now = now();
+		long elapsed = now - this.last;
+		if (0 < elapsed) {
+			this.tokens = Math.min(this.rate, this.tokens
+					+ ((this.rate * elapsed) / 1000.0));
+			this.last = now;
+		}
+		if (1 <= this.tokens) {
+			this.tokens -= 1;
+			return true;
+		}
+		return false;
+	}
+
+	protected long now() {
+		return System.currentTimeMillis();
+	}
+}
@@ -0,0 +1,163 @@
+package org.handwerkszeug.dns.server;
+
+import org.handwerkszeug.dns.DNSMessage;
+import org.handwerkszeug.dns.RRType;
+import org.handwerkszeug.dns.RecordView;
+import org.handwerkszeug.dns.ResourceRecord;
+import org.handwerkszeug.dns.Section;
+import org.handwerkszeug.dns.record.OPTRecord;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.socket.DatagramChannel;
+
+/**
+ * RFC6891 EDNS(0) payload size negotiation on encoded messages. the OPT
+ * pseudo-RR is hop by hop, so it is rewritten on the way to the forwarders
+ * and on the way back to the clients.
+ *
+ * @author taichi
+ */
+public class UDPPayload {
+
+	/**
+	 * RFC1035 2.3.4. Size limits
+	 */
+	public static final int DEFAULT_SIZE = OPTRecord.MIN_PAYLOAD_SIZE;
+
+	public static final int MAX_SIZE = 65535;
+
+	/**
+	 * length of an OPT pseudo-RR without options.
+	 */
+	static final int OPT_LENGTH = 11;
+
+	/**
+	 * @param advertised
+	 *            the payload size of the request, or -1 if the request has no
+	 *            OPT pseudo-RR.
+	 * @param max
+	 *            the largest payload size the server accepts.
+	 * @return the largest response which may be sent to the requestor over the
+	 *         channel.
+	 */
+	public static int limit(Channel channel, int advertised, int max) {
+		if ((channel instanceof DatagramChannel) == false) {
+			return MAX_SIZE;
+		}
+		if (advertised < 0) {
+			return DEFAULT_SIZE;
+		}
+		return Math.max(DEFAULT_SIZE, Math.min(advertised, max));
+	}
+
+	/**
+	 * the additional section of a received request is scanned on the wire,
+	 * and decoded only if it already is.
+	 *
+	 * @return the UDP payload size of the OPT pseudo-RR, or -1 if the request
+	 *         has none.
+	 */
+	public static int advertised(DNSMessage request) {
+		if (request.isDecoded(Section.ADDITIONAL) == false) {
+			RecordView v = request.records(Section.ADDITIONAL);
+			while (v.next()) {
+				if (RRType.OPT.equals(v.type())) {
+					return v.dnsClass();
+				}
+			}
+			return -1;
+		}
+		for (ResourceRecord rr : request.additional()) {
+			if (rr instanceof OPTRecord) {
+				return ((OPTRecord) rr).udpPayloadSize();
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * RFC2181 9. The TC (truncated) header bit. a response which doesn't fit
+	 * is replaced with the header and the question, and the OPT pseudo-RR if
+	 * any, with the TC bit set. the responses encoded here stop at the limit
+	 * by themselves, see {@link org.handwerkszeug.dns.MessageEncoder}, this is
+	 * for the relayed ones.
+	 *
+	 * @return the response itself if it fits.
+	 */
+	public static ChannelBuffer truncate(ChannelBuffer response, int limit) {
+		if (response.readableBytes() <= limit) {
+			return response;
+		}
+		RawMessage raw = RawMessage.peek(response);
+		if (raw == null) {
+			return response;
+		}
+		int ri = response.readerIndex();
+		int opt = RawMessage.findOPT(response);
+		int optLength = 0;
+		if (0 <= opt) {
+			int rdlength = RawMessage.rdlengthIndex(response, opt);
+			optLength = (rdlength + 2 + response.getUnsignedShort(rdlength))
+					- opt;
+		}
+		int questionEnd = ri + raw.questionEnd;
+		ChannelBuffer result = ChannelBuffers.buffer((questionEnd - ri)
+				+ optLength);
+		result.writeBytes(response, ri, questionEnd - ri);
+		if (0 < optLength) {
+			result.writeBytes(response, opt, optLength);
+		}
+		result.setShort(2, response.getUnsignedShort(ri + 2) | 0x0200); // TC
+		result.setShort(4, raw.hasQuestion() ? 1 : 0);
+		result.setShort(6, 0);
+		result.setShort(8, 0);
+		result.setShort(10, 0 < optLength ? 1 : 0);
+		return result;
+	}
+
+	/**
+	 * sets the payload size of the OPT pseudo-RR, or appends one if the
+	 * message has none.
+	 *
+	 * @return the message itself if it has an OPT pseudo-RR.
+	 */
+	public static ChannelBuffer advertise(ChannelBuffer message, int size) {
+		int opt = RawMessage.findOPT(message);
+		if (0 <= opt) {
+			message.setShort(RawMessage.skipName(message, opt) + 2, size);
+			return message;
+		}
+		ChannelBuffer result = ChannelBuffers.buffer(message.readableBytes()
+				+ OPT_LENGTH);
+		result.writeBytes(message, message.readerIndex(),
+				message.readableBytes());
+		result.setShort(10, result.getUnsignedShort(10) + 1);
+		result.writeByte(0); // root
+		result.writeShort(RawMessage.TYPE_OPT);
+		result.writeShort(size);
+		result.writeInt(0);
+		result.writeShort(0);
+		return result;
+	}
+
+	/**
+	 * @return the message without the OPT pseudo-RR, or the message itself if
+	 *         it has none.
+	 */
+	public static ChannelBuffer removeOPT(ChannelBuffer message) {
+		int opt = RawMessage.findOPT(message);
+		if (opt < 0) {
+			return message;
+		}
+		int rdlength = RawMessage.rdlengthIndex(message, opt);
+		int end = rdlength + 2 + message.getUnsignedShort(rdlength);
+		int ri = message.readerIndex();
+		ChannelBuffer result = ChannelBuffers.buffer(message.readableBytes()
+				- (end - opt));
+		result.writeBytes(message, ri, opt - ri);
+		result.writeBytes(message, end, message.writerIndex() - end);
+		result.setShort(10, result.getUnsignedShort(10) - 1);
+		return result;
+	}
+}
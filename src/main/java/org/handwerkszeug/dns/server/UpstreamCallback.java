@@ -0,0 +1,20 @@
+package org.handwerkszeug.dns.server;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+
+/**
+ * receives the outcome of a query sent through {@link UpstreamPool}.
+ * 
+ * @author taichi
+ */
+public interface UpstreamCallback {
+
+	/**
+	 * @param response
+	 *            raw reply. the reader index points to the head of the
+	 *            message.
+	 */
+	void responseReceived(ChannelBuffer response);
+
+	void exceptionCaught(Throwable cause);
+}
@@ -0,0 +1,749 @@
+package org.handwerkszeug.dns.server;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.handwerkszeug.dns.Markers;
+import org.handwerkszeug.dns.conf.ServerConfiguration;
+import org.jboss.netty.bootstrap.ClientBootstrap;
+import org.jboss.netty.bootstrap.ConnectionlessBootstrap;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelException;
+import org.jboss.netty.channel.ChannelFactory;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.ExceptionEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.channel.group.ChannelGroup;
+import org.jboss.netty.channel.group.DefaultChannelGroup;
+import org.jboss.netty.handler.codec.frame.LengthFieldBasedFrameDecoder;
+import org.jboss.netty.handler.codec.frame.LengthFieldPrepender;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
+import org.jboss.netty.util.TimerTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import werkzeugkasten.common.util.Disposable;
+import werkzeugkasten.common.util.Initializable;
+
+/**
+ * UDP channels to the forwarders. every forwarder owns a fixed number of
+ * channels, and outstanding queries on a channel are told apart by a random 16
+ * bit ID and the question. every query is bounded by a timeout derived from
+ * the round trip time of the forwarder.
+ * <p>
+ * a channel is bound to a random port, and is replaced by a fresh one after
+ * {@link ServerConfiguration#getUpstreamChannelQueries()} queries, so that a
+ * spoofed reply has to guess the port as well as the ID. the fresh channel is
+ * bound by a background thread, and the used up one keeps serving until it is
+ * swapped in, so no I/O thread ever waits for a bind. a replaced channel is
+ * closed as soon as the queries sent through it are answered or timed out.
+ * </p>
+ * <p>
+ * a query whose reply is truncated may be sent again over TCP, on a
+ * connection of its own.
+ * </p>
+ * 
+ * @author taichi
+ */
+public class UpstreamPool implements Initializable, Disposable {
+
+	static final Logger LOG = LoggerFactory.getLogger(UpstreamPool.class);
+
+	static final int MAX_ID_ATTEMPTS = 32;
+
+	static final long TICK_MILLIS = 10L;
+
+	static final int MAX_BIND_ATTEMPTS = 8;
+
+	static final int MIN_PORT = 1024;
+
+	protected ServerConfiguration config;
+
+	protected ChannelFactory channelFactory;
+
+	protected ChannelFactory streamFactory;
+
+	protected ChannelGroup group = new DefaultChannelGroup("upstream");
+
+	protected ConcurrentMap<SocketAddress, Upstream> upstreams = new ConcurrentHashMap<SocketAddress, Upstream>();
+
+	protected ConcurrentMap<SocketAddress, ForwarderStats> stats = new ConcurrentHashMap<SocketAddress, ForwarderStats>();
+
+	/**
+	 * the replaced channels which still wait for replies.
+	 */
+	protected Set<UpstreamChannel> retired = Collections
+			.newSetFromMap(new ConcurrentHashMap<UpstreamChannel, Boolean>());
+
+	protected final SecureRandom random = new SecureRandom();
+
+	protected final Timer timer = new HashedWheelTimer(TICK_MILLIS,
+			TimeUnit.MILLISECONDS);
+
+	/**
+	 * binds the channels which replace the used up ones.
+	 */
+	protected final ExecutorService binder = Executors
+			.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "upstream-binder");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+
+	public UpstreamPool(ServerConfiguration config, ChannelFactory channelFactory) {
+		this(config, channelFactory, null);
+	}
+
+	/**
+	 * @param streamFactory
+	 *            the factory of TCP client channels, or null if no query is
+	 *            sent over TCP.
+	 */
+	public UpstreamPool(ServerConfiguration config,
+			ChannelFactory channelFactory, ChannelFactory streamFactory) {
+		this.config = config;
+		this.channelFactory = channelFactory;
+		this.streamFactory = streamFactory;
+	}
+
+	@Override
+	public void initialize() {
+		LOG.debug(Markers.LIFECYCLE, "initialize upstream pool");
+		for (SocketAddress sa : this.config.getForwarders()) {
+			upstream(sa);
+		}
+	}
+
+	@Override
+	public void dispose() {
+		LOG.debug(Markers.LIFECYCLE, "dispose upstream pool");
+		this.binder.shutdownNow();
+		try {
+			this.binder.awaitTermination(this.config.getUpstreamTimeout(),
+					TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		this.group.close().awaitUninterruptibly();
+		this.timer.stop();
+		Throwable cause = new IllegalStateException("upstream pool disposed");
+		for (Upstream u : this.upstreams.values()) {
+			for (int i = 0; i < u.channels.length(); i++) {
+				u.channels.get(i).failAll(cause);
+			}
+		}
+		for (UpstreamChannel uc : this.retired) {
+			uc.failAll(cause);
+		}
+		this.upstreams.clear();
+		this.retired.clear();
+	}
+
+	/**
+	 * sends a query to the forwarder. the ID of the query is overwritten in
+	 * place.
+	 * 
+	 * @param forwarder
+	 * @param question
+	 *            the question of the query, used to verify the reply.
+	 * @param query
+	 *            encoded query.
+	 * @param callback
+	 */
+	public void send(SocketAddress forwarder, DNSCacheKey question,
+			ChannelBuffer query, UpstreamCallback callback) {
+		Upstream u = upstream(forwarder);
+		UpstreamChannel uc = u.next();
+		while (uc.acquire() == false) {
+			// closed since it was swapped out, the slot holds a fresh one.
+			uc = u.next();
+		}
+		PendingQuery pq = uc.register(forwarder, question, callback);
+		if (pq == null) {
+			callback.exceptionCaught(new IllegalStateException(
+					"no free query id for " + forwarder));
+			return;
+		}
+		query.setShort(query.readerIndex(), pq.id);
+		pq.timeout = this.timer.newTimeout(new QueryTimeout(uc, pq),
+				u.stats.rto(), TimeUnit.MILLISECONDS);
+		uc.write(pq, query);
+	}
+
+	/**
+	 * @return true if queries can be sent over TCP.
+	 */
+	public boolean supportsStream() {
+		return this.streamFactory != null;
+	}
+
+	/**
+	 * sends a query to the forwarder over a new TCP connection, which is
+	 * closed after the reply. the ID of the query is overwritten in place.
+	 * 
+	 * @see #send(SocketAddress, DNSCacheKey, ChannelBuffer, UpstreamCallback)
+	 */
+	public void sendStream(SocketAddress forwarder, DNSCacheKey question,
+			final ChannelBuffer query, UpstreamCallback callback) {
+		if (this.streamFactory == null) {
+			callback.exceptionCaught(new IllegalStateException(
+					"no TCP to " + forwarder));
+			return;
+		}
+		final StreamExchange exchange = new StreamExchange(forwarder,
+				this.random.nextInt(0x10000), question, callback);
+		query.setShort(query.readerIndex(), exchange.id);
+		ClientBootstrap bootstrap = new ClientBootstrap(this.streamFactory);
+		bootstrap.setOption("tcpNoDelay", true);
+		bootstrap.setPipelineFactory(new ChannelPipelineFactory() {
+			@Override
+			public ChannelPipeline getPipeline() throws Exception {
+				return Channels.pipeline(new LengthFieldBasedFrameDecoder(
+						DNSStreamPipelineFactory.MAX_MESSAGE_SIZE, 0, 2, 0, 2),
+						new LengthFieldPrepender(2), new StreamHandler(
+								exchange));
+			}
+		});
+		exchange.timeout = this.timer.newTimeout(new TimerTask() {
+			@Override
+			public void run(Timeout timeout) throws Exception {
+				exchange.fail(new TimeoutException("no response from "
+						+ exchange.forwarder));
+			}
+		}, this.config.getUpstreamTimeout(), TimeUnit.MILLISECONDS);
+		bootstrap.connect(forwarder).addListener(new ChannelFutureListener() {
+			@Override
+			public void operationComplete(ChannelFuture future)
+					throws Exception {
+				if (future.isSuccess()) {
+					Channel c = future.getChannel();
+					UpstreamPool.this.group.add(c);
+					exchange.channel = c;
+					if (exchange.done.get()) {
+						// timed out while connecting.
+						c.close();
+					} else {
+						c.write(query);
+					}
+				} else {
+					exchange.fail(future.getCause());
+				}
+			}
+		});
+	}
+
+	/**
+	 * @return forwarders sorted by health and smoothed round trip time.
+	 */
+	public List<SocketAddress> order(Collection<SocketAddress> forwarders) {
+		List<ForwarderStats> list = new ArrayList<ForwarderStats>(
+				forwarders.size());
+		for (SocketAddress sa : forwarders) {
+			list.add(stats(sa));
+		}
+		Collections.sort(list, ForwarderStats.FASTEST_FIRST);
+		List<SocketAddress> result = new ArrayList<SocketAddress>(list.size());
+		for (ForwarderStats fs : list) {
+			result.add(fs.forwarder());
+		}
+		return result;
+	}
+
+	public ForwarderStats stats(SocketAddress forwarder) {
+		ForwarderStats fs = this.stats.get(forwarder);
+		if (fs == null) {
+			ForwarderStats newone = new ForwarderStats(forwarder,
+					this.config.getUpstreamTimeout());
+			fs = this.stats.putIfAbsent(forwarder, newone);
+			if (fs == null) {
+				fs = newone;
+			}
+		}
+		return fs;
+	}
+
+	public Timer timer() {
+		return this.timer;
+	}
+
+	/**
+	 * @return number of queries waiting for a reply.
+	 */
+	public int pendingCount() {
+		int result = 0;
+		for (Upstream u : this.upstreams.values()) {
+			for (int i = 0; i < u.channels.length(); i++) {
+				result += u.channels.get(i).pending.size();
+			}
+		}
+		for (UpstreamChannel uc : this.retired) {
+			result += uc.pending.size();
+		}
+		return result;
+	}
+
+	protected Upstream upstream(SocketAddress forwarder) {
+		Upstream u = this.upstreams.get(forwarder);
+		if (u == null) {
+			synchronized (this.upstreams) {
+				u = this.upstreams.get(forwarder);
+				if (u == null) {
+					u = new Upstream(forwarder, Math.max(1,
+							this.config.getUpstreamChannels()));
+					this.upstreams.put(forwarder, u);
+				}
+			}
+		}
+		return u;
+	}
+
+	protected Channel bind(final UpstreamChannel owner) {
+		ConnectionlessBootstrap bootstrap = new ConnectionlessBootstrap(
+				this.channelFactory);
+		bootstrap.setOption("broadcast", "false");
+		bootstrap.setPipelineFactory(new ChannelPipelineFactory() {
+			@Override
+			public ChannelPipeline getPipeline() throws Exception {
+				return Channels.pipeline(new UpstreamHandler(owner));
+			}
+		});
+		Channel c = null;
+		for (int i = 0; (c == null) && (i < MAX_BIND_ATTEMPTS); i++) {
+			int port = MIN_PORT + this.random.nextInt(0x10000 - MIN_PORT);
+			try {
+				c = bootstrap.bind(new InetSocketAddress(port));
+			} catch (ChannelException e) {
+				LOG.debug("port {} is in use", port);
+			}
+		}
+		if (c == null) {
+			c = bootstrap.bind(new InetSocketAddress(0));
+		}
+		this.group.add(c);
+		LOG.debug(Markers.BOUNDARY, "bind upstream channel {} for {}",
+				c.getLocalAddress(), owner.forwarder);
+		return c;
+	}
+
+	/**
+	 * binds a fresh channel in the background and swaps it for the used up
+	 * one, which serves the queries in the meantime.
+	 */
+	protected void rotate(final Upstream u, final int slot,
+			final UpstreamChannel uc) {
+		try {
+			this.binder.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						UpstreamChannel newone = new UpstreamChannel(u,
+								u.forwarder);
+						if (u.channels.compareAndSet(slot, uc, newone)) {
+							retire(uc);
+						} else {
+							newone.channel.close();
+						}
+					} catch (RuntimeException e) {
+						LOG.warn("cannot bind upstream channel for {}",
+								u.forwarder, e);
+						uc.rotating.set(false);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			LOG.debug("upstream pool disposed");
+		}
+	}
+
+	/**
+	 * closes the channel once the queries sent through it are answered or
+	 * timed out. the timer is a backstop for replies which never come.
+	 */
+	protected void retire(final UpstreamChannel uc) {
+		this.retired.add(uc);
+		uc.retired = true;
+		uc.closeIfDrained();
+		this.timer.newTimeout(new TimerTask() {
+			@Override
+			public void run(Timeout timeout) throws Exception {
+				uc.failAll(new TimeoutException("no response from "
+						+ uc.forwarder));
+				uc.close();
+			}
+		}, this.config.getUpstreamTimeout() + TICK_MILLIS,
+				TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * reads only the header and the question of the reply.
+	 */
+	protected static DNSCacheKey question(ChannelBuffer buffer) {
+		RawMessage raw = RawMessage.peek(buffer);
+		return raw != null ? raw.question() : null;
+	}
+
+	protected class Upstream {
+		final SocketAddress forwarder;
+		final AtomicReferenceArray<UpstreamChannel> channels;
+		final AtomicInteger cursor = new AtomicInteger();
+		final ForwarderStats stats;
+
+		Upstream(SocketAddress forwarder, int size) {
+			this.forwarder = forwarder;
+			this.stats = stats(forwarder);
+			this.channels = new AtomicReferenceArray<UpstreamChannel>(size);
+			for (int i = 0; i < size; i++) {
+				this.channels.set(i, new UpstreamChannel(this, forwarder));
+			}
+		}
+
+		/**
+		 * @return the next channel in turn. a used up channel is handed to
+		 *         {@link UpstreamPool#rotate(Upstream, int, UpstreamChannel)}
+		 *         once, and keeps serving until it is replaced.
+		 */
+		UpstreamChannel next() {
+			int i = this.cursor.getAndIncrement() & Integer.MAX_VALUE;
+			int slot = i % this.channels.length();
+			UpstreamChannel uc = this.channels.get(slot);
+			if (uc.usedUp() && uc.rotating.compareAndSet(false, true)) {
+				rotate(this, slot, uc);
+			}
+			return uc;
+		}
+	}
+
+	protected class UpstreamChannel {
+		final Upstream owner;
+		final SocketAddress forwarder;
+		final Channel channel;
+		final ConcurrentMap<Integer, PendingQuery> pending = new ConcurrentHashMap<Integer, PendingQuery>();
+		final AtomicInteger uses = new AtomicInteger();
+		final AtomicBoolean rotating = new AtomicBoolean();
+		/**
+		 * number of the queries waiting for a reply, or -1 once closed.
+		 */
+		final AtomicInteger users = new AtomicInteger();
+		volatile boolean retired;
+
+		UpstreamChannel(Upstream owner, SocketAddress forwarder) {
+			this.owner = owner;
+			this.forwarder = forwarder;
+			this.channel = bind(this);
+		}
+
+		boolean usedUp() {
+			int limit = UpstreamPool.this.config.getUpstreamChannelQueries();
+			return (0 < limit) && (limit <= this.uses.get());
+		}
+
+		/**
+		 * reserves the channel for a query, which is given back by
+		 * {@link #release()}.
+		 * 
+		 * @return false if the channel is closed.
+		 */
+		boolean acquire() {
+			while (true) {
+				int n = this.users.get();
+				if (n < 0) {
+					return false;
+				}
+				if (this.users.compareAndSet(n, n + 1)) {
+					return true;
+				}
+			}
+		}
+
+		void release() {
+			if (this.users.decrementAndGet() == 0) {
+				closeIfDrained();
+			}
+		}
+
+		/**
+		 * @return null if no free ID is found. the channel is released then.
+		 */
+		PendingQuery register(SocketAddress to, DNSCacheKey question,
+				UpstreamCallback callback) {
+			this.uses.incrementAndGet();
+			long now = System.nanoTime();
+			for (int i = 0; i < MAX_ID_ATTEMPTS; i++) {
+				int id = UpstreamPool.this.random.nextInt(0x10000);
+				PendingQuery pq = new PendingQuery(id, to, question, callback,
+						now);
+				if (this.pending.putIfAbsent(id, pq) == null) {
+					return pq;
+				}
+			}
+			release();
+			return null;
+		}
+
+		void write(final PendingQuery pq, ChannelBuffer query) {
+			this.channel.write(query, pq.forwarder).addListener(
+					new ChannelFutureListener() {
+						@Override
+						public void operationComplete(ChannelFuture future)
+								throws Exception {
+							if ((future.isSuccess() == false)
+									&& UpstreamChannel.this.pending.remove(
+											pq.id, pq)) {
+								pq.cancel();
+								pq.callback.exceptionCaught(future.getCause());
+								release();
+							}
+						}
+					});
+		}
+
+		void dispatch(ChannelBuffer response, SocketAddress from) {
+			if (response.readableBytes() < 12) {
+				return;
+			}
+			int id = response.getUnsignedShort(response.readerIndex());
+			PendingQuery pq = this.pending.get(id);
+			if (pq == null) {
+				LOG.debug("unexpected response id {} from {}", id, from);
+				return;
+			}
+			if (pq.forwarder.equals(from) == false) {
+				LOG.debug("response from unexpected address {}", from);
+				return;
+			}
+			DNSCacheKey question = question(response);
+			if ((pq.question != null) && (pq.question.equals(question) == false)) {
+				LOG.debug("question mismatch {} {}", pq.question, question);
+				return;
+			}
+			if (this.pending.remove(id, pq)) {
+				pq.cancel();
+				long rtt = TimeUnit.NANOSECONDS.toMillis(System.nanoTime()
+						- pq.sent);
+				this.owner.stats.sample(rtt);
+				pq.callback.responseReceived(response);
+				release();
+			}
+		}
+
+		void expire(PendingQuery pq) {
+			if (this.pending.remove(pq.id, pq)) {
+				LOG.debug("timeout {} {}", pq.forwarder, pq.question);
+				this.owner.stats.timeout(System.currentTimeMillis());
+				pq.callback.exceptionCaught(new TimeoutException(
+						"no response from " + pq.forwarder));
+				release();
+			}
+		}
+
+		/**
+		 * closes a retired channel which waits for no more replies.
+		 */
+		void closeIfDrained() {
+			if (this.retired && this.users.compareAndSet(0, -1)) {
+				this.channel.close();
+				UpstreamPool.this.retired.remove(this);
+			}
+		}
+
+		void close() {
+			if (-1 < this.users.getAndSet(-1)) {
+				this.channel.close();
+				UpstreamPool.this.retired.remove(this);
+			}
+		}
+
+		void failAll(Throwable cause) {
+			for (Integer id : this.pending.keySet()) {
+				PendingQuery pq = this.pending.remove(id);
+				if (pq != null) {
+					pq.cancel();
+					pq.callback.exceptionCaught(cause);
+					release();
+				}
+			}
+		}
+	}
+
+	protected static class PendingQuery {
+		final int id;
+		final SocketAddress forwarder;
+		final DNSCacheKey question;
+		final UpstreamCallback callback;
+		/**
+		 * {@link System#nanoTime()} of the registration.
+		 */
+		final long sent;
+		volatile Timeout timeout;
+
+		PendingQuery(int id, SocketAddress forwarder, DNSCacheKey question,
+				UpstreamCallback callback, long sent) {
+			this.id = id;
+			this.forwarder = forwarder;
+			this.question = question;
+			this.callback = callback;
+			this.sent = sent;
+		}
+
+		void cancel() {
+			Timeout t = this.timeout;
+			if (t != null) {
+				t.cancel();
+			}
+		}
+	}
+
+	/**
+	 * a query sent over a TCP connection of its own.
+	 */
+	protected static class StreamExchange {
+		final SocketAddress forwarder;
+		final int id;
+		final DNSCacheKey question;
+		final UpstreamCallback callback;
+		final AtomicBoolean done = new AtomicBoolean();
+		volatile Channel channel;
+		volatile Timeout timeout;
+
+		StreamExchange(SocketAddress forwarder, int id, DNSCacheKey question,
+				UpstreamCallback callback) {
+			this.forwarder = forwarder;
+			this.id = id;
+			this.question = question;
+			this.callback = callback;
+		}
+
+		void receive(ChannelBuffer response) {
+			if ((response.readableBytes() < 12)
+					|| (response.getUnsignedShort(response.readerIndex()) != this.id)) {
+				LOG.debug("unexpected response from {}", this.forwarder);
+				return;
+			}
+			DNSCacheKey q = question(response);
+			if ((this.question != null) && (this.question.equals(q) == false)) {
+				LOG.debug("question mismatch {} {}", this.question, q);
+				return;
+			}
+			if (finish()) {
+				this.callback.responseReceived(response);
+			}
+		}
+
+		void fail(Throwable cause) {
+			if (finish()) {
+				this.callback.exceptionCaught(cause);
+			}
+		}
+
+		boolean finish() {
+			if (this.done.compareAndSet(false, true) == false) {
+				return false;
+			}
+			Timeout t = this.timeout;
+			if (t != null) {
+				t.cancel();
+			}
+			Channel c = this.channel;
+			if (c != null) {
+				c.close();
+			}
+			return true;
+		}
+	}
+
+	protected static class StreamHandler extends SimpleChannelUpstreamHandler {
+		final StreamExchange exchange;
+
+		StreamHandler(StreamExchange exchange) {
+			this.exchange = exchange;
+		}
+
+		@Override
+		public void messageReceived(ChannelHandlerContext ctx, MessageEvent e)
+				throws Exception {
+			this.exchange.receive((ChannelBuffer) e.getMessage());
+		}
+
+		@Override
+		public void channelClosed(ChannelHandlerContext ctx,
+				ChannelStateEvent e) throws Exception {
+			this.exchange.fail(new IllegalStateException("closed by "
+					+ this.exchange.forwarder));
+		}
+
+		@Override
+		public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e)
+				throws Exception {
+			LOG.debug(e.getCause().getMessage(), e.getCause());
+			this.exchange.fail(e.getCause());
+		}
+	}
+
+	protected static class QueryTimeout implements TimerTask {
+		final UpstreamChannel owner;
+		final PendingQuery query;
+
+		QueryTimeout(UpstreamChannel owner, PendingQuery query) {
+			this.owner = owner;
+			this.query = query;
+		}
+
+		@Override
+		public void run(Timeout timeout) throws Exception {
+			this.owner.expire(this.query);
+		}
+	}
+
+	protected class UpstreamHandler extends SimpleChannelUpstreamHandler {
+		final UpstreamChannel owner;
+
+		UpstreamHandler(UpstreamChannel owner) {
+			this.owner = owner;
+		}
+
+		@Override
+		public void messageReceived(ChannelHandlerContext ctx, MessageEvent e)
+				throws Exception {
+			ChannelBuffer buffer = (ChannelBuffer) e.getMessage();
+			this.owner.dispatch(buffer, e.getRemoteAddress());
+		}
+
+		@Override
+		public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e)
+				throws Exception {
+			LOG.error("UpstreamHandler#exceptionCaught");
+			Throwable t = e.getCause();
+			LOG.error(t.getMessage(), t);
+		}
+	}
+}
@@ -1,7 +1,11 @@
 package org.handwerkszeug.dns.zone;
 
+import static org.handwerkszeug.util.Validation.notNull;
+
 import org.handwerkszeug.dns.DNSClass;
 import org.handwerkszeug.dns.Name;
+import org.handwerkszeug.dns.RRType;
+import org.handwerkszeug.dns.Response;
 import org.handwerkszeug.dns.Zone;
 import org.handwerkszeug.dns.ZoneType;
 
@@ -38,4 +42,10 @@ public abstract class AbstractZone implements Zone {
 		return this.name;
 	}
 
+	@Override
+	public Response find(Name qname, RRType qtype) {
+		notNull(qtype, "qtype");
+		return find(qname, qtype.value());
+	}
+
 }
@@ -6,7 +6,6 @@ import java.util.List;
 
 import org.handwerkszeug.dns.DNSClass;
 import org.handwerkszeug.dns.Name;
-import org.handwerkszeug.dns.RRType;
 import org.handwerkszeug.dns.Response;
 import org.handwerkszeug.dns.ZoneType;
 
@@ -27,7 +26,7 @@ public class ForwardZone extends AbstractZone {
 	}
 
 	@Override
-	public Response find(Name qname, RRType type) {
+	public Response find(Name qname, int qtype) {
 		// TODO Auto-generated method stub
 		return null;
 	}
@@ -2,19 +2,22 @@ package org.handwerkszeug.dns.zone;
 
 import static org.handwerkszeug.util.Validation.notNull;
 
+import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.NavigableSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.ConcurrentSkipListMap;
-import java.util.concurrent.ConcurrentSkipListSet;
 
 import org.handwerkszeug.dns.Name;
+import org.handwerkszeug.dns.NameTree;
+import org.handwerkszeug.dns.NameTree.Node;
 import org.handwerkszeug.dns.RCode;
 import org.handwerkszeug.dns.RRType;
 import org.handwerkszeug.dns.ResourceRecord;
 import org.handwerkszeug.dns.Response;
 import org.handwerkszeug.dns.ZoneType;
+import org.handwerkszeug.dns.record.ImmutableRecord;
 import org.handwerkszeug.dns.record.SOARecord;
 import org.handwerkszeug.dns.server.CNAMEResponse;
 import org.handwerkszeug.dns.server.DNAMEResponse;
@@ -22,170 +25,405 @@ import org.handwerkszeug.dns.server.NoErrorResponse;
 import org.handwerkszeug.dns.server.NotFoundResponse;
 import org.handwerkszeug.dns.server.ReferralResponse;
 
+/**
+ * the records of a zone in a {@link NameTree}. a question is answered in one
+ * descent from the apex, which meets the delegations and the DNAMEs on the
+ * way, and ends at the name or at its closest encloser, where the wildcard
+ * is a child.
+ * <p>
+ * a version of the zone is never changed. the readers take the current one
+ * from a volatile field, without locks, and see all of a change or none of
+ * it. an {@link Update} is built into a new version, which shares the names
+ * it doesn't touch with the previous one, and is published at once.
+ * </p>
+ * <p>
+ * the writers of this package apply the changes directly. the others submit
+ * the updates to the {@link ZoneUpdateQueue} of the zone.
+ * </p>
+ */
 public class MasterZone extends AbstractZone {
 
-	final ConcurrentMap<Name, ConcurrentMap<RRType, NavigableSet<ResourceRecord>>> records = new ConcurrentSkipListMap<Name, ConcurrentMap<RRType, NavigableSet<ResourceRecord>>>();
-	final Response nxDomain;
-	final Response nxRRSet;
+	volatile NameTree<RecordSets> records = new NameTree<RecordSets>();
+
+	/**
+	 * the number of the versions published.
+	 */
+	volatile long serial;
+
+	/**
+	 * the SOA of the negative responses while the apex has none.
+	 */
+	final SOARecord soaRecord;
+
+	/**
+	 * made from the SOA of the apex, and published before the records of
+	 * its version. a reader which takes the records first gets these of the
+	 * same version or of a newer one.
+	 */
+	volatile Negatives negatives;
 
 	public MasterZone(Name name, SOARecord soaRecord) {
 		super(ZoneType.master, name);
-		this.nxDomain = new NotFoundResponse(RCode.NXDomain, soaRecord);
-		this.nxRRSet = new NotFoundResponse(RCode.NXRRSet, soaRecord);
+		this.soaRecord = soaRecord;
+		this.negatives = new Negatives(soaRecord);
 	}
 
 	@Override
-	public Response find(Name qname, RRType qtype) {
+	public Response find(Name qname, int qtype) {
 		notNull(qname, "qname");
-		notNull(qtype, "qtype");
 
+		NameTree<RecordSets> version = this.records;
+		Negatives negative = this.negatives;
 		if (qname.contains(this.name()) == false) {
-			return this.nxDomain;
-		}
-
-		ConcurrentMap<RRType, NavigableSet<ResourceRecord>> exactMatch = this.records
-				.get(qname);
-		if (exactMatch != null) {
-			NavigableSet<ResourceRecord> rrs = exactMatch.get(qtype);
-			if (rrs != null) {
-				synchronized (rrs) {
-					if (rrs.isEmpty() == false) {
-						return new NoErrorResponse(rrs);
-					}
-				}
+			return negative.nxDomain;
+		}
+
+		Node<RecordSets> n = version.root();
+		int l = NameTree.top(qname);
+		int apex = l - NameTree.top(this.name()) - 1;
+		for (; (apex < l) && (n != null); l--) {
+			n = n.child(qname, l);
+		}
+		if (n == null) {
+			return negative.nxDomain;
+		}
+		for (; -1 < l; l--) {
+			Node<RecordSets> child = n.child(qname, l);
+			if (child == null) {
+				// n is the closest encloser.
+				return wildcard(n, qname, qtype, negative);
 			}
-			if (RRType.ANY.equals(qtype)) {
-				Set<ResourceRecord> newset = new HashSet<ResourceRecord>();
-				for (RRType type : exactMatch.keySet()) {
-					Set<ResourceRecord> s = exactMatch.get(type);
-					if (s != null) {
-						synchronized (s) {
-							newset.addAll(s);
-						}
-					}
-				}
-				if (newset.isEmpty() == false) {
-					return new NoErrorResponse(newset);
-				}
+			n = child;
+			RecordSets types = n.value();
+			if (types == null) {
+				continue;
 			}
-			if (RRType.CNAME.equals(qtype) == false) {
-				rrs = exactMatch.get(RRType.CNAME);
-				if (rrs != null) {
-					synchronized (rrs) {
-						if (rrs.isEmpty() == false) {
-							return new CNAMEResponse(rrs.first(), qtype);
-						}
-					}
-				}
+			// every node below the apex with NS is a cut, the name of the
+			// question too. only DS is answered on the parent side of it.
+			// (RFC4035 3.1.4.1)
+			RecordSet set = types.get(RRType.NS.value());
+			if ((set != null) && (set.isEmpty() == false)
+					&& ((0 < l) || (RRType.DS.value() != qtype))) {
+				return new ReferralResponse(set);
 			}
-			return this.nxRRSet;
-		}
-
-		for (Name qn = qname.toParent(); this.name().equals(qn) == false; qn = qn
-				.toParent()) {
-			ConcurrentMap<RRType, NavigableSet<ResourceRecord>> match = this.records
-					.get(qn);
-			if (match != null) {
-				synchronized (match) {
-					if (match.isEmpty() == false) {
-						NavigableSet<ResourceRecord> set = match.get(RRType.NS);
-						if ((set != null) && (set.isEmpty() == false)) {
-							return new ReferralResponse(set);
-						}
-						set = match.get(RRType.DNAME);
-						if ((set != null) && (set.isEmpty() == false)) {
-							return new DNAMEResponse(set.first(), qname, qtype);
-						}
-					}
-				}
+			// a DNAME renames the names below its owner, not the owner.
+			set = types.get(RRType.DNAME.value());
+			if ((0 < l) && (set != null) && (set.isEmpty() == false)) {
+				return new DNAMEResponse(set.first(), qname, qtype);
 			}
 		}
 
-		for (Name qn = qname; this.name().equals(qn) == false; qn = qn
-				.toParent()) {
-			Name wild = qn.toWildcard();
-			ConcurrentMap<RRType, NavigableSet<ResourceRecord>> match = this.records
-					.get(wild);
-			if (match != null) {
-				synchronized (match) {
-					if (match.isEmpty() == false) {
-						Set<ResourceRecord> matchSet = match.get(qtype);
-						if (matchSet.isEmpty() == false) {
-							Set<ResourceRecord> set = new HashSet<ResourceRecord>(
-									matchSet.size());
-							for (ResourceRecord rr : matchSet) {
-								set.add(rr.toQnameRecord(qname));
-							}
-							return new NoErrorResponse(set);
-						}
-					}
-				}
+		RecordSets exactMatch = n.value();
+		if (exactMatch == null) {
+			// an empty non-terminal.
+			return negative.nxRRSet;
+		}
+		RecordSet rrs = exactMatch.get(qtype);
+		if ((rrs != null) && (rrs.isEmpty() == false)) {
+			return rrs.response();
+		}
+		if (RRType.ANY.value() == qtype) {
+			Set<ResourceRecord> newset = new HashSet<ResourceRecord>();
+			for (RecordSet s : exactMatch.sets()) {
+				newset.addAll(s);
+			}
+			if (newset.isEmpty() == false) {
+				return new NoErrorResponse(newset);
+			}
+		}
+		if (RRType.CNAME.value() != qtype) {
+			rrs = exactMatch.get(RRType.CNAME.value());
+			if ((rrs != null) && (rrs.isEmpty() == false)) {
+				return new CNAMEResponse(rrs.first(), qtype);
 			}
 		}
+		return negative.nxRRSet;
+	}
+
+	/**
+	 * RFC4592 3.3.1. only the wildcard child of the closest encloser applies.
+	 */
+	protected Response wildcard(Node<RecordSets> encloser, Name qname,
+			int qtype, Negatives negative) {
+		Node<RecordSets> wild = encloser.child(NameTree.WILDCARD);
+		if ((wild == null) || (wild.value() == null)) {
+			return negative.nxDomain;
+		}
+		RecordSet matchSet = wild.value().get(qtype);
+		if ((matchSet == null) || matchSet.isEmpty()) {
+			return negative.nxRRSet;
+		}
+		Set<ResourceRecord> set = new HashSet<ResourceRecord>(matchSet.size());
+		for (ResourceRecord rr : matchSet) {
+			// a view which shares the RDATA.
+			set.add(rr.toQnameRecord(qname));
+		}
+		return new NoErrorResponse(set);
+	}
+
+	/**
+	 * the record is kept as an {@link ImmutableRecord}, it must not be changed
+	 * after.
+	 */
+	void add(ResourceRecord record) {
+		notNull(record, "record");
+		update().add(record).commit();
+	}
+
+	/**
+	 * adds the records in one new version.
+	 */
+	void addAll(Iterable<? extends ResourceRecord> records) {
+		notNull(records, "records");
+		Update update = update();
+		for (ResourceRecord rr : records) {
+			update.add(rr);
+		}
+		update.commit();
+	}
 
-		return this.nxDomain;
+	/**
+	 * @param checkSets
+	 *            drops the set of the type if it is left empty.
+	 * @param checkMap
+	 *            drops the name if it is left without a set.
+	 */
+	void remove(ResourceRecord record, boolean checkSets,
+			boolean checkMap) {
+		notNull(record, "record");
+		Update update = update();
+		update.changes.add(new Change(record, false, checkSets, checkMap));
+		update.commit();
 	}
 
-	// add and remove needs queuing?
-	// if modify operations works on single thread, not conflict.
-	public void add(ResourceRecord rr) {
-		notNull(rr, "rr");
-		for (;;) {
-			ConcurrentMap<RRType, NavigableSet<ResourceRecord>> current = this.records
-					.get(rr.name());
-			if (current == null) {
-				ConcurrentMap<RRType, NavigableSet<ResourceRecord>> newone = new ConcurrentSkipListMap<RRType, NavigableSet<ResourceRecord>>();
-				NavigableSet<ResourceRecord> newset = new ConcurrentSkipListSet<ResourceRecord>();
-				newset.add(rr);
-				newone.put(rr.type(), newset);
+	/**
+	 * @return the number of the current version.
+	 */
+	public long serial() {
+		return this.serial;
+	}
+
+	/**
+	 * @return the number of the names which have records.
+	 */
+	public int size() {
+		return this.records.size();
+	}
 
-				ConcurrentMap<RRType, NavigableSet<ResourceRecord>> prevTypes = this.records
-						.putIfAbsent(rr.name(), newone);
-				if (prevTypes == null) {
-					break;
+	/**
+	 * @return an empty update of the zone.
+	 */
+	public Update update() {
+		return new Update();
+	}
+
+	/**
+	 * builds the current version with the changes into a new one, and
+	 * publishes it. the writers are serialized.
+	 * <p>
+	 * the records added in a row are gathered by the name and the type, and
+	 * each set is made once, so that loading a zone doesn't copy a set for
+	 * every record.
+	 * </p>
+	 * 
+	 * @return the number of the new version.
+	 */
+	protected synchronized long apply(List<Change> changes) {
+		NameTree.Editor<RecordSets> editor = this.records.edit();
+		Map<Name, Map<Integer, List<ResourceRecord>>> added = new LinkedHashMap<Name, Map<Integer, List<ResourceRecord>>>();
+		for (Change c : changes) {
+			if (c.record == null) {
+				added.clear();
+				editor = new NameTree<RecordSets>().edit();
+			} else if (c.add) {
+				ResourceRecord rr = ImmutableRecord.of(c.record);
+				Map<Integer, List<ResourceRecord>> types = added.get(rr
+						.name());
+				if (types == null) {
+					types = new LinkedHashMap<Integer, List<ResourceRecord>>();
+					added.put(rr.name(), types);
 				}
-				synchronized (prevTypes) {
-					Set<ResourceRecord> prevRecs = prevTypes.putIfAbsent(
-							rr.type(), newset);
-					if (prevRecs == null) {
-						break;
-					}
-					prevRecs.add(rr);
-					break;
+				List<ResourceRecord> list = types.get(rr.typeCode());
+				if (list == null) {
+					list = new ArrayList<ResourceRecord>();
+					types.put(rr.typeCode(), list);
 				}
+				list.add(rr);
 			} else {
-				synchronized (current) {
-					Set<ResourceRecord> rrs = current.get(rr.type());
-					if (rrs == null) {
-						NavigableSet<ResourceRecord> newset = new ConcurrentSkipListSet<ResourceRecord>();
-						newset.add(rr);
-						current.put(rr.type(), newset);
-						break;
-					}
-					if (rrs.isEmpty() == false) {
-						rrs.add(rr);
-						break;
-					}
-				}
+				// the records added before are put first.
+				put(editor, added);
+				remove(editor, c);
+			}
+		}
+		put(editor, added);
+		NameTree<RecordSets> newone = editor.build();
+		SOARecord soa = soa(newone);
+		if (soa != this.negatives.soaRecord) {
+			this.negatives = new Negatives(soa);
+		}
+		this.records = newone;
+		return ++this.serial;
+	}
+
+	/**
+	 * @return the SOA of the apex in the version, or the one the zone is made
+	 *         with if the apex has none.
+	 */
+	protected SOARecord soa(NameTree<RecordSets> version) {
+		RecordSets apex = version.get(this.name());
+		if (apex != null) {
+			RecordSet set = apex.get(RRType.SOA.value());
+			if ((set != null) && (set.isEmpty() == false)) {
+				return (SOARecord) ImmutableRecord.unwrap(set.first());
 			}
 		}
+		return this.soaRecord;
 	}
 
-	public void remove(ResourceRecord rr, boolean checkSets, boolean checkMap) {
-		notNull(rr, "rr");
-		ConcurrentMap<RRType, NavigableSet<ResourceRecord>> current = this.records
-				.get(rr.name());
-		if (current != null) {
-			synchronized (current) {
-				NavigableSet<ResourceRecord> sets = current.get(rr.type());
-				sets.remove(rr);
-				if (checkSets && sets.isEmpty()) {
-					current.remove(rr.type());
-					if (checkMap && current.isEmpty()) {
-						this.records.remove(rr.name());
-					}
+	/**
+	 * puts the records added so far, with one new set for each name and
+	 * type, and forgets them.
+	 */
+	protected void put(NameTree.Editor<RecordSets> editor,
+			Map<Name, Map<Integer, List<ResourceRecord>>> added) {
+		for (Map.Entry<Name, Map<Integer, List<ResourceRecord>>> e : added
+				.entrySet()) {
+			RecordSets types = editor.get(e.getKey());
+			if (types == null) {
+				types = RecordSets.EMPTY;
+			}
+			RecordSets newtypes = types;
+			for (Map.Entry<Integer, List<ResourceRecord>> t : e.getValue()
+					.entrySet()) {
+				List<ResourceRecord> list = t.getValue();
+				ResourceRecord[] array = list.toArray(new ResourceRecord[list
+						.size()]);
+				RecordSet set = newtypes.get(t.getKey());
+				RecordSet newset = set == null ? RecordSet.of(t.getKey(),
+						array) : set.withAll(array);
+				if (newset != set) {
+					newtypes = newtypes.with(newset);
 				}
 			}
+			if (newtypes != types) {
+				editor.put(e.getKey(), newtypes);
+			}
+		}
+		added.clear();
+	}
+
+	protected void remove(NameTree.Editor<RecordSets> editor, Change c) {
+		ResourceRecord rr = ImmutableRecord.of(c.record);
+		RecordSets types = editor.get(rr.name());
+		if (types == null) {
+			return;
+		}
+		RecordSet set = types.get(rr.typeCode());
+		if (set == null) {
+			return;
+		}
+		set = set.without(rr);
+		if (c.checkSets && set.isEmpty()) {
+			types = types.without(rr.typeCode());
+			if (c.checkMap && types.isEmpty()) {
+				editor.remove(rr.name());
+				return;
+			}
+		} else {
+			types = types.with(set);
+		}
+		editor.put(rr.name(), types);
+	}
+
+	/**
+	 * changes of the zone, which are published together. an update is
+	 * submitted to the {@link ZoneUpdateQueue} of the zone.
+	 */
+	public class Update {
+
+		final List<Change> changes = new ArrayList<Change>();
+
+		protected Update() {
+		}
+
+		/**
+		 * the record is kept as an {@link ImmutableRecord}, it must not be
+		 * changed after.
+		 */
+		public Update add(ResourceRecord record) {
+			notNull(record, "record");
+			this.changes.add(new Change(record, true, false, false));
+			return this;
+		}
+
+		/**
+		 * removes the record, and the set and the name left empty.
+		 */
+		public Update remove(ResourceRecord record) {
+			notNull(record, "record");
+			this.changes.add(new Change(record, false, true, true));
+			return this;
+		}
+
+		/**
+		 * removes all the records before the following changes, for a reload
+		 * or a full zone transfer.
+		 */
+		public Update clear() {
+			this.changes.add(new Change(null, false, true, true));
+			return this;
+		}
+
+		public int size() {
+			return this.changes.size();
+		}
+
+		/**
+		 * @return the number of the new version, or of the current one if
+		 *         there are no changes.
+		 */
+		long commit() {
+			if (this.changes.isEmpty()) {
+				return serial();
+			}
+			return apply(this.changes);
+		}
+	}
+
+	/**
+	 * the NXDOMAIN and the NODATA responses with one SOA, so that a reload,
+	 * a transfer or an update which replaces the SOA is seen in the negative
+	 * answers. (RFC2308)
+	 */
+	static final class Negatives {
+		final SOARecord soaRecord;
+		final Response nxDomain;
+		final Response nxRRSet;
+
+		Negatives(SOARecord soaRecord) {
+			this.soaRecord = soaRecord;
+			this.nxDomain = new NotFoundResponse(RCode.NXDomain, soaRecord);
+			// RFC2308 2.2 NODATA is NOERROR with the SOA in the authority.
+			this.nxRRSet = new NotFoundResponse(RCode.NoError, soaRecord);
+		}
+	}
+
+	/**
+	 * an add or a remove of a record. a change without a record clears the
+	 * zone.
+	 */
+	static class Change {
+		final ResourceRecord record;
+		final boolean add;
+		final boolean checkSets;
+		final boolean checkMap;
+
+		Change(ResourceRecord record, boolean add, boolean checkSets,
+				boolean checkMap) {
+			this.record = record;
+			this.add = add;
+			this.checkSets = checkSets;
+			this.checkMap = checkMap;
 		}
 	}
 }
@@ -0,0 +1,102 @@
+package org.handwerkszeug.dns.zone;
+
+import static org.handwerkszeug.util.Validation.notNull;
+
+import java.io.File;
+
+import org.handwerkszeug.dns.Name;
+import org.handwerkszeug.dns.RRType;
+import org.handwerkszeug.dns.ResourceRecord;
+import org.handwerkszeug.dns.conf.MasterDataHandler;
+import org.handwerkszeug.dns.conf.ServerConfiguration;
+import org.handwerkszeug.dns.conf.masterfile.MasterFileParser;
+import org.handwerkszeug.dns.nls.Messages;
+import org.handwerkszeug.dns.record.SOARecord;
+
+/**
+ * builds a {@link MasterZone} from the records of a master file. the zone is
+ * made at the SOA record, which must come first, and all the records are
+ * published in one version when the whole file is read.
+ *
+ * @author taichi
+ */
+public class MasterZoneLoader implements MasterDataHandler {
+
+	protected final Name name;
+
+	protected MasterZone zone;
+
+	protected MasterZone.Update update;
+
+	public MasterZoneLoader(Name name) {
+		notNull(name, "name");
+		this.name = name;
+	}
+
+	/**
+	 * @throws org.handwerkszeug.dns.conf.masterfile.MasterFileException
+	 *             if the file is invalid.
+	 */
+	public static MasterZone load(Name name, File file,
+			ServerConfiguration conf) {
+		MasterFileParser parser = new MasterFileParser(name.toString(), file);
+		try {
+			parser.initialize(conf);
+			MasterZoneLoader loader = new MasterZoneLoader(name);
+			parser.process(loader);
+			return loader.zone();
+		} finally {
+			parser.dispose();
+		}
+	}
+
+	@Override
+	public void initialize(ServerConfiguration conf) {
+		this.zone = null;
+		this.update = null;
+	}
+
+	@Override
+	public void add(ResourceRecord record) {
+		if (record.name().contains(this.name) == false) {
+			throw new IllegalArgumentException(String.format(
+					Messages.OutOfZone, record.name(), this.name));
+		}
+		if (this.zone == null) {
+			if ((RRType.SOA.equals(record.type()) == false)
+					|| (record.name().equals(this.name) == false)) {
+				throw new IllegalArgumentException(String.format(
+						Messages.NoSOAFirst, this.name));
+			}
+			this.zone = new MasterZone(this.name, (SOARecord) record);
+			this.update = this.zone.update();
+		}
+		this.update.add(record);
+	}
+
+	@Override
+	public void commit() {
+		if (this.zone == null) {
+			throw new IllegalStateException(String.format(
+					Messages.NoSOAFirst, this.name));
+		}
+		this.update.commit();
+	}
+
+	@Override
+	public void rollback() {
+		this.zone = null;
+	}
+
+	@Override
+	public void dispose() {
+		this.update = null;
+	}
+
+	/**
+	 * @return the zone, or null if the file is not read or is rolled back.
+	 */
+	public MasterZone zone() {
+		return this.zone;
+	}
+}
@@ -0,0 +1,166 @@
+package org.handwerkszeug.dns.zone;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.handwerkszeug.dns.RecordTemplate;
+import org.handwerkszeug.dns.ResourceRecord;
+import org.handwerkszeug.dns.Section;
+import org.handwerkszeug.dns.record.ImmutableRecord;
+import org.handwerkszeug.dns.server.NoErrorResponse;
+
+/**
+ * the records of a name and a type, in their natural order. a set is never
+ * changed, {@link #withAll} and {@link #without} make new ones, so that a zone
+ * version keeps its records. the response which answers the set and its
+ * encoded records are made when they are first asked for.
+ * 
+ * @author taichi
+ */
+final class RecordSet extends AbstractSet<ResourceRecord> {
+
+	/**
+	 * the code of the type, the types we don't model are told apart by it.
+	 */
+	final int type;
+
+	static final ResourceRecord[] NO_RECORDS = new ResourceRecord[0];
+
+	final ResourceRecord[] records;
+
+	/**
+	 * a race makes it twice at worst.
+	 */
+	volatile NoErrorResponse response;
+
+	RecordSet(int type, ResourceRecord[] records) {
+		this.type = type;
+		this.records = records;
+	}
+
+	/**
+	 * @param added
+	 *            {@link ImmutableRecord}s of the type.
+	 * @see #withAll(ResourceRecord[])
+	 */
+	static RecordSet of(int type, ResourceRecord[] added) {
+		return new RecordSet(type, NO_RECORDS).withAll(added);
+	}
+
+	int type() {
+		return this.type;
+	}
+
+	/**
+	 * merges the records into a new set in one pass. a record replaces the
+	 * equal one whose TTL differs, and of the equal ones added the last is
+	 * kept.
+	 * 
+	 * @param added
+	 *            {@link ImmutableRecord}s of the type, in the order they are
+	 *            added. the array is sorted in place.
+	 * @return the set with the records, or this set if it has them all.
+	 */
+	RecordSet withAll(ResourceRecord[] added) {
+		// stable, the equal ones stay in the order they are added.
+		Arrays.sort(added);
+		ResourceRecord[] merged = new ResourceRecord[this.records.length
+				+ added.length];
+		int size = 0;
+		int i = 0;
+		boolean changed = false;
+		for (int j = 0; j < added.length; j++) {
+			ResourceRecord rr = added[j];
+			if (((j + 1) < added.length) && (compare(rr, added[j + 1]) == 0)) {
+				continue;
+			}
+			int c = 1;
+			while ((i < this.records.length)
+					&& ((c = compare(this.records[i], rr)) < 0)) {
+				merged[size++] = this.records[i++];
+			}
+			if (c == 0) {
+				if (this.records[i].ttl() == rr.ttl()) {
+					merged[size++] = this.records[i++];
+					continue;
+				}
+				i++;
+			}
+			merged[size++] = rr;
+			changed = true;
+		}
+		if (changed == false) {
+			return this;
+		}
+		while (i < this.records.length) {
+			merged[size++] = this.records[i++];
+		}
+		if (size < merged.length) {
+			merged = Arrays.copyOf(merged, size);
+		}
+		return new RecordSet(this.type, merged);
+	}
+
+	static int compare(ResourceRecord left, ResourceRecord right) {
+		return ((ImmutableRecord) left).compareTo(right);
+	}
+
+	/**
+	 * @return the set without the record, or this set if it doesn't have the
+	 *         record.
+	 */
+	RecordSet without(ResourceRecord rr) {
+		int at = Arrays.binarySearch(this.records, rr);
+		if (at < 0) {
+			return this;
+		}
+		ResourceRecord[] newone = new ResourceRecord[this.records.length - 1];
+		System.arraycopy(this.records, 0, newone, 0, at);
+		System.arraycopy(this.records, at + 1, newone, at, newone.length - at);
+		return new RecordSet(this.type, newone);
+	}
+
+	ResourceRecord first() {
+		if (this.records.length < 1) {
+			throw new NoSuchElementException();
+		}
+		return this.records[0];
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		if ((o instanceof ResourceRecord) == false) {
+			return false;
+		}
+		ResourceRecord rr = (ResourceRecord) o;
+		return (rr.typeCode() == this.type)
+				&& (-1 < Arrays.binarySearch(this.records,
+						ImmutableRecord.of(rr)));
+	}
+
+	@Override
+	public Iterator<ResourceRecord> iterator() {
+		return Arrays.asList(this.records).iterator();
+	}
+
+	@Override
+	public int size() {
+		return this.records.length;
+	}
+
+	/**
+	 * @return the response, or null if the set is empty.
+	 */
+	NoErrorResponse response() {
+		NoErrorResponse result = this.response;
+		if ((result == null) && (0 < this.records.length)) {
+			RecordTemplate template = RecordTemplate.encode(
+					this.records[0].name(), Section.ANSWER, this);
+			result = new NoErrorResponse(this, template);
+			this.response = result;
+		}
+		return result;
+	}
+}
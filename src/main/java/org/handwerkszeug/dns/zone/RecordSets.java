@@ -0,0 +1,69 @@
+package org.handwerkszeug.dns.zone;
+
+/**
+ * the {@link RecordSet}s of a name, by the code of the type. a name has a few
+ * types, so they are kept in an array. like the sets, it is never changed.
+ * 
+ * @author taichi
+ */
+final class RecordSets {
+
+	static final RecordSets EMPTY = new RecordSets(new RecordSet[0]);
+
+	final RecordSet[] sets;
+
+	RecordSets(RecordSet[] sets) {
+		this.sets = sets;
+	}
+
+	/**
+	 * @return the set of the type, or null.
+	 */
+	RecordSet get(int type) {
+		for (RecordSet s : this.sets) {
+			if (s.type() == type) {
+				return s;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the sets, with the set in place of the one of its type.
+	 */
+	RecordSets with(RecordSet set) {
+		RecordSet[] newone;
+		for (int i = 0; i < this.sets.length; i++) {
+			if (this.sets[i].type() == set.type()) {
+				newone = this.sets.clone();
+				newone[i] = set;
+				return new RecordSets(newone);
+			}
+		}
+		newone = new RecordSet[this.sets.length + 1];
+		System.arraycopy(this.sets, 0, newone, 0, this.sets.length);
+		newone[this.sets.length] = set;
+		return new RecordSets(newone);
+	}
+
+	RecordSets without(int type) {
+		for (int i = 0; i < this.sets.length; i++) {
+			if (this.sets[i].type() == type) {
+				RecordSet[] newone = new RecordSet[this.sets.length - 1];
+				System.arraycopy(this.sets, 0, newone, 0, i);
+				System.arraycopy(this.sets, i + 1, newone, i, newone.length
+						- i);
+				return new RecordSets(newone);
+			}
+		}
+		return this;
+	}
+
+	RecordSet[] sets() {
+		return this.sets;
+	}
+
+	boolean isEmpty() {
+		return this.sets.length < 1;
+	}
+}
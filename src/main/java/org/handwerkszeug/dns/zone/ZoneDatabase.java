@@ -2,114 +2,145 @@ package org.handwerkszeug.dns.zone;
 
 import static org.handwerkszeug.util.Validation.notNull;
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.Collection;
+import java.util.Collections;
 
 import org.handwerkszeug.dns.DNSClass;
 import org.handwerkszeug.dns.Name;
-import org.handwerkszeug.dns.ResourceRecord;
+import org.handwerkszeug.dns.NameTree;
 import org.handwerkszeug.dns.Zone;
 
+/**
+ * the zones in a {@link NameTree}. the closest enclosing zone of a name is
+ * found in one walk from the root without allocation or locks, and the tree
+ * is replaced with a new version when zones are added or removed.
+ * <p>
+ * a node keeps the zones of its name, one for each class.
+ * </p>
+ *
+ * @author taichi
+ */
 public class ZoneDatabase {
 
-	protected Map<ZoneDatabaseKey, Zone> zones = new ConcurrentSkipListMap<ZoneDatabaseKey, Zone>();
+	protected volatile NameTree<Zone[]> zones = new NameTree<Zone[]>();
 
 	public Query prepare(Name name, DNSClass dnsClass) {
+		Zone found = find(name, dnsClass);
+		if (found == null) {
+			return null;
+		}
+		return new Query(name, found.name(), dnsClass, found, this);
+	}
+
+	/**
+	 * @return the closest enclosing zone of the name, or null if the name is
+	 *         not in any of the zones.
+	 */
+	public Zone find(Name name, DNSClass dnsClass) {
 		notNull(name, "name");
 		notNull(dnsClass, "dnsClass");
-		ZoneDatabaseKey zk = new ZoneDatabaseKey(name, dnsClass);
-		Zone found = this.zones.get(zk);
-		if (found != null) {
-			// exact match
-			return new Query(name, name, dnsClass, found, this);
+		NameTree<Zone[]> tree = this.zones;
+		if (tree.isEmpty()) {
+			return null;
 		}
+		NameTree.Node<Zone[]> n = tree.root();
+		Zone result = select(n.value(), dnsClass);
+		for (int l = NameTree.top(name); -1 < l; l--) {
+			n = n.child(name, l);
+			if (n == null) {
+				break;
+			}
+			Zone z = select(n.value(), dnsClass);
+			if (z != null) {
+				result = z;
+			}
+		}
+		return result;
+	}
 
-		Name child = name;
-		// partial match
-		for (int i = 0, size = this.zones.size(); i < size; i++) {
-			Name p = child.toParent();
-			zk.name(p);
-			found = this.zones.get(zk);
-			if (found == null) {
-				child = p;
-			} else {
-				return new Query(name, p, dnsClass, found, this);
+	protected static Zone select(Zone[] zones, DNSClass dnsClass) {
+		if (zones != null) {
+			for (Zone z : zones) {
+				if (z.dnsClass() == dnsClass) {
+					return z;
+				}
 			}
 		}
-		// not found.
 		return null;
 	}
 
-	public void add(Zone zone/* TODO ZoneConfig? */) {
-		notNull(zone, "zone");
-		this.zones.put(new ZoneDatabaseKey(zone), zone);
+	public boolean isEmpty() {
+		return this.zones.isEmpty();
 	}
 
-	static class ZoneDatabaseKey implements Comparable<ZoneDatabaseKey> {
-		Name name;
-		DNSClass dnsclass;
-
-		public ZoneDatabaseKey(Zone z) {
-			this(z.name(), z.dnsClass());
-		}
-
-		public ZoneDatabaseKey(ResourceRecord rr) {
-			this(rr.name(), rr.dnsClass());
-		}
-
-		public ZoneDatabaseKey(Name name, DNSClass dnsclass) {
-			notNull(name, "name");
-			notNull(dnsclass, "dnsclass");
-			this.name = name;
-			this.dnsclass = dnsclass;
-		}
+	/**
+	 * @return the number of the names which have zones.
+	 */
+	public int size() {
+		return this.zones.size();
+	}
 
-		public Name name() {
-			return this.name;
-		}
+	/**
+	 * replaces the zone of the same name and class, if any.
+	 */
+	public void add(Zone zone/* TODO ZoneConfig? */) {
+		notNull(zone, "zone");
+		addAll(Collections.singleton(zone));
+	}
 
-		public void name(Name name) {
-			notNull(name, "name");
-			this.name = name;
+	/**
+	 * adds the zones in one new version of the tree.
+	 */
+	public synchronized void addAll(Collection<? extends Zone> zones) {
+		notNull(zones, "zones");
+		NameTree.Editor<Zone[]> editor = this.zones.edit();
+		for (Zone zone : zones) {
+			Zone[] current = editor.get(zone.name());
+			editor.put(zone.name(), with(current, zone));
 		}
+		this.zones = editor.build();
+	}
 
-		@Override
-		public int hashCode() {
-			final int prime = 31;
-			int result = 1;
-			result = prime * result + this.dnsclass.hashCode();
-			result = prime * result + this.name.hashCode();
-			return result;
+	/**
+	 * @return true if the zone was in the database.
+	 */
+	public synchronized boolean remove(Zone zone) {
+		notNull(zone, "zone");
+		NameTree.Editor<Zone[]> editor = this.zones.edit();
+		Zone[] current = editor.get(zone.name());
+		if ((current == null) || (select(current, zone.dnsClass()) != zone)) {
+			return false;
 		}
-
-		@Override
-		public boolean equals(Object other) {
-			if (this == other) {
-				return true;
-			}
-			if (other == null) {
-				return false;
-			}
-			if (getClass() != other.getClass()) {
-				return false;
+		if (current.length == 1) {
+			editor.remove(zone.name());
+		} else {
+			Zone[] newone = new Zone[current.length - 1];
+			int i = 0;
+			for (Zone z : current) {
+				if (z != zone) {
+					newone[i++] = z;
+				}
 			}
-			return equals((ZoneDatabaseKey) other);
+			editor.put(zone.name(), newone);
 		}
+		this.zones = editor.build();
+		return true;
+	}
 
-		public boolean equals(ZoneDatabaseKey other) {
-			return (this.dnsclass == other.dnsclass)
-					&& this.name.equals(other.name);
+	protected static Zone[] with(Zone[] current, Zone zone) {
+		if (current == null) {
+			return new Zone[] { zone };
 		}
-
-		@Override
-		public int compareTo(ZoneDatabaseKey o) {
-			if (o == null) {
-				return 1;
-			}
-			if (equals(o)) {
-				return 0;
+		for (int i = 0; i < current.length; i++) {
+			if (current[i].dnsClass() == zone.dnsClass()) {
+				Zone[] newone = current.clone();
+				newone[i] = zone;
+				return newone;
 			}
-			return this.hashCode() - o.hashCode();
 		}
+		Zone[] newone = new Zone[current.length + 1];
+		System.arraycopy(current, 0, newone, 0, current.length);
+		newone[current.length] = zone;
+		return newone;
 	}
 }
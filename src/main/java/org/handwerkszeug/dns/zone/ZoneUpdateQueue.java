@@ -0,0 +1,270 @@
+package org.handwerkszeug.dns.zone;
+
+import static org.handwerkszeug.util.Validation.notNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.handwerkszeug.dns.server.LatencyHistogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * the single writer of a {@link MasterZone}. the updates of a reload, of a
+ * dynamic update or of a zone transfer are queued in order, and one thread
+ * applies them in batches. a batch is published as one version of the zone
+ * when its oldest update has waited the delay, or when it has the number of
+ * changes. an update is never split between batches.
+ * <p>
+ * a batch which fails is applied again update by update, so that only the
+ * failing updates are dropped.
+ * </p>
+ *
+ * @author taichi
+ */
+public class ZoneUpdateQueue {
+
+	static final Logger LOG = LoggerFactory.getLogger(ZoneUpdateQueue.class);
+
+	public static final long DEFAULT_DELAY_MILLIS = 50;
+
+	public static final int DEFAULT_BATCH_SIZE = 1024;
+
+	static final Entry STOP = new Entry(null, 0);
+
+	protected final MasterZone zone;
+
+	protected final long delayNanos;
+
+	protected final int batchSize;
+
+	protected final BlockingQueue<Entry> queue = new LinkedBlockingQueue<Entry>();
+
+	/**
+	 * the number of the changes waiting.
+	 */
+	protected final AtomicInteger pending = new AtomicInteger();
+
+	protected final Thread writer;
+
+	// guarded by this.
+	protected boolean running;
+
+	protected long submitted;
+
+	protected long published;
+
+	protected long batches;
+
+	protected long lastLag;
+
+	protected final LatencyHistogram lag = new LatencyHistogram();
+
+	public ZoneUpdateQueue(MasterZone zone) {
+		this(zone, DEFAULT_DELAY_MILLIS, DEFAULT_BATCH_SIZE);
+	}
+
+	/**
+	 * @param delayMillis
+	 *            the longest time an update waits for the others of its
+	 *            batch.
+	 * @param batchSize
+	 *            the number of the changes which close a batch.
+	 */
+	public ZoneUpdateQueue(MasterZone zone, long delayMillis, int batchSize) {
+		notNull(zone, "zone");
+		if ((delayMillis < 0) || (batchSize < 1)) {
+			throw new IllegalArgumentException("delay " + delayMillis
+					+ " batch " + batchSize);
+		}
+		this.zone = zone;
+		this.delayNanos = TimeUnit.MILLISECONDS.toNanos(delayMillis);
+		this.batchSize = batchSize;
+		this.writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				ZoneUpdateQueue.this.run();
+			}
+		}, "ZoneUpdateQueue-" + zone.name());
+		this.writer.setDaemon(true);
+	}
+
+	public synchronized void start() {
+		this.running = true;
+		this.writer.start();
+	}
+
+	/**
+	 * publishes the updates submitted so far, and ends the writer. an update
+	 * is either submitted before the stop, or refused.
+	 */
+	public void stop() throws InterruptedException {
+		synchronized (this) {
+			if (this.running) {
+				this.running = false;
+				this.queue.add(STOP);
+			}
+		}
+		// the writer takes the lock to publish.
+		this.writer.join();
+	}
+
+	/**
+	 * @throws IllegalStateException
+	 *             if the queue is not running.
+	 */
+	public void submit(MasterZone.Update update) {
+		notNull(update, "update");
+		List<MasterZone.Change> changes = new ArrayList<MasterZone.Change>(
+				update.changes);
+		synchronized (this) {
+			// checked with the enqueue, so that nothing is queued after STOP.
+			if (this.running == false) {
+				throw new IllegalStateException("the queue is not running");
+			}
+			if (changes.isEmpty()) {
+				return;
+			}
+			this.submitted++;
+			this.pending.addAndGet(changes.size());
+			this.queue.add(new Entry(changes, System.nanoTime()));
+		}
+	}
+
+	/**
+	 * waits until the updates submitted so far are published.
+	 */
+	public synchronized void flush() throws InterruptedException {
+		long target = this.submitted;
+		while (this.published < target) {
+			wait();
+		}
+	}
+
+	protected void run() {
+		List<Entry> batch = new ArrayList<Entry>();
+		Entry carried = null;
+		try {
+			for (;;) {
+				Entry first = carried == null ? this.queue.take() : carried;
+				carried = null;
+				if (first == STOP) {
+					return;
+				}
+				batch.add(first);
+				int size = first.changes.size();
+				long deadline = first.enqueued + this.delayNanos;
+				boolean stop = false;
+				while (size < this.batchSize) {
+					long wait = deadline - System.nanoTime();
+					Entry next = this.queue.poll(Math.max(0, wait),
+							TimeUnit.NANOSECONDS);
+					if (next == null) {
+						break;
+					}
+					if (next == STOP) {
+						stop = true;
+						break;
+					}
+					if (this.batchSize < (size + next.changes.size())) {
+						carried = next;
+						break;
+					}
+					batch.add(next);
+					size += next.changes.size();
+				}
+				publish(batch, size);
+				batch.clear();
+				if (stop) {
+					return;
+				}
+			}
+		} catch (InterruptedException e) {
+			LOG.debug("interrupted", e);
+		}
+	}
+
+	protected void publish(List<Entry> batch, int size) {
+		List<MasterZone.Change> changes = new ArrayList<MasterZone.Change>(
+				size);
+		for (Entry e : batch) {
+			changes.addAll(e.changes);
+		}
+		try {
+			this.zone.apply(changes);
+		} catch (RuntimeException ex) {
+			LOG.warn("a batch of " + this.zone.name()
+					+ " failed, applied one by one", ex);
+			for (Entry e : batch) {
+				try {
+					this.zone.apply(e.changes);
+				} catch (RuntimeException each) {
+					LOG.error("an update of " + this.zone.name()
+							+ " is dropped", each);
+				}
+			}
+		}
+		this.pending.addAndGet(-size);
+		long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime()
+				- batch.get(0).enqueued);
+		synchronized (this) {
+			this.published += batch.size();
+			this.batches++;
+			this.lastLag = millis;
+			this.lag.record(millis);
+			notifyAll();
+		}
+	}
+
+	/**
+	 * @return the number of the changes waiting.
+	 */
+	public int size() {
+		return this.pending.get();
+	}
+
+	/**
+	 * @return the number of the versions published.
+	 */
+	public synchronized long batches() {
+		return this.batches;
+	}
+
+	/**
+	 * @return the milliseconds the oldest update of the last batch waited,
+	 *         from the enqueue to the publication.
+	 */
+	public synchronized long lastLag() {
+		return this.lastLag;
+	}
+
+	/**
+	 * @return the lag of the recent batches at the percentile, in
+	 *         milliseconds.
+	 */
+	public synchronized long lag(int percentile) {
+		return this.lag.percentile(percentile);
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format(
+				"ZoneUpdateQueue[%s size=%d batches=%d lastLag=%dms]",
+				this.zone.name(), this.pending.get(), this.batches,
+				this.lastLag);
+	}
+
+	static class Entry {
+		final List<MasterZone.Change> changes;
+		final long enqueued;
+
+		Entry(List<MasterZone.Change> changes, long enqueued) {
+			this.changes = changes;
+			this.enqueued = enqueued;
+		}
+	}
+}
@@ -1,5 +1,7 @@
 package org.handwerkszeug.util;
 
+import java.util.Arrays;
+
 public class EnumUtil {
 
 	public static <E extends Enum<E> & VariableEnum> E find(E[] values,
@@ -35,4 +37,33 @@ public class EnumUtil {
 		return defaultValue;
 	}
 
+	/**
+	 * @return an array of the constants indexed by their values. the values
+	 *         out of the range of the array are left out.
+	 */
+	public static <E extends Enum<E> & VariableEnum> E[] toTable(E[] values,
+			int size) {
+		E[] result = Arrays.copyOf(values, size);
+		Arrays.fill(result, null);
+		for (E e : values) {
+			int v = e.value();
+			if ((-1 < v) && (v < size)) {
+				result[v] = e;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * finds the constant in an array made by {@link #toTable(Enum[], int)}.
+	 */
+	public static <E extends Enum<E> & VariableEnum> E lookup(E[] table,
+			int value, E defaultValue) {
+		if ((value < 0) || (table.length <= value)) {
+			return defaultValue;
+		}
+		E result = table[value];
+		return result == null ? defaultValue : result;
+	}
+
 }
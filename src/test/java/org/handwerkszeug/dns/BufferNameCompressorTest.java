@@ -0,0 +1,130 @@
+package org.handwerkszeug.dns;
+
+import static org.junit.Assert.assertEquals;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BufferNameCompressorTest {
+
+	BufferNameCompressor target;
+
+	ChannelBuffer buffer;
+
+	@Before
+	public void setUp() throws Exception {
+		this.target = new BufferNameCompressor();
+		this.buffer = ChannelBuffers.dynamicBuffer();
+	}
+
+	@Test
+	public void testSuffix() throws Exception {
+		this.target.reset(this.buffer, 0);
+		new Name("www.example.com.").write(this.buffer, this.target);
+		int length = this.buffer.writerIndex();
+		new Name("mail.example.com.").write(this.buffer, this.target);
+		// mail + pointer to example.com.
+		assertEquals(length + 5 + 2, this.buffer.writerIndex());
+
+		this.buffer.readerIndex(length);
+		assertEquals(new Name("mail.example.com."), new Name(this.buffer));
+	}
+
+	@Test
+	public void testCaseInsensitive() throws Exception {
+		this.target.reset(this.buffer, 0);
+		new Name("Example.COM.").write(this.buffer, this.target);
+		int length = this.buffer.writerIndex();
+		new Name("www.example.com.").write(this.buffer, this.target);
+		assertEquals(length + 4 + 2, this.buffer.writerIndex());
+	}
+
+	@Test
+	public void testChainedPointer() throws Exception {
+		this.target.reset(this.buffer, 0);
+		new Name("example.com.").write(this.buffer, this.target);
+		new Name("www.example.com.").write(this.buffer, this.target);
+		int length = this.buffer.writerIndex();
+		// www.example.com. is in the buffer as www + pointer.
+		new Name("www.example.com.").write(this.buffer, this.target);
+		assertEquals(length + 2, this.buffer.writerIndex());
+
+		this.buffer.readerIndex(length);
+		assertEquals(new Name("www.example.com."), new Name(this.buffer));
+	}
+
+	@Test
+	public void testOrigin() throws Exception {
+		this.buffer.writeBytes(new byte[] { 1, 2, 3 });
+		this.target.reset(this.buffer, 3);
+		new Name("example.com.").write(this.buffer, this.target);
+		new Name("example.com.").write(this.buffer, this.target);
+		assertEquals(0xC000, this.buffer.getUnsignedShort(3 + 13));
+	}
+
+	@Test
+	public void testReset() throws Exception {
+		this.target.reset(this.buffer, 0);
+		new Name("example.com.").write(this.buffer, this.target);
+		ChannelBuffer other = ChannelBuffers.dynamicBuffer();
+		this.target.reset(other, 0);
+		new Name("example.com.").write(other, this.target);
+		assertEquals(13, other.writerIndex());
+	}
+
+	@Test
+	public void testGrow() throws Exception {
+		this.target.reset(this.buffer, 0);
+		int size = BufferNameCompressor.INITIAL_CAPACITY * 2;
+		for (int i = 0; i < size; i++) {
+			new Name("host" + i + ".example.com.").write(this.buffer,
+					this.target);
+		}
+		int length = this.buffer.writerIndex();
+		for (int i = 0; i < size; i++) {
+			new Name("host" + i + ".example.com.").write(this.buffer,
+					this.target);
+		}
+		assertEquals(length + (size * 2), this.buffer.writerIndex());
+	}
+
+	@Test
+	public void testRollback() throws Exception {
+		this.target.reset(this.buffer, 0);
+		new Name("example.com.").write(this.buffer, this.target);
+		int length = this.buffer.writerIndex();
+		int mark = this.target.mark();
+		new Name("www.example.net.").write(this.buffer, this.target);
+		this.buffer.writerIndex(length);
+		this.target.rollback(mark);
+
+		new Name("mail.example.net.").write(this.buffer, this.target);
+		// the suffixes of the name taken out are not pointed to.
+		assertEquals(length + 18, this.buffer.writerIndex());
+		int next = this.buffer.writerIndex();
+		new Name("www.example.com.").write(this.buffer, this.target);
+		assertEquals(next + 4 + 2, this.buffer.writerIndex());
+	}
+
+	@Test
+	public void testMessage() throws Exception {
+		DNSMessage msg = new DNSMessage(new Header());
+		ResourceRecord q = RRType.A.newRecord();
+		q.name(new Name("www.example.com."));
+		msg.question().add(q);
+		ResourceRecord a = RRType.A.newRecord();
+		a.name(new Name("WWW.example.com."));
+		msg.answer().add(a);
+
+		ChannelBuffer cb = ChannelBuffers.dynamicBuffer();
+		cb.writeBytes(new byte[] { 9, 9 });
+		msg.write(cb);
+		// header, question and the answer with a pointer to the question.
+		assertEquals(2 + 12 + (17 + 4) + (2 + 10 + 4), cb.writerIndex());
+		cb.readerIndex(2);
+		DNSMessage actual = new DNSMessage(cb.slice());
+		assertEquals(q.name(), actual.answer().get(0).name());
+	}
+}
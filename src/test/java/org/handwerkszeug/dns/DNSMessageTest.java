@@ -2,11 +2,16 @@ package org.handwerkszeug.dns;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import java.util.List;
 
 import org.handwerkszeug.dns.record.ARecord;
 import org.handwerkszeug.dns.record.MXRecord;
+import org.handwerkszeug.dns.record.OPTRecord;
 import org.handwerkszeug.dns.record.SingleNameRecord;
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
@@ -112,4 +117,107 @@ public class DNSMessageTest {
 		assertArrayEquals(data, actual);
 	}
 
+	@Test
+	public void optTest() {
+		DNSMessage msg = new DNSMessage(buffer);
+		OPTRecord opt = new OPTRecord(4096);
+		opt.dnssecOK(true);
+		opt.options().add(new OPTRecord.Option(10, new byte[] { 1, 2, 3 }));
+		msg.additional().add(opt);
+		ChannelBuffer newone = ChannelBuffers.dynamicBuffer();
+		msg.write(newone);
+
+		DNSMessage parsed = new DNSMessage(newone);
+		assertEquals(5, parsed.additional().size());
+		ResourceRecord add = parsed.additional().get(4);
+		assertEquals(RRType.OPT, add.type());
+		OPTRecord actual = (OPTRecord) add;
+		assertEquals(4096, actual.udpPayloadSize());
+		assertEquals(true, actual.dnssecOK());
+		assertEquals(0, actual.version());
+		assertEquals(1, actual.options().size());
+		assertEquals(10, actual.options().get(0).code());
+		assertArrayEquals(new byte[] { 1, 2, 3 }, actual.options().get(0)
+				.data());
+	}
+
+	@Test
+	public void testLazy() {
+		DNSMessage msg = new DNSMessage(buffer);
+		assertEquals(298, buffer.readerIndex());
+		assertFalse(msg.isDecoded(Section.QUESTION));
+
+		assertEquals(64158, msg.header().id());
+		assertEquals("google.com.", msg.question().get(0).name().toString());
+		assertTrue(msg.isDecoded(Section.QUESTION));
+		assertFalse(msg.isDecoded(Section.ANSWER));
+		assertFalse(msg.isDecoded(Section.ADDITIONAL));
+
+		assertEquals(4, msg.additional().size());
+		assertFalse(msg.isDecoded(Section.ANSWER));
+		assertNotNull(msg.encoded());
+
+		msg.decode();
+		assertTrue(msg.isDecoded(Section.ANSWER));
+		assertNull(msg.encoded());
+	}
+
+	@Test
+	public void testRecords() {
+		DNSMessage msg = new DNSMessage(buffer);
+		RecordView v = msg.records(Section.QUESTION);
+		assertTrue(v.next());
+		assertEquals(12, v.nameIndex());
+		assertEquals(RRType.MX, v.type());
+		assertEquals(DNSClass.IN.value(), v.dnsClass());
+		assertEquals(0, v.rdata().readableBytes());
+		assertFalse(v.next());
+
+		// ns4.google.com. 303485 IN A 216.239.38.10
+		v = msg.records(Section.ADDITIONAL);
+		for (int i = 0; i < 4; i++) {
+			assertTrue(v.next());
+		}
+		assertFalse(v.next());
+		assertEquals("ns4.google.com.", v.name().toString());
+		assertEquals(RRType.A, v.type());
+		assertEquals(303485L, v.ttl());
+		ChannelBuffer rdata = v.rdata();
+		assertEquals(4, rdata.readableBytes());
+		assertEquals(216, rdata.getUnsignedByte(0));
+		ARecord a = (ARecord) v.toRecord();
+		assertEquals("216.239.38.10", a.address().getHostAddress());
+
+		assertFalse(msg.isDecoded(Section.ADDITIONAL));
+	}
+
+	@Test
+	public void testEncoded() {
+		DNSMessage msg = new DNSMessage(buffer);
+		msg.question();
+		ChannelBuffer encoded = msg.encoded();
+		byte[] actual = new byte[encoded.readableBytes()];
+		encoded.getBytes(0, actual);
+		assertArrayEquals(data, actual);
+	}
+
+	@Test
+	public void testMessageSizeAtOffset() {
+		ChannelBuffer b = ChannelBuffers.dynamicBuffer();
+		b.writeShort(data.length);
+		b.writeBytes(data);
+		b.readShort();
+		DNSMessage msg = new DNSMessage(b);
+		assertEquals(298, msg.messageSize());
+		assertEquals(300, b.readerIndex());
+		assertEquals(64158, msg.header().id());
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testTruncated() {
+		byte[] truncated = new byte[data.length - 2];
+		System.arraycopy(data, 0, truncated, 0, truncated.length);
+		new DNSMessage(ChannelBuffers.wrappedBuffer(truncated));
+	}
+
 }
@@ -0,0 +1,146 @@
+package org.handwerkszeug.dns;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+
+import org.handwerkszeug.dns.record.ARecord;
+import org.handwerkszeug.dns.record.OPTRecord;
+import org.handwerkszeug.dns.record.SingleNameRecord;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MessageEncoderTest {
+
+	MessageEncoder target;
+
+	ChannelBuffer buffer;
+
+	Header header;
+
+	@Before
+	public void setUp() throws Exception {
+		this.target = new MessageEncoder();
+		this.buffer = ChannelBuffers.dynamicBuffer();
+		this.header = new Header();
+		this.header.id(10);
+		this.header.qr(true);
+	}
+
+	protected ResourceRecord question() {
+		SingleNameRecord q = new SingleNameRecord(RRType.A);
+		q.name(new Name("www.example.com."));
+		return q;
+	}
+
+	protected ARecord a(int i) throws Exception {
+		ARecord result = new ARecord();
+		result.name(new Name("www.example.com."));
+		result.address(InetAddress.getByName("192.168.0." + i));
+		return result;
+	}
+
+	protected DNSMessage read() {
+		return new DNSMessage(this.buffer);
+	}
+
+	@Test
+	public void testAll() throws Exception {
+		this.target.begin(this.buffer, this.header, 512);
+		assertTrue(this.target.add(Section.QUESTION, question()));
+		assertTrue(this.target.add(Section.ANSWER, a(1)));
+		assertTrue(this.target.add(Section.ANSWER, a(2)));
+		// header, question and two answers with pointers.
+		assertEquals(12 + 21 + (16 * 2), this.target.finish());
+
+		DNSMessage msg = read();
+		assertEquals(10, msg.header().id());
+		assertFalse(msg.header().tc());
+		assertEquals(1, msg.question().size());
+		assertEquals(2, msg.answer().size());
+		assertEquals(a(2).address(),
+				((ARecord) msg.answer().get(1)).address());
+	}
+
+	@Test
+	public void testTruncated() throws Exception {
+		this.target.begin(this.buffer, this.header, 12 + 21 + 16 + 8);
+		this.target.reserve(new OPTRecord(4096));
+		assertTrue(this.target.add(Section.QUESTION, question()));
+		assertFalse(this.target.add(Section.ANSWER, a(1)));
+		assertFalse(this.target.add(Section.AUTHORITY, a(2)));
+		assertTrue(this.target.add(Section.ADDITIONAL, new OPTRecord(4096)));
+		this.target.finish();
+
+		DNSMessage msg = read();
+		assertTrue(msg.header().tc());
+		assertEquals(1, msg.question().size());
+		assertEquals(0, msg.answer().size());
+		assertEquals(0, msg.authority().size());
+		assertEquals(1, msg.additional().size());
+		assertEquals(4096, ((OPTRecord) msg.additional().get(0))
+				.udpPayloadSize());
+	}
+
+	@Test
+	public void testTruncatedAnswer() throws Exception {
+		this.target.begin(this.buffer, this.header, 12 + 21 + 16);
+		assertTrue(this.target.add(Section.QUESTION, question()));
+		assertTrue(this.target.add(Section.ANSWER, a(1)));
+		// an answer set is never sent partially.
+		assertFalse(this.target.add(Section.ANSWER, a(2)));
+		assertEquals(12 + 21, this.target.finish());
+
+		DNSMessage msg = read();
+		assertTrue(msg.header().tc());
+		assertEquals(0, msg.answer().size());
+	}
+
+	@Test
+	public void testAdditional() throws Exception {
+		this.target.begin(this.buffer, this.header, 12 + 21 + (16 * 2));
+		assertTrue(this.target.add(Section.QUESTION, question()));
+		assertTrue(this.target.add(Section.ANSWER, a(1)));
+		assertTrue(this.target.add(Section.ADDITIONAL, a(2)));
+		assertFalse(this.target.add(Section.ADDITIONAL, a(3)));
+		assertTrue(this.target.isStopped());
+		assertFalse(this.target.isTruncated());
+		this.target.finish();
+
+		DNSMessage msg = read();
+		assertFalse(msg.header().tc());
+		assertEquals(1, msg.answer().size());
+		assertEquals(1, msg.additional().size());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testOrder() throws Exception {
+		this.target.begin(this.buffer, this.header, 512);
+		this.target.add(Section.ANSWER, a(1));
+		this.target.add(Section.QUESTION, question());
+	}
+
+	@Test
+	public void testMessage() throws Exception {
+		DNSMessage msg = new DNSMessage(this.header);
+		msg.question().add(question());
+		for (int i = 0; i < 40; i++) {
+			msg.answer().add(a(i));
+		}
+		msg.additional().add(new OPTRecord(1232));
+		assertFalse(msg.write(this.buffer, 512));
+		assertEquals(12 + 21 + 11, this.buffer.readableBytes());
+
+		DNSMessage actual = read();
+		assertTrue(actual.header().tc());
+		assertEquals(1, actual.additional().size());
+
+		ChannelBuffer whole = ChannelBuffers.dynamicBuffer();
+		assertTrue(msg.write(whole, 1232));
+		assertEquals(40, new DNSMessage(whole).answer().size());
+	}
+}
@@ -6,7 +6,12 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.NavigableSet;
+import java.util.TreeSet;
 
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
@@ -88,9 +93,10 @@ public class NameTest {
 	@Test
 	public void testSplit() {
 		Name name = new Name("example.com.");
-		List<byte[]> list = name.name;
-		assertEquals("example", new String(list.get(0)));
-		assertEquals("com", new String(list.get(1)));
+		assertEquals(3, name.labels());
+		assertEquals("example", new String(name.label(0)));
+		assertEquals("com", new String(name.label(1)));
+		assertEquals(0, name.label(2).length);
 	}
 
 	@Test
@@ -102,6 +108,84 @@ public class NameTest {
 		assertEquals(Name.NULL_NAME, name.toParent());
 	}
 
+	@Test
+	public void testParentSharesBytes() {
+		Name name = new Name("www.example.com.");
+		Name parent = name.toParent();
+		assertTrue(name.bytes == parent.bytes);
+		assertEquals(new Name("example.com."), parent);
+		assertEquals(new Name("example.com.").hashCode(), parent.hashCode());
+		assertEquals(13, parent.length());
+		assertEquals("example.com.", parent.toString());
+	}
+
+	@Test
+	public void testPointerLoop() {
+		ChannelBuffer cb = ChannelBuffers.wrappedBuffer(new byte[] { 1, 'a',
+				(byte) 0xC0, 0 });
+		try {
+			new Name(cb);
+			fail();
+		} catch (IllegalStateException e) {
+			assertTrue(true);
+		}
+	}
+
+	/**
+	 * @return a name of the labels of the sizes, as on the wire.
+	 */
+	protected ChannelBuffer wire(int... sizes) {
+		ChannelBuffer result = ChannelBuffers.dynamicBuffer();
+		for (int size : sizes) {
+			result.writeByte(size);
+			for (int j = 0; j < size; j++) {
+				result.writeByte('a');
+			}
+		}
+		result.writeByte(0);
+		return result;
+	}
+
+	protected ChannelBuffer wire(int labels) {
+		int[] sizes = new int[labels];
+		Arrays.fill(sizes, 1);
+		return wire(sizes);
+	}
+
+	@Test
+	public void testWireSize() {
+		ChannelBuffer cb = wire(63, 63, 63, 61);
+		assertEquals(255, cb.readableBytes());
+		assertEquals(255, new Name(cb).length());
+
+		ChannelBuffer longer = wire(63, 63, 63, 62);
+		assertEquals(256, longer.readableBytes());
+		try {
+			new Name(longer);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertTrue(true);
+		}
+	}
+
+	@Test
+	public void testWireLabels() {
+		Name name = new Name(wire(127));
+		assertEquals(128, name.labels());
+		assertEquals(255, name.length());
+		Name parent = name;
+		for (int i = 0; i < 127; i++) {
+			parent = parent.toParent();
+		}
+		assertEquals(Name.NULL_NAME, parent);
+		try {
+			new Name(wire(128));
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertTrue(true);
+		}
+	}
+
 	@Test
 	public void testWrite() {
 		Name name = new Name("example.com.");
@@ -259,4 +343,51 @@ public class NameTest {
 		assertNull(n.replace(from, tooLong));
 	}
 
+	@Test
+	public void testCaseInsensitive() throws Exception {
+		Name lower = new Name("www.example.com.");
+		Name mixed = new Name("WWW.Example.COM.");
+		assertEquals(lower, mixed);
+		assertEquals(lower.hashCode(), mixed.hashCode());
+		assertEquals(0, lower.compareTo(mixed));
+		assertTrue(mixed.contains(new Name("example.com.")));
+		// the case is kept for the wire and for the presentation.
+		assertEquals("WWW.Example.COM.", mixed.toString());
+		assertTrue(lower.folded == lower.bytes);
+	}
+
+	@Test
+	public void testCanonicalOrder() throws Exception {
+		// RFC4034 6.1. Canonical DNS Name Order
+		List<Name> expected = new ArrayList<Name>();
+		for (String s : new String[] { "example.", "a.example.",
+				"yljkjljk.a.example.", "Z.a.example.", "zABC.a.EXAMPLE.",
+				"z.example.", "\\001.z.example.", "*.z.example.",
+				"\\200.z.example." }) {
+			expected.add(new Name(s));
+		}
+		List<Name> actual = new ArrayList<Name>(expected);
+		Collections.reverse(actual);
+		Collections.sort(actual);
+		assertEquals(expected.toString(), actual.toString());
+	}
+
+	@Test
+	public void testRangeScan() throws Exception {
+		NavigableSet<Name> set = new TreeSet<Name>();
+		for (String s : Arrays.asList("a.example.", "b.a.example.",
+				"c.b.a.example.", "aa.example.", "b.example.", "example.")) {
+			set.add(new Name(s));
+		}
+		Name top = new Name("a.example.");
+		List<Name> under = new ArrayList<Name>();
+		for (Name n : set.tailSet(top, true)) {
+			if (n.contains(top) == false) {
+				break;
+			}
+			under.add(n);
+		}
+		assertEquals("[a.example., b.a.example., c.b.a.example.]",
+				under.toString());
+	}
 }
@@ -0,0 +1,97 @@
+package org.handwerkszeug.dns;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class NameTreeTest {
+
+	protected NameTree<String> tree(String... names) {
+		NameTree.Editor<String> editor = new NameTree<String>().edit();
+		for (String s : names) {
+			editor.put(new Name(s), s);
+		}
+		return editor.build();
+	}
+
+	@Test
+	public void testGet() throws Exception {
+		NameTree<String> target = tree("example.com.", "www.example.com.",
+				".");
+		assertEquals(3, target.size());
+		assertEquals("www.example.com.",
+				target.get(new Name("WWW.Example.com.")));
+		assertEquals(".", target.get(Name.NULL_NAME));
+		assertNull(target.get(new Name("com.")));
+		assertNull(target.get(new Name("a.www.example.com.")));
+	}
+
+	@Test
+	public void testClosest() throws Exception {
+		NameTree<String> target = tree("jp.", "example.co.jp.");
+		assertEquals("example.co.jp.",
+				target.closest(new Name("a.b.example.co.jp.")));
+		assertEquals("jp.", target.closest(new Name("a.co.jp.")));
+		assertNull(target.closest(new Name("example.com.")));
+	}
+
+	@Test
+	public void testCopyOnWrite() throws Exception {
+		NameTree<String> before = tree("a.example.com.", "b.example.net.");
+		NameTree.Editor<String> editor = before.edit();
+		editor.put(new Name("c.example.com."), "c");
+		NameTree<String> after = editor.build();
+
+		assertNull(before.get(new Name("c.example.com.")));
+		assertEquals("c", after.get(new Name("c.example.com.")));
+		// the path to net. is shared.
+		byte[] net = { 3, 'n', 'e', 't' };
+		assertSame(before.root().child(net), after.root().child(net));
+	}
+
+	@Test
+	public void testRemove() throws Exception {
+		NameTree<String> before = tree("example.com.", "www.example.com.");
+		NameTree.Editor<String> editor = before.edit();
+		assertEquals("www.example.com.",
+				editor.remove(new Name("www.example.com.")));
+		assertNull(editor.remove(new Name("none.example.com.")));
+		NameTree<String> after = editor.build();
+
+		assertEquals(1, after.size());
+		assertEquals(0, after.node(new Name("example.com.")).size());
+		assertEquals("www.example.com.",
+				before.get(new Name("www.example.com.")));
+
+		editor = after.edit();
+		editor.remove(new Name("example.com."));
+		assertEquals(0, editor.build().root().size());
+	}
+
+	@Test
+	public void testMany() throws Exception {
+		NameTree.Editor<Integer> editor = new NameTree<Integer>().edit();
+		int size = 1000;
+		for (int i = 0; i < size; i++) {
+			editor.put(new Name("z" + i + ".example.com."), i);
+		}
+		for (int i = 0; i < size; i += 2) {
+			editor.remove(new Name("z" + i + ".example.com."));
+		}
+		NameTree<Integer> target = editor.build();
+		assertEquals(size / 2, target.size());
+		for (int i = 0; i < size; i++) {
+			Integer v = target.get(new Name("Z" + i + ".example.com."));
+			assertEquals((i % 2) == 0 ? null : Integer.valueOf(i), v);
+		}
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testBuilt() throws Exception {
+		NameTree.Editor<String> editor = new NameTree<String>().edit();
+		editor.build();
+		editor.put(new Name("example.com."), "x");
+	}
+}
@@ -0,0 +1,85 @@
+package org.handwerkszeug.dns;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.handwerkszeug.dns.record.SingleNameRecord;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Test;
+
+public class RecordTemplateTest {
+
+	protected ResourceRecord ns(String name, String host) {
+		SingleNameRecord result = new SingleNameRecord(RRType.NS, new Name(
+				host));
+		result.name(new Name(name));
+		return result;
+	}
+
+	protected RecordTemplate template() {
+		return RecordTemplate.encode(new Name("example.com."),
+				Section.AUTHORITY, Arrays.asList(
+						ns("example.com.", "ns1.example.com."),
+						ns("example.com.", "ns2.example.com.")));
+	}
+
+	protected DNSMessage respond(RecordTemplate template, String qname) {
+		Name n = new Name(qname);
+		SingleNameRecord q = new SingleNameRecord(RRType.A);
+		q.name(n);
+		MessageEncoder encoder = new MessageEncoder();
+		ChannelBuffer buffer = ChannelBuffers.dynamicBuffer();
+		encoder.begin(buffer, new Header(), 512);
+		encoder.add(Section.QUESTION, q);
+		assertTrue(encoder.add(template, n));
+		encoder.finish();
+		return new DNSMessage(buffer);
+	}
+
+	protected void assertNS(String name, String host, ResourceRecord actual) {
+		assertEquals(new Name(name), actual.name());
+		assertEquals(new Name(host), ((SingleNameRecord) actual).oneName());
+	}
+
+	@Test
+	public void testEncode() throws Exception {
+		RecordTemplate target = template();
+		assertEquals(2, target.count());
+		// owner pointer, TYPE, CLASS, TTL, RDLENGTH, ns1 and a pointer.
+		assertEquals((2 + 10 + 4 + 2) * 2, target.length());
+	}
+
+	@Test
+	public void testSameName() throws Exception {
+		DNSMessage msg = respond(template(), "Example.COM.");
+		assertEquals(2, msg.authority().size());
+		assertNS("example.com.", "ns2.example.com.", msg.authority().get(1));
+	}
+
+	@Test
+	public void testLongerName() throws Exception {
+		DNSMessage msg = respond(template(), "www.sub.example.com.");
+		assertEquals(2, msg.authority().size());
+		assertNS("example.com.", "ns1.example.com.", msg.authority().get(0));
+		assertNS("example.com.", "ns2.example.com.", msg.authority().get(1));
+	}
+
+	@Test
+	public void testAppliesTo() throws Exception {
+		RecordTemplate target = template();
+		assertTrue(target.appliesTo(new Name("www.example.com.")));
+		assertFalse(target.appliesTo(new Name("example.net.")));
+		assertFalse(target.appliesTo(new Name("com.")));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testNotAfterQuestion() throws Exception {
+		MessageEncoder encoder = new MessageEncoder();
+		encoder.begin(ChannelBuffers.dynamicBuffer(), new Header(), 512);
+		encoder.add(template(), new Name("example.com."));
+	}
+}
@@ -1,9 +1,22 @@
 package org.handwerkszeug.dns.conf;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.URL;
 
+import org.handwerkszeug.dns.Name;
+import org.handwerkszeug.dns.RCode;
+import org.handwerkszeug.dns.RRType;
+import org.handwerkszeug.dns.Response;
+import org.handwerkszeug.dns.Zone;
+import org.handwerkszeug.dns.conf.masterfile.MasterFileException;
+import org.handwerkszeug.dns.zone.MasterZone;
 import org.junit.Test;
 import org.yaml.snakeyaml.events.Event;
 import org.yaml.snakeyaml.parser.Parser;
@@ -44,6 +57,54 @@ public class ServerConfigurationTest {
 		};
 	}
 
+	protected File zoneFile(String contents) throws Exception {
+		File result = File.createTempFile("zone", ".txt");
+		result.deleteOnExit();
+		FileOutputStream out = new FileOutputStream(result);
+		try {
+			out.write(contents.getBytes("ASCII"));
+		} finally {
+			out.close();
+		}
+		return result;
+	}
+
+	protected ServerConfigurationImpl load(String yaml) throws Exception {
+		ServerConfigurationImpl result = new ServerConfigurationImpl();
+		result.load(new ByteArrayInputStream(yaml.getBytes("UTF-8")));
+		return result;
+	}
+
+	@Test
+	public void testZones() throws Exception {
+		File file = zoneFile("$TTL 3600\n"
+				+ "@ IN SOA ns root 1 7200 3600 604800 300\n"
+				+ "  IN NS ns\n" + "ns IN A 192.168.0.1\n"
+				+ "www IN A 192.168.0.2\n");
+		ServerConfigurationImpl conf = load("zones :\n"
+				+ "  - name : example.co.jp.\n" + "    file : "
+				+ file.getPath() + "\n");
+		assertEquals(1, conf.getZones().size());
+		Zone zone = conf.getZones().get(0);
+		assertTrue(zone instanceof MasterZone);
+		assertEquals(new Name("example.co.jp."), zone.name());
+		Response res = zone.find(new Name("www.example.co.jp."), RRType.A);
+		assertEquals(RCode.NoError, res.rcode());
+		assertEquals(3, ((MasterZone) zone).size());
+	}
+
+	@Test(expected = MasterFileException.class)
+	public void testZoneWithoutSOA() throws Exception {
+		File file = zoneFile("www.example.co.jp. 3600 IN A 192.168.0.2\n");
+		load("zones :\n" + "  - name : example.co.jp.\n" + "    file : "
+				+ file.getPath() + "\n");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testZoneWithoutFile() throws Exception {
+		load("zones :\n" + "  - name : example.co.jp.\n");
+	}
+
 	protected void event(InputStream stream) throws Exception {
 		Parser parser = new ParserImpl(new StreamReader(new InputStreamReader(
 				stream)));
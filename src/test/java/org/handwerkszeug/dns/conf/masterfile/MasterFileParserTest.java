@@ -0,0 +1,254 @@
+package org.handwerkszeug.dns.conf.masterfile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.handwerkszeug.dns.DNSClass;
+import org.handwerkszeug.dns.Name;
+import org.handwerkszeug.dns.RRType;
+import org.handwerkszeug.dns.ResourceRecord;
+import org.handwerkszeug.dns.conf.MasterDataHandler;
+import org.handwerkszeug.dns.conf.ServerConfiguration;
+import org.handwerkszeug.dns.record.ARecord;
+import org.handwerkszeug.dns.record.MXRecord;
+import org.handwerkszeug.dns.record.SOARecord;
+import org.handwerkszeug.dns.record.SingleNameRecord;
+import org.handwerkszeug.dns.record.UnknownRecord;
+import org.junit.Test;
+
+public class MasterFileParserTest {
+
+	static class Recorder implements MasterDataHandler {
+		List<ResourceRecord> records = new ArrayList<ResourceRecord>();
+		boolean committed;
+		boolean rolledBack;
+		boolean disposed;
+
+		@Override
+		public void initialize(ServerConfiguration conf) {
+		}
+
+		@Override
+		public void commit() {
+			this.committed = true;
+		}
+
+		@Override
+		public void rollback() {
+			this.rolledBack = true;
+		}
+
+		@Override
+		public void dispose() {
+			this.disposed = true;
+		}
+
+		@Override
+		public void add(ResourceRecord record) {
+			this.records.add(record);
+		}
+	}
+
+	Recorder parse(String origin, String data) {
+		Recorder r = new Recorder();
+		MasterFileParser target = new MasterFileParser(origin,
+				new ByteArrayInputStream(data.getBytes()));
+		try {
+			target.process(r);
+		} finally {
+			target.dispose();
+		}
+		return r;
+	}
+
+	@Test
+	public void testParse() throws Exception {
+		String s = "$TTL 1h ; the default\n"
+				+ "@ IN SOA ns hostmaster.example.jp. (\n"
+				+ "\t\t2011020501 ; serial\n" + "\t\t1800 900 604800\n"
+				+ "\t\t86400 )\n" + "\n" + "\t\tNS\tns\n"
+				+ "\t\tMX\t10 mail.example.com.\n"
+				+ "ns 300 IN A 192.168.0.1\n" + "www IN 60 A 192.168.0.2\n"
+				+ "\t\t A 192.168.0.3\n" + "txt TXT \"a \\\"b\\\"\" c\n"
+				+ "$ORIGIN sub\n" + "x TYPE731 \\# 2 abcd\r\n"
+				+ "y CH A 10.0.0.1";
+		Recorder r = parse("example.jp.", s);
+
+		assertTrue(r.committed);
+		assertFalse(r.rolledBack);
+		assertTrue(r.disposed);
+		assertEquals(9, r.records.size());
+
+		SOARecord soa = (SOARecord) r.records.get(0);
+		assertEquals(new Name("example.jp."), soa.name());
+		assertEquals(new Name("ns.example.jp."), soa.mname());
+		assertEquals(new Name("hostmaster.example.jp."), soa.rname());
+		assertEquals(2011020501L, soa.serial());
+		assertEquals(86400L, soa.minimum());
+		assertEquals(3600L, soa.ttl());
+
+		SingleNameRecord ns = (SingleNameRecord) r.records.get(1);
+		assertEquals(new Name("example.jp."), ns.name());
+		assertEquals(new Name("ns.example.jp."), ns.oneName());
+
+		MXRecord mx = (MXRecord) r.records.get(2);
+		assertEquals(10, mx.preference());
+		assertEquals(new Name("mail.example.com."), mx.exchange());
+
+		ARecord a = (ARecord) r.records.get(3);
+		assertEquals(new Name("ns.example.jp."), a.name());
+		assertEquals(300L, a.ttl());
+		assertEquals(InetAddress.getByName("192.168.0.1"), a.address());
+
+		assertEquals(60L, r.records.get(4).ttl());
+		assertEquals(new Name("www.example.jp."), r.records.get(5).name());
+		assertEquals(3600L, r.records.get(5).ttl());
+
+		ResourceRecord txt = r.records.get(6);
+		assertEquals(RRType.TXT, txt.type());
+		assertTrue(txt.toString(), txt.toString().contains("b\\\""));
+
+		UnknownRecord u = (UnknownRecord) r.records.get(7);
+		assertEquals(new Name("x.sub.example.jp."), u.name());
+		assertEquals(731, u.code());
+		assertEquals(2, u.data().length);
+
+		ResourceRecord y = r.records.get(8);
+		assertEquals(new Name("y.sub.example.jp."), y.name());
+		assertEquals(DNSClass.CH, y.dnsClass());
+	}
+
+	@Test
+	public void testTTL() throws Exception {
+		MasterFileParser target = new MasterFileParser(".",
+				new ByteArrayInputStream(new byte[0]));
+		assertEquals(0L, target.toTTL("0"));
+		assertEquals(5400L, target.toTTL("1h30m"));
+		assertEquals(694861L, target.toTTL("1W1D1H1M1S"));
+		assertEquals(90L, target.toTTL("1m30"));
+		for (String s : new String[] { "1x", "h", "1hh", "2147483648" }) {
+			try {
+				target.toTTL(s);
+				fail(s);
+			} catch (MasterFileException e) {
+			}
+		}
+	}
+
+	@Test
+	public void testNamedRoot() throws Exception {
+		Recorder r = new Recorder();
+		MasterFileParser target = new MasterFileParser(".", new File(
+				"src/test/java/named.root.txt"));
+		try {
+			target.process(r);
+		} finally {
+			target.dispose();
+		}
+		assertTrue(r.committed);
+		assertEquals(34, r.records.size());
+		ResourceRecord a = r.records.get(1);
+		assertEquals(new Name("a.root-servers.net."), a.name());
+		assertEquals(RRType.A, a.type());
+		assertEquals(3600000L, a.ttl());
+		assertEquals(RRType.AAAA, r.records.get(2).type());
+	}
+
+	@Test
+	public void testError() throws Exception {
+		assertError("a 1 A 10.0.0.1\n\nb 1 A 10.0.0.300\n", 3);
+		assertError("a 1 A 10.0.0.1\nb 1 FOO bar\n", 2);
+		assertError("; no owner yet\n\t1 A 10.0.0.1\n", 2);
+		assertError("a A 10.0.0.1\n", 1);
+		assertError("a 1 SOA ns ns (\n1 2 3\n", 1);
+		assertError("a 1 A 10.0.0.1 )\n", 1);
+		assertError("a 1 TXT \"abc\n", 1);
+		assertError("\n$TTL\n", 2);
+		assertError("a 1 A 10.0.0.1\n. 1 OPT 4096\n", 2);
+	}
+
+	protected void assertError(String data, int line) {
+		Recorder r = new Recorder();
+		MasterFileParser target = new MasterFileParser("example.jp.",
+				new ByteArrayInputStream(data.getBytes()));
+		try {
+			target.process(r);
+			fail(data);
+		} catch (MasterFileException e) {
+			assertEquals(e.getMessage(), line, e.line());
+			assertTrue(r.rolledBack);
+			assertFalse(r.committed);
+		} finally {
+			target.dispose();
+		}
+	}
+
+	@Test
+	public void testInclude() throws Exception {
+		File dir = createDirectory();
+		File sub = new File(dir, "sub.zone");
+		write(sub, "www 60 A 10.0.0.2\n$ORIGIN other.jp.\nftp 60 A 10.0.0.3\n");
+		File master = new File(dir, "master.zone");
+		write(master, "a 60 A 10.0.0.1\n$INCLUDE sub.zone sub\n"
+				+ "b 60 A 10.0.0.4\n$INCLUDE \"sub.zone\"\n");
+
+		Recorder r = new Recorder();
+		MasterFileParser target = new MasterFileParser("example.jp.", master);
+		try {
+			target.process(r);
+		} finally {
+			target.dispose();
+		}
+		assertEquals(6, r.records.size());
+		assertEquals(new Name("www.sub.example.jp."), r.records.get(1).name());
+		assertEquals(new Name("ftp.other.jp."), r.records.get(2).name());
+		// the origin of the file is not changed by the included one.
+		assertEquals(new Name("b.example.jp."), r.records.get(3).name());
+		assertEquals(new Name("www.example.jp."), r.records.get(4).name());
+	}
+
+	@Test
+	public void testCyclicInclude() throws Exception {
+		File dir = createDirectory();
+		File master = new File(dir, "master.zone");
+		write(master, "a 60 A 10.0.0.1\n\n$INCLUDE master.zone\n");
+		Recorder r = new Recorder();
+		MasterFileParser target = new MasterFileParser("example.jp.", master);
+		try {
+			target.process(r);
+			fail();
+		} catch (MasterFileException e) {
+			assertEquals(3, e.line());
+			assertTrue(r.rolledBack);
+		} finally {
+			target.dispose();
+		}
+	}
+
+	File createDirectory() throws Exception {
+		File dir = File.createTempFile("master", "");
+		dir.delete();
+		dir.mkdirs();
+		dir.deleteOnExit();
+		return dir;
+	}
+
+	void write(File file, String data) throws Exception {
+		file.deleteOnExit();
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(data.getBytes());
+		} finally {
+			out.close();
+		}
+	}
+}
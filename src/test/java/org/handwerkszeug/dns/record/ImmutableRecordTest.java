@@ -0,0 +1,107 @@
+package org.handwerkszeug.dns.record;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.handwerkszeug.dns.Name;
+import org.handwerkszeug.dns.NullNameCompressor;
+import org.handwerkszeug.dns.ResourceRecord;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ImmutableRecordTest {
+
+	ARecord record;
+
+	ImmutableRecord target;
+
+	@Before
+	public void setUp() throws Exception {
+		this.record = new ARecord();
+		this.record.name(new Name("www.example.com."));
+		this.record.ttl(300);
+		this.record.address(InetAddress.getByName("192.168.0.1"));
+		this.target = ImmutableRecord.of(this.record);
+	}
+
+	@Test
+	public void testOf() throws Exception {
+		assertSame(this.target, ImmutableRecord.of(this.target));
+		assertSame(this.record, ImmutableRecord.unwrap(this.target));
+		assertSame(this.record, ImmutableRecord.unwrap(this.record));
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testTTL() throws Exception {
+		this.target.ttl(0);
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testName() throws Exception {
+		this.target.name(new Name("example.com."));
+	}
+
+	@Test
+	public void testWithTTL() throws Exception {
+		ImmutableRecord view = this.target.withTTL(100);
+		assertEquals(100, view.ttl());
+		assertEquals(300, this.target.ttl());
+		assertSame(this.target, this.target.withTTL(300));
+
+		ChannelBuffer expected = ChannelBuffers.dynamicBuffer();
+		ARecord copy = (ARecord) this.record.toQnameRecord(this.record.name());
+		copy.ttl(100);
+		copy.write(expected, NullNameCompressor.INSTANCE);
+		ChannelBuffer actual = ChannelBuffers.dynamicBuffer();
+		view.write(actual, NullNameCompressor.INSTANCE);
+		assertEquals(expected, actual);
+	}
+
+	@Test
+	public void testWithName() throws Exception {
+		Name name = new Name("ftp.example.com.");
+		ResourceRecord view = this.target.toQnameRecord(name);
+		assertEquals(name, view.name());
+		assertSame(this.record, ImmutableRecord.unwrap(view));
+	}
+
+	@Test
+	public void testEquals() throws Exception {
+		assertEquals(this.record, this.target);
+		assertEquals(this.target, this.record);
+		assertEquals(this.record.hashCode(), this.target.hashCode());
+
+		ResourceRecord view = this.target.withTTL(100);
+		assertTrue(view.equals(this.record) == false);
+		ResourceRecord copy = ((ImmutableRecord) view).toRecord();
+		assertEquals(copy, view);
+		assertEquals(copy.hashCode(), view.hashCode());
+
+		ARecord other = (ARecord) this.record.toQnameRecord(new Name(
+				"ftp.example.com."));
+		ImmutableRecord otherView = ImmutableRecord.of(other).withName(
+				this.record.name());
+		assertEquals(this.target, otherView);
+		assertEquals(otherView, this.target);
+		other.address(InetAddress.getByName("192.168.0.2"));
+		assertTrue(this.target.equals(otherView) == false);
+
+		Set<ResourceRecord> set = new HashSet<ResourceRecord>();
+		set.add(this.target);
+		assertTrue(set.contains(this.record));
+
+		Set<ResourceRecord> sorted = new TreeSet<ResourceRecord>();
+		sorted.add(this.target);
+		sorted.add(this.target.withName(new Name("ftp.example.com.")));
+		assertEquals(2, sorted.size());
+		assertTrue(sorted.contains(ImmutableRecord.of(this.record)));
+	}
+}
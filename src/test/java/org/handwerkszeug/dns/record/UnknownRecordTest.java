@@ -0,0 +1,82 @@
+package org.handwerkszeug.dns.record;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.handwerkszeug.dns.DNSMessage;
+import org.handwerkszeug.dns.RRType;
+import org.handwerkszeug.dns.ResourceRecord;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Test;
+
+public class UnknownRecordTest {
+
+	// ;; QUESTIONS:
+	// ;; example.com., type = ANY, class = IN
+	//
+	// ;; ANSWERS:
+	// example.com. 300 IN CAA 0 issue "ca.example"
+	// example.com. 300 IN TYPE64 \# 3 000100
+	// _sip._tcp.example.com. 300 IN SRV 10 20 5060 sip.example.com.
+	static byte[] data = { 0, 1, -127, -128, 0, 1, 0, 3, 0, 0, 0, 0,
+			// example.com. ANY IN
+			7, 'e', 'x', 'a', 'm', 'p', 'l', 'e', 3, 'c', 'o', 'm', 0, 0,
+			-1, 0, 1,
+			// CAA(257)
+			-64, 12, 1, 1, 0, 1, 0, 0, 1, 44, 0, 17, 0, 5, 'i', 's', 's', 'u',
+			'e', 'c', 'a', '.', 'e', 'x', 'a', 'm', 'p', 'l', 'e',
+			// SVCB(64)
+			-64, 12, 0, 64, 0, 1, 0, 0, 1, 44, 0, 3, 0, 1, 0,
+			// SRV(33), the target is not compressed.
+			4, '_', 's', 'i', 'p', 4, '_', 't', 'c', 'p', -64, 12, 0, 33, 0,
+			1, 0, 0, 1, 44, 0, 23, 0, 10, 0, 20, 19, -60, 3, 's', 'i', 'p',
+			7, 'e', 'x', 'a', 'm', 'p', 'l', 'e', 3, 'c', 'o', 'm', 0 };
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		DNSMessage msg = new DNSMessage(ChannelBuffers.wrappedBuffer(data));
+		assertEquals(RRType.ANY, msg.question().get(0).type());
+		ResourceRecord caa = msg.answer().get(0);
+		assertEquals(RRType.UNKNOWN, caa.type());
+		assertEquals(257, ((UnknownRecord) caa).code());
+		assertEquals(257, caa.typeCode());
+		assertEquals(257, ImmutableRecord.of(caa).typeCode());
+		assertEquals(17, ((UnknownRecord) caa).data().length);
+
+		ChannelBuffer newone = ChannelBuffers.dynamicBuffer();
+		msg.write(newone);
+		byte[] actual = new byte[newone.readableBytes()];
+		newone.readBytes(actual);
+		assertArrayEquals(data, actual);
+	}
+
+	@Test
+	public void testValueOf() throws Exception {
+		for (RRType t : RRType.values()) {
+			if (RRType.UNKNOWN.equals(t) == false) {
+				assertEquals(t, RRType.valueOf(t.value()));
+			}
+		}
+		assertEquals(RRType.UNKNOWN, RRType.valueOf(64));
+		assertEquals(RRType.UNKNOWN, RRType.valueOf(-1));
+		assertEquals(RRType.UNKNOWN, RRType.valueOf(65535));
+	}
+
+	@Test
+	public void testSetRDATA() throws Exception {
+		UnknownRecord rr = new UnknownRecord(64);
+		rr.setRDATA(Arrays.asList("\\#", "3", "0001", "00"));
+		assertArrayEquals(new byte[] { 0, 1, 0 }, rr.data());
+
+		rr.setRDATA(Arrays.asList("\\#", "0"));
+		assertEquals(0, rr.data().length);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testSetRDATALength() throws Exception {
+		new UnknownRecord(64).setRDATA(Arrays.asList("\\#", "2", "00"));
+	}
+}
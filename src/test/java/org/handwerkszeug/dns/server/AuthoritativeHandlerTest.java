@@ -0,0 +1,398 @@
+package org.handwerkszeug.dns.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.handwerkszeug.dns.DNSMessage;
+import org.handwerkszeug.dns.Header;
+import org.handwerkszeug.dns.Name;
+import org.handwerkszeug.dns.RCode;
+import org.handwerkszeug.dns.RRType;
+import org.handwerkszeug.dns.ResourceRecord;
+import org.handwerkszeug.dns.conf.ServerConfigurationImpl;
+import org.handwerkszeug.dns.record.ARecord;
+import org.handwerkszeug.dns.record.SOARecord;
+import org.handwerkszeug.dns.record.SingleNameRecord;
+import org.handwerkszeug.dns.record.UnknownRecord;
+import org.handwerkszeug.dns.zone.MasterZone;
+import org.handwerkszeug.dns.zone.ZoneDatabase;
+import org.handwerkszeug.dns.zone.ZoneUpdateQueue;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelEvent;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.UpstreamMessageEvent;
+import org.jboss.netty.channel.socket.DatagramChannel;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AuthoritativeHandlerTest {
+
+	MasterZone zone;
+
+	AuthoritativeHandler target;
+
+	@Before
+	public void setUp() throws Exception {
+		SOARecord soa = new SOARecord();
+		Name n = new Name("example.co.jp.");
+		soa.name(n);
+		soa.mname(new Name("ns.example.co.jp."));
+		soa.rname(new Name("root.example.co.jp."));
+		this.zone = new MasterZone(n, soa);
+		SingleNameRecord dname = new SingleNameRecord(RRType.DNAME, new Name(
+				"example.co.jp."));
+		dname.name(new Name("old.example.co.jp."));
+		add(a("www.example.co.jp.", "192.168.0.1"),
+				cname("alias.example.co.jp.", "www.example.co.jp."),
+				cname("outer.example.co.jp.", "www.example.com."),
+				cname("loop1.example.co.jp.", "loop2.example.co.jp."),
+				cname("loop2.example.co.jp.", "loop1.example.co.jp."), dname);
+
+		ZoneDatabase db = new ZoneDatabase();
+		db.add(this.zone);
+		this.target = new AuthoritativeHandler(new ServerConfigurationImpl(),
+				db);
+	}
+
+	protected void add(ResourceRecord... records) throws Exception {
+		ZoneUpdateQueue queue = new ZoneUpdateQueue(this.zone);
+		queue.start();
+		MasterZone.Update update = this.zone.update();
+		for (ResourceRecord rr : records) {
+			update.add(rr);
+		}
+		queue.submit(update);
+		queue.stop();
+	}
+
+	protected ARecord a(String name, String addr) throws Exception {
+		ARecord result = new ARecord();
+		result.name(new Name(name));
+		result.address(InetAddress.getByName(addr));
+		return result;
+	}
+
+	protected SingleNameRecord cname(String name, String to) {
+		SingleNameRecord result = new SingleNameRecord(RRType.CNAME, new Name(
+				to));
+		result.name(new Name(name));
+		return result;
+	}
+
+	protected DNSMessage query(String name, RRType type) {
+		Header h = new Header();
+		h.id(10);
+		h.rd(true);
+		DNSMessage msg = new DNSMessage(h);
+		SingleNameRecord q = new SingleNameRecord(type);
+		q.name(new Name(name));
+		msg.question().add(q);
+		return msg;
+	}
+
+	@Test
+	public void testAnswer() throws Exception {
+		DNSMessage res = this.target.answer(query("www.example.co.jp.",
+				RRType.A));
+		assertEquals(10, res.header().id());
+		assertTrue(res.header().qr());
+		assertTrue(res.header().aa());
+		assertTrue(res.header().rd());
+		assertEquals(RCode.NoError, res.header().rcode());
+		assertEquals(1, res.question().size());
+		assertEquals(1, res.answer().size());
+		assertEquals(a("www.example.co.jp.", "192.168.0.1"), res.answer()
+				.get(0));
+	}
+
+	@Test
+	public void testRecycle() throws Exception {
+		ZoneDatabase db = new ZoneDatabase();
+		db.add(this.zone);
+		MessagePool pool = new MessagePool();
+		this.target = new AuthoritativeHandler(new ServerConfigurationImpl(),
+				db, pool);
+		DNSMessage res = this.target.answer(query("www.example.co.jp.",
+				RRType.A));
+		assertEquals(1, res.answer().size());
+		pool.release(res);
+
+		DNSMessage next = this.target.answer(query("nothing.example.co.jp.",
+				RRType.A));
+		assertSame(res, next);
+		assertEquals(RCode.NXDomain, next.header().rcode());
+		assertEquals(0, next.answer().size());
+		assertEquals(1, next.authority().size());
+	}
+
+	@Test
+	public void testCNAME() throws Exception {
+		DNSMessage res = this.target.answer(query("alias.example.co.jp.",
+				RRType.A));
+		assertEquals(RCode.NoError, res.header().rcode());
+		assertEquals(2, res.answer().size());
+		assertEquals(RRType.CNAME, res.answer().get(0).type());
+		assertEquals(RRType.A, res.answer().get(1).type());
+	}
+
+	@Test
+	public void testCNAMEOutOfZone() throws Exception {
+		DNSMessage res = this.target.answer(query("outer.example.co.jp.",
+				RRType.A));
+		assertEquals(RCode.NoError, res.header().rcode());
+		assertTrue(res.header().aa());
+		assertEquals(1, res.answer().size());
+		assertEquals(RRType.CNAME, res.answer().get(0).type());
+	}
+
+	@Test
+	public void testCNAMELoop() throws Exception {
+		DNSMessage res = this.target.answer(query("loop1.example.co.jp.",
+				RRType.A));
+		assertEquals(RCode.ServFail, res.header().rcode());
+		assertEquals(DefaultResolveContext.MAX_CHAIN, res.answer().size());
+	}
+
+	@Test
+	public void testDNAME() throws Exception {
+		DNSMessage res = this.target.answer(query("www.old.example.co.jp.",
+				RRType.A));
+		assertEquals(RCode.NoError, res.header().rcode());
+		assertEquals(3, res.answer().size());
+		assertEquals(RRType.DNAME, res.answer().get(0).type());
+		assertEquals(RRType.CNAME, res.answer().get(1).type());
+		assertEquals(a("www.example.co.jp.", "192.168.0.1"), res.answer()
+				.get(2));
+	}
+
+	@Test
+	public void testNXDomain() throws Exception {
+		DNSMessage res = this.target.answer(query("none.example.co.jp.",
+				RRType.A));
+		assertEquals(RCode.NXDomain, res.header().rcode());
+		assertTrue(res.header().aa());
+		assertEquals(0, res.answer().size());
+		assertEquals(RRType.SOA, res.authority().get(0).type());
+	}
+
+	@Test
+	public void testNoData() throws Exception {
+		DNSMessage request = query("www.example.co.jp.", RRType.MX);
+		ChannelBuffer buffer = built(request);
+		assertEquals(buffer, template(request));
+
+		DNSMessage res = new DNSMessage(buffer);
+		assertEquals(RCode.NoError, res.header().rcode());
+		assertTrue(res.header().aa());
+		assertEquals(0, res.answer().size());
+		assertEquals(1, res.authority().size());
+		SOARecord soa = (SOARecord) res.authority().get(0);
+		assertEquals(new Name("example.co.jp."), soa.name());
+	}
+
+	protected ChannelBuffer template(DNSMessage request) {
+		ChannelBuffer buffer = ChannelBuffers.dynamicBuffer();
+		if (this.target.writeTemplate(request, this.target.find(request), -1,
+				buffer, 512)) {
+			return buffer;
+		}
+		return null;
+	}
+
+	protected ChannelBuffer built(DNSMessage request) {
+		ChannelBuffer buffer = ChannelBuffers.dynamicBuffer();
+		this.target.answer(request).write(buffer);
+		return buffer;
+	}
+
+	@Test
+	public void testTemplate() throws Exception {
+		DNSMessage request = query("WWW.example.co.jp.", RRType.A);
+		ChannelBuffer buffer = template(request);
+		assertEquals(built(request), buffer);
+
+		DNSMessage res = new DNSMessage(buffer);
+		assertEquals(10, res.header().id());
+		assertTrue(res.header().aa());
+		assertEquals(1, res.answer().size());
+		assertEquals(request.question().get(0).name(), res.question().get(0)
+				.name());
+	}
+
+	@Test
+	public void testTemplateNXDomain() throws Exception {
+		DNSMessage request = query("a.b.none.example.co.jp.", RRType.A);
+		ChannelBuffer buffer = template(request);
+		// the pointers into the question are moved.
+		assertEquals(built(request), buffer);
+
+		DNSMessage res = new DNSMessage(buffer);
+		assertEquals(RCode.NXDomain, res.header().rcode());
+		SOARecord soa = (SOARecord) res.authority().get(0);
+		assertEquals(new Name("example.co.jp."), soa.name());
+		assertEquals(new Name("ns.example.co.jp."), soa.mname());
+	}
+
+	@Test
+	public void testTemplateChanged() throws Exception {
+		DNSMessage request = query("www.example.co.jp.", RRType.A);
+		template(request);
+		add(a("www.example.co.jp.", "192.168.0.2"));
+		DNSMessage res = new DNSMessage(template(request));
+		assertEquals(2, res.answer().size());
+	}
+
+	@Test
+	public void testNoTemplate() throws Exception {
+		assertNull(template(query("alias.example.co.jp.", RRType.A)));
+		assertNull(template(query("www.old.example.co.jp.", RRType.A)));
+	}
+
+	/**
+	 * @return the messages the handler writes.
+	 */
+	protected List<ChannelBuffer> receive(Object msg) throws Exception {
+		List<ChannelBuffer> written = new ArrayList<ChannelBuffer>();
+		this.target.messageReceived(null, new UpstreamMessageEvent(
+				channel(written), msg, new InetSocketAddress("127.0.0.1",
+						10053)));
+		return written;
+	}
+
+	/**
+	 * @return a channel which keeps the messages written to it.
+	 */
+	protected Channel channel(final List<ChannelBuffer> written) {
+		return (Channel) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[] { DatagramChannel.class },
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method,
+							Object[] args) throws Throwable {
+						if ("write".equals(method.getName())) {
+							written.add((ChannelBuffer) args[0]);
+							return Channels.succeededFuture((Channel) proxy);
+						}
+						return null;
+					}
+				});
+	}
+
+	@Test
+	public void testUnknownType() throws Exception {
+		UnknownRecord caa = new UnknownRecord(257);
+		caa.name(new Name("www.example.co.jp."));
+		caa.data(new byte[] { 0, 5, 'i', 's', 's', 'u', 'e' });
+		add(caa);
+
+		DNSMessage https = new DNSMessage();
+		https.header().id(10);
+		UnknownRecord q = new UnknownRecord(65);
+		q.name(new Name("www.example.co.jp."));
+		https.question().add(q);
+		ChannelBuffer buffer = ChannelBuffers.dynamicBuffer();
+		https.write(buffer);
+		// pass-through, answered from the zone without the CAA.
+		List<ChannelBuffer> written = receive(buffer);
+		assertEquals(1, written.size());
+		DNSMessage res = new DNSMessage(written.get(0));
+		assertTrue(res.header().aa());
+		assertEquals(RCode.NoError, res.header().rcode());
+		assertEquals(0, res.answer().size());
+		assertEquals(1, res.authority().size());
+
+		DNSMessage request = new DNSMessage();
+		request.header().id(11);
+		q = new UnknownRecord(257);
+		q.name(new Name("www.example.co.jp."));
+		request.question().add(q);
+		written = receive(request);
+		res = new DNSMessage(written.get(0));
+		assertEquals(1, res.answer().size());
+		assertEquals(257, res.answer().get(0).typeCode());
+	}
+
+	@Test
+	public void testMalformed() throws Exception {
+		ChannelBuffer buffer = ChannelBuffers.dynamicBuffer();
+		query("www.example.co.jp.", RRType.A).write(buffer);
+		// an A record in the additional section whose RDATA is too short.
+		buffer.setShort(10, 1);
+		buffer.writeByte(0);
+		buffer.writeShort(RRType.A.value());
+		buffer.writeShort(1);
+		buffer.writeInt(0);
+		buffer.writeShort(2);
+		buffer.writeShort(0);
+
+		List<ChannelBuffer> written = receive(new DNSMessage(buffer));
+		assertEquals(1, written.size());
+		Header h = new Header(written.get(0));
+		assertEquals(10, h.id());
+		assertTrue(h.qr());
+		assertEquals(RCode.FormErr, h.rcode());
+	}
+
+	/**
+	 * @return the message the handler passes to the next one, or null.
+	 */
+	protected Object passed(Object msg) throws Exception {
+		final List<Object> passed = new ArrayList<Object>();
+		final Channel channel = channel(new ArrayList<ChannelBuffer>());
+		ChannelHandlerContext ctx = (ChannelHandlerContext) Proxy
+				.newProxyInstance(getClass().getClassLoader(),
+						new Class<?>[] { ChannelHandlerContext.class },
+						new InvocationHandler() {
+							@Override
+							public Object invoke(Object proxy, Method method,
+									Object[] args) throws Throwable {
+								if ("getChannel".equals(method.getName())) {
+									return channel;
+								}
+								if ("sendUpstream".equals(method.getName())) {
+									ChannelEvent e = (ChannelEvent) args[0];
+									passed.add(((MessageEvent) e).getMessage());
+								}
+								return null;
+							}
+						});
+		this.target.messageReceived(ctx, new UpstreamMessageEvent(channel,
+				msg, new InetSocketAddress("127.0.0.1", 10053)));
+		return passed.isEmpty() ? null : passed.get(0);
+	}
+
+	@Test
+	public void testPassPeeked() throws Exception {
+		ChannelBuffer buffer = ChannelBuffers.dynamicBuffer();
+		query("www.example.com.", RRType.A).write(buffer);
+		// pass-through, the next handler gets the peeked request.
+		Object msg = passed(buffer);
+		assertTrue(msg instanceof RawMessage);
+		RawMessage raw = (RawMessage) msg;
+		assertSame(buffer, raw.buffer());
+		assertNotNull(raw.question());
+		assertEquals(new Name("www.example.com."), raw.question().name());
+		assertSame(raw, passed(raw));
+	}
+
+	@Test
+	public void testOutOfZone() throws Exception {
+		assertNull(this.target.answer(query("www.example.com.", RRType.A)));
+		assertNull(this.target.answer(query("co.jp.", RRType.A)));
+	}
+}
@@ -0,0 +1,164 @@
+package org.handwerkszeug.dns.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.handwerkszeug.dns.DNSClass;
+import org.handwerkszeug.dns.DNSMessage;
+import org.handwerkszeug.dns.Name;
+import org.handwerkszeug.dns.RRType;
+import org.handwerkszeug.dns.record.ImmutableRecord;
+import org.handwerkszeug.dns.record.UnknownRecord;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DNSMessageCacheTest {
+
+	// ;; ->>HEADER<<- opcode: QUERY, status: NOERROR, id: 64158
+	// ;; flags: qr rd ra ; qd: 1 an: 4 au: 4 ad: 4
+	// ;; QUESTIONS:
+	// ;; google.com., type = MX, class = IN
+	//
+	// ;; ANSWERS:
+	// google.com. 805 IN MX 400 google.com.s9b2.psmtp.com.
+	// google.com. 805 IN MX 100 google.com.s9a1.psmtp.com.
+	// google.com. 805 IN MX 200 google.com.s9a2.psmtp.com.
+	// google.com. 805 IN MX 300 google.com.s9b1.psmtp.com.
+	//
+	// ;; AUTHORITY RECORDS:
+	// google.com. 336761 IN NS ns4.google.com.
+	// google.com. 336761 IN NS ns3.google.com.
+	// google.com. 336761 IN NS ns2.google.com.
+	// google.com. 336761 IN NS ns1.google.com.
+	//
+	// ;; ADDITIONAL RECORDS:
+	// ns1.google.com. 303485 IN A 216.239.32.10
+	// ns2.google.com. 303485 IN A 216.239.34.10
+	// ns3.google.com. 303485 IN A 216.239.36.10
+	// ns4.google.com. 303485 IN A 216.239.38.10
+	//
+	// ;; Message size: 298 bytes
+
+	static byte[] data = { -6, -98, -127, -128, 0, 1, 0, 4, 0, 4, 0, 4, 6, 103,
+			111, 111, 103, 108, 101, 3, 99, 111, 109, 0, 0, 15, 0, 1, -64, 12,
+			0, 15, 0, 1, 0, 0, 3, 37, 0, 26, 1, -112, 6, 103, 111, 111, 103,
+			108, 101, 3, 99, 111, 109, 4, 115, 57, 98, 50, 5, 112, 115, 109,
+			116, 112, -64, 19, -64, 12, 0, 15, 0, 1, 0, 0, 3, 37, 0, 20, 0,
+			100, 6, 103, 111, 111, 103, 108, 101, 3, 99, 111, 109, 4, 115, 57,
+			97, 49, -64, 58, -64, 12, 0, 15, 0, 1, 0, 0, 3, 37, 0, 20, 0, -56,
+			6, 103, 111, 111, 103, 108, 101, 3, 99, 111, 109, 4, 115, 57, 97,
+			50, -64, 58, -64, 12, 0, 15, 0, 1, 0, 0, 3, 37, 0, 20, 1, 44, 6,
+			103, 111, 111, 103, 108, 101, 3, 99, 111, 109, 4, 115, 57, 98, 49,
+			-64, 58, -64, 12, 0, 2, 0, 1, 0, 5, 35, 121, 0, 6, 3, 110, 115, 52,
+			-64, 12, -64, 12, 0, 2, 0, 1, 0, 5, 35, 121, 0, 6, 3, 110, 115, 51,
+			-64, 12, -64, 12, 0, 2, 0, 1, 0, 5, 35, 121, 0, 6, 3, 110, 115, 50,
+			-64, 12, -64, 12, 0, 2, 0, 1, 0, 5, 35, 121, 0, 6, 3, 110, 115, 49,
+			-64, 12, -64, -28, 0, 1, 0, 1, 0, 4, -95, 125, 0, 4, -40, -17, 32,
+			10, -64, -46, 0, 1, 0, 1, 0, 4, -95, 125, 0, 4, -40, -17, 34, 10,
+			-64, -64, 0, 1, 0, 1, 0, 4, -95, 125, 0, 4, -40, -17, 36, 10, -64,
+			-82, 0, 1, 0, 1, 0, 4, -95, 125, 0, 4, -40, -17, 38, 10 };
+
+	long now;
+
+	DNSMessageCache target;
+
+	@Before
+	public void setUp() throws Exception {
+		this.now = 1000000L;
+		this.target = new DNSMessageCache(64, 4) {
+			@Override
+			protected long now() {
+				return DNSMessageCacheTest.this.now;
+			}
+		};
+	}
+
+	protected DNSMessage googleMX() {
+		return new DNSMessage(ChannelBuffers.wrappedBuffer(data));
+	}
+
+	@Test
+	public void testLookup() throws Exception {
+		Name google = new Name("google.com.");
+		assertNull(this.target.lookup(google, RRType.MX, DNSClass.IN));
+
+		this.target.store(googleMX());
+		DNSMessage msg = this.target.lookup(google, RRType.MX, DNSClass.IN);
+		assertNotNull(msg);
+		assertEquals(4, msg.answer().size());
+		assertEquals(805, msg.answer().get(0).ttl());
+
+		assertNull(this.target.lookup(google, RRType.A, DNSClass.IN));
+		assertNull(this.target.lookup(new Name("google.co.jp."), RRType.MX,
+				DNSClass.IN));
+	}
+
+	@Test
+	public void testExpiration() throws Exception {
+		Name google = new Name("google.com.");
+		this.target.store(googleMX());
+
+		this.now += 100 * 1000L;
+		DNSMessage msg = this.target.lookup(google, RRType.MX, DNSClass.IN);
+		assertEquals(705, msg.answer().get(0).ttl());
+		assertEquals(336661, msg.authority().get(0).ttl());
+
+		// the hits share the RDATA, and only the TTL differs.
+		DNSMessage other = this.target.lookup(google, RRType.MX, DNSClass.IN);
+		assertNotSame(msg.answer().get(0), other.answer().get(0));
+		assertSame(ImmutableRecord.unwrap(msg.answer().get(0)),
+				ImmutableRecord.unwrap(other.answer().get(0)));
+
+		// minimum TTL in the message is 805.
+		this.now += 705 * 1000L;
+		assertNull(this.target.lookup(google, RRType.MX, DNSClass.IN));
+		assertEquals(0, this.target.size());
+	}
+
+	@Test
+	public void testBound() throws Exception {
+		DNSMessage msg = googleMX();
+		this.target.store(msg);
+		for (int i = 0; i < 1000; i++) {
+			DNSMessage m = googleMX();
+			m.question().get(0).name(new Name("host" + i + ".google.com."));
+			this.target.store(m);
+		}
+		assertEquals(64, this.target.size());
+		assertNull(this.target.lookup(new Name("google.com."), RRType.MX,
+				DNSClass.IN));
+	}
+
+	@Test
+	public void testUnknownType() throws Exception {
+		Name name = new Name("example.com.");
+		DNSMessage msg = new DNSMessage();
+		msg.header().qr(true);
+		UnknownRecord q = new UnknownRecord(257);
+		q.name(name);
+		msg.question().add(q);
+		UnknownRecord caa = new UnknownRecord(257);
+		caa.name(name);
+		caa.ttl(300);
+		caa.data(new byte[] { 0, 0 });
+		msg.answer().add(caa);
+		this.target.store(msg);
+
+		assertEquals(1, this.target.size());
+		assertNotNull(this.target.lookup(name, 257, DNSClass.IN, null));
+		// another type we don't model is another entry.
+		assertNull(this.target.lookup(name, 65, DNSClass.IN, null));
+	}
+
+	@Test
+	public void testNotCacheable() throws Exception {
+		DNSMessage msg = googleMX();
+		msg.header().tc(true);
+		this.target.store(msg);
+		assertEquals(0, this.target.size());
+	}
+}
@@ -0,0 +1,175 @@
+package org.handwerkszeug.dns.server;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+
+import org.handwerkszeug.dns.conf.ServerConfigurationImpl;
+import org.jboss.netty.bootstrap.ServerBootstrap;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFactory;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.channel.group.ChannelGroup;
+import org.jboss.netty.channel.group.DefaultChannelGroup;
+import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DNSStreamPipelineFactoryTest {
+
+	ServerConfigurationImpl conf;
+	ChannelFactory factory;
+	ChannelGroup group;
+	Timer timer;
+	DNSStreamPipelineFactory target;
+	Channel server;
+
+	@Before
+	public void setUp() throws Exception {
+		this.factory = new NioServerSocketChannelFactory(
+				Executors.newCachedThreadPool(),
+				Executors.newCachedThreadPool());
+		this.group = new DefaultChannelGroup();
+		this.timer = new HashedWheelTimer();
+		this.conf = new ServerConfigurationImpl();
+		this.conf.setMaxConnectionsPerAddress(2);
+		this.target = new DNSStreamPipelineFactory(this.conf,
+				new ChannelPipelineFactory() {
+					@Override
+					public ChannelPipeline getPipeline() throws Exception {
+						return Channels.pipeline(new Reverse());
+					}
+				}, this.group, this.timer);
+		ServerBootstrap bootstrap = new ServerBootstrap(this.factory);
+		bootstrap.setPipelineFactory(this.target);
+		this.server = bootstrap.bind(new InetSocketAddress(InetAddress
+				.getLoopbackAddress(), 0));
+		this.group.add(this.server);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		this.group.close().awaitUninterruptibly();
+		this.timer.stop();
+		this.factory.releaseExternalResources();
+	}
+
+	/**
+	 * holds the first message, and answers the second before the first.
+	 */
+	static class Reverse extends SimpleChannelUpstreamHandler {
+		List<MessageEvent> held = new ArrayList<MessageEvent>();
+
+		@Override
+		public void messageReceived(ChannelHandlerContext ctx, MessageEvent e)
+				throws Exception {
+			this.held.add(0, e);
+			if (1 < this.held.size()) {
+				for (MessageEvent m : this.held) {
+					ChannelBuffer b = (ChannelBuffer) m.getMessage();
+					m.getChannel().write(b, m.getRemoteAddress());
+				}
+				this.held.clear();
+			}
+		}
+	}
+
+	@Test
+	public void testPipelining() throws Exception {
+		Socket s = new Socket();
+		try {
+			s.connect(this.server.getLocalAddress(), 5000);
+			s.setSoTimeout(5000);
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeShort(3);
+			out.write(new byte[] { 1, 1, 1 });
+			out.writeShort(2);
+			out.write(new byte[] { 2, 2 });
+			// both queries in a single segment
+			s.getOutputStream().write(bytes.toByteArray());
+			s.getOutputStream().flush();
+
+			DataInputStream in = new DataInputStream(s.getInputStream());
+			assertEquals(2, in.readUnsignedShort());
+			assertEquals(2, in.readByte());
+			assertEquals(2, in.readByte());
+			assertEquals(3, in.readUnsignedShort());
+			assertEquals(1, in.readByte());
+			assertEquals(1, in.readByte());
+			assertEquals(1, in.readByte());
+			// the server channel and the accepted connection
+			assertEquals(2, this.group.size());
+		} finally {
+			s.close();
+		}
+	}
+
+	protected void await(int connections) throws Exception {
+		long limit = System.currentTimeMillis() + 5000;
+		while ((this.target.getConnectionManager().connectionCount() != connections)
+				&& (System.currentTimeMillis() < limit)) {
+			Thread.sleep(10);
+		}
+		assertEquals(connections, this.target.getConnectionManager()
+				.connectionCount());
+	}
+
+	@Test
+	public void testConnectionLimit() throws Exception {
+		Socket s1 = new Socket();
+		Socket s2 = new Socket();
+		Socket s3 = new Socket();
+		try {
+			// one by one, the connections are registered on different
+			// worker threads.
+			s1.connect(this.server.getLocalAddress(), 5000);
+			await(1);
+			s2.connect(this.server.getLocalAddress(), 5000);
+			await(2);
+			s3.connect(this.server.getLocalAddress(), 5000);
+			s3.setSoTimeout(5000);
+			// closed by the server
+			assertEquals(-1, s3.getInputStream().read());
+			await(2);
+			assertEquals(1, this.target.getConnectionManager().rejectedCount());
+			assertEquals(2, this.target.getConnectionManager().connectionCount(
+					InetAddress.getLoopbackAddress()));
+		} finally {
+			s1.close();
+			s2.close();
+			s3.close();
+		}
+	}
+
+	@Test
+	public void testIdle() throws Exception {
+		this.conf.setTcpIdleTimeout(1);
+		Socket s = new Socket();
+		try {
+			s.connect(this.server.getLocalAddress(), 5000);
+			s.setSoTimeout(5000);
+			assertEquals(-1, s.getInputStream().read());
+			await(0);
+		} finally {
+			s.close();
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package org.handwerkszeug.dns.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ForwarderStatsTest {
+
+	static ForwarderStats stats(int port) {
+		return new ForwarderStats(new InetSocketAddress("127.0.0.1", port),
+				2000);
+	}
+
+	@Test
+	public void testSample() throws Exception {
+		ForwarderStats target = stats(53);
+		assertEquals(ForwarderStats.INITIAL_RTO, target.rto());
+
+		target.sample(100);
+		assertEquals(100.0, target.srtt(), 0.001);
+		assertEquals(50.0, target.rttvar(), 0.001);
+		assertEquals(300, target.rto());
+
+		target.sample(20);
+		assertEquals(90.0, target.srtt(), 0.001);
+		assertEquals(57.5, target.rttvar(), 0.001);
+		assertEquals(320, target.rto());
+	}
+
+	@Test
+	public void testTimeout() throws Exception {
+		ForwarderStats target = stats(53);
+		target.sample(100);
+		target.timeout(0);
+		assertEquals(600, target.rto());
+		target.timeout(0);
+		assertEquals(1200, target.rto());
+		assertTrue(target.isHealthy(0));
+		target.timeout(0);
+		assertEquals(2000, target.rto());
+		assertFalse(target.isHealthy(0));
+		assertTrue(target.isHealthy(ForwarderStats.BASE_HOLD_DOWN));
+
+		target.sample(100);
+		assertEquals(0, target.failures());
+		assertTrue(target.isHealthy(0));
+	}
+
+	@Test
+	public void testOrder() throws Exception {
+		ForwarderStats slow = stats(1);
+		slow.sample(300);
+		ForwarderStats fast = stats(2);
+		fast.sample(10);
+		ForwarderStats unknown = stats(3);
+		ForwarderStats down = stats(4);
+		down.sample(1);
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < ForwarderStats.MAX_FAILURES; i++) {
+			down.timeout(now);
+		}
+
+		List<ForwarderStats> list = new ArrayList<ForwarderStats>();
+		list.add(down);
+		list.add(slow);
+		list.add(fast);
+		list.add(unknown);
+		Collections.sort(list, ForwarderStats.FASTEST_FIRST);
+		assertEquals(unknown, list.get(0));
+		assertEquals(fast, list.get(1));
+		assertEquals(slow, list.get(2));
+		assertEquals(down, list.get(3));
+	}
+}
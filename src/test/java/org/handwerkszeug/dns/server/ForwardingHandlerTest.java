@@ -0,0 +1,424 @@
+package org.handwerkszeug.dns.server;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeoutException;
+
+import org.handwerkszeug.dns.DNSMessage;
+import org.handwerkszeug.dns.Header;
+import org.handwerkszeug.dns.Name;
+import org.handwerkszeug.dns.RCode;
+import org.handwerkszeug.dns.RRType;
+import org.handwerkszeug.dns.ResourceRecord;
+import org.handwerkszeug.dns.conf.ServerConfigurationImpl;
+import org.handwerkszeug.dns.record.ARecord;
+import org.handwerkszeug.dns.record.OPTRecord;
+import org.handwerkszeug.dns.record.SingleNameRecord;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.UpstreamMessageEvent;
+import org.jboss.netty.channel.socket.DatagramChannel;
+import org.jboss.netty.channel.socket.SocketChannel;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ForwardingHandlerTest {
+
+	ServerConfigurationImpl conf;
+
+	List<UpstreamCallback> callbacks = new CopyOnWriteArrayList<UpstreamCallback>();
+	List<ChannelBuffer> queries = new CopyOnWriteArrayList<ChannelBuffer>();
+
+	boolean stream;
+	List<UpstreamCallback> streamCallbacks = new CopyOnWriteArrayList<UpstreamCallback>();
+
+	List<ChannelBuffer> written = new ArrayList<ChannelBuffer>();
+	Channel channel;
+
+	UpstreamPool pool;
+
+	ForwardingHandler target;
+
+	@Before
+	public void setUp() throws Exception {
+		this.conf = new ServerConfigurationImpl();
+		this.conf.getForwarders().add(new InetSocketAddress("127.0.0.1", 53));
+		this.pool = new UpstreamPool(this.conf, null) {
+			@Override
+			public void send(SocketAddress forwarder, DNSCacheKey question,
+					ChannelBuffer query, UpstreamCallback callback) {
+				ForwardingHandlerTest.this.queries.add(query);
+				ForwardingHandlerTest.this.callbacks.add(callback);
+			}
+
+			@Override
+			public boolean supportsStream() {
+				return ForwardingHandlerTest.this.stream;
+			}
+
+			@Override
+			public void sendStream(SocketAddress forwarder,
+					DNSCacheKey question, ChannelBuffer query,
+					UpstreamCallback callback) {
+				ForwardingHandlerTest.this.streamCallbacks.add(callback);
+			}
+		};
+		this.channel = channel(DatagramChannel.class);
+		this.target = new ForwardingHandler(this.conf, this.pool);
+	}
+
+	protected Channel channel(Class<?> type) {
+		return (Channel) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[] { type }, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method,
+							Object[] args) throws Throwable {
+						if ("write".equals(method.getName())) {
+							ForwardingHandlerTest.this.written
+									.add((ChannelBuffer) args[0]);
+							return Channels.succeededFuture((Channel) proxy);
+						}
+						if ("hashCode".equals(method.getName())) {
+							return Integer.valueOf(System
+									.identityHashCode(proxy));
+						}
+						if ("equals".equals(method.getName())) {
+							return Boolean.valueOf(proxy == args[0]);
+						}
+						return null;
+					}
+				});
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		this.pool.dispose();
+	}
+
+	protected DNSMessage query(int id, String name) {
+		Header h = new Header();
+		h.id(id);
+		DNSMessage msg = new DNSMessage(h);
+		SingleNameRecord q = new SingleNameRecord(RRType.A);
+		q.name(new Name(name));
+		msg.question().add(q);
+		return msg;
+	}
+
+	protected void receive(DNSMessage msg, int port) throws Exception {
+		this.target.messageReceived(null, new UpstreamMessageEvent(
+				this.channel, msg, new InetSocketAddress("127.0.0.1", port)));
+	}
+
+	protected ChannelBuffer reply(ChannelBuffer query) {
+		DNSMessage msg = new DNSMessage(query.duplicate());
+		msg.header().qr(true);
+		ChannelBuffer result = ChannelBuffers.dynamicBuffer();
+		msg.write(result);
+		return result;
+	}
+
+	@Test
+	public void testCoalescing() throws Exception {
+		receive(query(1, "example.com."), 10001);
+		receive(query(2, "example.com."), 10002);
+		receive(query(3, "example.com."), 10003);
+		receive(query(4, "example.org."), 10004);
+		assertEquals(2, this.callbacks.size());
+		assertEquals(2, this.target.coalescedCount());
+
+		this.callbacks.get(0).responseReceived(reply(this.queries.get(0)));
+		assertEquals(3, this.written.size());
+		for (int i = 0; i < 3; i++) {
+			DNSMessage res = new DNSMessage(this.written.get(i));
+			assertEquals(i + 1, res.header().id());
+			assertEquals("example.com.", res.question().get(0).name()
+					.toString());
+		}
+		assertEquals(1, this.target.inflightCount());
+
+		receive(query(5, "example.com."), 10005);
+		assertEquals(3, this.callbacks.size());
+	}
+
+	@Test
+	public void testBrokenReply() throws Exception {
+		receive(query(1, "example.com."), 10001);
+		receive(query(2, "example.com."), 10002);
+		assertEquals(1, this.callbacks.size());
+
+		ChannelBuffer reply = reply(this.queries.get(0));
+		reply.setShort(6, 1); // an answer which isn't there
+		this.callbacks.get(0).responseReceived(reply);
+		assertEquals(2, this.written.size());
+		for (int i = 0; i < 2; i++) {
+			Header h = new Header(this.written.get(i));
+			assertEquals(i + 1, h.id());
+			assertEquals(RCode.ServFail, h.rcode());
+		}
+		assertEquals(0, this.target.inflightCount());
+	}
+
+	protected ChannelBuffer truncated(ChannelBuffer query) {
+		ChannelBuffer result = reply(query);
+		result.setByte(2, result.getByte(2) | 0x02);
+		return result;
+	}
+
+	@Test
+	public void testTruncatedOverTCP() throws Exception {
+		this.stream = true;
+		Channel tcp = channel(SocketChannel.class);
+		receive(query(1, "example.com."), 10001);
+		this.target.messageReceived(null, new UpstreamMessageEvent(tcp,
+				query(2, "example.com."), new InetSocketAddress("127.0.0.1",
+						10002)));
+		assertEquals(1, this.callbacks.size());
+
+		this.callbacks.get(0).responseReceived(truncated(this.queries.get(0)));
+		assertEquals(0, this.written.size());
+		assertEquals(1, this.streamCallbacks.size());
+
+		this.streamCallbacks.get(0).responseReceived(
+				reply(this.queries.get(0)));
+		assertEquals(2, this.written.size());
+		for (int i = 0; i < 2; i++) {
+			Header h = new Header(this.written.get(i));
+			assertEquals(i + 1, h.id());
+			assertEquals(false, h.tc());
+			assertEquals(RCode.NoError, h.rcode());
+		}
+	}
+
+	@Test
+	public void testTruncatedNoTCP() throws Exception {
+		Channel tcp = channel(SocketChannel.class);
+		this.target.messageReceived(null, new UpstreamMessageEvent(tcp,
+				query(1, "example.com."), new InetSocketAddress("127.0.0.1",
+						10001)));
+		this.callbacks.get(0).responseReceived(truncated(this.queries.get(0)));
+		assertEquals(0, this.streamCallbacks.size());
+		assertEquals(1, this.written.size());
+		Header h = new Header(this.written.get(0));
+		assertEquals(1, h.id());
+		assertEquals(false, h.tc());
+		assertEquals(RCode.ServFail, h.rcode());
+	}
+
+	@Test
+	public void testTruncatedOverUDP() throws Exception {
+		this.stream = true;
+		receive(query(1, "example.com."), 10001);
+		this.callbacks.get(0).responseReceived(truncated(this.queries.get(0)));
+		assertEquals(0, this.streamCallbacks.size());
+		assertEquals(1, this.written.size());
+		assertEquals(true, new Header(this.written.get(0)).tc());
+	}
+
+	@Test
+	public void testCoalescingKeepsCase() throws Exception {
+		receive(query(1, "example.com."), 10001);
+		receive(query(2, "ExAmPlE.CoM."), 10002);
+		assertEquals(1, this.callbacks.size());
+
+		this.callbacks.get(0).responseReceived(reply(this.queries.get(0)));
+		assertEquals(2, this.written.size());
+		assertEquals("example.com.", new DNSMessage(this.written.get(0))
+				.question().get(0).name().toString());
+		assertEquals("ExAmPlE.CoM.", new DNSMessage(this.written.get(1))
+				.question().get(0).name().toString());
+	}
+
+	@Test
+	public void testRetransmission() throws Exception {
+		receive(query(1, "example.com."), 10001);
+		receive(query(1, "example.com."), 10001);
+		assertEquals(1, this.callbacks.size());
+
+		this.callbacks.get(0).responseReceived(reply(this.queries.get(0)));
+		assertEquals(1, this.written.size());
+	}
+
+	@Test
+	public void testRetry() throws Exception {
+		this.conf.setUpstreamRetries(2);
+		receive(query(1, "example.com."), 10001);
+		assertEquals(1, this.callbacks.size());
+		this.callbacks.get(0).exceptionCaught(new TimeoutException());
+		this.callbacks.get(1).exceptionCaught(new TimeoutException());
+		assertEquals(3, this.callbacks.size());
+		assertEquals(0, this.written.size());
+
+		this.callbacks.get(2).exceptionCaught(new TimeoutException());
+		assertEquals(3, this.callbacks.size());
+		assertEquals(1, this.written.size());
+		DNSMessage res = new DNSMessage(this.written.get(0));
+		assertEquals(1, res.header().id());
+		assertEquals(RCode.ServFail, res.header().rcode());
+		assertEquals(0, this.target.inflightCount());
+	}
+
+	protected void hedging(int rate) {
+		InetSocketAddress second = new InetSocketAddress("127.0.0.1", 54);
+		this.conf.getForwarders().add(second);
+		this.conf.setHedgePercentile(90);
+		this.conf.setHedgeRate(rate);
+		for (SocketAddress sa : this.conf.getForwarders()) {
+			for (int i = 0; i < ForwarderStats.MIN_HEDGE_SAMPLES; i++) {
+				this.pool.stats(sa).sample(10);
+			}
+		}
+		this.target = new ForwardingHandler(this.conf, this.pool);
+	}
+
+	@Test
+	public void testHedge() throws Exception {
+		hedging(10);
+		receive(query(1, "example.com."), 10001);
+		assertEquals(1, this.callbacks.size());
+		long limit = System.currentTimeMillis() + 5000;
+		while ((this.callbacks.size() < 2)
+				&& (System.currentTimeMillis() < limit)) {
+			Thread.sleep(10);
+		}
+		assertEquals(2, this.callbacks.size());
+		assertEquals(1, this.target.hedgedCount());
+
+		this.callbacks.get(1).responseReceived(reply(this.queries.get(1)));
+		this.callbacks.get(0).responseReceived(reply(this.queries.get(0)));
+		assertEquals(1, this.written.size());
+		assertEquals(1, new DNSMessage(this.written.get(0)).header().id());
+	}
+
+	@Test
+	public void testHedgeRate() throws Exception {
+		hedging(0);
+		receive(query(1, "example.com."), 10001);
+		long limit = System.currentTimeMillis() + 5000;
+		while ((this.target.hedgeRejectedCount() < 1)
+				&& (System.currentTimeMillis() < limit)) {
+			Thread.sleep(10);
+		}
+		assertEquals(1, this.target.hedgeRejectedCount());
+		assertEquals(0, this.target.hedgedCount());
+		assertEquals(1, this.callbacks.size());
+	}
+
+	@Test
+	public void testPassThrough() throws Exception {
+		ChannelBuffer request = ChannelBuffers.dynamicBuffer();
+		query(7, "example.com.").write(request);
+		// a type we don't model
+		request.setShort(request.writerIndex() - 4, 65280);
+		byte[] original = new byte[request.readableBytes()];
+		request.getBytes(0, original);
+
+		this.target.messageReceived(null, new UpstreamMessageEvent(
+				this.channel, request, new InetSocketAddress("127.0.0.1",
+						10001)));
+		assertEquals(1, this.callbacks.size());
+		ChannelBuffer sent = this.queries.get(0);
+		assertEquals(original.length + UDPPayload.OPT_LENGTH,
+				sent.readableBytes());
+		for (int i = 2; i < 10; i++) {
+			assertEquals(original[i], sent.getByte(i));
+		}
+		for (int i = 12; i < original.length; i++) {
+			assertEquals(original[i], sent.getByte(i));
+		}
+		assertEquals(1, sent.getUnsignedShort(10));
+
+		ChannelBuffer reply = ChannelBuffers.dynamicBuffer();
+		reply.writeBytes(sent, 0, sent.readableBytes());
+		reply.setShort(2, 0x8180);
+		reply.writeBytes(new byte[] { 1, 2, 3, 4 });
+		this.callbacks.get(0).responseReceived(reply);
+		assertEquals(1, this.written.size());
+		ChannelBuffer res = this.written.get(0);
+		assertEquals(7, res.getUnsignedShort(0));
+		assertEquals(original.length + 4, res.readableBytes());
+		assertEquals(4, res.getByte(res.writerIndex() - 1));
+	}
+
+	@Test
+	public void testEDNS() throws Exception {
+		DNSMessage edns = query(1, "example.com.");
+		edns.additional().add(new OPTRecord(4096));
+		receive(edns, 10001);
+		receive(query(2, "example.com."), 10002);
+		assertEquals(1, this.callbacks.size());
+		DNSMessage sent = new DNSMessage(this.queries.get(0));
+		assertEquals(1, sent.additional().size());
+		assertEquals(this.conf.getUdpPayloadSize(),
+				((OPTRecord) sent.additional().get(0)).udpPayloadSize());
+
+		sent.header().qr(true);
+		sent.answer(new ArrayList<ResourceRecord>());
+		for (int i = 0; i < 100; i++) {
+			ARecord a = new ARecord();
+			a.name(new Name("example.com."));
+			a.address(InetAddress.getByAddress(new byte[] { 10, 0, 0,
+					(byte) i }));
+			sent.answer().add(a);
+		}
+		ChannelBuffer reply = ChannelBuffers.dynamicBuffer();
+		sent.write(reply);
+		this.callbacks.get(0).responseReceived(reply);
+		assertEquals(2, this.written.size());
+
+		ChannelBuffer b = this.written.get(0);
+		assertEquals(true, b.readableBytes() <= this.conf.getUdpPayloadSize());
+		DNSMessage res = new DNSMessage(b);
+		assertEquals(1, res.header().id());
+		assertEquals(true, res.header().tc());
+		assertEquals(1, res.question().size());
+		assertEquals(0, res.answer().size());
+		assertEquals(RRType.OPT, res.additional().get(0).type());
+
+		res = new DNSMessage(this.written.get(1));
+		assertEquals(2, res.header().id());
+		assertEquals(true, res.header().tc());
+		assertEquals(0, res.additional().size());
+	}
+
+	@Test
+	public void testEDNSFits() throws Exception {
+		receive(query(1, "example.com."), 10001);
+		DNSMessage sent = new DNSMessage(this.queries.get(0));
+		sent.header().qr(true);
+		sent.additional(new ArrayList<ResourceRecord>());
+		ChannelBuffer reply = ChannelBuffers.dynamicBuffer();
+		sent.write(reply);
+		this.callbacks.get(0).responseReceived(reply);
+		DNSMessage res = new DNSMessage(this.written.get(0));
+		assertEquals(false, res.header().tc());
+		assertEquals(0, res.additional().size());
+	}
+
+	@Test
+	public void testPassThroughFormErr() throws Exception {
+		ChannelBuffer request = ChannelBuffers.dynamicBuffer();
+		new Header().write(request);
+		request.setShort(0, 9);
+		this.target.messageReceived(null, new UpstreamMessageEvent(
+				this.channel, request, new InetSocketAddress("127.0.0.1",
+						10001)));
+		assertEquals(0, this.callbacks.size());
+		assertEquals(1, this.written.size());
+		Header h = new Header(this.written.get(0));
+		assertEquals(9, h.id());
+		assertEquals(RCode.FormErr, h.rcode());
+	}
+}
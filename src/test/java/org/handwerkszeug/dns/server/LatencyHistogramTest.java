@@ -0,0 +1,37 @@
+package org.handwerkszeug.dns.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+	@Test
+	public void testPercentile() throws Exception {
+		LatencyHistogram target = new LatencyHistogram();
+		assertEquals(-1, target.percentile(90));
+		for (int i = 1; i <= 100; i++) {
+			target.record(i);
+		}
+		long p50 = target.percentile(50);
+		long p90 = target.percentile(90);
+		assertTrue(50 <= p50 && p50 < 63);
+		assertTrue(90 <= p90 && p90 < 113);
+		assertTrue(100 <= target.percentile(100));
+	}
+
+	@Test
+	public void testDecay() throws Exception {
+		LatencyHistogram target = new LatencyHistogram(100);
+		for (int i = 0; i < 99; i++) {
+			target.record(1000);
+		}
+		target.record(1000);
+		assertEquals(50, target.size());
+		for (int i = 0; i < 500; i++) {
+			target.record(10);
+		}
+		assertTrue(target.percentile(90) < 20);
+	}
+}
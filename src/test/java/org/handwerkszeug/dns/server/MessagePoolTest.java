@@ -0,0 +1,114 @@
+package org.handwerkszeug.dns.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.handwerkszeug.dns.DNSMessage;
+import org.handwerkszeug.dns.Header;
+import org.handwerkszeug.dns.Name;
+import org.handwerkszeug.dns.RCode;
+import org.handwerkszeug.dns.RRType;
+import org.handwerkszeug.dns.record.SingleNameRecord;
+import org.junit.Test;
+
+public class MessagePoolTest {
+
+	@Test
+	public void testRecycle() throws Exception {
+		MessagePool target = new MessagePool();
+		DNSMessage msg = target.acquire();
+		Header header = msg.header();
+		header.id(10);
+		header.qr(true);
+		header.rcode(RCode.NXDomain);
+		SingleNameRecord q = new SingleNameRecord(RRType.A);
+		q.name(new Name("example.com."));
+		msg.question().add(q);
+		msg.answer().add(q);
+		target.release(msg);
+
+		DNSMessage reused = target.acquire();
+		assertSame(msg, reused);
+		assertSame(header, reused.header());
+		assertFalse(reused.header().qr());
+		assertEquals(RCode.NoError, reused.header().rcode());
+		assertTrue(reused.question().isEmpty());
+		assertTrue(reused.answer().isEmpty());
+		assertEquals(1, target.created());
+
+		assertNotSame(reused, target.acquire());
+		assertEquals(2, target.created());
+	}
+
+	@Test
+	public void testSharedHeader() throws Exception {
+		MessagePool target = new MessagePool();
+		DNSMessage msg = target.acquire();
+		Header own = msg.header();
+		Header shared = new Header();
+		shared.qr(true);
+		msg.header(shared);
+		target.release(msg);
+
+		assertTrue(shared.qr());
+		assertSame(own, target.acquire().header());
+	}
+
+	@Test
+	public void testPerThread() throws Exception {
+		final MessagePool target = new MessagePool();
+		DNSMessage msg = target.acquire();
+		target.release(msg);
+
+		final AtomicReference<DNSMessage> other = new AtomicReference<DNSMessage>();
+		Thread t = new Thread() {
+			@Override
+			public void run() {
+				other.set(target.acquire());
+			}
+		};
+		t.start();
+		t.join();
+		assertNotSame(msg, other.get());
+		assertSame(msg, target.acquire());
+	}
+
+	@Test
+	public void testDebug() throws Exception {
+		MessagePool target = new MessagePool(MessagePool.DEFAULT_CAPACITY,
+				true);
+		DNSMessage msg = target.acquire();
+		target.release(msg);
+		try {
+			msg.answer();
+			fail();
+		} catch (IllegalStateException e) {
+			assertTrue(true);
+		}
+		assertNotSame(msg, target.acquire());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testReleaseTwice() throws Exception {
+		MessagePool target = new MessagePool();
+		DNSMessage msg = target.acquire();
+		target.release(msg);
+		target.release(msg);
+	}
+
+	@Test
+	public void testForeign() throws Exception {
+		MessagePool target = new MessagePool();
+		DNSMessage msg = new DNSMessage();
+		target.release(msg);
+		target.release(new MessagePool().acquire());
+		assertNotSame(msg, target.acquire());
+		assertEquals(1, target.created());
+	}
+}
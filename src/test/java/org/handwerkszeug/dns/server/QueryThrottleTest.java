@@ -0,0 +1,104 @@
+package org.handwerkszeug.dns.server;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.DownstreamMessageEvent;
+import org.jboss.netty.channel.UpstreamMessageEvent;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class QueryThrottleTest {
+
+	List<Boolean> readable = new CopyOnWriteArrayList<Boolean>();
+
+	Channel channel;
+
+	ChannelHandlerContext ctx;
+
+	Timer timer;
+
+	@Before
+	public void setUp() throws Exception {
+		this.channel = (Channel) proxy(Channel.class);
+		this.ctx = (ChannelHandlerContext) proxy(ChannelHandlerContext.class);
+		this.timer = new HashedWheelTimer();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		this.timer.stop();
+	}
+
+	protected Object proxy(Class<?> type) {
+		return Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[] { type }, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method,
+							Object[] args) throws Throwable {
+						if ("setReadable".equals(method.getName())) {
+							QueryThrottleTest.this.readable.add((Boolean) args[0]);
+							return Channels.succeededFuture((Channel) proxy);
+						}
+						return null;
+					}
+				});
+	}
+
+	protected void receive(QueryThrottle target) throws Exception {
+		target.messageReceived(this.ctx, new UpstreamMessageEvent(
+				this.channel, ChannelBuffers.EMPTY_BUFFER,
+				new InetSocketAddress("127.0.0.1", 10001)));
+	}
+
+	protected void write(QueryThrottle target) throws Exception {
+		target.writeRequested(this.ctx, new DownstreamMessageEvent(
+				this.channel, Channels.future(this.channel),
+				ChannelBuffers.EMPTY_BUFFER, null));
+	}
+
+	@Test
+	public void testLimit() throws Exception {
+		QueryThrottle target = new QueryThrottle(2);
+		receive(target);
+		assertEquals(0, this.readable.size());
+		receive(target);
+		assertEquals(2, target.inflightCount());
+		assertEquals(Boolean.FALSE, this.readable.get(0));
+
+		write(target);
+		assertEquals(1, target.inflightCount());
+		assertEquals(Boolean.TRUE, this.readable.get(1));
+	}
+
+	@Test
+	public void testExpire() throws Exception {
+		QueryThrottle target = new QueryThrottle(2, this.timer, 100);
+		receive(target);
+		receive(target);
+		assertEquals(Boolean.FALSE, this.readable.get(0));
+
+		// neither of the queries is answered.
+		long limit = System.currentTimeMillis() + 5000;
+		while ((0 < target.inflightCount())
+				&& (System.currentTimeMillis() < limit)) {
+			Thread.sleep(10);
+		}
+		assertEquals(0, target.inflightCount());
+		assertEquals(2, this.readable.size());
+		assertEquals(Boolean.TRUE, this.readable.get(1));
+	}
+}
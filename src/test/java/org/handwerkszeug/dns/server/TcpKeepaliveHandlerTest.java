@@ -0,0 +1,99 @@
+package org.handwerkszeug.dns.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import org.handwerkszeug.dns.DNSMessage;
+import org.handwerkszeug.dns.Header;
+import org.handwerkszeug.dns.Name;
+import org.handwerkszeug.dns.RRType;
+import org.handwerkszeug.dns.record.SingleNameRecord;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Test;
+
+public class TcpKeepaliveHandlerTest {
+
+	TcpKeepaliveHandler target = new TcpKeepaliveHandler(30);
+
+	protected ChannelBuffer message(boolean keepalive) {
+		return message(keepalive, "example.com.");
+	}
+
+	protected ChannelBuffer message(boolean keepalive, String name) {
+		DNSMessage msg = new DNSMessage(new Header());
+		SingleNameRecord q = new SingleNameRecord(RRType.A);
+		q.name(new Name(name));
+		msg.question().add(q);
+		ChannelBuffer buffer = ChannelBuffers.dynamicBuffer();
+		msg.write(buffer);
+		buffer.setShort(10, 1); // arcount
+		buffer.writeByte(0); // root
+		buffer.writeShort(41); // OPT
+		buffer.writeShort(4096); // payload size
+		buffer.writeInt(0);
+		if (keepalive) {
+			buffer.writeShort(8);
+			buffer.writeShort(10); // NSID
+			buffer.writeShort(0);
+			buffer.writeShort(TcpKeepaliveHandler.OPTION_CODE);
+			buffer.writeShort(0);
+		} else {
+			buffer.writeShort(0);
+		}
+		return buffer;
+	}
+
+	@Test
+	public void testStrip() throws Exception {
+		ChannelBuffer query = message(true);
+		int opt = RawMessage.findOPT(query);
+		assertEquals(query.writerIndex() - 19, opt);
+
+		ChannelBuffer stripped = this.target.strip(query);
+		assertEquals(query.readableBytes() - 4, stripped.readableBytes());
+		int rdlength = RawMessage.rdlengthIndex(stripped,
+				RawMessage.findOPT(stripped));
+		assertEquals(4, stripped.getUnsignedShort(rdlength));
+		assertEquals(10, stripped.getUnsignedShort(rdlength + 2));
+
+		assertNull(this.target.strip(message(false)));
+	}
+
+	@Test
+	public void testAppend() throws Exception {
+		ChannelBuffer reply = message(false);
+		ChannelBuffer newone = this.target.append(reply);
+		assertEquals(reply.readableBytes() + 6, newone.readableBytes());
+		int rdlength = RawMessage.rdlengthIndex(newone,
+				RawMessage.findOPT(newone));
+		assertEquals(6, newone.getUnsignedShort(rdlength));
+		assertEquals(TcpKeepaliveHandler.OPTION_CODE,
+				newone.getUnsignedShort(rdlength + 2));
+		assertEquals(2, newone.getUnsignedShort(rdlength + 4));
+		assertEquals(300, newone.getUnsignedShort(rdlength + 6));
+
+		ChannelBuffer noopt = ChannelBuffers.dynamicBuffer();
+		new Header().write(noopt);
+		assertNull(this.target.append(noopt));
+	}
+
+	@Test
+	public void testQueryKey() throws Exception {
+		ChannelBuffer a = message(false, "example.com.");
+		ChannelBuffer b = message(false, "example.org.");
+		b.setShort(0, a.getUnsignedShort(0));
+		ChannelBuffer c = message(false, "ExAmPlE.CoM.");
+		c.setShort(0, a.getUnsignedShort(0));
+		TcpKeepaliveHandler.QueryKey key = TcpKeepaliveHandler.QueryKey.of(a);
+		assertFalse(key.equals(TcpKeepaliveHandler.QueryKey.of(b)));
+		assertEquals(key, TcpKeepaliveHandler.QueryKey.of(c));
+		assertEquals(key.hashCode(), TcpKeepaliveHandler.QueryKey.of(c)
+				.hashCode());
+
+		ChannelBuffer noquestion = ChannelBuffers.dynamicBuffer();
+		new Header().write(noquestion);
+		assertNull(TcpKeepaliveHandler.QueryKey.of(noquestion));
+	}
+}
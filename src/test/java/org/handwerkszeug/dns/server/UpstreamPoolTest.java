@@ -0,0 +1,247 @@
+package org.handwerkszeug.dns.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.handwerkszeug.dns.DNSClass;
+import org.handwerkszeug.dns.DNSMessage;
+import org.handwerkszeug.dns.Header;
+import org.handwerkszeug.dns.Name;
+import org.handwerkszeug.dns.RRType;
+import org.handwerkszeug.dns.conf.ServerConfigurationImpl;
+import org.handwerkszeug.dns.record.SingleNameRecord;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.ChannelFactory;
+import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
+import org.jboss.netty.channel.socket.nio.NioDatagramChannelFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class UpstreamPoolTest {
+
+	DatagramSocket forwarder;
+	Set<Integer> ports = new ConcurrentSkipListSet<Integer>();
+	Thread echo;
+	ServerConfigurationImpl conf;
+	ChannelFactory factory;
+	UpstreamPool target;
+
+	@Before
+	public void setUp() throws Exception {
+		this.forwarder = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+		this.echo = new Thread() {
+			@Override
+			public void run() {
+				byte[] buf = new byte[512];
+				try {
+					while (true) {
+						DatagramPacket p = new DatagramPacket(buf, buf.length);
+						UpstreamPoolTest.this.forwarder.receive(p);
+						UpstreamPoolTest.this.ports.add(p.getPort());
+						buf[2] |= 0x80; // qr
+						UpstreamPoolTest.this.forwarder.send(p);
+					}
+				} catch (Exception e) {
+					// closed
+				}
+			}
+		};
+		this.echo.start();
+
+		this.conf = new ServerConfigurationImpl();
+		this.conf.setUpstreamChannels(2);
+		this.conf.getForwarders().add(this.forwarder.getLocalSocketAddress());
+		this.factory = new NioDatagramChannelFactory(
+				Executors.newCachedThreadPool());
+		this.target = new UpstreamPool(this.conf, this.factory);
+		this.target.initialize();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		this.target.dispose();
+		this.factory.releaseExternalResources();
+		this.forwarder.close();
+	}
+
+	protected ChannelBuffer query(String name) {
+		DNSMessage msg = new DNSMessage(new Header());
+		SingleNameRecord q = new SingleNameRecord(RRType.A);
+		q.name(new Name(name));
+		msg.question().add(q);
+		ChannelBuffer buffer = ChannelBuffers.dynamicBuffer();
+		msg.write(buffer);
+		return buffer;
+	}
+
+	@Test
+	public void testMultiplexing() throws Exception {
+		final BlockingQueue<ChannelBuffer> responses = new ArrayBlockingQueue<ChannelBuffer>(
+				100);
+		UpstreamCallback callback = new UpstreamCallback() {
+			@Override
+			public void responseReceived(ChannelBuffer response) {
+				responses.add(response);
+			}
+
+			@Override
+			public void exceptionCaught(Throwable cause) {
+			}
+		};
+		InetSocketAddress sa = (InetSocketAddress) this.forwarder
+				.getLocalSocketAddress();
+		int size = 50;
+		for (int i = 0; i < size; i++) {
+			String name = "www" + i + ".example.com.";
+			this.target.send(sa, new DNSCacheKey(new Name(name), RRType.A,
+					DNSClass.IN), query(name), callback);
+		}
+		Set<String> names = new ConcurrentSkipListSet<String>();
+		for (int i = 0; i < size; i++) {
+			ChannelBuffer res = responses.poll(5, TimeUnit.SECONDS);
+			DNSMessage msg = new DNSMessage(res);
+			assertTrue(msg.header().qr());
+			names.add(msg.question().get(0).name().toString());
+		}
+		assertEquals(size, names.size());
+		assertEquals(0, this.target.pendingCount());
+	}
+
+	@Test
+	public void testRotation() throws Exception {
+		this.conf.setUpstreamChannelQueries(2);
+		final BlockingQueue<ChannelBuffer> responses = new ArrayBlockingQueue<ChannelBuffer>(
+				100);
+		UpstreamCallback callback = new UpstreamCallback() {
+			@Override
+			public void responseReceived(ChannelBuffer response) {
+				responses.add(response);
+			}
+
+			@Override
+			public void exceptionCaught(Throwable cause) {
+			}
+		};
+		InetSocketAddress sa = (InetSocketAddress) this.forwarder
+				.getLocalSocketAddress();
+		// 2 channels at first, and fresh ones are bound in the background
+		// while the used up ones keep serving.
+		for (int i = 0; (i < 200) && (this.ports.size() < 3); i++) {
+			String name = "www" + i + ".example.com.";
+			this.target.send(sa, new DNSCacheKey(new Name(name), RRType.A,
+					DNSClass.IN), query(name), callback);
+			assertNotNull(responses.poll(5, TimeUnit.SECONDS));
+		}
+		assertTrue(String.valueOf(this.ports), 2 < this.ports.size());
+		assertEquals(0, this.target.pendingCount());
+	}
+
+	@Test
+	public void testStream() throws Exception {
+		final ServerSocket server = new ServerSocket(0, 1,
+				InetAddress.getLoopbackAddress());
+		Thread echo = new Thread() {
+			@Override
+			public void run() {
+				try {
+					Socket s = server.accept();
+					DataInputStream in = new DataInputStream(s.getInputStream());
+					byte[] buf = new byte[in.readUnsignedShort()];
+					in.readFully(buf);
+					buf[2] |= 0x80; // qr
+					DataOutputStream out = new DataOutputStream(
+							s.getOutputStream());
+					out.writeShort(buf.length);
+					out.write(buf);
+					out.flush();
+					s.close();
+				} catch (Exception e) {
+					// closed
+				}
+			}
+		};
+		echo.start();
+		ChannelFactory streamFactory = new NioClientSocketChannelFactory(
+				Executors.newCachedThreadPool(),
+				Executors.newCachedThreadPool());
+		UpstreamPool pool = new UpstreamPool(this.conf, this.factory,
+				streamFactory);
+		try {
+			final BlockingQueue<ChannelBuffer> responses = new ArrayBlockingQueue<ChannelBuffer>(
+					1);
+			UpstreamCallback callback = new UpstreamCallback() {
+				@Override
+				public void responseReceived(ChannelBuffer response) {
+					responses.add(response);
+				}
+
+				@Override
+				public void exceptionCaught(Throwable cause) {
+				}
+			};
+			assertTrue(pool.supportsStream());
+			String name = "example.com.";
+			pool.sendStream(server.getLocalSocketAddress(), new DNSCacheKey(
+					new Name(name), RRType.A, DNSClass.IN), query(name),
+					callback);
+			ChannelBuffer res = responses.poll(5, TimeUnit.SECONDS);
+			DNSMessage msg = new DNSMessage(res);
+			assertTrue(msg.header().qr());
+			assertEquals(name, msg.question().get(0).name().toString());
+		} finally {
+			pool.dispose();
+			streamFactory.releaseExternalResources();
+			server.close();
+		}
+	}
+
+	@Test
+	public void testTimeout() throws Exception {
+		DatagramSocket silent = new DatagramSocket(0,
+				InetAddress.getLoopbackAddress());
+		try {
+			final BlockingQueue<Throwable> errors = new ArrayBlockingQueue<Throwable>(
+					1);
+			UpstreamCallback callback = new UpstreamCallback() {
+				@Override
+				public void responseReceived(ChannelBuffer response) {
+				}
+
+				@Override
+				public void exceptionCaught(Throwable cause) {
+					errors.add(cause);
+				}
+			};
+			String name = "example.com.";
+			this.target.send(silent.getLocalSocketAddress(), new DNSCacheKey(
+					new Name(name), RRType.A, DNSClass.IN), query(name),
+					callback);
+			Throwable t = errors.poll(5, TimeUnit.SECONDS);
+			assertTrue(t instanceof TimeoutException);
+			assertEquals(0, this.target.pendingCount());
+			assertEquals(1, this.target.stats(silent.getLocalSocketAddress())
+					.failures());
+		} finally {
+			silent.close();
+		}
+	}
+}
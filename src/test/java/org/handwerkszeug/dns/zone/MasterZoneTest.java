@@ -1,23 +1,32 @@
 package org.handwerkszeug.dns.zone;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 
 import org.handwerkszeug.dns.DNSMessage;
 import org.handwerkszeug.dns.Name;
+import org.handwerkszeug.dns.NameTree;
 import org.handwerkszeug.dns.RCode;
 import org.handwerkszeug.dns.RRType;
 import org.handwerkszeug.dns.ResourceRecord;
 import org.handwerkszeug.dns.Response;
 import org.handwerkszeug.dns.record.ARecord;
+import org.handwerkszeug.dns.record.ImmutableRecord;
 import org.handwerkszeug.dns.record.SOARecord;
 import org.handwerkszeug.dns.record.SingleNameRecord;
+import org.handwerkszeug.dns.record.UnknownRecord;
 import org.handwerkszeug.dns.server.DefaultResolveContext;
 import org.handwerkszeug.dns.server.NoErrorResponse;
+import org.handwerkszeug.dns.server.NotFoundResponse;
+import org.handwerkszeug.dns.server.ReferralResponse;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -74,6 +83,247 @@ public class MasterZoneTest {
 		List<ResourceRecord> wl = wildc.response().answer();
 		assertEquals(1, wl.size());
 		assertEquals(a("scp.example.co.jp.", "192.168.100.2"), wl.get(0));
+
+		// the synthesized record shares the RDATA of the wildcard.
+		Response other = this.target.find(new Name("ftp.example.co.jp."),
+				RRType.A);
+		DefaultResolveContext otherc = new DefaultResolveContext(
+				new DNSMessage());
+		other.postProcess(otherc);
+		ResourceRecord ftp = otherc.response().answer().get(0);
+		assertEquals(new Name("ftp.example.co.jp."), ftp.name());
+		assertSame(ImmutableRecord.unwrap(wl.get(0)),
+				ImmutableRecord.unwrap(ftp));
+	}
+
+	protected SingleNameRecord ns(String name, String host) {
+		SingleNameRecord result = new SingleNameRecord(RRType.NS, new Name(
+				host));
+		result.name(new Name(name));
+		return result;
+	}
+
+	@Test
+	public void testReferral() throws Exception {
+		this.target.add(ns("sub.example.co.jp.", "ns.sub.example.co.jp."));
+		this.target.add(a("ns.sub.example.co.jp.", "192.168.1.1"));
+		Response res = this.target.find(new Name("www.Sub.example.co.jp."),
+				RRType.A);
+		assertTrue(res instanceof ReferralResponse);
+		// the glue is below the cut.
+		assertTrue(this.target.find(new Name("ns.sub.example.co.jp."),
+				RRType.A) instanceof ReferralResponse);
+		// the apex is not a cut.
+		assertEquals(RCode.NXDomain,
+				this.target.find(new Name("none.example.co.jp."), RRType.A)
+						.rcode());
+	}
+
+	@Test
+	public void testReferralAtCut() throws Exception {
+		this.target.add(ns("sub.example.co.jp.", "ns.sub.example.co.jp."));
+		// the data at the cut belongs to the child.
+		this.target.add(a("sub.example.co.jp.", "192.168.1.2"));
+		assertTrue(this.target.find(new Name("sub.example.co.jp."),
+				RRType.A) instanceof ReferralResponse);
+		assertTrue(this.target.find(new Name("sub.example.co.jp."),
+				RRType.NS) instanceof ReferralResponse);
+		assertTrue(this.target.find(new Name("sub.example.co.jp."),
+				RRType.ANY) instanceof ReferralResponse);
+		// DS is answered by the parent.
+		Response ds = this.target.find(new Name("sub.example.co.jp."),
+				RRType.DS);
+		assertTrue(ds instanceof NotFoundResponse);
+		assertEquals(RCode.NoError, ds.rcode());
+		assertTrue(this.target.find(new Name("www.sub.example.co.jp."),
+				RRType.DS) instanceof ReferralResponse);
+		// the NS of the apex is answered.
+		Response apex = this.target.find(new Name("example.co.jp."),
+				RRType.NS);
+		assertTrue(apex instanceof NoErrorResponse);
+	}
+
+	protected UnknownRecord unknown(String name, int code, int... data) {
+		UnknownRecord result = new UnknownRecord(code);
+		result.name(new Name(name));
+		byte[] ary = new byte[data.length];
+		for (int i = 0; i < data.length; i++) {
+			ary[i] = (byte) data[i];
+		}
+		result.data(ary);
+		return result;
+	}
+
+	@Test
+	public void testUnknownTypes() throws Exception {
+		// CAA(257) and SVCB(64) are both UNKNOWN, the codes tell them apart.
+		this.target.add(unknown("example.co.jp.", 257, 0, 5, 'i', 's', 's',
+				'u', 'e'));
+		this.target.add(unknown("example.co.jp.", 64, 0, 1, 0));
+
+		Response https = this.target.find(new Name("example.co.jp."), 65);
+		assertTrue(https instanceof NotFoundResponse);
+		assertEquals(RCode.NoError, https.rcode());
+
+		Response caa = this.target.find(new Name("example.co.jp."), 257);
+		DefaultResolveContext context = new DefaultResolveContext(
+				new DNSMessage());
+		caa.postProcess(context);
+		List<ResourceRecord> list = context.response().answer();
+		assertEquals(1, list.size());
+		assertEquals(257, list.get(0).typeCode());
+	}
+
+	protected SOARecord soa(long serial) {
+		SOARecord result = new SOARecord();
+		result.name(this.target.name());
+		result.mname(new Name("ns.example.co.jp."));
+		result.rname(new Name("root.example.co.jp."));
+		result.serial(serial);
+		return result;
+	}
+
+	protected long negativeSerial(Response res) {
+		DefaultResolveContext context = new DefaultResolveContext(
+				new DNSMessage());
+		res.postProcess(context);
+		return ((SOARecord) context.response().authority().get(0)).serial();
+	}
+
+	@Test
+	public void testNegativeSOA() throws Exception {
+		SOARecord first = soa(1);
+		this.target.add(first);
+		Name none = new Name("none.example.co.jp.");
+		assertEquals(1, negativeSerial(this.target.find(none, RRType.A)));
+
+		// a reload replaces the SOA.
+		this.target.update().clear().add(soa(2)).commit();
+		assertEquals(2, negativeSerial(this.target.find(none, RRType.A)));
+		assertEquals(2, negativeSerial(this.target.find(new Name(
+				"example.co.jp."), RRType.MX)));
+
+		// so does an update.
+		this.target.update().remove(soa(2)).add(soa(3)).commit();
+		assertEquals(3, negativeSerial(this.target.find(none, RRType.A)));
+	}
+
+	@Test
+	public void testEmptyNonTerminal() throws Exception {
+		this.target.add(a("a.b.example.co.jp.", "192.168.1.1"));
+		Response nodata = this.target.find(new Name("b.example.co.jp."),
+				RRType.A);
+		assertTrue(nodata instanceof NotFoundResponse);
+		assertEquals(RCode.NoError, nodata.rcode());
+		assertEquals(RCode.NXDomain,
+				this.target.find(new Name("c.example.co.jp."), RRType.A)
+						.rcode());
+	}
+
+	@Test
+	public void testWildcard() throws Exception {
+		this.target.add(a("*.example.co.jp.", "192.168.100.2"));
+		this.target.add(a("x.b.example.co.jp.", "192.168.1.1"));
+		// the wildcard has no record of the type.
+		Response nodata = this.target.find(new Name("scp.example.co.jp."),
+				RRType.MX);
+		assertTrue(nodata instanceof NotFoundResponse);
+		assertEquals(RCode.NoError, nodata.rcode());
+		// b.example.co.jp. exists, so the wildcard doesn't apply below it.
+		assertEquals(RCode.NXDomain,
+				this.target.find(new Name("y.b.example.co.jp."), RRType.A)
+						.rcode());
+		assertEquals(RCode.NoError,
+				this.target.find(new Name("a.scp.example.co.jp."), RRType.A)
+						.rcode());
+	}
+
+	@Test
+	public void testAddAll() throws Exception {
+		this.target.addAll(Arrays.asList(a("a.example.co.jp.", "192.168.1.1"),
+				a("b.example.co.jp.", "192.168.1.2"),
+				a("A.example.co.jp.", "192.168.1.3")));
+		Response res = this.target.find(new Name("a.example.co.jp."),
+				RRType.A);
+		DefaultResolveContext context = new DefaultResolveContext(
+				new DNSMessage());
+		res.postProcess(context);
+		assertEquals(2, context.response().answer().size());
+
+		this.target.remove(a("b.example.co.jp.", "192.168.1.2"), true, true);
+		assertEquals(RCode.NXDomain,
+				this.target.find(new Name("b.example.co.jp."), RRType.A)
+						.rcode());
+	}
+
+	@Test
+	public void testUpdate() throws Exception {
+		this.target.add(a("www.example.co.jp.", "192.168.1.1"));
+		NameTree<RecordSets> before = this.target.records;
+		MasterZone.Update update = this.target.update()
+				.remove(a("www.example.co.jp.", "192.168.1.1"))
+				.add(a("www.example.co.jp.", "192.168.1.2"))
+				.add(a("ftp.example.co.jp.", "192.168.1.3"));
+		assertEquals(RCode.NXDomain,
+				this.target.find(new Name("ftp.example.co.jp."), RRType.A)
+						.rcode());
+		update.commit();
+
+		assertEquals(RCode.NoError,
+				this.target.find(new Name("ftp.example.co.jp."), RRType.A)
+						.rcode());
+		RecordSet www = this.target.records.get(
+				new Name("www.example.co.jp.")).get(RRType.A.value());
+		assertEquals(1, www.size());
+		assertTrue(www.contains(a("www.example.co.jp.", "192.168.1.2")));
+		// the previous version is left as it was.
+		RecordSet old = before.get(new Name("www.example.co.jp.")).get(
+				RRType.A.value());
+		assertTrue(old.contains(a("www.example.co.jp.", "192.168.1.1")));
+		assertNull(before.get(new Name("ftp.example.co.jp.")));
+	}
+
+	@Test
+	public void testReplaceTTL() throws Exception {
+		ARecord a = a("www.example.co.jp.", "192.168.1.1");
+		a.ttl(300);
+		this.target.add(a);
+		ARecord b = a("www.example.co.jp.", "192.168.1.1");
+		b.ttl(600);
+		this.target.add(b);
+		RecordSet www = this.target.records.get(
+				new Name("www.example.co.jp.")).get(RRType.A.value());
+		assertEquals(1, www.size());
+		assertEquals(600, www.first().ttl());
+	}
+
+	@Test
+	public void testBulk() throws Exception {
+		List<ResourceRecord> list = new ArrayList<ResourceRecord>();
+		for (int i = 200; 0 < i; i--) {
+			list.add(a("www.example.co.jp.", "192.168.1." + i));
+		}
+		// the same record twice, the last one is kept.
+		ARecord last = a("www.example.co.jp.", "192.168.1.1");
+		last.ttl(100);
+		list.add(last);
+		list.add(a("ftp.example.co.jp.", "192.168.2.1"));
+		this.target.addAll(list);
+
+		RecordSet www = this.target.records.get(
+				new Name("www.example.co.jp.")).get(RRType.A.value());
+		assertEquals(200, www.size());
+		assertEquals(100, www.first().ttl());
+		ResourceRecord prev = null;
+		for (ResourceRecord rr : www) {
+			if (prev != null) {
+				assertTrue(RecordSet.compare(prev, rr) < 0);
+			}
+			prev = rr;
+		}
+		assertEquals(RCode.NoError,
+				this.target.find(new Name("ftp.example.co.jp."), RRType.A)
+						.rcode());
 	}
 
 	@Test
@@ -86,7 +336,7 @@ public class MasterZoneTest {
 				RRType.A);
 		r.postProcess(new DefaultResolveContext(new DNSMessage()) {
 			@Override
-			public Response resolve(Name qname, RRType qtype) {
+			public Response resolve(Name qname, int qtype) {
 				DNSMessage res = this.response();
 				assertEquals(new Name("ftp.example.com."), qname);
 				assertEquals(2, res.answer().size());
@@ -1,30 +1,76 @@
 package org.handwerkszeug.dns.zone;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.handwerkszeug.dns.DNSClass;
+import org.handwerkszeug.dns.Name;
+import org.handwerkszeug.dns.Response;
+import org.handwerkszeug.dns.ZoneType;
 import org.junit.Test;
 
 public class ZoneDatabaseTest {
 
 	@Test
 	public void testFind() {
-		// ZoneDatabase db = new ZoneDatabase();
-		// db.add(new TestZone("example.com."));
-		// db.add(new TestZone("example.co.jp."));
-		// db.add(new TestZone("jp."));
-		// db.add(new TestZone("ne.jp."));
+		ZoneDatabase db = new ZoneDatabase();
+		db.add(new TestZone("example.com."));
+		db.add(new TestZone("example.co.jp."));
+		db.add(new TestZone("jp."));
+		db.add(new TestZone("ne.jp."));
+
+		assertNotNull(db.prepare(new Name("jp."), DNSClass.IN));
+		assertNull(db.prepare(new Name("com."), DNSClass.IN));
+		assertNull(db.find(new Name("jp."), DNSClass.CH));
+
+		assertEquals(new Name("example.co.jp."),
+				db.find(new Name("a.b.c.example.co.jp."), DNSClass.IN).name());
+		assertEquals(new Name("jp."),
+				db.find(new Name("a.b.co.jp."), DNSClass.IN).name());
+		assertEquals(new Name("example.com."),
+				db.find(new Name("www.example.com."), DNSClass.IN).name());
+		assertNull(db.find(new Name("www.example.org."), DNSClass.IN));
+		assertEquals(new Name("example.com."),
+				db.find(new Name("WWW.Example.COM."), DNSClass.IN).name());
+	}
+
+	@Test
+	public void testRemove() {
+		ZoneDatabase db = new ZoneDatabase();
+		TestZone jp = new TestZone("jp.");
+		TestZone co = new TestZone("co.jp.");
+		db.add(jp);
+		db.add(co);
+		assertSame(co, db.find(new Name("example.co.jp."), DNSClass.IN));
 
-		// assertNotNull(db.prepare(new Name("jp.")));
-		// assertNull(db.prepare(new Name("com.")));
+		assertTrue(db.remove(co));
+		assertFalse(db.remove(co));
+		assertSame(jp, db.find(new Name("example.co.jp."), DNSClass.IN));
+		assertEquals(1, db.size());
+	}
 
+	@Test
+	public void testReplace() {
+		ZoneDatabase db = new ZoneDatabase();
+		db.add(new TestZone("jp."));
+		TestZone newone = new TestZone("jp.");
+		db.add(newone);
+		assertSame(newone, db.find(new Name("example.jp."), DNSClass.IN));
+		assertEquals(1, db.size());
 	}
 
-	// class TestZone extends AbstractZone {
-	// public TestZone(String name) {
-	// super(ZoneType.master, new Name(name));
-	// }
-	//
-	// @Override
-	// public List<ResourceRecord> resolve(ResourceRecord query) {
-	// throw new UnsupportedOperationException();
-	// }
-	// }
+	class TestZone extends AbstractZone {
+		public TestZone(String name) {
+			super(ZoneType.master, new Name(name));
+		}
+
+		@Override
+		public Response find(Name qname, int qtype) {
+			throw new UnsupportedOperationException();
+		}
+	}
 }
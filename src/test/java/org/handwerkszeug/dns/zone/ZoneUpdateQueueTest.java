@@ -0,0 +1,155 @@
+package org.handwerkszeug.dns.zone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.InetAddress;
+
+import org.handwerkszeug.dns.Name;
+import org.handwerkszeug.dns.RCode;
+import org.handwerkszeug.dns.RRType;
+import org.handwerkszeug.dns.record.ARecord;
+import org.handwerkszeug.dns.record.SOARecord;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ZoneUpdateQueueTest {
+
+	MasterZone zone;
+
+	ZoneUpdateQueue target;
+
+	@Before
+	public void setUp() throws Exception {
+		SOARecord soa = new SOARecord();
+		Name n = new Name("example.co.jp.");
+		soa.name(n);
+		soa.mname(new Name("ns.example.co.jp."));
+		this.zone = new MasterZone(n, soa);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		if (this.target != null) {
+			this.target.stop();
+		}
+	}
+
+	protected ARecord a(String name, String addr) throws Exception {
+		ARecord result = new ARecord();
+		result.name(new Name(name));
+		result.address(InetAddress.getByName(addr));
+		return result;
+	}
+
+	@Test(timeout = 5000)
+	public void testBatchSize() throws Exception {
+		// the delay is long, the batch is closed by its size.
+		this.target = new ZoneUpdateQueue(this.zone, 60000, 2);
+		this.target.start();
+		long serial = this.zone.serial();
+		this.target.submit(this.zone.update().add(
+				a("www.example.co.jp.", "192.168.1.1")));
+		this.target.submit(this.zone.update().add(
+				a("ftp.example.co.jp.", "192.168.1.2")));
+		this.target.flush();
+
+		assertEquals(serial + 1, this.zone.serial());
+		assertEquals(1, this.target.batches());
+		assertEquals(0, this.target.size());
+		assertEquals(RCode.NoError,
+				this.zone.find(new Name("ftp.example.co.jp."), RRType.A)
+						.rcode());
+	}
+
+	@Test(timeout = 5000)
+	public void testDelay() throws Exception {
+		this.target = new ZoneUpdateQueue(this.zone, 10, 1024);
+		this.target.start();
+		long serial = this.zone.serial();
+		for (int i = 0; i < 3; i++) {
+			this.target.submit(this.zone.update().add(
+					a("www.example.co.jp.", "192.168.1." + i)));
+		}
+		this.target.flush();
+
+		assertTrue(this.zone.serial() <= serial + 3);
+		assertTrue(serial < this.zone.serial());
+		assertEquals(0, this.target.size());
+		assertTrue(10 <= this.target.lastLag());
+		assertTrue(10 <= this.target.lag(50));
+	}
+
+	@Test(timeout = 5000)
+	public void testNotSplit() throws Exception {
+		this.target = new ZoneUpdateQueue(this.zone, 60000, 2);
+		this.target.start();
+		long serial = this.zone.serial();
+		this.target.submit(this.zone.update().add(
+				a("www.example.co.jp.", "192.168.1.1")));
+		// it doesn't fit in the batch, and closes it.
+		this.target.submit(this.zone.update()
+				.add(a("ftp.example.co.jp.", "192.168.1.2"))
+				.add(a("ftp.example.co.jp.", "192.168.1.3")));
+		this.target.stop();
+		this.target = null;
+
+		assertEquals(serial + 2, this.zone.serial());
+		assertEquals(RCode.NoError,
+				this.zone.find(new Name("ftp.example.co.jp."), RRType.A)
+						.rcode());
+	}
+
+	@Test(timeout = 5000)
+	public void testClear() throws Exception {
+		this.zone.add(a("www.example.co.jp.", "192.168.1.1"));
+		this.target = new ZoneUpdateQueue(this.zone, 0, 1024);
+		this.target.start();
+		this.target.submit(this.zone.update().clear()
+				.add(a("ftp.example.co.jp.", "192.168.1.2")));
+		this.target.flush();
+
+		assertEquals(1, this.zone.size());
+		assertNull(this.zone.records.get(new Name("www.example.co.jp.")));
+		assertEquals(RCode.NoError,
+				this.zone.find(new Name("ftp.example.co.jp."), RRType.A)
+						.rcode());
+	}
+
+	@Test
+	public void testNotRunning() throws Exception {
+		this.target = new ZoneUpdateQueue(this.zone);
+		try {
+			this.target.submit(this.zone.update().add(
+					a("www.example.co.jp.", "192.168.1.1")));
+			fail();
+		} catch (IllegalStateException e) {
+		}
+		this.target = null;
+	}
+
+	@Test(timeout = 5000)
+	public void testSubmitAfterStop() throws Exception {
+		this.target = new ZoneUpdateQueue(this.zone);
+		this.target.start();
+		this.target.submit(this.zone.update().add(
+				a("www.example.co.jp.", "192.168.1.1")));
+		this.target.stop();
+		try {
+			this.target.submit(this.zone.update().add(
+					a("ftp.example.co.jp.", "192.168.1.2")));
+			fail();
+		} catch (IllegalStateException e) {
+		}
+		// nothing is left behind the stop.
+		this.target.flush();
+		assertEquals(0, this.target.size());
+		assertEquals(RCode.NoError,
+				this.zone.find(new Name("www.example.co.jp."), RRType.A)
+						.rcode());
+		this.target = null;
+	}
+}